@@ -84,7 +84,7 @@ public class HotswapAgent {
 	 * @return true if the plugin is disabled
 	 */
 	public static boolean isPluginDisabled(String pluginName) {
-		return disabledPlugins.contains(pluginName.toLowerCase());
+		return !disabledPlugins.isEmpty() && disabledPlugins.contains(pluginName.toLowerCase());
 	}
 	
     /**
@@ -129,6 +129,6 @@ public class HotswapAgent {
 	}
 
 	public static final String HOTSWAP_AGENT_EXPORT_PACKAGES = "org.hotswap.agent.annotation,"
-			+ "org.hotswap.agent.command," + "org.hotswap.agent.config," + "org.hotswap.agent.logging,"
+			+ "org.hotswap.agent.command," + "org.hotswap.agent.config," + "org.hotswap.agent.logging," + "org.hotswap.agent.metrics,"
 			+ "org.hotswap.agent.plugin," + "org.hotswap.agent.util," + "org.hotswap.agent.watch," + "org.hotswap.agent.javassist";
 }
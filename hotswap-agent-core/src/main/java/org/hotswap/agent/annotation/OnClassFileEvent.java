@@ -22,7 +22,7 @@ import java.lang.annotation.Target;
  * qualified class and interface names. For example,
  * <code>"java/util/List"</code>.</li>
  * <li>ClassPool - initialized javassist classpool</li>
- * <li>CtClass - javassist CtClass created from target file</li>
+ * <li>CtClass - javassist CtClass created from target file (shared by all handlers of the event, do not modify)</li>
  * <li>URI - URI of the watched resource</li>
  * <li>URL - URL of the watched resource</li>
  * </ul>
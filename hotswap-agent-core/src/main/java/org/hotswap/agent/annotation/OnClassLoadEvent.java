@@ -31,6 +31,9 @@ import java.lang.annotation.Target;
  * <li>CtClass - javassist class created from byte[] source. If the method
  * returns null/void, this class is used as transformation result. You can
  * modify this class directly.</li>
+ * <li>ClassModel - read-only model of the class (name, super types,
+ * annotations, member signatures) parsed once and shared by all handlers of
+ * the class. Prefer it to CtClass if the method does not modify the class.</li>
  * <li>AppClassLoaderExecutor - executor to run code in app classloader</li>
  * <li>LoadEvent - originating load event. If classBeingRedefined is null, this
  * is DEFINE, otherwise REDEFINE.</li>
@@ -49,6 +49,14 @@ public @interface Plugin {
 	 * supporting class in addition to pluginClass itself.
 	 */
 	Class<?>[] supportClass() default {};
+
+	/**
+	 * Class annotations (e.g. javax.persistence.Entity) the plugin checks on
+	 * class redefinition. These annotations are indexed for classes defined
+	 * in a classloader after the plugin is initialized in it, see
+	 * {@link org.hotswap.agent.util.AnnotationIndex}.
+	 */
+	String[] indexedAnnotations() default {};
 	
 	/**
 	 * List of matching artifacts
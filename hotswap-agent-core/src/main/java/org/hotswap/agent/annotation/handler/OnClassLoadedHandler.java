@@ -6,7 +6,6 @@ import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.lang.reflect.InvocationTargetException;
 import java.security.ProtectionDomain;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -16,10 +15,12 @@ import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.javassist.CannotCompileException;
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
-import org.hotswap.agent.javassist.LoaderClassPath;
-import org.hotswap.agent.javassist.NotFoundException;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.metrics.LatencyHistogram;
+import org.hotswap.agent.metrics.ReloadMetrics;
 import org.hotswap.agent.util.AppClassLoaderExecutor;
+import org.hotswap.agent.util.ClassModel;
+import org.hotswap.agent.util.ClassPoolCache;
 import org.hotswap.agent.util.HotswapTransformer;
 
 /**
@@ -35,6 +36,42 @@ public class OnClassLoadedHandler implements PluginHandler<OnClassLoadEvent> {
 
 	protected HotswapTransformer hotswapTransformer;
 
+	/**
+	 * Values available to @OnClassLoadEvent method parameters.
+	 */
+	enum TransformArgument {
+		CLASS_LOADER, CLASS_NAME, CLASS, PROTECTION_DOMAIN, BYTES, CLASS_POOL, CT_CLASS, CLASS_MODEL, LOAD_EVENT, APP_CLASS_LOADER_EXECUTOR
+	}
+
+	// resolve parameter type to argument (first assignable type wins)
+	private static final PluginMethodInvoker.ArgumentResolver<TransformArgument> ARGUMENT_RESOLVER = new PluginMethodInvoker.ArgumentResolver<TransformArgument>() {
+		@Override
+		public TransformArgument resolve(Class<?> type) {
+			if (type.isAssignableFrom(ClassLoader.class)) {
+				return TransformArgument.CLASS_LOADER;
+			} else if (type.isAssignableFrom(String.class)) {
+				return TransformArgument.CLASS_NAME;
+			} else if (type.isAssignableFrom(Class.class)) {
+				return TransformArgument.CLASS;
+			} else if (type.isAssignableFrom(ProtectionDomain.class)) {
+				return TransformArgument.PROTECTION_DOMAIN;
+			} else if (type.isAssignableFrom(byte[].class)) {
+				return TransformArgument.BYTES;
+			} else if (type.isAssignableFrom(ClassPool.class)) {
+				return TransformArgument.CLASS_POOL;
+			} else if (type.isAssignableFrom(CtClass.class)) {
+				return TransformArgument.CT_CLASS;
+			} else if (type.isAssignableFrom(ClassModel.class)) {
+				return TransformArgument.CLASS_MODEL;
+			} else if (type.isAssignableFrom(LoadEvent.class)) {
+				return TransformArgument.LOAD_EVENT;
+			} else if (type.isAssignableFrom(AppClassLoaderExecutor.class)) {
+				return TransformArgument.APP_CLASS_LOADER_EXECUTOR;
+			}
+			return null;
+		}
+	};
+
 	public OnClassLoadedHandler(PluginManager pluginManager) {
 		this.pluginManager = pluginManager;
 		this.hotswapTransformer = pluginManager.getHotswapTransformer();
@@ -52,7 +89,7 @@ public class OnClassLoadedHandler implements PluginHandler<OnClassLoadEvent> {
 
 	@Override
 	public boolean initMethod(final PluginAnnotation<OnClassLoadEvent> pluginAnnotation) {
-		LOGGER.debug("Init for method " + pluginAnnotation.getMethod());
+		LOGGER.debug("Init for method {}", pluginAnnotation.getMethod());
 
 		final OnClassLoadEvent annot = pluginAnnotation.getAnnotation();
 
@@ -67,21 +104,41 @@ public class OnClassLoadedHandler implements PluginHandler<OnClassLoadEvent> {
 			return false;
 		}
 
+		// resolve argument binding once
+		PluginMethodInvoker<TransformArgument> invoker = getInvoker(pluginAnnotation);
+		if (invoker.getUnsupportedParameter() != null) {
+			LOGGER.error("Unable to call method on plugin '" + pluginAnnotation.getPluginClass() + "'."
+					+ " Method parameter type '" + invoker.getUnsupportedParameter()
+					+ "' is not recognized for @OnClassLoadEvent annotation.");
+			return false;
+		}
+
+		final List<LoadEvent> events = Arrays.asList(annot.events());
+		final boolean onDefine = events.contains(LoadEvent.DEFINE);
+		final boolean onRedefine = events.contains(LoadEvent.REDEFINE);
+
 		ClassLoader appClassLoader = null;
 		if (pluginAnnotation.getPlugin() != null) {
 			appClassLoader = pluginManager.getPluginRegistry().getAppClassLoader(pluginAnnotation.getPlugin());
 		}
 
+		final LatencyHistogram histogram = ReloadMetrics.histogram(ReloadMetrics.Stage.TRANSFORM,
+				pluginAnnotation.getPluginClass().getSimpleName() + "." + pluginAnnotation.getMethod().getName());
+
 		hotswapTransformer.registerTransformer(appClassLoader, annot.classNameRegexp(), new ClassFileTransformer() {
 			@Override
 			public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,	ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
-				List<LoadEvent> events = Arrays.asList(annot.events());
-				if (classBeingRedefined == null ? !events.contains(LoadEvent.DEFINE) : !events.contains(LoadEvent.REDEFINE)) {
+				if (classBeingRedefined == null ? !onDefine : !onRedefine) {
 					// Hotswap reload which is the client not interested of
 					return classfileBuffer;
 				}
 
-				return OnClassLoadedHandler.this.transform(pluginAnnotation, loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+				long start = System.nanoTime();
+				try {
+					return OnClassLoadedHandler.this.transform(pluginAnnotation, loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+				} finally {
+					ReloadMetrics.record(histogram, start, className);
+				}
 			}
 		});
 
@@ -122,6 +179,9 @@ public class OnClassLoadedHandler implements PluginHandler<OnClassLoadEvent> {
 			return bytes;
 		}
 
+		// transformed class may reference plugin classes
+		pluginManager.initPluginClasses(pluginAnnotation.getPluginClass(), classLoader, protectionDomain);
+
 		// default result
 		byte[] result = bytes;
 
@@ -129,105 +189,122 @@ public class OnClassLoadedHandler implements PluginHandler<OnClassLoadEvent> {
 		// after invocation.
 		CtClass ctClass = null;
 
-		List<Object> args = new ArrayList<Object>();
-		for (Class<?> type : pluginAnnotation.getMethod().getParameterTypes()) {
-			if (type.isAssignableFrom(ClassLoader.class)) {
-				args.add(classLoader);
-			} else if (type.isAssignableFrom(String.class)) {
-				args.add(className);
-			} else if (type.isAssignableFrom(Class.class)) {
-				args.add(redefiningClass);
-			} else if (type.isAssignableFrom(ProtectionDomain.class)) {
-				args.add(protectionDomain);
-			} else if (type.isAssignableFrom(byte[].class)) {
-				args.add(bytes);
-			} else if (type.isAssignableFrom(ClassPool.class)) {
-				ClassPool classPool = new ClassPool();
-				classPool.appendSystemPath();
-				LOGGER.trace("Adding loader classpath " + classLoader);
-				classPool.appendClassPath(new LoaderClassPath(classLoader));
-				args.add(classPool);
-			} else if (type.isAssignableFrom(CtClass.class)) {
-				try {
-					ctClass = createCtClass(bytes, classLoader);
-					args.add(ctClass);
-				} catch (IOException e) {
-					LOGGER.error("Unable create CtClass for '" + className + "'.", e);
+		// cached pool of the classloader, acquired only if the method needs javassist
+		ClassPool classPool = null;
+		try {
+			PluginMethodInvoker<TransformArgument> invoker = getInvoker(pluginAnnotation);
+			Object[] args = new Object[invoker.getArgumentCount()];
+			for (int i = 0; i < args.length; i++) {
+				TransformArgument argument = invoker.getArgument(i);
+				if (argument == null) {
+					LOGGER.error("Unable to call method on plugin '" + pluginAnnotation.getPluginClass() + "'."
+							+ " Method parameter type '" + invoker.getUnsupportedParameter()
+							+ "' is not recognized for @OnClassLoadEvent annotation.");
 					return result;
 				}
-			} else if (type.isAssignableFrom(LoadEvent.class)) {
-				args.add(redefiningClass == null ? LoadEvent.DEFINE : LoadEvent.REDEFINE);
-			} else if (type.isAssignableFrom(AppClassLoaderExecutor.class)) {
-				args.add(new AppClassLoaderExecutor(classLoader, protectionDomain));
-			} else {
-				LOGGER.error("Unable to call init method on plugin '" + pluginAnnotation.getPluginClass() + "'."
-						+ " Method parameter type '" + type + "' is not recognized for @Init annotation.");
-				return result;
-			}
-		}
-		try {
-			// call method on plugin (or if plugin null -> static method)
-			Object resultObject = pluginAnnotation.getMethod().invoke(pluginAnnotation.getPlugin(), args.toArray());
-
-			if (resultObject == null) {
-				// Ok, nothing has changed
-			} else if (resultObject instanceof byte[]) {
-				result = (byte[]) resultObject;
-			} else if (resultObject instanceof CtClass) {
-				result = ((CtClass) resultObject).toBytecode();
-
-				// detach on behalf of the clinet - only if this is another
-				// instance than we created (it is closed elsewhere)
-				if (resultObject != ctClass) {
-					((CtClass) resultObject).detach();
+				switch (argument) {
+				case CLASS_LOADER:
+					args[i] = classLoader;
+					break;
+				case CLASS_NAME:
+					args[i] = className;
+					break;
+				case CLASS:
+					args[i] = redefiningClass;
+					break;
+				case PROTECTION_DOMAIN:
+					args[i] = protectionDomain;
+					break;
+				case BYTES:
+					args[i] = bytes;
+					break;
+				case CLASS_POOL:
+					if (classPool == null) {
+						classPool = ClassPoolCache.acquire(classLoader);
+					}
+					args[i] = classPool;
+					break;
+				case CT_CLASS:
+					try {
+						if (classPool == null) {
+							classPool = ClassPoolCache.acquire(classLoader);
+						}
+						// overwrite possibly cached (even frozen) previous version of the class
+						ctClass = classPool.makeClass(new ByteArrayInputStream(bytes), false);
+						args[i] = ctClass;
+					} catch (IOException e) {
+						LOGGER.error("Unable create CtClass for '" + className + "'.", e);
+						return result;
+					}
+					break;
+				case CLASS_MODEL:
+					try {
+						// parsed once and shared with other handlers of this transformation
+						args[i] = hotswapTransformer.getClassModel(bytes);
+					} catch (IOException e) {
+						LOGGER.error("Unable parse class model for '" + className + "'.", e);
+						return result;
+					}
+					break;
+				case LOAD_EVENT:
+					args[i] = redefiningClass == null ? LoadEvent.DEFINE : LoadEvent.REDEFINE;
+					break;
+				case APP_CLASS_LOADER_EXECUTOR:
+					args[i] = new AppClassLoaderExecutor(classLoader, protectionDomain);
+					break;
 				}
-			} else {
-				LOGGER.error("Unknown result of @OnClassLoadEvent method '" + result.getClass().getName() + "'.");
 			}
+			try {
+				// call method on plugin (or if plugin null -> static method)
+				Object resultObject = invoker.invoke(args);
 
-			// close CtClass if created from here
-			if (ctClass != null) {
-				// if result not set from the method, use class
 				if (resultObject == null) {
+					// Ok, nothing has changed
+				} else if (resultObject instanceof byte[]) {
+					result = (byte[]) resultObject;
+				} else if (resultObject instanceof CtClass) {
+					result = ((CtClass) resultObject).toBytecode();
+
+					// detach on behalf of the clinet - only if this is another
+					// instance than we created (it is closed elsewhere)
+					if (resultObject != ctClass) {
+						((CtClass) resultObject).detach();
+					}
+				} else {
+					LOGGER.error("Unknown result of @OnClassLoadEvent method '" + result.getClass().getName() + "'.");
+				}
+
+				// if result not set from the method, use class
+				if (ctClass != null && resultObject == null) {
 					result = ctClass.toBytecode();
 				}
-				ctClass.detach();
+
+			} catch (InvocationTargetException e) {
+				LOGGER.error("InvocationTargetException in transform method on plugin '" + pluginAnnotation.getPluginClass()
+						+ "' class '" + className + "'.", e);
+			} catch (CannotCompileException e) {
+				LOGGER.error("Cannot compile class after manipulation on plugin '" + pluginAnnotation.getPluginClass()
+						+ "' class '" + className + "'.", e);
+			} catch (IOException e) {
+				LOGGER.error("IOException in transform method on plugin '" + pluginAnnotation.getPluginClass() + "' class '"
+						+ className + "'.", e);
 			}
 
-		} catch (IllegalAccessException e) {
-			LOGGER.error("IllegalAccessException in transform method on plugin '" + pluginAnnotation.getPluginClass()
-					+ "' class '" + className + "'.", e);
-		} catch (InvocationTargetException e) {
-			LOGGER.error("InvocationTargetException in transform method on plugin '" + pluginAnnotation.getPluginClass()
-					+ "' class '" + className + "'.", e);
-		} catch (CannotCompileException e) {
-			LOGGER.error("Cannot compile class after manipulation on plugin '" + pluginAnnotation.getPluginClass()
-					+ "' class '" + className + "'.", e);
-		} catch (IOException e) {
-			LOGGER.error("IOException in transform method on plugin '" + pluginAnnotation.getPluginClass() + "' class '"
-					+ className + "'.", e);
+		} finally {
+			// close CtClass if created from here (even after failure, it must not stay in the cached pool)
+			if (ctClass != null) {
+				ctClass.detach();
+			}
+			if (classPool != null) {
+				ClassPoolCache.release(classPool);
+			}
 		}
 
 		return result;
 	}
 
-	/**
-	 * Creats javaassist CtClass for bytecode manipulation. Add default
-	 * classloader.
-	 *
-	 * @param bytes
-	 *            new class definition
-	 * @param classLoader
-	 *            loader
-	 * @return created class
-	 * @throws NotFoundException
-	 */
-	private CtClass createCtClass(byte[] bytes, ClassLoader classLoader) throws IOException {
-		ClassPool cp = new ClassPool();
-		cp.appendSystemPath();
-		cp.appendClassPath(new LoaderClassPath(classLoader));
-
-		return cp.makeClass(new ByteArrayInputStream(bytes));
+	private static PluginMethodInvoker<TransformArgument> getInvoker(PluginAnnotation<OnClassLoadEvent> pluginAnnotation) {
+		return pluginAnnotation.getInvoker(TransformArgument.class, ARGUMENT_RESOLVER);
 	}
 
 	/**
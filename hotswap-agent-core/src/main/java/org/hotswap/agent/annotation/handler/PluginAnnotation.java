@@ -28,6 +28,9 @@ public class PluginAnnotation<T extends Annotation> {
 	// annotation is on a method (and field property is empty)
 	Method method;
 
+	// precompiled method call of the last used resolver
+	private volatile PluginMethodInvoker<?> invoker;
+
 	public PluginAnnotation(Class<?> pluginClass, Object plugin, T annotation, Method method) {
 		this.pluginClass = pluginClass;
 		this.plugin = plugin;
@@ -66,6 +69,29 @@ public class PluginAnnotation<T extends Annotation> {
 		return field;
 	}
 
+	/**
+	 * Precompiled invoker of the annotated method. The argument binding is
+	 * resolved on the first call with a resolver and cached, another resolver
+	 * replaces the cached invoker.
+	 *
+	 * @param kindClass
+	 *            argument kinds of the handler
+	 * @param resolver
+	 *            resolver of parameter types to argument kinds
+	 * @return the invoker
+	 */
+	@SuppressWarnings("unchecked")
+	public <K extends Enum<K>> PluginMethodInvoker<K> getInvoker(Class<K> kindClass,
+			PluginMethodInvoker.ArgumentResolver<K> resolver) {
+		PluginMethodInvoker<?> result = invoker;
+		if (result == null || result.getResolver() != resolver) {
+			// concurrent initialization creates equivalent invokers, any of them can be used
+			result = new PluginMethodInvoker<K>(method, plugin, kindClass, resolver);
+			invoker = result;
+		}
+		return (PluginMethodInvoker<K>) result;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) {
@@ -0,0 +1,121 @@
+package org.hotswap.agent.annotation.handler;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Precompiled call of a plugin annotation method.
+ * <p/>
+ * Binding of method parameters to values supplied by a handler (classloader,
+ * class name, CtClass, ...) is resolved once - each parameter type is
+ * resolved to an argument kind of the handler. The method is invoked via
+ * MethodHandle bound to the plugin instance instead of Method.invoke().
+ *
+ * @param <K>
+ *            argument kinds supported by the handler
+ */
+public class PluginMethodInvoker<K extends Enum<K>> {
+
+	/**
+	 * Resolve a method parameter type to the argument kind of a handler.
+	 */
+	public interface ArgumentResolver<K extends Enum<K>> {
+		/**
+		 * @param parameterType
+		 *            type of the method parameter
+		 * @return argument kind or null if the parameter type is not supported
+		 */
+		K resolve(Class<?> parameterType);
+	}
+
+	private final Method method;
+	private final ArgumentResolver<K> resolver;
+	private final K[] arguments;
+	private final Class<?> unsupportedParameter;
+	private final MethodHandle handle;
+
+	@SuppressWarnings("unchecked")
+	PluginMethodInvoker(Method method, Object plugin, Class<K> kindClass, ArgumentResolver<K> resolver) {
+		this.method = method;
+		this.resolver = resolver;
+
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		arguments = (K[]) Array.newInstance(kindClass, parameterTypes.length);
+		Class<?> unsupported = null;
+		for (int i = 0; i < parameterTypes.length; i++) {
+			arguments[i] = resolver.resolve(parameterTypes[i]);
+			if (arguments[i] == null && unsupported == null) {
+				unsupported = parameterTypes[i];
+			}
+		}
+		unsupportedParameter = unsupported;
+
+		try {
+			method.setAccessible(true);
+			MethodHandle methodHandle = MethodHandles.lookup().unreflect(method);
+			if (!Modifier.isStatic(method.getModifiers())) {
+				methodHandle = methodHandle.bindTo(plugin);
+			}
+			handle = methodHandle.asSpreader(Object[].class, parameterTypes.length)
+					.asType(MethodType.methodType(Object.class, Object[].class));
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Unable to access plugin method " + method, e);
+		}
+	}
+
+	/**
+	 * Resolver used to bind the arguments.
+	 */
+	ArgumentResolver<K> getResolver() {
+		return resolver;
+	}
+
+	/**
+	 * Number of method parameters.
+	 */
+	public int getArgumentCount() {
+		return arguments.length;
+	}
+
+	/**
+	 * Argument kind of a method parameter.
+	 *
+	 * @param index
+	 *            parameter index
+	 * @return the kind or null if the parameter type is not supported
+	 */
+	public K getArgument(int index) {
+		return arguments[index];
+	}
+
+	/**
+	 * First parameter type not supported by the handler.
+	 *
+	 * @return the type or null if all parameters are supported
+	 */
+	public Class<?> getUnsupportedParameter() {
+		return unsupportedParameter;
+	}
+
+	/**
+	 * Invoke the method.
+	 *
+	 * @param args
+	 *            arguments in order of method parameters
+	 * @return method result (null for void methods)
+	 * @throws InvocationTargetException
+	 *             the method thrown an exception
+	 */
+	public Object invoke(Object[] args) throws InvocationTargetException {
+		try {
+			return (Object) handle.invokeExact(args);
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t, "Exception in plugin method " + method);
+		}
+	}
+}
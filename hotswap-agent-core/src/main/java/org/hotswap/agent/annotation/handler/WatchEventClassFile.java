@@ -0,0 +1,110 @@
+package org.hotswap.agent.annotation.handler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.javassist.CtClass;
+import org.hotswap.agent.javassist.LoaderClassPath;
+import org.hotswap.agent.util.ClassFileHeader;
+import org.hotswap.agent.util.IOUtils;
+import org.hotswap.agent.watch.WatchFileEvent;
+
+/**
+ * Class file of a watch event shared by all handlers of the event.
+ * <p/>
+ * The file is read once, the class name is resolved from class file header
+ * (no javassist parsing) and CtClass is created lazily only if a handler
+ * needs it. Each handler gets its own CtClass - handlers may modify or freeze
+ * it (toBytecode()).
+ * <p/>
+ * Instances are cached weakly by the event instance - equal events (same type
+ * and path, e.g. two MODIFY events of a recompiled class) do not share the
+ * content. The cache entry is released after the event is garbage collected.
+ */
+class WatchEventClassFile {
+
+	private static final Map<WatchFileEvent, WatchEventClassFile> cache = Collections
+			.synchronizedMap(new WeakHashMap<WatchFileEvent, WatchEventClassFile>());
+
+	/**
+	 * Get shared class file of the event.
+	 */
+	static WatchEventClassFile of(WatchFileEvent event) {
+		synchronized (cache) {
+			WatchEventClassFile classFile = cache.get(event);
+			if (classFile == null || classFile.event.get() != event) {
+				classFile = new WatchEventClassFile(event);
+				// remove first - put would keep the previous (equal) event as the key
+				cache.remove(event);
+				cache.put(event, classFile);
+			}
+			return classFile;
+		}
+	}
+
+	// the event this file belongs to, the map compares events by equals
+	private final WeakReference<WatchFileEvent> event;
+	private final URI uri;
+
+	// guarded by this
+	private boolean loaded;
+	private byte[] bytes;
+	private String className;
+
+	WatchEventClassFile(WatchFileEvent event) {
+		this.event = new WeakReference<WatchFileEvent>(event);
+		this.uri = event.getURI();
+	}
+
+	/**
+	 * Class file content.
+	 *
+	 * @return bytes or null if the file is not available
+	 */
+	synchronized byte[] getBytes() throws IOException {
+		if (!loaded) {
+			bytes = IOUtils.toByteArray(uri);
+			className = ClassFileHeader.getClassName(bytes);
+			loaded = true;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Class name from class file header.
+	 *
+	 * @return class name or null if the file is not available or it is not a
+	 *         valid class file
+	 */
+	synchronized String getClassName() throws IOException {
+		getBytes();
+		return className;
+	}
+
+	/**
+	 * New javassist class with the classloader on classpath.
+	 *
+	 * @param classLoader
+	 *            classloader to resolve references
+	 * @return the class or null if the file is not available
+	 */
+	CtClass getCtClass(ClassLoader classLoader) throws IOException {
+		byte[] content = getBytes();
+		if (content == null) {
+			return null;
+		}
+
+		ClassPool cp = new ClassPool();
+		cp.appendClassPath(new LoaderClassPath(classLoader));
+		try (InputStream is = new ByteArrayInputStream(content)) {
+			return cp.makeClass(is);
+		}
+	}
+}
@@ -1,14 +1,10 @@
 package org.hotswap.agent.annotation.handler;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -16,10 +12,8 @@ import org.hotswap.agent.annotation.FileEvent;
 import org.hotswap.agent.command.MergeableCommand;
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
-import org.hotswap.agent.javassist.LoaderClassPath;
-import org.hotswap.agent.javassist.NotFoundException;
 import org.hotswap.agent.logging.AgentLogger;
-import org.hotswap.agent.util.IOUtils;
+import org.hotswap.agent.util.ClassPoolCache;
 import org.hotswap.agent.watch.WatchFileEvent;
 
 /**
@@ -33,6 +27,45 @@ public class WatchEventCommand<T extends Annotation> extends MergeableCommand {
 
 	private static AgentLogger LOGGER = AgentLogger.getLogger(WatchEventCommand.class);
 
+	/**
+	 * Values available to watch event method parameters.
+	 */
+	enum WatchArgument {
+		CLASS_LOADER, RESOURCE_URI, RESOURCE_URL, CLASS_POOL, FILE_EVENT, CT_CLASS, CLASS_NAME
+	}
+
+	private static final PluginMethodInvoker.ArgumentResolver<WatchArgument> RESOURCE_ARGUMENT_RESOLVER = new ArgumentResolver(false);
+	private static final PluginMethodInvoker.ArgumentResolver<WatchArgument> CLASS_FILE_ARGUMENT_RESOLVER = new ArgumentResolver(true);
+
+	// resolve parameter type to argument (first assignable type wins)
+	private static class ArgumentResolver implements PluginMethodInvoker.ArgumentResolver<WatchArgument> {
+		private final boolean classFileEvent;
+
+		ArgumentResolver(boolean classFileEvent) {
+			this.classFileEvent = classFileEvent;
+		}
+
+		@Override
+		public WatchArgument resolve(Class<?> type) {
+			if (type.isAssignableFrom(ClassLoader.class)) {
+				return WatchArgument.CLASS_LOADER;
+			} else if (type.isAssignableFrom(URI.class)) {
+				return WatchArgument.RESOURCE_URI;
+			} else if (type.isAssignableFrom(URL.class)) {
+				return WatchArgument.RESOURCE_URL;
+			} else if (type.isAssignableFrom(ClassPool.class)) {
+				return WatchArgument.CLASS_POOL;
+			} else if (type.isAssignableFrom(FileEvent.class)) {
+				return WatchArgument.FILE_EVENT;
+			} else if (classFileEvent && type.isAssignableFrom(CtClass.class)) {
+				return WatchArgument.CT_CLASS;
+			} else if (classFileEvent && type.isAssignableFrom(String.class)) {
+				return WatchArgument.CLASS_NAME;
+			}
+			return null;
+		}
+	}
+
 	private final PluginAnnotation<T> pluginAnnotation;
 	private final WatchEventDTO watchEventDTO;
 	private final WatchFileEvent event;
@@ -55,6 +88,20 @@ public class WatchEventCommand<T extends Annotation> extends MergeableCommand {
 		onWatchEvent(pluginAnnotation, event, classLoader);
 	}
 
+	/**
+	 * Plugin method handling the event.
+	 */
+	public PluginAnnotation<T> getPluginAnnotation() {
+		return pluginAnnotation;
+	}
+
+	/**
+	 * Application classloader the event is processed in.
+	 */
+	public ClassLoader getClassLoader() {
+		return classLoader;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) {
@@ -122,66 +169,80 @@ public class WatchEventCommand<T extends Annotation> extends MergeableCommand {
 			}
 		}
 
-		// we may need to crate CtClass on behalf of the client and close it
-		// after invocation.
-		CtClass ctClass = null;
+		// class file shared by all handlers of the event, CtClass is created lazily
+		WatchEventClassFile classFile = null;
+		String className = null;
 
 		// class file regexp
 		if (watchEventDTO.isClassFileEvent()) {
+			classFile = WatchEventClassFile.of(event);
 			try {
-				// TODO creating class only to check name may slow down if lot
-				// of handlers is in use.
-				ctClass = createCtClass(event.getURI(), classLoader);
+				className = classFile.getClassName();
 			} catch (Exception e) {
-				LOGGER.error("Unable create CtClass for URI '{}'.", e, event.getURI());
+				LOGGER.error("Unable to read class file for URI '{}'.", e, event.getURI());
+				return;
+			}
+
+			// unable to read the class or it's name does not match
+			if (className == null) {
+				LOGGER.trace("Empty or invalid class file {} ", event.getURI());
 				return;
 			}
+			// the class file changed - parsed version in cached class pool is outdated
+			ClassPoolCache.invalidate(classLoader, className);
 
-			// unable to create CtClass or it's name does not match
-			if (ctClass == null || !ctClass.getName().matches(watchEventDTO.getClassNameRegexp())) {
+			if (!className.matches(watchEventDTO.getClassNameRegexp())) {
 				return;
 			}
 		}
 
 		LOGGER.trace("Executing resource changed method {} on class {} for event {}", pluginAnnotation.getMethod().getName(), plugin.getClass().getName(), event);
 
-		List<Object> args = new ArrayList<Object>();
-		for (Class<?> type : pluginAnnotation.getMethod().getParameterTypes()) {
-			if (type.isAssignableFrom(ClassLoader.class)) {
-				args.add(classLoader);
-			} else if (type.isAssignableFrom(URI.class)) {
-				args.add(event.getURI());
-			} else if (type.isAssignableFrom(URL.class)) {
+		PluginMethodInvoker<WatchArgument> invoker = getInvoker(pluginAnnotation, watchEventDTO);
+		Object[] args = new Object[invoker.getArgumentCount()];
+		for (int i = 0; i < args.length; i++) {
+			WatchArgument argument = invoker.getArgument(i);
+			if (argument == null) {
+				LOGGER.error("Unable to call method {} on plugin {}. Method parameter type {} is not recognized.",
+						pluginAnnotation.getMethod().getName(), plugin.getClass().getName(), invoker.getUnsupportedParameter());
+				return;
+			}
+			switch (argument) {
+			case CLASS_LOADER:
+				args[i] = classLoader;
+				break;
+			case RESOURCE_URI:
+				args[i] = event.getURI();
+				break;
+			case RESOURCE_URL:
 				try {
-					args.add(event.getURI().toURL());
+					args[i] = event.getURI().toURL();
 				} catch (MalformedURLException e) {
 					LOGGER.error("Unable to convert URI '{}' to URL.", e, event.getURI());
 					return;
 				}
-			} else if (type.isAssignableFrom(ClassPool.class)) {
-				args.add(ClassPool.getDefault());
-			} else if (type.isAssignableFrom(FileEvent.class)) {
-				args.add(event.getEventType());
-			} else if (watchEventDTO.isClassFileEvent() && type.isAssignableFrom(CtClass.class)) {
-				args.add(ctClass);
-			} else if (watchEventDTO.isClassFileEvent() && type.isAssignableFrom(String.class)) {
-				args.add(ctClass.getName());
-			} else {
-				LOGGER.error("Unable to call method {} on plugin {}. Method parameter type {} is not recognized.",
-						pluginAnnotation.getMethod().getName(), plugin.getClass().getName(), type);
-				return;
+				break;
+			case CLASS_POOL:
+				args[i] = ClassPool.getDefault();
+				break;
+			case FILE_EVENT:
+				args[i] = event.getEventType();
+				break;
+			case CT_CLASS:
+				try {
+					args[i] = classFile.getCtClass(classLoader);
+				} catch (Exception e) {
+					LOGGER.error("Unable create CtClass for URI '{}'.", e, event.getURI());
+					return;
+				}
+				break;
+			case CLASS_NAME:
+				args[i] = className;
+				break;
 			}
 		}
 		try {
-			pluginAnnotation.getMethod().invoke(plugin, args.toArray());
-
-			// close CtClass if created from here
-			if (ctClass != null) {
-				ctClass.detach();
-			}
-		} catch (IllegalAccessException e) {
-			LOGGER.error("IllegalAccessException in method {} on plugin {}", e, pluginAnnotation.getMethod().getName(),
-					plugin.getClass().getName());
+			invoker.invoke(args);
 		} catch (InvocationTargetException e) {
 			LOGGER.error("InvocationTargetException in method {} on plugin {}", e,
 					pluginAnnotation.getMethod().getName(), plugin.getClass().getName());
@@ -189,27 +250,11 @@ public class WatchEventCommand<T extends Annotation> extends MergeableCommand {
 	}
 
 	/**
-	 * Creats javaassist CtClass for bytecode manipulation. Add default
-	 * classloader.
-	 *
-	 * @param uri
-	 *            uri
-	 * @param classLoader
-	 *            loader
-	 * @return created class
-	 * @throws org.hotswap.agent.javassist.NotFoundException
+	 * Precompiled invoker of a watch event method, argument binding depends on
+	 * class file / resource event.
 	 */
-	private CtClass createCtClass(URI uri, ClassLoader classLoader) throws NotFoundException, IOException, IllegalArgumentException {
-		ClassPool cp = new ClassPool();
-		cp.appendClassPath(new LoaderClassPath(classLoader));
-
-		byte[] bytes = IOUtils.toByteArray(uri);
-		if(bytes != null) {
-			try(InputStream is = new ByteArrayInputStream(bytes)){
-				return cp.makeClass(is);
-			}
-		}
-		LOGGER.trace("Empty class for {} ", uri);
-		return null;
+	static PluginMethodInvoker<WatchArgument> getInvoker(PluginAnnotation<?> pluginAnnotation, WatchEventDTO watchEventDTO) {
+		return pluginAnnotation.getInvoker(WatchArgument.class,
+				watchEventDTO.isClassFileEvent() ? CLASS_FILE_ARGUMENT_RESOLVER : RESOURCE_ARGUMENT_RESOLVER);
 	}
 }
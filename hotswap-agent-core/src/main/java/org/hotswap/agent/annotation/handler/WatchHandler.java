@@ -8,13 +8,16 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 
 import org.hotswap.agent.command.Command;
 import org.hotswap.agent.config.PluginConfiguration;
 import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
-import org.hotswap.agent.watch.WatchEventListener;
+import org.hotswap.agent.watch.WatchEventBatchListener;
 import org.hotswap.agent.watch.WatchFileEvent;
 
 /**
@@ -39,7 +42,17 @@ public class WatchHandler<T extends Annotation> implements PluginHandler<T> {
 	@Override
 	public boolean initMethod(final PluginAnnotation<T> pluginAnnotation) {
 		LOGGER.debug("Init for method " + pluginAnnotation.getMethod());
-		
+
+		// resolve argument binding once
+		PluginMethodInvoker<?> invoker = WatchEventCommand.getInvoker(pluginAnnotation,
+				WatchEventDTO.parse(pluginAnnotation.getAnnotation()));
+		if (invoker.getUnsupportedParameter() != null) {
+			LOGGER.error("Unable to register method {} on plugin {}. Method parameter type {} is not recognized.",
+					pluginAnnotation.getMethod().getName(), pluginAnnotation.getPluginClass().getName(),
+					invoker.getUnsupportedParameter());
+			return false;
+		}
+
 		ClassLoader classLoader = pluginManager.getPluginRegistry().getAppClassLoader(pluginAnnotation.getPlugin());
 		PluginConfiguration cfg = pluginManager.getPluginConfiguration(classLoader);
 		LOGGER.debug("Initializing plugin {},\n{}\n{}", pluginAnnotation.getPlugin(), cfg, classLoader);
@@ -138,13 +151,24 @@ public class WatchHandler<T extends Annotation> implements PluginHandler<T> {
 	 * invocation.
 	 */
 	private void registerResourceListener(final PluginAnnotation<T> pluginAnnotation, final WatchEventDTO watchEventDTO,final ClassLoader classLoader, URI uri) throws IOException {
-		pluginManager.getWatcher().addEventListener(classLoader, uri, new WatchEventListener() {
+		pluginManager.getWatcher().addEventListener(classLoader, uri, new WatchEventBatchListener() {
 			@Override
 			public void onEvent(WatchFileEvent event) {
-				if (watchEventDTO.accept(event)) {
-					Command command = new WatchEventCommand<T>(pluginAnnotation, event, classLoader);
-					pluginManager.getScheduler().scheduleCommand(command, watchEventDTO.getTimeout());
-					LOGGER.trace("Resource changed {} {}", event, classLoader);
+				onEvents(Collections.singletonList(event));
+			}
+
+			@Override
+			public void onEvents(List<WatchFileEvent> events) {
+				List<Command> commands = new ArrayList<Command>(events.size());
+				for (WatchFileEvent event : events) {
+					if (watchEventDTO.accept(event)) {
+						commands.add(new WatchEventCommand<T>(pluginAnnotation, event, classLoader));
+						LOGGER.trace("Resource changed {} {}", event, classLoader);
+					}
+				}
+				if (!commands.isEmpty()) {
+					// hand over the whole burst to the scheduler at once
+					pluginManager.getScheduler().scheduleCommands(commands, watchEventDTO.getTimeout());
 				}
 			}
 		});
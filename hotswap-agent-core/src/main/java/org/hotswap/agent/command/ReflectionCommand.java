@@ -1,10 +1,14 @@
 package org.hotswap.agent.command;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
@@ -18,6 +22,17 @@ import org.hotswap.agent.logging.AgentLogger;
 public class ReflectionCommand extends MergeableCommand {
 	private static AgentLogger LOGGER = AgentLogger.getLogger(ReflectionCommand.class);
 
+	// classes by name resolved in a classloader, classloaders and classes are referenced weakly
+	private static final Map<ClassLoader, Map<String, WeakReference<Class<?>>>> resolvedClasses = new WeakHashMap<ClassLoader, Map<String, WeakReference<Class<?>>>>();
+
+	// methods by name and parameter types, stored with the declaring class (does not prevent class unloading)
+	private static final ClassValue<Map<String, Method>> resolvedMethods = new ClassValue<Map<String, Method>>() {
+		@Override
+		protected Map<String, Method> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<String, Method>();
+		}
+	};
+
 	/**
 	 * Run the method on target object.
 	 */
@@ -178,25 +193,57 @@ public class ReflectionCommand extends MergeableCommand {
 	protected Object doExecuteReflectionCommand(ClassLoader targetClassLoader, String className, Object target,
 			String method, List<Object> params) throws ClassNotFoundException, IllegalAccessException,
 					InstantiationException, NoSuchMethodException, InvocationTargetException {
-		Class<?> classInAppClassLoader = Class.forName(className, true, targetClassLoader);
+		Class<?> classInAppClassLoader = resolveClass(targetClassLoader, className);
 
 		LOGGER.trace(
 				"Executing command: requestedClassLoader={}, resolvedClassLoader={}, class={}, method={}, params={}",
 				targetClassLoader, classInAppClassLoader.getClassLoader(), classInAppClassLoader, method, params);
 
+		Method m = resolveMethod(classInAppClassLoader, method, params);
+
+		return m.invoke(target, params.toArray());
+	}
+
+	// resolve class by name in the classloader (cached)
+	private static Class<?> resolveClass(ClassLoader classLoader, String className) throws ClassNotFoundException {
+		Map<String, WeakReference<Class<?>>> classes;
+		synchronized (resolvedClasses) {
+			classes = resolvedClasses.get(classLoader);
+			if (classes == null) {
+				classes = new ConcurrentHashMap<String, WeakReference<Class<?>>>();
+				resolvedClasses.put(classLoader, classes);
+			}
+		}
+
+		WeakReference<Class<?>> ref = classes.get(className);
+		Class<?> clazz = ref != null ? ref.get() : null;
+		if (clazz == null) {
+			clazz = Class.forName(className, true, classLoader);
+			classes.put(className, new WeakReference<Class<?>>(clazz));
+		}
+		return clazz;
+	}
+
+	// resolve declared method by exact parameter types (cached)
+	private static Method resolveMethod(Class<?> clazz, String method, List<Object> params) throws NoSuchMethodException {
 		Class<?>[] paramTypes = new Class[params.size()];
+		StringBuilder key = new StringBuilder(method).append('(');
 		int i = 0;
 		for (Object param : params) {
-			if (params == null) {
+			if (param == null) {
 				throw new IllegalArgumentException("Cannot execute for null parameter value");
-			} else {
-				paramTypes[i++] = param.getClass();
 			}
+			paramTypes[i++] = param.getClass();
+			key.append(param.getClass().getName()).append(',');
 		}
 
-		Method m = classInAppClassLoader.getDeclaredMethod(method, paramTypes);
-
-		return m.invoke(target, params.toArray());
+		Map<String, Method> methods = resolvedMethods.get(clazz);
+		Method m = methods.get(key.toString());
+		if (m == null) {
+			m = clazz.getDeclaredMethod(method, paramTypes);
+			methods.put(key.toString(), m);
+		}
+		return m;
 	}
 
 	@Override
@@ -1,5 +1,7 @@
 package org.hotswap.agent.command;
 
+import java.util.Collection;
+
 /**
  * Schedule a command to run.
  *
@@ -54,6 +56,33 @@ public interface Scheduler {
 	 */
 	void scheduleCommand(Command command, int timeout, DuplicateSheduleBehaviour behaviour);
 
+	/**
+	 * Schedule a burst of commands (e.g. all commands resulting from one
+	 * filesystem change) for execution at once. Each command is processed as
+	 * by {@link #scheduleCommand(Command, int)}.
+	 *
+	 * @param commands
+	 *            the commands to execute
+	 * @param timeout
+	 *            timeout after which the commands are executed
+	 */
+	void scheduleCommands(Collection<? extends Command> commands, int timeout);
+
+	/**
+	 * Schedule a burst of commands for execution at once. Each command is
+	 * processed as by
+	 * {@link #scheduleCommand(Command, int, DuplicateSheduleBehaviour)}.
+	 *
+	 * @param commands
+	 *            the commands to execute
+	 * @param timeout
+	 *            timeout after which the commands are executed
+	 * @param behaviour
+	 *            if another instance of this commands runs on schedule or
+	 *            within timeout, should we skip it?
+	 */
+	void scheduleCommands(Collection<? extends Command> commands, int timeout, DuplicateSheduleBehaviour behaviour);
+
 	/**
 	 * Run the scheduler agent thread.
 	 */
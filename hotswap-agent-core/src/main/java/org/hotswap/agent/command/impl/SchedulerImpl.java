@@ -1,22 +1,43 @@
 package org.hotswap.agent.command.impl;
 
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.Queue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.hotswap.agent.annotation.handler.PluginAnnotation;
 import org.hotswap.agent.annotation.handler.WatchEventCommand;
 import org.hotswap.agent.command.Command;
 import org.hotswap.agent.command.MergeableCommand;
+import org.hotswap.agent.command.ReflectionCommand;
 import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.metrics.ReloadMetrics;
 
 /**
  * Default command scheduler implementation.
+ * <p/>
+ * Scheduled commands wait in a delay queue and the scheduler thread wakes up exactly when the first of them
+ * is due. Due commands are executed by a pool of worker threads. Commands are serialized per lane - a lane
+ * is the target classloader of the command (ReflectionCommand, WatchEventCommand), all other commands share
+ * a default lane. If all workers are busy, the lane with the earliest due command gets the next free worker.
+ * <p/>
+ * By default there is a single worker - all commands run one after another in the order they became due.
+ * More workers (system property {@value #WORKERS_PROPERTY}) reload independent applications in parallel,
+ * commands of the default lane (e.g. class redefinition) may then run concurrently with application commands.
  *
  * @author Jiri Bubnik
  */
@@ -25,13 +46,60 @@ public class SchedulerImpl implements Scheduler {
 
 	int DEFAULT_SCHEDULING_TIMEOUT = 100;
 
-	final Executor e = Executors.newSingleThreadExecutor();
-	
-	final Map<Command, DuplicateScheduleConfig> scheduledCommands = Collections.synchronizedMap(new LinkedHashMap<Command, DuplicateScheduleConfig>());
-	final Set<Command> runningCommands = Collections.synchronizedSet(new HashSet<Command>());
+	/**
+	 * System property with number of worker threads.
+	 */
+	public static final String WORKERS_PROPERTY = "hotswap-agent.schedulerWorkers";
+
+	// lane of commands without known target classloader
+	private static final Object DEFAULT_LANE = new Object();
+
+	final Map<Command, ScheduledCommand> scheduledCommands = new LinkedHashMap<Command, ScheduledCommand>();
+
+	// command -> number of instances passed to a lane and not finished yet (RUN_DUPLICATE may run equal commands)
+	final Map<Command, Integer> runningCommands = new HashMap<Command, Integer>();
+
+	// lanes with a pending or running command
+	final Map<Object, Lane> lanes = new HashMap<Object, Lane>();
+
+	final DelayQueue<ScheduledCommand> delayQueue = new DelayQueue<ScheduledCommand>();
+
+	final ThreadPoolExecutor executor;
+
+	private final AtomicInteger sequence = new AtomicInteger();
 
 	Thread runner;
-	boolean stopped;
+	volatile boolean stopped;
+
+	/**
+	 * Create scheduler with number of worker threads from system property {@value #WORKERS_PROPERTY}, single
+	 * worker by default.
+	 */
+	public SchedulerImpl() {
+		this(Math.max(1, Integer.getInteger(WORKERS_PROPERTY, 1)));
+	}
+
+	/**
+	 * Create scheduler.
+	 *
+	 * @param workers
+	 *            number of threads executing commands of different lanes in
+	 *            parallel
+	 */
+	public SchedulerImpl(int workers) {
+		executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger counter = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "HotSwap Command-" + counter.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
 
 	@Override
 	public void scheduleCommand(Command command) {
@@ -45,83 +113,179 @@ public class SchedulerImpl implements Scheduler {
 
 	@Override
 	public void scheduleCommand(Command command, int timeout, DuplicateSheduleBehaviour behaviour) {
+		Object lane = resolveLane(command);
+
 		synchronized (scheduledCommands) {
-			Command targetCommand = command;
-			if (scheduledCommands.containsKey(command) && command instanceof MergeableCommand) {
-				// get existing equals command and merge it
-				for (Command scheduledCommand : scheduledCommands.keySet()) {
-					if (command.equals(scheduledCommand)) {
-						targetCommand = ((MergeableCommand) command).merge(scheduledCommand);
-						break;
-					}
-				}
+			schedule(command, lane, timeout, behaviour);
+		}
+	}
+
+	@Override
+	public void scheduleCommands(Collection<? extends Command> commands, int timeout) {
+		scheduleCommands(commands, timeout, DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER);
+	}
+
+	@Override
+	public void scheduleCommands(Collection<? extends Command> commands, int timeout, DuplicateSheduleBehaviour behaviour) {
+		// resolve lanes before taking the lock, it may need plugin registry lookup
+		List<Object> commandLanes = new ArrayList<Object>(commands.size());
+		for (Command command : commands) {
+			commandLanes.add(resolveLane(command));
+		}
+
+		synchronized (scheduledCommands) {
+			Iterator<Object> laneIterator = commandLanes.iterator();
+			for (Command command : commands) {
+				schedule(command, laneIterator.next(), timeout, behaviour);
 			}
+		}
+		LOGGER.trace("{} commands scheduled for execution in {}ms", commands.size(), timeout);
+	}
+
+	/**
+	 * Put the command into pending commands and delay queue. Must be called
+	 * with scheduledCommands lock held.
+	 */
+	private void schedule(Command command, Object lane, int timeout, DuplicateSheduleBehaviour behaviour) {
+		Command targetCommand = command;
 
-			// map may already contain equals command, put will replace it and
-			// reset timer
-			scheduledCommands.put(targetCommand,
-					new DuplicateScheduleConfig(System.currentTimeMillis() + timeout, behaviour));
-			LOGGER.trace("{} scheduled for execution in {}ms", targetCommand, timeout);
+		// pending commands are hash indexed by the command - existing equal instance is available directly
+		ScheduledCommand existing = scheduledCommands.get(command);
+		if (existing != null && command instanceof MergeableCommand) {
+			targetCommand = ((MergeableCommand) command).merge(existing.command);
 		}
+
+		// map may already contain equals command, replace it (including the key instance) and
+		// reset timer. Previous delay queue entry becomes stale and is ignored when due.
+		long now = System.nanoTime();
+		ScheduledCommand scheduled = new ScheduledCommand(targetCommand, lane, now + TimeUnit.MILLISECONDS.toNanos(timeout),
+				existing != null ? existing.firstScheduled : now, behaviour, sequence.incrementAndGet());
+		if (existing != null) {
+			scheduledCommands.remove(targetCommand);
+		}
+		scheduledCommands.put(targetCommand, scheduled);
+		delayQueue.put(scheduled);
+		LOGGER.trace("{} scheduled for execution in {}ms", targetCommand, timeout);
 	}
 
 	/**
-	 * One cycle of the scheduler agent. Process all commands which are not
-	 * currently running and time lower than current milliseconds.
-	 *
-	 * @return true if the agent should continue (false for fatal error)
+	 * Resolve lane of the command - target classloader if known.
 	 */
-	private boolean processCommands() {
-		Long currentTime = System.currentTimeMillis();
+	private Object resolveLane(Command command) {
+		try {
+			ClassLoader classLoader = null;
+			if (command instanceof ReflectionCommand) {
+				classLoader = ((ReflectionCommand) command).getTargetClassLoader();
+			} else if (command instanceof WatchEventCommand) {
+				classLoader = ((WatchEventCommand<?>) command).getClassLoader();
+			}
+			return classLoader != null ? classLoader : DEFAULT_LANE;
+		} catch (RuntimeException e) {
+			// plugin not registered (yet) - the command resolves it on execution
+			LOGGER.trace("Unable to resolve target classloader of {}, using default lane.", command);
+			return DEFAULT_LANE;
+		}
+	}
+
+	/**
+	 * Process a command taken from delay queue - execute it, unless it was
+	 * rescheduled meanwhile or the same command is running.
+	 */
+	private void processCommand(ScheduledCommand scheduled) {
 		synchronized (scheduledCommands) {
-			for (Iterator<Map.Entry<Command, DuplicateScheduleConfig>> it = scheduledCommands.entrySet().iterator(); it.hasNext();) {
-				Map.Entry<Command, DuplicateScheduleConfig> entry = it.next();
-				DuplicateScheduleConfig config = entry.getValue();
-				Command command = entry.getKey();
-
-				// if timeout
-				if (config.getTime() < currentTime) {
-					// command is currently running
-					if (runningCommands.contains(command)) {
-						if (config.getBehaviour().equals(DuplicateSheduleBehaviour.SKIP)) {
-							LOGGER.debug("Skipping duplicate running command {}", command);
-							it.remove();
-						} else if (config.getBehaviour().equals(DuplicateSheduleBehaviour.RUN_DUPLICATE)) {
-							executeCommand(command);
-							it.remove();
-						}
-					} else {
-						executeCommand(command);
-						it.remove();
-					}
+			Command command = scheduled.command;
+
+			// replaced by newer schedule
+			if (scheduledCommands.get(command) != scheduled) {
+				return;
+			}
+
+			// command is currently running
+			if (runningCommands.containsKey(command)) {
+				if (scheduled.behaviour.equals(DuplicateSheduleBehaviour.SKIP)) {
+					LOGGER.debug("Skipping duplicate running command {}", command);
+					scheduledCommands.remove(command);
+				} else if (scheduled.behaviour.equals(DuplicateSheduleBehaviour.RUN_DUPLICATE)) {
+					scheduledCommands.remove(command);
+					executeCommand(scheduled);
+				} else {
+					// WAIT_AND_RUN_AFTER - requeue when the running command finishes
+					scheduled.waiting = true;
 				}
+			} else {
+				scheduledCommands.remove(command);
+				executeCommand(scheduled);
 			}
 		}
-
-		return true;
 	}
 
 	/**
-	 * Execute this command in a separate thread.
+	 * Append the command to its lane and start the lane if it is idle. Must be
+	 * called with scheduledCommands lock held.
 	 *
-	 * @param command
+	 * @param scheduled
 	 *            the command to execute
 	 */
-	private void executeCommand(Command command) {
+	private void executeCommand(ScheduledCommand scheduled) {
+		Command command = scheduled.command;
 		if (command instanceof WatchEventCommand) {
 			LOGGER.trace("Executing {}", command); // too much output for debug
 		} else {
 			LOGGER.debug("Executing {}", command);
 		}
 
-		runningCommands.add(command);
-		
-		e.execute(new CommandExecutor(command) {
-			@Override
-			public void finished() {
-				runningCommands.remove(command);
+		Integer running = runningCommands.get(command);
+		runningCommands.put(command, running == null ? 1 : running + 1);
+
+		Lane lane = lanes.get(scheduled.lane);
+		if (lane == null) {
+			lane = new Lane(scheduled.lane);
+			lanes.put(scheduled.lane, lane);
+		}
+		lane.pending.add(scheduled);
+		if (!lane.active) {
+			lane.active = true;
+			executor.execute(new LaneTask(lane, scheduled));
+		}
+	}
+
+	/**
+	 * Command finished - release running state and requeue equal command
+	 * waiting for it (WAIT_AND_RUN_AFTER).
+	 */
+	private void commandFinished(Command command) {
+		synchronized (scheduledCommands) {
+			Integer running = runningCommands.remove(command);
+			if (running != null && running > 1) {
+				runningCommands.put(command, running - 1);
+				return;
+			}
+
+			ScheduledCommand waiting = scheduledCommands.get(command);
+			if (waiting != null && waiting.waiting) {
+				waiting.waiting = false;
+				delayQueue.put(waiting);
+			}
+		}
+	}
+
+	/**
+	 * Name of the command in reload metrics - plugin class and method if known.
+	 */
+	private static String metricName(Command command) {
+		if (command instanceof ReflectionCommand) {
+			ReflectionCommand reflectionCommand = (ReflectionCommand) command;
+			String className = reflectionCommand.getClassName();
+			if (className != null) {
+				className = className.substring(className.lastIndexOf('.') + 1);
 			}
-		});//.start();
+			return className + "." + reflectionCommand.getMethodName();
+		} else if (command instanceof WatchEventCommand) {
+			PluginAnnotation<?> pluginAnnotation = ((WatchEventCommand<?>) command).getPluginAnnotation();
+			return pluginAnnotation.getPluginClass().getSimpleName() + "." + pluginAnnotation.getMethod().getName();
+		}
+		String className = command.getClass().getName();
+		return className.substring(className.lastIndexOf('.') + 1);
 	}
 
 	@Override
@@ -129,22 +293,20 @@ public class SchedulerImpl implements Scheduler {
 		runner = new Thread() {
 			@Override
 			public void run() {
-				for (;;) {
-					if (stopped || !processCommands()) {
-						break;
-					}
-
-					// wait for 100 ms
+				while (!stopped) {
 					try {
-						sleep(100);
+						// wait exactly until the first command is due
+						processCommand(delayQueue.take());
 					} catch (InterruptedException e) {
 						break;
+					} catch (Throwable t) {
+						LOGGER.error("Error in scheduler agent.", t);
 					}
 				}
-
 			}
 		};
 
+		runner.setName("HotSwap Scheduler");
 		runner.setDaemon(true);
 		runner.start();
 	}
@@ -152,26 +314,131 @@ public class SchedulerImpl implements Scheduler {
 	@Override
 	public void stop() {
 		stopped = true;
+		if (runner != null) {
+			runner.interrupt();
+		}
+		executor.shutdown();
 	}
 
-	private static class DuplicateScheduleConfig {
-		// time when to run
-		long time;
+	/**
+	 * Command waiting in the delay queue.
+	 */
+	private static class ScheduledCommand implements Delayed {
+		final Command command;
+
+		// lane to serialize the command in
+		final Object lane;
+
+		// time when to run (System.nanoTime())
+		final long time;
+
+		// time when the command (or the first of merged/rescheduled equal commands) was scheduled
+		final long firstScheduled;
 
 		// behaviour in case of conflict (running same command in progress)
-		DuplicateSheduleBehaviour behaviour;
+		final DuplicateSheduleBehaviour behaviour;
+
+		// order of commands due at the same time
+		final int sequence;
+
+		// due, but waiting for a running equal command (guarded by scheduledCommands lock)
+		boolean waiting;
 
-		private DuplicateScheduleConfig(long time, DuplicateSheduleBehaviour behaviour) {
+		private ScheduledCommand(Command command, Object lane, long time, long firstScheduled,
+				DuplicateSheduleBehaviour behaviour, int sequence) {
+			this.command = command;
+			this.lane = lane;
 			this.time = time;
+			this.firstScheduled = firstScheduled;
 			this.behaviour = behaviour;
+			this.sequence = sequence;
 		}
 
-		public long getTime() {
-			return time;
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(time - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			ScheduledCommand other = (ScheduledCommand) o;
+			if (time != other.time) {
+				return time - other.time < 0 ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Commands of one lane, executed one after another.
+	 */
+	private static class Lane {
+		final Object key;
+		final Queue<ScheduledCommand> pending = new ArrayDeque<ScheduledCommand>();
+
+		// lane task is submitted or running (guarded by scheduledCommands lock)
+		boolean active;
+
+		Lane(Object key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Execute next command of a lane. Only one task per lane exists at a time.
+	 * After each command the lane is resubmitted with priority of its next
+	 * command, so that a busy lane does not starve the others.
+	 */
+	private class LaneTask implements Runnable, Comparable<LaneTask> {
+		final Lane lane;
+		final ScheduledCommand head;
+
+		LaneTask(Lane lane, ScheduledCommand head) {
+			this.lane = lane;
+			this.head = head;
+		}
+
+		@Override
+		public void run() {
+			final ScheduledCommand scheduled;
+			synchronized (scheduledCommands) {
+				scheduled = lane.pending.poll();
+			}
+
+			if (scheduled != null) {
+				String metricName = metricName(scheduled.command);
+				long start = System.nanoTime();
+				ReloadMetrics.record(ReloadMetrics.histogram(ReloadMetrics.Stage.QUEUE_WAIT, metricName), scheduled.firstScheduled);
+				try {
+					LOGGER.trace("Executing command {}", scheduled.command);
+					scheduled.command.executeCommand();
+				} catch (Throwable e) {
+					// the lane must be released, otherwise no other command of the lane is executed
+					LOGGER.error("Error executing command {}", e, scheduled.command);
+				} finally {
+					commandFinished(scheduled.command);
+					ReloadMetrics.record(ReloadMetrics.histogram(ReloadMetrics.Stage.COMMAND, metricName), start);
+				}
+			}
+
+			synchronized (scheduledCommands) {
+				ScheduledCommand next = lane.pending.peek();
+				if (next == null) {
+					lane.active = false;
+					lanes.remove(lane.key);
+				} else {
+					try {
+						executor.execute(new LaneTask(lane, next));
+					} catch (RejectedExecutionException e) {
+						LOGGER.debug("Scheduler stopped, command {} not executed.", next.command);
+					}
+				}
+			}
 		}
 
-		public DuplicateSheduleBehaviour getBehaviour() {
-			return behaviour;
+		@Override
+		public int compareTo(LaneTask o) {
+			return head.compareTo(o.head);
 		}
 	}
 }
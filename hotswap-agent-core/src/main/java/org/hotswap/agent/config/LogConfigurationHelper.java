@@ -8,6 +8,7 @@ import java.io.FileOutputStream;
 import java.io.PrintStream;
 
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.metrics.ReloadMetrics;
 
 /**
  * Configure LOG level and handler according to properties.
@@ -18,6 +19,8 @@ public class LogConfigurationHelper {
 	public static final String LOGGER_PREFIX = "LOGGER";
 	private static final String LOGFILE = "LOGFILE";
 	private static final String LOGFILE_APPEND = "LOGFILE.append";
+	private static final String METRICSFILE = "METRICSFILE";
+	private static final String METRICSFILE_APPEND = "METRICSFILE.append";
 
 	/**
 	 * Search properties for prefix LOGGER and set level for package in format:
@@ -48,6 +51,10 @@ public class LogConfigurationHelper {
 				} catch (FileNotFoundException e) {
 					LOGGER.error("Invalid configuration property {} value '{}'. Unable to create/open the file.", e, LOGFILE, logfile);
 				}
+			} else if (property.equals(METRICSFILE)) {
+				String metricsfile = properties.getPropertyRecursive(METRICSFILE);
+				boolean append = parseBoolean(properties.getPropertyRecursive(METRICSFILE_APPEND, "false"));
+				ReloadMetrics.setEventLog(new File(metricsfile), append);
 			}
 		}
 	}
@@ -5,26 +5,45 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.hotswap.agent.logging.AgentLogger;
 
+/**
+ * Configuration properties of a classloader merged with parent classloader configuration and overlays.
+ * <p/>
+ * Property values are read from an immutable snapshot which is computed once - strings are resolved
+ * through the parent chain and overlays, typed values (booleans, URLs) are converted on first access
+ * and cached. The snapshot is replaced atomically when an overlay is added, when property files are
+ * reloaded ({@link #reload()}) or when the parent snapshot changes.
+ */
 public class MergedProperties {
 	private static AgentLogger LOGGER = AgentLogger.getLogger(MergedProperties.class);
 
-	private final Properties base;
-	
-	private Map<String, Properties> properties = new LinkedHashMap<>();
-
 	private final MergedProperties parent;
-	
-	private boolean containsPropertyFileDirectly;
-	
+
+	// URL of the base property file (may be null)
+	private final URL baseUrl;
+
+	// overlay key -> URL of overlays added by URL, these are reloaded
+	private final Map<String, URL> overlayUrls = new ConcurrentHashMap<>();
+
+	private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+
+	private final boolean containsPropertyFileDirectly;
+
 	public MergedProperties() {
 		this(null, null);
 	}
@@ -39,32 +58,79 @@ public class MergedProperties {
 	
 	public MergedProperties(MergedProperties parent, URL url) {
 		this.parent = parent;
-		if(url != null) {
-			base = this.load(url);
-		} else {
-			base = null;
-		}
+		this.baseUrl = url;
+		Properties base = url != null ? load(url) : null;
 		this.containsPropertyFileDirectly = base != null;
+		snapshot.set(new Snapshot(base, new LinkedHashMap<String, Properties>(), parentSnapshot()));
 	}
 
-	public Properties put(String key, Properties value) {
-		return properties.put(key, value);
+	public synchronized Properties put(String key, Properties value) {
+		Snapshot current = snapshot();
+		LinkedHashMap<String, Properties> overlays = new LinkedHashMap<>(current.overlays);
+		Properties previous = overlays.put(key, value);
+		snapshot.set(new Snapshot(current.base, overlays, current.parent));
+		return previous;
 	}
 
-	public boolean put(URL url) {
+	public synchronized boolean put(URL url) {
 		final String key = url.toExternalForm();
-		if(!properties.containsKey(key)){
+		if(!snapshot().overlays.containsKey(key)){
 			Properties p = load(url);
 			if(p != null) {
-				properties.put(key,p);
+				put(key, p);
+				overlayUrls.put(key, url);
 				return true;
 			}
 		}
 		return false;
 	}
 
-	
-	
+	/**
+	 * Load the base property file and overlays again and replace the snapshot. If a file cannot be
+	 * read (e.g. it is just being written), previous content is kept.
+	 *
+	 * @return true if any property changed
+	 */
+	public synchronized boolean reload() {
+		Snapshot current = snapshot();
+
+		Properties base = current.base;
+		if (baseUrl != null) {
+			Properties p = load(baseUrl);
+			if (p != null) {
+				base = p;
+			}
+		}
+
+		LinkedHashMap<String, Properties> overlays = new LinkedHashMap<>(current.overlays);
+		for (Map.Entry<String, Properties> entry : overlays.entrySet()) {
+			URL url = overlayUrls.get(entry.getKey());
+			if (url != null) {
+				Properties p = load(url);
+				if (p != null) {
+					entry.setValue(p);
+				}
+			}
+		}
+
+		if (equals(base, current.base) && overlays.equals(current.overlays)) {
+			return false;
+		}
+		snapshot.set(new Snapshot(base, overlays, parentSnapshot()));
+		return true;
+	}
+
+	/**
+	 * URLs of property files (base and overlays added by URL).
+	 */
+	public List<URL> getPropertyFileUrls() {
+		List<URL> ret = new ArrayList<>();
+		if (baseUrl != null) {
+			ret.add(baseUrl);
+		}
+		ret.addAll(overlayUrls.values());
+		return ret;
+	}
 
 	/**
 	 * Get configuration property value
@@ -74,13 +140,7 @@ public class MergedProperties {
 	 * @return the property value or null if not defined
 	 */
 	public String getProperty(String property) {
-		if (base != null && base.containsKey(property)) {
-			return base.getProperty(property);
-		} else if (parent != null) {
-			return parent.getProperty(property);
-		} else {
-			return null;
-		}
+		return snapshot().properties.get(property);
 	}
 	
 	public String getPropertyRecursive(String property) {
@@ -95,19 +155,8 @@ public class MergedProperties {
 	 * @return the property value or null if not defined
 	 */
 	public String getPropertyRecursive(String property, String defaultValue) {
-		if (base != null && base.containsKey(property)) {
-			return base.getProperty(property);
-		} else {
-			for (Properties p : properties.values()) {
-				if (p.containsKey(property)) {
-					return p.getProperty(property);
-				}
-			}
-		}
-		if (parent != null) {
-			return parent.getProperty(property);
-		}
-		return defaultValue;
+		String value = snapshot().recursiveProperties.get(property);
+		return value != null ? value : defaultValue;
 	}
 
 	/**
@@ -148,21 +197,7 @@ public class MergedProperties {
 	 * @return the property value or null if not defined
 	 */
 	public String getAllProperties(String property) {
-		String value = getProperty(property);
-		for (Properties p : properties.values()) {
-			if (p.containsKey(property)) {
-				String pv = p.getProperty(property);
-				if (pv == null || pv.trim().length() == 0) {
-					continue;
-				}
-				if (value == null || value.trim().length() == 0) {
-					value = pv.trim();
-				} else {
-					value = value.trim() + "," + pv.trim();
-				}
-			}
-		}
-		return value;
+		return snapshot().allProperties.get(property);
 	}
 	
 	/**
@@ -172,35 +207,40 @@ public class MergedProperties {
 	 * @return
 	 */
 	public String[] getAllPropertiesAsArray(String property){
-		String resources = getAllProperties(property);
-		LinkedHashSet<String> ret = new LinkedHashSet<String>();
-
-		if (resources != null) {
-			StringTokenizer tokenizer = new StringTokenizer(resources, ",;");
-			while (tokenizer.hasMoreTokens()) {
-				String name = tokenizer.nextToken().trim();
-				if (name != null && name.trim().length() > 0) {
-					ret.add(name);
-				}
-			}
+		Snapshot current = snapshot();
+		String[] ret = current.arrays.get(property);
+		if (ret == null) {
+			ret = toArray(current.allProperties.get(property));
+			current.arrays.put(property, ret);
 		}
-		return ret.toArray(new String[ret.size()]);
+		return ret.clone();
 	}
 	
 	public URL[] getUrls(String property) {
-		return convertToURL(getAllProperties(property));
-
+		Snapshot current = snapshot();
+		URL[] ret = current.urlArrays.get(property);
+		if (ret == null) {
+			ret = convertToURL(current.allProperties.get(property));
+			current.urlArrays.put(property, ret);
+		}
+		return ret.clone();
 	}
 
 	public URL getUrl(String property) {
-		String value = this.getProperty(property);
-		if(value != null && value.trim().length()>0) {
-			try {
-				return resourceNameToURL(value);
-			} catch (Exception e) {
+		Snapshot current = snapshot();
+		Object ret = current.urls.get(property);
+		if (ret == null) {
+			ret = NO_VALUE;
+			String value = current.properties.get(property);
+			if(value != null && value.trim().length()>0) {
+				try {
+					ret = resourceNameToURL(value);
+				} catch (Exception e) {
+				}
 			}
+			current.urls.put(property, ret);
 		}
-		return null;
+		return ret != NO_VALUE ? (URL) ret : null;
 	}
 	
 	public boolean isContainsPropertyFileDirectly() {
@@ -208,24 +248,145 @@ public class MergedProperties {
 	}
 
 	public boolean containsKey(String key){
+		Properties base = snapshot().base;
 		return base != null && base.containsKey(key);
 	}
 	
-	public void clear() {
-		properties.clear();
+	public synchronized void clear() {
+		Snapshot current = snapshot();
+		overlayUrls.clear();
+		snapshot.set(new Snapshot(current.base, new LinkedHashMap<String, Properties>(), current.parent));
 	}
 	
 	public Set<String> stringPropertyNames() {
-		LinkedHashSet<String> props = new LinkedHashSet<>();
-		if(base != null) {
-			props.addAll(base.stringPropertyNames());
+		return new LinkedHashSet<>(snapshot().propertyNames);
+	}
+
+	// current snapshot, rebuilt if parent snapshot changed
+	private Snapshot snapshot() {
+		Snapshot current = snapshot.get();
+		if (parent != null) {
+			Snapshot parentSnapshot = parent.snapshot();
+			while (current.parent != parentSnapshot) {
+				Snapshot rebuilt = new Snapshot(current.base, current.overlays, parentSnapshot);
+				if (snapshot.compareAndSet(current, rebuilt)) {
+					return rebuilt;
+				}
+				current = snapshot.get();
+			}
+		}
+		return current;
+	}
+
+	private Snapshot parentSnapshot() {
+		return parent != null ? parent.snapshot() : null;
+	}
+
+	private static boolean equals(Properties p1, Properties p2) {
+		return p1 == null ? p2 == null : p1.equals(p2);
+	}
+
+	// marker of cached null value
+	private static final Object NO_VALUE = new Object();
+
+	/**
+	 * Immutable merged properties. String values of all known properties are resolved eagerly,
+	 * typed values on first access.
+	 */
+	private static class Snapshot {
+		final Properties base;
+		final Map<String, Properties> overlays;
+		final Snapshot parent;
+
+		// property names of base and overlays (not parent)
+		final Set<String> propertyNames;
+		// getProperty() - base, then parent
+		final Map<String, String> properties = new HashMap<>();
+		// getPropertyRecursive() - base, overlays, then parent
+		final Map<String, String> recursiveProperties = new HashMap<>();
+		// getAllProperties() - getProperty() followed by overlay values
+		final Map<String, String> allProperties = new HashMap<>();
+		// converted values by property name - getAllPropertiesAsArray(), getUrls() and getUrl()
+		final Map<String, String[]> arrays = new ConcurrentHashMap<>();
+		final Map<String, URL[]> urlArrays = new ConcurrentHashMap<>();
+		final Map<String, Object> urls = new ConcurrentHashMap<>();
+
+		Snapshot(Properties base, Map<String, Properties> overlays, Snapshot parent) {
+			this.base = base;
+			this.overlays = Collections.unmodifiableMap(overlays);
+			this.parent = parent;
+
+			LinkedHashSet<String> names = new LinkedHashSet<>();
+			if (base != null) {
+				names.addAll(base.stringPropertyNames());
+			}
+			for (Properties p : overlays.values()) {
+				names.addAll(p.stringPropertyNames());
+			}
+			propertyNames = Collections.unmodifiableSet(names);
+
+			Set<String> allNames = new HashSet<>(names);
+			if (parent != null) {
+				allNames.addAll(parent.properties.keySet());
+			}
+			for (String property : allNames) {
+				putValue(properties, property, resolveProperty(property));
+				putValue(recursiveProperties, property, resolvePropertyRecursive(property));
+				putValue(allProperties, property, resolveAllProperties(property));
+			}
 		}
-		for(Properties p: properties.values()) {
-			props.addAll(p.stringPropertyNames());
+
+		private static void putValue(Map<String, String> map, String property, String value) {
+			if (value != null) {
+				map.put(property, value);
+			}
+		}
+
+		private String resolveProperty(String property) {
+			if (base != null && base.containsKey(property)) {
+				return base.getProperty(property);
+			} else if (parent != null) {
+				return parent.properties.get(property);
+			} else {
+				return null;
+			}
+		}
+
+		private String resolvePropertyRecursive(String property) {
+			if (base != null && base.containsKey(property)) {
+				return base.getProperty(property);
+			} else {
+				for (Properties p : overlays.values()) {
+					if (p.containsKey(property)) {
+						return p.getProperty(property);
+					}
+				}
+			}
+			if (parent != null) {
+				return parent.properties.get(property);
+			}
+			return null;
+		}
+
+		private String resolveAllProperties(String property) {
+			String value = resolveProperty(property);
+			for (Properties p : overlays.values()) {
+				if (p.containsKey(property)) {
+					String pv = p.getProperty(property);
+					if (pv == null || pv.trim().length() == 0) {
+						continue;
+					}
+					if (value == null || value.trim().length() == 0) {
+						value = pv.trim();
+					} else {
+						value = value.trim() + "," + pv.trim();
+					}
+				}
+			}
+			return value;
 		}
-		return props;
 	}
-	
+
 	private Properties load(URL url) {
 		LOGGER.debug("LoadedProperties Loading: {}", url);
 		Properties p = new Properties();
@@ -238,6 +399,21 @@ public class MergedProperties {
 		}
 		return null;
 	}
+
+	private static String[] toArray(String resources) {
+		LinkedHashSet<String> ret = new LinkedHashSet<String>();
+
+		if (resources != null) {
+			StringTokenizer tokenizer = new StringTokenizer(resources, ",;");
+			while (tokenizer.hasMoreTokens()) {
+				String name = tokenizer.nextToken().trim();
+				if (name != null && name.trim().length() > 0) {
+					ret.add(name);
+				}
+			}
+		}
+		return ret.toArray(new String[ret.size()]);
+	}
 	
 	private URL[] convertToURL(String resources) {
 		LinkedHashSet<URL> ret = new LinkedHashSet<>();
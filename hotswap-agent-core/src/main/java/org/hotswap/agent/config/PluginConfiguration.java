@@ -1,5 +1,6 @@
 package org.hotswap.agent.config;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
@@ -7,7 +8,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hotswap.agent.HotswapAgent;
@@ -36,6 +44,26 @@ public class PluginConfiguration {
 
 	private final int ID;
 
+	// interval of property file modification checks
+	static final long PROPERTY_FILE_POLL_INTERVAL = 1000;
+
+	// polls property files of all configurations
+	private static ScheduledExecutorService propertyFilePoller;
+
+	// scheduled check of property files of this configuration, null if not watched
+	private ScheduledFuture<?> propertyFilesPoll;
+
+	// names of plugins disabled by disabledPlugins property, recomputed if the property value changes
+	private volatile DisabledPlugins disabledPlugins = new DisabledPlugins(null);
+
+	// plugin name from @Plugin annotation
+	private static final ClassValue<String> PLUGIN_NAMES = new ClassValue<String>() {
+		@Override
+		protected String computeValue(Class<?> pluginClass) {
+			return pluginClass.getAnnotation(Plugin.class).name();
+		}
+	};
+
 	public PluginConfiguration(ClassLoader classLoader) {
 		this.ID = cnt.incrementAndGet();
 
@@ -168,6 +196,96 @@ public class PluginConfiguration {
 		}
 	}
 
+	/**
+	 * Poll property files of this configuration (if these are files) and reload the configuration
+	 * on change. Modification time and size of the files are compared, a watch of the containing
+	 * directory would cover the whole classes tree.
+	 */
+	void watchPropertyFiles() {
+		if (classLoader == null) {
+			return;
+		}
+		final List<File> files = new ArrayList<File>();
+		for (URL url : merged.getPropertyFileUrls()) {
+			if (!"file".equals(url.getProtocol())) {
+				continue;
+			}
+			try {
+				files.add(new File(url.toURI()));
+			} catch (Exception e) {
+				LOGGER.warning("Unable to watch configuration file {}.", e, url);
+			}
+		}
+		if (files.isEmpty()) {
+			return;
+		}
+		final long[] stamps = stamps(files);
+		synchronized (this) {
+			if (propertyFilesPoll != null) {
+				propertyFilesPoll.cancel(false);
+			}
+			propertyFilesPoll = getPropertyFilePoller().scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					long[] current = stamps(files);
+					if (!Arrays.equals(stamps, current)) {
+						System.arraycopy(current, 0, stamps, 0, current.length);
+						try {
+							reload();
+						} catch (Exception e) {
+							LOGGER.error("Unable to reload configuration ({}).", e, ID);
+						}
+					}
+				}
+			}, PROPERTY_FILE_POLL_INTERVAL, PROPERTY_FILE_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stop polling of property files, called when the classloader is closed.
+	 */
+	synchronized void stopWatchingPropertyFiles() {
+		if (propertyFilesPoll != null) {
+			propertyFilesPoll.cancel(false);
+			propertyFilesPoll = null;
+		}
+	}
+
+	// modification time and size of each file (0 if missing)
+	private static long[] stamps(List<File> files) {
+		long[] ret = new long[files.size() * 2];
+		for (int i = 0; i < files.size(); i++) {
+			ret[2 * i] = files.get(i).lastModified();
+			ret[2 * i + 1] = files.get(i).length();
+		}
+		return ret;
+	}
+
+	private static synchronized ScheduledExecutorService getPropertyFilePoller() {
+		if (propertyFilePoller == null) {
+			propertyFilePoller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "HotSwap Configuration Poller");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return propertyFilePoller;
+	}
+
+	/**
+	 * Reload property files of this configuration. Configurations of child
+	 * classloaders reflect the change on next property access.
+	 */
+	public void reload() {
+		if (merged.reload()) {
+			LOGGER.reload("Configuration ({}) reloaded for classloader {}.", ID, classLoader);
+			LogConfigurationHelper.configureLog(merged);
+		}
+	}
+
 	private void initExtraClassPath() {
 		URL[] extraClassPath = getExtraClasspath();
 
@@ -276,26 +394,51 @@ public class PluginConfiguration {
 	 * List of disabled plugin names
 	 */
 	public List<String> getDisabledPlugins() {
-		List<String> ret = new ArrayList<String>();
-		for (String disabledPlugin : getProperty("disabledPlugins", "").split(",")) {
-			ret.add(disabledPlugin.trim());
-		}
-		return ret;
+		return new ArrayList<String>(getDisabledPluginNames());
 	}
 
 	/**
 	 * Check if the plugin is disabled (in this classloader)
 	 */
 	public boolean isDisabledPlugin(String pluginName) {
-		return HotswapAgent.isPluginDisabled(pluginName) || getDisabledPlugins().contains(pluginName);
+		return getDisabledPluginNames().contains(pluginName) || HotswapAgent.isPluginDisabled(pluginName);
+	}
+
+	private Set<String> getDisabledPluginNames() {
+		String property = getProperty("disabledPlugins");
+		DisabledPlugins current = disabledPlugins;
+		// property value instance is the same until the configuration is reloaded
+		if (current.property != property) {
+			current = new DisabledPlugins(property);
+			disabledPlugins = current;
+		}
+		return current.names;
+	}
+
+	// parsed value of disabledPlugins property
+	private static class DisabledPlugins {
+		final String property;
+		final Set<String> names;
+
+		DisabledPlugins(String property) {
+			this.property = property;
+			Set<String> ret = new LinkedHashSet<String>();
+			if (property != null) {
+				for (String disabledPlugin : property.split(",")) {
+					if (disabledPlugin.trim().length() > 0) {
+						ret.add(disabledPlugin.trim());
+					}
+				}
+			}
+			names = Collections.unmodifiableSet(ret);
+		}
 	}
 
 	/**
 	 * Check if the plugin is disabled (in this classloader)
 	 */
 	public boolean isDisabledPlugin(Class<?> pluginClass) {
-		Plugin pluginAnnotation = pluginClass.getAnnotation(Plugin.class);
-		return isDisabledPlugin(pluginAnnotation.name());
+		return isDisabledPlugin(PLUGIN_NAMES.get(pluginClass));
 	}
 
 	/**
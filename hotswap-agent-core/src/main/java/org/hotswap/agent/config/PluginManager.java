@@ -4,12 +4,14 @@ import java.io.IOException;
 import java.lang.instrument.ClassDefinition;
 import java.lang.instrument.Instrumentation;
 import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
 import java.security.ProtectionDomain;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.MBeanRegistrationException;
@@ -18,9 +20,14 @@ import javax.management.MalformedObjectNameException;
 import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
 
+import org.hotswap.agent.command.Command;
 import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.command.impl.SchedulerImpl;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.metrics.LatencyHistogram;
+import org.hotswap.agent.metrics.ReloadMetrics;
+import org.hotswap.agent.metrics.ReloadMetricsMBean;
+import org.hotswap.agent.util.ConcurrentWeakIdentityMap;
 import org.hotswap.agent.util.HotswapTransformer;
 import org.hotswap.agent.util.classloader.ClassLoaderDefineClassPatcher;
 import org.hotswap.agent.util.classloader.ClassLoaderPatcher;
@@ -129,16 +136,17 @@ public class PluginManager {
 
 		// create default configuration from this classloader
 		ClassLoader classLoader = getClass().getClassLoader();
-		classLoaderConfigurations.put(classLoader, new PluginConfiguration(classLoader));
+		putConfiguration(classLoader, new PluginConfiguration(classLoader));
 
 		if (watcher == null) {
 			try {
-				watcher = new WatcherFactory().getWatcher();
+				watcher = new WatcherFactory().getWatcher(getPluginConfiguration(classLoader));
 			} catch (IOException e) {
 				LOGGER.debug("Unable to create default watcher.", e);
 			}
 		}
 		watcher.run();
+		getPluginConfiguration(classLoader).watchPropertyFiles();
 
 		if (scheduler == null) {
 			scheduler = new SchedulerImpl();
@@ -149,13 +157,17 @@ public class PluginManager {
 
 		LOGGER.debug("Registering transformer ");
 		instrumentation.addTransformer(hotswapTransformer);
-//		scheduler.scheduleCommand(new Command() {
-//			@Override
-//			public void executeCommand() {
-//				LOGGER.info("Registering JMX ");
-//				startMbean();
-//			}
-//		}, 3000);				
+
+		// JMX server initialization in premain breaks some application servers (logging manager), delay it
+		if (getPluginConfiguration(classLoader).getPropertyBoolean("jmx")) {
+			scheduler.scheduleCommand(new Command() {
+				@Override
+				public void executeCommand() {
+					LOGGER.debug("Registering JMX beans");
+					startMbean();
+				}
+			}, 3000);
+		}
 	}
 
 	public void startMbean(){
@@ -165,14 +177,44 @@ public class PluginManager {
 	        if(!mbs.isRegistered(name))  {
 	        	mbs.registerMBean(watcher, name);
 	        }
+	        ObjectName metricsName = new ObjectName("org.hotswap.agent:type=ReloadMetrics");
+	        if (!mbs.isRegistered(metricsName)) {
+	        	mbs.registerMBean(new ReloadMetricsMBean(), metricsName);
+	        }
 		} catch(MalformedObjectNameException| InstanceAlreadyExistsException | MBeanRegistrationException | NotCompliantMBeanException e) {
 			LOGGER.error("Error registering Watcher mbean server", e);
 		}	
 	}
 	
 	ClassLoaderPatcher classLoaderPatcher = new ClassLoaderDefineClassPatcher();
-	Map<ClassLoader, PluginConfiguration> classLoaderConfigurations = new HashMap<ClassLoader, PluginConfiguration>();
-	Set<ClassLoaderInitListener> classLoaderInitListeners = new HashSet<ClassLoaderInitListener>();
+	Map<ClassLoader, PluginConfiguration> classLoaderConfigurations = new ConcurrentHashMap<ClassLoader, PluginConfiguration>();
+	Set<ClassLoaderInitListener> classLoaderInitListeners = new CopyOnWriteArraySet<ClassLoaderInitListener>();
+
+	// configuration of the bootstrap (null) classloader, not allowed as a key of classLoaderConfigurations
+	private volatile PluginConfiguration bootstrapConfiguration;
+
+	// classloader -> configuration of the nearest initialized classloader in parent chain or NO_CONFIGURATION.
+	// The value is weak - the configuration references its own classloader. Entries of a classloader and
+	// its children are removed if the classloader is initialized or closed. Lookup does not lock.
+	private final ConcurrentWeakIdentityMap<ClassLoader, WeakReference<PluginConfiguration>> resolvedConfigurations =
+			new ConcurrentWeakIdentityMap<ClassLoader, WeakReference<PluginConfiguration>>();
+
+	// incremented before each invalidation of resolvedConfigurations
+	private final AtomicLong resolvedConfigurationsVersion = new AtomicLong();
+
+	// serializes invalidation walks of resolvedConfigurations
+	private final Object invalidationLock = new Object();
+
+	// resolved value for a classloader without initialized classloader in parent chain
+	private static final WeakReference<PluginConfiguration> NO_CONFIGURATION = new WeakReference<PluginConfiguration>(null);
+
+	// classloader initialization locks, classloaders are assigned to locks by identity hash code
+	private final Object[] initClassLoaderLocks = new Object[32];
+	{
+		for (int i = 0; i < initClassLoaderLocks.length; i++) {
+			initClassLoaderLocks[i] = new Object();
+		}
+	}
 
 	public void registerClassLoaderInitListener(ClassLoaderInitListener classLoaderInitListener) {
 		classLoaderInitListeners.add(classLoaderInitListener);
@@ -189,7 +231,7 @@ public class PluginManager {
 
 	public void initClassLoader(ClassLoader classLoader, ProtectionDomain protectionDomain) {
 
-		if (classLoaderConfigurations.containsKey(classLoader)) {
+		if (isInitialized(classLoader)) {
 			return;
 		}
 
@@ -201,24 +243,22 @@ public class PluginManager {
             return;
         }
 
-		// synchronize ClassLoader patching - multiple classloaders may be
-		// patched at the same time
-		// and they may synchronize loading for security reasons and introduce
-		// deadlocks
-		synchronized (this) {
-			if (classLoaderConfigurations.containsKey(classLoader)) {
+		// synchronize ClassLoader patching - the same classloader may be
+		// initialized from multiple threads and classloaders may synchronize
+		// loading for security reasons and introduce deadlocks. Lock is striped
+		// to not serialize initialization of unrelated classloaders (e.g. parallel
+		// deployments)
+		synchronized (initClassLoaderLocks[(System.identityHashCode(classLoader) & 0x7fffffff) % initClassLoaderLocks.length]) {
+			if (isInitialized(classLoader)) {
 				return;
 			}
 
-            // transformation
-            if (classLoader != null && classLoaderPatcher.isPatchAvailable(classLoader)) {
-                classLoaderPatcher.patch(getClass().getClassLoader(), PLUGIN_PACKAGE.replace(".", "/"),
-                        classLoader, protectionDomain);
-            }
+			// plugin classes are defined in the classloader lazily by initPluginClasses()
 
 			// create new configuration for the classloader
 			PluginConfiguration configuration = new PluginConfiguration(getPluginConfiguration(getClass().getClassLoader()), classLoader);
-			classLoaderConfigurations.put(classLoader, configuration);
+			putConfiguration(classLoader, configuration);
+			configuration.watchPropertyFiles();
 		}
 
 		// call listeners
@@ -227,6 +267,34 @@ public class PluginManager {
 		}
 	}
 
+	/**
+	 * Define classes of the plugin in the application classloader (see
+	 * {@link ClassLoaderPatcher#patchPlugin}). Called when the plugin is initialized in
+	 * the classloader or the plugin transforms a class of the classloader, plugins never
+	 * used in the classloader are not defined there. Does nothing if classes of the
+	 * plugin are already defined.
+	 *
+	 * @param pluginClass
+	 *            plugin class
+	 * @param classLoader
+	 *            application classloader
+	 * @param protectionDomain
+	 *            required protection in the classloader
+	 */
+	public void initPluginClasses(Class<?> pluginClass, ClassLoader classLoader, ProtectionDomain protectionDomain) {
+		if (classLoader == null || !classLoaderPatcher.isPatchAvailable(classLoader)) {
+			return;
+		}
+
+		// parent of current classloader (system/bootstrap)
+		if (getClass().getClassLoader() != null && classLoader.equals(getClass().getClassLoader().getParent())) {
+			return;
+		}
+
+		classLoaderPatcher.patchPlugin(getClass().getClassLoader(), PLUGIN_PACKAGE.replace(".", "/"), pluginClass,
+				classLoader, protectionDomain);
+	}
+
 	/**
 	 * Remove any classloader reference and close all plugin instances
 	 * associated with classloader. This method is called typically after webapp
@@ -237,7 +305,15 @@ public class PluginManager {
 	 */
 	public void closeClassLoader(ClassLoader classLoader) {
 		pluginRegistry.closeClassLoader(classLoader);
-		classLoaderConfigurations.remove(classLoader);
+		if (classLoader == null) {
+			bootstrapConfiguration = null;
+		} else {
+			PluginConfiguration configuration = classLoaderConfigurations.remove(classLoader);
+			if (configuration != null) {
+				configuration.stopWatchingPropertyFiles();
+			}
+			invalidateResolvedConfigurations(classLoader);
+		}
 		hotswapTransformer.closeClassLoader(classLoader);
 		if(watcher != null) {
 			watcher.closeClassLoader(classLoader);
@@ -245,13 +321,64 @@ public class PluginManager {
 	}
 
 	public PluginConfiguration getPluginConfiguration(ClassLoader classLoader) {
+		if (classLoader == null) {
+			return bootstrapConfiguration;
+		}
+
+		// the version is taken before resolution - if a classloader is initialized or closed concurrently,
+		// possibly stale result is removed again
+		long version = resolvedConfigurationsVersion.get();
+		WeakReference<PluginConfiguration> resolved = resolvedConfigurations.get(classLoader);
+		if (resolved == NO_CONFIGURATION) {
+			return bootstrapConfiguration;
+		}
+		PluginConfiguration configuration = resolved != null ? resolved.get() : null;
+		if (configuration != null) {
+			return configuration;
+		}
+
 		// if needed, iterate to first parent loader with a known configuration
 		ClassLoader loader = classLoader;
-		while (loader != null && !classLoaderConfigurations.containsKey(loader)) {
+		while (loader != null && (configuration = classLoaderConfigurations.get(loader)) == null) {
 			loader = loader.getParent();
 		}
+		resolvedConfigurations.put(classLoader,
+				configuration != null ? new WeakReference<PluginConfiguration>(configuration) : NO_CONFIGURATION);
+		// invalidated meanwhile - the walk might have missed the entry
+		if (version != resolvedConfigurationsVersion.get()) {
+			resolvedConfigurations.remove(classLoader);
+		}
 
-		return classLoaderConfigurations.get(loader);
+		return configuration != null ? configuration : bootstrapConfiguration;
+	}
+
+	// remove resolved configuration of the classloader and its child classloaders
+	private void invalidateResolvedConfigurations(ClassLoader classLoader) {
+		synchronized (invalidationLock) {
+			resolvedConfigurationsVersion.incrementAndGet();
+			for (ClassLoader key : resolvedConfigurations.keys()) {
+				for (ClassLoader loader = key; loader != null; loader = loader.getParent()) {
+					if (loader == classLoader) {
+						resolvedConfigurations.remove(key);
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	private boolean isInitialized(ClassLoader classLoader) {
+		return classLoader == null ? bootstrapConfiguration != null : classLoaderConfigurations.containsKey(classLoader);
+	}
+
+	// register configuration first, then drop resolved configurations (see getPluginConfiguration())
+	private void putConfiguration(ClassLoader classLoader, PluginConfiguration configuration) {
+		if (classLoader == null) {
+			bootstrapConfiguration = configuration;
+		} else {
+			classLoaderConfigurations.put(classLoader, configuration);
+			invalidateResolvedConfigurations(classLoader);
+		}
 	}
 
 	////////////////////////// AGENT SERVICES
@@ -300,6 +427,8 @@ public class PluginManager {
 		return scheduler;
 	}
 
+	private final LatencyHistogram redefineHistogram = ReloadMetrics.histogram(ReloadMetrics.Stage.REDEFINE, "redefineClasses");
+
 	/**
 	 * Redefine the supplied set of classes using the supplied bytecode.
 	 *
@@ -327,7 +456,9 @@ public class PluginManager {
 			}
 			try {
 				LOGGER.reload("Reloading classes {} (autoHotswap)", Arrays.toString(classNames));
+				long start = System.nanoTime();
 				instrumentation.redefineClasses(definitions);
+				ReloadMetrics.record(redefineHistogram, start, definitions.length);
 				LOGGER.debug("... reloaded classes {} (autoHotswap)", Arrays.toString(classNames));
 			} catch (Exception e) {
 				LOGGER.error("Error redifining classes" ,e);
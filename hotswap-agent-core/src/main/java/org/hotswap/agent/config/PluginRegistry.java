@@ -1,19 +1,23 @@
 package org.hotswap.agent.config;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.hotswap.agent.HotswapAgent;
 import org.hotswap.agent.annotation.Plugin;
 import org.hotswap.agent.annotation.handler.AnnotationProcessor;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.AnnotationIndex;
 import org.hotswap.agent.util.classloader.ClassLoaderPatcher;
 import org.hotswap.agent.util.scanner.ClassPathAnnotationScanner;
-import org.hotswap.agent.util.scanner.ClassPathScanner;
+import org.hotswap.agent.util.scanner.PluginIndexScanner;
 
 /**
  * Registry to support plugin manager.
@@ -28,6 +32,15 @@ public class PluginRegistry {
 	protected Map<Class<?>, Map<ClassLoader, Object>> registeredPlugins = Collections
 			.synchronizedMap(new HashMap<Class<?>, Map<ClassLoader, Object>>());
 
+	// plugin instance -> ClassLoader (reverse index of registeredPlugins, by identity)
+	private final Map<Object, ClassLoader> pluginClassLoaders = Collections
+			.synchronizedMap(new IdentityHashMap<Object, ClassLoader>());
+
+	// plugin class -> Map (ClassLoader -> nearest registered ClassLoader of the plugin in parent chain),
+	// the value is weak - it may be the key itself
+	private final Map<Class<?>, Map<ClassLoader, WeakReference<ClassLoader>>> nearestRegisteredClassLoaders = Collections
+			.synchronizedMap(new HashMap<Class<?>, Map<ClassLoader, WeakReference<ClassLoader>>>());
+
 	/**
 	 * Returns map of all registered plugins.
 	 *
@@ -68,7 +81,7 @@ public class PluginRegistry {
 	public PluginRegistry(PluginManager pluginManager, ClassLoaderPatcher classLoaderPatcher) {
 		this.pluginManager = pluginManager;
 		this.classLoaderPatcher = classLoaderPatcher;
-		annotationScanner = new ClassPathAnnotationScanner(Plugin.class.getName(), new ClassPathScanner());
+		annotationScanner = new PluginIndexScanner();
 		annotationProcessor = new AnnotationProcessor(pluginManager);
 	}
 
@@ -172,14 +185,27 @@ public class PluginRegistry {
 			return getPlugin(clazz, appClassLoader);
 		}
 
+		// plugin classes may be referenced from the classloader by the plugin instance. No class definition
+		// triggers the initialization here, classes get default protection domain of the classloader.
+		pluginManager.initPluginClasses(clazz, appClassLoader, null);
+
 		Object pluginInstance = instantiate(clazz);
 		registeredPlugins.get(clazz).put(appClassLoader, pluginInstance);
+		pluginClassLoaders.put(pluginInstance, appClassLoader);
+		// nearest registered classloader may change for child classloaders
+		nearestRegisteredClassLoaders.remove(clazz);
+		// index before init methods run, they may register transformers querying the index
+		Plugin pluginAnnotation = clazz.getAnnotation(Plugin.class);
+		if (pluginAnnotation != null) {
+			AnnotationIndex.track(appClassLoader, pluginAnnotation.indexedAnnotations());
+		}
 
 		if (annotationProcessor.processPluginInstanceAnnotations(pluginInstance, appClassLoader, pluginManager.getPluginConfiguration(appClassLoader))) {
 			LOGGER.info("Plugin '{}' initialized in ClassLoader '{}'.", pluginClass, appClassLoader);
 		} else {
 			LOGGER.error("Plugin '{}' NOT initialized in ClassLoader '{}', error while processing annotations.", pluginClass, appClassLoader);
 			registeredPlugins.get(clazz).remove(appClassLoader);
+			pluginClassLoaders.remove(pluginInstance);
 		}
 
 		return pluginInstance;
@@ -210,11 +236,10 @@ public class PluginRegistry {
 			throw new IllegalArgumentException(String.format("Plugin %s is not known to the registry.", pluginClass));
 		}
 
-		for (Map.Entry<ClassLoader, ?> registeredClassLoaderEntry : registeredPlugins.get(pluginClass).entrySet()) {
-			if (isParentClassLoader(registeredClassLoaderEntry.getKey(), classLoader)) {
-				// noinspection unchecked
-				return (T) registeredClassLoaderEntry.getValue();
-			}
+		Object plugin = findPlugin(pluginClass, classLoader);
+		if (plugin != null) {
+			// noinspection unchecked
+			return (T) plugin;
 		}
 
 		// not found
@@ -238,15 +263,47 @@ public class PluginRegistry {
 			return false;
 		}
 
-		for (Map.Entry<ClassLoader, Object> registeredClassLoaderEntry : registeredPlugins.get(pluginClass)
-				.entrySet()) {
-			if (checkParent && isParentClassLoader(registeredClassLoaderEntry.getKey(), classLoader)) {
-				return true;
-			} else if (registeredClassLoaderEntry.getKey().equals(classLoader)) {
-				return true;
+		if (checkParent) {
+			return findPlugin(pluginClass, classLoader) != null;
+		} else {
+			return registeredPlugins.get(pluginClass).containsKey(classLoader);
+		}
+	}
+
+	// plugin instance registered in the classloader or the nearest parent classloader
+	private Object findPlugin(Class<?> pluginClass, ClassLoader classLoader) {
+		Map<ClassLoader, Object> plugins = registeredPlugins.get(pluginClass);
+		if (plugins == null || classLoader == null) {
+			return null;
+		}
+
+		Map<ClassLoader, WeakReference<ClassLoader>> nearest;
+		synchronized (nearestRegisteredClassLoaders) {
+			nearest = nearestRegisteredClassLoaders.get(pluginClass);
+			if (nearest == null) {
+				nearest = Collections.synchronizedMap(new WeakHashMap<ClassLoader, WeakReference<ClassLoader>>());
+				nearestRegisteredClassLoaders.put(pluginClass, nearest);
+			}
+		}
+
+		// cached classloader is valid as long as the plugin is still registered in it
+		WeakReference<ClassLoader> registeredReference = nearest.get(classLoader);
+		ClassLoader registeredClassLoader = registeredReference != null ? registeredReference.get() : null;
+		if (registeredClassLoader != null) {
+			Object plugin = plugins.get(registeredClassLoader);
+			if (plugin != null) {
+				return plugin;
 			}
 		}
-		return false;
+
+		for (ClassLoader cl = classLoader; cl != null; cl = cl.getParent()) {
+			Object plugin = plugins.get(cl);
+			if (plugin != null) {
+				nearest.put(classLoader, new WeakReference<ClassLoader>(cl));
+				return plugin;
+			}
+		}
+		return null;
 	}
 
 	/**
@@ -257,11 +314,16 @@ public class PluginRegistry {
 	 * @return the classloader this plugin is associated with
 	 */
 	public ClassLoader getAppClassLoader(Object plugin) {
-		// search with for loop. Maybe performance improvement to create reverse
-		// map if this is used heavily
+		ClassLoader classLoader = pluginClassLoaders.get(plugin);
+		if (classLoader != null) {
+			return classLoader;
+		}
+
+		// plugin not registered by initializePlugin (e.g. registered directly in registeredPlugins)
 		for (Map<ClassLoader, Object> plugins : registeredPlugins.values()) {
 			for (Map.Entry<ClassLoader, Object> entry : plugins.entrySet()) {
 				if (entry.getValue().equals(plugin)) {
+					pluginClassLoaders.put(plugin, entry.getKey());
 					return entry.getKey();
 				}
 			}
@@ -282,17 +344,6 @@ public class PluginRegistry {
 		}
 	}
 
-	// check if parentClassLoader is parent of classLoader
-	private boolean isParentClassLoader(ClassLoader parentClassLoader, ClassLoader classLoader) {
-		if (parentClassLoader.equals(classLoader)) {
-			return true;
-		} else if (classLoader.getParent() != null) {
-			return isParentClassLoader(parentClassLoader, classLoader.getParent());
-		} else {
-			return false;
-		}
-	}
-
 	/**
 	 * Create a new instance of the plugin.
 	 *
@@ -319,7 +370,12 @@ public class PluginRegistry {
 	 */
 	public void closeClassLoader(ClassLoader classLoader) {
 		for (Map<ClassLoader, Object> plugins : registeredPlugins.values()) {
-			plugins.remove(classLoader);
+			Object plugin = plugins.remove(classLoader);
+			if (plugin != null) {
+				pluginClassLoaders.remove(plugin);
+			}
 		}
+		// cached lookups may point to the closed classloader
+		nearestRegisteredClassLoaders.clear();
 	}
 }
@@ -1,7 +1,8 @@
 package org.hotswap.agent.logging;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Create custom simple logging mechanism.
@@ -24,18 +25,28 @@ public class AgentLogger {
 		return new AgentLogger(clazz);
 	}
 
-	private static Map<String, Level> currentLevels = new HashMap<String, Level>();
+	private static Map<String, Level> currentLevels = new ConcurrentHashMap<String, Level>();
 
 	public static void setLevel(String classPrefix, Level level) {
 		currentLevels.put(classPrefix, level);
+		configurationVersion.incrementAndGet();
 	}
 
-	private static Level rootLevel = Level.INFO;
+	private static volatile Level rootLevel = Level.INFO;
 
 	public static void setLevel(Level level) {
 		rootLevel = level;
+		configurationVersion.incrementAndGet();
 	}
 
+	/**
+	 * Incremented on each level change, loggers resolve their effective level
+	 * again when the version they resolved for differs.
+	 */
+	private static final AtomicInteger configurationVersion = new AtomicInteger();
+
+	private static final Object[] NO_ARGS = new Object[0];
+
 	private static AgentLoggerHandler handler = new AgentLoggerHandler();
 
 	public static void setHandler(AgentLoggerHandler handler) {
@@ -53,38 +64,49 @@ public class AgentLogger {
 		ERROR, RELOAD, WARNING, INFO, DEBUG, TRACE
 	}
 
+	// bits of resolvedLevel holding level ordinal, rest is configuration version
+	private static final int LEVEL_BITS = 3;
+	private static final int LEVEL_MASK = (1 << LEVEL_BITS) - 1;
+
 	private Class<?> clazz;
 
+	// effective level ordinal together with configuration version it was resolved for
+	// (single int field to be consistent without synchronization)
+	private int resolvedLevel = -1;
+
 	private AgentLogger(Class<?> clazz) {
 		this.clazz = clazz;
 	}
 
 	public boolean isLevelEnabled(Level level) {
+		int resolved = resolvedLevel;
+		if (resolved >>> LEVEL_BITS != configurationVersion.get()) {
+			resolved = resolveLevel();
+		}
+		// levels are ordered from most serious, the level is enabled up to effective level
+		return level.ordinal() <= (resolved & LEVEL_MASK);
+	}
+
+	// effective level is the level of the longest configured prefix of the class name
+	private int resolveLevel() {
+		int version = configurationVersion.get();
 		Level classLevel = rootLevel;
 
 		String className = clazz.getName();
 		String longestPrefix = "";
-		for (String classPrefix : currentLevels.keySet()) {
+		for (Map.Entry<String, Level> entry : currentLevels.entrySet()) {
+			String classPrefix = entry.getKey();
 			if (className.startsWith(classPrefix)) {
 				if (classPrefix.length() > longestPrefix.length()) {
 					longestPrefix = classPrefix;
-					classLevel = currentLevels.get(classPrefix);
+					classLevel = entry.getValue();
 				}
 			}
 		}
 
-		// iterate levels in order from most serious. If classLevel is first, it
-		// preciedes required level and log is disabled
-		for (Level l : Level.values()) {
-			if (l == level) {
-				return true;
-			}
-			if (l == classLevel) {
-				return false;
-			}
-		}
-
-		throw new IllegalArgumentException("Should not happen.");
+		int resolved = version << LEVEL_BITS | classLevel.ordinal();
+		resolvedLevel = resolved;
+		return resolved;
 	}
 
 	public void log(Level level, String message, Throwable throwable, Object... args) {
@@ -129,18 +151,84 @@ public class AgentLogger {
 		log(Level.INFO, message, throwable, args);
 	}
 
+	/*
+	 * Debug and trace overloads with fixed number of arguments do not
+	 * allocate argument array if the level is disabled. Throwable variants
+	 * are needed to keep a throwable argument bound as the throwable.
+	 */
+
+	public void debug(String message) {
+		if (isLevelEnabled(Level.DEBUG)) {
+			handler.print(clazz, Level.DEBUG, message, null, NO_ARGS);
+		}
+	}
+
+	public void debug(String message, Object arg) {
+		if (isLevelEnabled(Level.DEBUG)) {
+			handler.print(clazz, Level.DEBUG, message, null, arg);
+		}
+	}
+
+	public void debug(String message, Object arg1, Object arg2) {
+		if (isLevelEnabled(Level.DEBUG)) {
+			handler.print(clazz, Level.DEBUG, message, null, arg1, arg2);
+		}
+	}
+
 	public void debug(String message, Object... args) {
 		log(Level.DEBUG, message, args);
 	}
 
+	public void debug(String message, Throwable throwable) {
+		if (isLevelEnabled(Level.DEBUG)) {
+			handler.print(clazz, Level.DEBUG, message, throwable, NO_ARGS);
+		}
+	}
+
+	public void debug(String message, Throwable throwable, Object arg) {
+		if (isLevelEnabled(Level.DEBUG)) {
+			handler.print(clazz, Level.DEBUG, message, throwable, arg);
+		}
+	}
+
 	public void debug(String message, Throwable throwable, Object... args) {
 		log(Level.DEBUG, message, throwable, args);
 	}
 
+	public void trace(String message) {
+		if (isLevelEnabled(Level.TRACE)) {
+			handler.print(clazz, Level.TRACE, message, null, NO_ARGS);
+		}
+	}
+
+	public void trace(String message, Object arg) {
+		if (isLevelEnabled(Level.TRACE)) {
+			handler.print(clazz, Level.TRACE, message, null, arg);
+		}
+	}
+
+	public void trace(String message, Object arg1, Object arg2) {
+		if (isLevelEnabled(Level.TRACE)) {
+			handler.print(clazz, Level.TRACE, message, null, arg1, arg2);
+		}
+	}
+
 	public void trace(String message, Object... args) {
 		log(Level.TRACE, message, args);
 	}
 
+	public void trace(String message, Throwable throwable) {
+		if (isLevelEnabled(Level.TRACE)) {
+			handler.print(clazz, Level.TRACE, message, throwable, NO_ARGS);
+		}
+	}
+
+	public void trace(String message, Throwable throwable, Object arg) {
+		if (isLevelEnabled(Level.TRACE)) {
+			handler.print(clazz, Level.TRACE, message, throwable, arg);
+		}
+	}
+
 	public void trace(String message, Throwable throwable, Object... args) {
 		log(Level.TRACE, message, throwable, args);
 	}
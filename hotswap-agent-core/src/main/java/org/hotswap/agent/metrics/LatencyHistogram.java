@@ -0,0 +1,119 @@
+package org.hotswap.agent.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with power of two microsecond buckets.
+ * <p/>
+ * Bucket i counts durations in range [2^i, 2^(i+1)) microseconds (bucket 0 includes shorter durations),
+ * which gives at most 2x error of percentiles in exchange of constant memory and no allocation on record.
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 40;
+
+	private final String name;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Record single duration.
+	 *
+	 * @param nanos
+	 *            duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+
+		long max;
+		while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+			// retry
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public double getTotalMillis() {
+		return totalNanos.get() / 1000000.0;
+	}
+
+	public double getAverageMillis() {
+		long c = count.get();
+		return c == 0 ? 0 : totalNanos.get() / 1000000.0 / c;
+	}
+
+	public double getMaxMillis() {
+		return maxNanos.get() / 1000000.0;
+	}
+
+	/**
+	 * Approximate percentile - upper bound of the bucket containing the
+	 * percentile.
+	 *
+	 * @param percentile
+	 *            percentile in range 0-100
+	 * @return duration in milliseconds
+	 */
+	public double getPercentileMillis(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = buckets.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long threshold = (long) Math.ceil(total * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= threshold) {
+				return Math.min((1L << (i + 1)) / 1000.0, getMaxMillis());
+			}
+		}
+		return getMaxMillis();
+	}
+
+	/**
+	 * Forget all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: count=%d, total=%.1fms, avg=%.3fms, p50=%.3fms, p90=%.3fms, p99=%.3fms, max=%.3fms",
+				name, getCount(), getTotalMillis(), getAverageMillis(), getPercentileMillis(50),
+				getPercentileMillis(90), getPercentileMillis(99), getMaxMillis());
+	}
+}
@@ -0,0 +1,129 @@
+package org.hotswap.agent.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Event log of reload metrics - each recorded duration as a tab separated
+ * line (time, thread, stage:name, duration in microseconds, detail).
+ * <p/>
+ * Recording thread only offers the event to a bounded queue, the file is
+ * written by a daemon thread. Events are dropped (and counted) if the writer
+ * does not keep up.
+ */
+class ReloadEventLog {
+	private static AgentLogger LOGGER = AgentLogger.getLogger(ReloadEventLog.class);
+
+	private static final int QUEUE_CAPACITY = 10000;
+
+	private final BlockingQueue<Event> queue = new ArrayBlockingQueue<Event>(QUEUE_CAPACITY);
+	private final AtomicLong dropped = new AtomicLong();
+	private final Writer writer;
+	private final Thread thread;
+	private volatile boolean stopped;
+
+	ReloadEventLog(File file, boolean append) throws IOException {
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), Charset.forName("UTF-8")));
+		writer.write("#time\tthread\tevent\tdurationMicros\tdetail\n");
+		writer.flush();
+
+		thread = new Thread() {
+			@Override
+			public void run() {
+				writeEvents();
+			}
+		};
+		thread.setName("HotSwap Metrics Log");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	void log(String name, long durationNanos, Object detail) {
+		Event event = new Event(System.currentTimeMillis(), Thread.currentThread().getName(), name, durationNanos, detail);
+		if (!queue.offer(event)) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	void close() {
+		stopped = true;
+		thread.interrupt();
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writeEvents() {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		try {
+			while (!stopped || !queue.isEmpty()) {
+				Event event;
+				try {
+					event = queue.poll(1, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					event = queue.poll();
+				}
+
+				if (event != null) {
+					writer.write(format.format(new Date(event.time)));
+					writer.write('\t');
+					writer.write(event.thread);
+					writer.write('\t');
+					writer.write(event.name);
+					writer.write('\t');
+					writer.write(Long.toString(TimeUnit.NANOSECONDS.toMicros(event.durationNanos)));
+					writer.write('\t');
+					writer.write(event.detail == null ? "" : String.valueOf(event.detail));
+					writer.write('\n');
+				}
+
+				long lost = dropped.getAndSet(0);
+				if (lost > 0) {
+					writer.write("#dropped " + lost + " events\n");
+				}
+				if (event == null || queue.isEmpty()) {
+					writer.flush();
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.error("Error writing reload metrics event log, the log is stopped.", e);
+		} finally {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				LOGGER.debug("Unable to close reload metrics event log.", e);
+			}
+		}
+	}
+
+	private static class Event {
+		final long time;
+		final String thread;
+		final String name;
+		final long durationNanos;
+		final Object detail;
+
+		Event(long time, String thread, String name, long durationNanos, Object detail) {
+			this.time = time;
+			this.thread = thread;
+			this.name = name;
+			this.durationNanos = durationNanos;
+			this.detail = detail;
+		}
+	}
+}
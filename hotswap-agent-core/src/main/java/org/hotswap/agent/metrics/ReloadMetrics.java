@@ -0,0 +1,144 @@
+package org.hotswap.agent.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Reload latency metrics - histogram per stage of the reload chain and per
+ * plugin method / command.
+ * <p/>
+ * The chain of a reload is file watch event -> scheduled command (queue wait)
+ * -> command execution (plugin handler, framework refresh) -> class
+ * redefinition -> class load transformation. Each stage is recorded
+ * separately, histograms are available via {@link ReloadMetricsMBean} and
+ * optionally each recorded duration is written to event log file (see
+ * {@link #setEventLog(File, boolean)}).
+ * <p/>
+ * Callers on hot paths should resolve the histogram once (e.g. on handler
+ * registration) and use {@link #record(LatencyHistogram, long)}.
+ */
+public class ReloadMetrics {
+	private static AgentLogger LOGGER = AgentLogger.getLogger(ReloadMetrics.class);
+
+	/**
+	 * Stage of the reload.
+	 */
+	public enum Stage {
+		/** Dispatch of a burst of file watch events to listeners. */
+		WATCH_EVENT,
+		/** Time from (first) scheduling of a command until its execution started. */
+		QUEUE_WAIT,
+		/** Command execution - plugin watch handler, framework refresh, etc. */
+		COMMAND,
+		/** Instrumentation.redefineClasses() call. */
+		REDEFINE,
+		/** Plugin @OnClassLoadEvent transformation method. */
+		TRANSFORM
+	}
+
+	private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	private static volatile ReloadEventLog eventLog;
+
+	/**
+	 * Get or create histogram of a stage.
+	 *
+	 * @param stage
+	 *            stage of the reload
+	 * @param name
+	 *            name within the stage, typically plugin class and method
+	 *            name
+	 * @return the histogram
+	 */
+	public static LatencyHistogram histogram(Stage stage, String name) {
+		String key = stage.name() + ":" + name;
+		LatencyHistogram histogram = histograms.get(key);
+		if (histogram == null) {
+			LatencyHistogram created = new LatencyHistogram(key);
+			histogram = histograms.putIfAbsent(key, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Record duration from startNanos until now.
+	 *
+	 * @param histogram
+	 *            target histogram
+	 * @param startNanos
+	 *            start of the measured operation (System.nanoTime())
+	 */
+	public static void record(LatencyHistogram histogram, long startNanos) {
+		record(histogram, startNanos, null);
+	}
+
+	/**
+	 * Record duration from startNanos until now.
+	 *
+	 * @param histogram
+	 *            target histogram
+	 * @param startNanos
+	 *            start of the measured operation (System.nanoTime())
+	 * @param detail
+	 *            optional detail for event log (e.g. number of classes)
+	 */
+	public static void record(LatencyHistogram histogram, long startNanos, Object detail) {
+		long duration = System.nanoTime() - startNanos;
+		histogram.record(duration);
+
+		ReloadEventLog log = eventLog;
+		if (log != null) {
+			log.log(histogram.getName(), duration, detail);
+		}
+	}
+
+	/**
+	 * Snapshot of all histograms sorted by name.
+	 */
+	public static Map<String, LatencyHistogram> getHistograms() {
+		return new TreeMap<String, LatencyHistogram>(histograms);
+	}
+
+	/**
+	 * Reset all histograms.
+	 */
+	public static void reset() {
+		for (LatencyHistogram histogram : histograms.values()) {
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * Write all recorded durations to the file (one line per event). Previous
+	 * event log is closed.
+	 *
+	 * @param file
+	 *            target file, null to disable the event log
+	 * @param append
+	 *            append to existing file
+	 */
+	public static synchronized void setEventLog(File file, boolean append) {
+		ReloadEventLog previous = eventLog;
+		eventLog = null;
+		if (previous != null) {
+			previous.close();
+		}
+
+		if (file != null) {
+			try {
+				eventLog = new ReloadEventLog(file, append);
+				LOGGER.debug("Reload metrics event log started in file {}", file);
+			} catch (IOException e) {
+				LOGGER.error("Unable to open reload metrics event log file {}.", e, file);
+			}
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package org.hotswap.agent.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+
+/**
+ * JMX view of {@link ReloadMetrics}. Each histogram is a read only attribute
+ * (summary text: count, total, average, percentiles, max), operation
+ * "reset" clears all histograms and "dump" returns all summaries.
+ */
+public class ReloadMetricsMBean implements DynamicMBean {
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException, MBeanException, ReflectionException {
+		LatencyHistogram histogram = ReloadMetrics.getHistograms().get(attribute);
+		if (histogram == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		return histogram.toString();
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Reload metrics are read only - " + attribute.getName());
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		Map<String, LatencyHistogram> histograms = ReloadMetrics.getHistograms();
+		AttributeList l = new AttributeList();
+		for (String attribute : attributes) {
+			LatencyHistogram histogram = histograms.get(attribute);
+			if (histogram != null) {
+				l.add(new Attribute(attribute, histogram.toString()));
+			}
+		}
+		return l;
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException, ReflectionException {
+		if ("reset".equals(actionName)) {
+			ReloadMetrics.reset();
+			return null;
+		} else if ("dump".equals(actionName)) {
+			StringBuilder sb = new StringBuilder();
+			for (LatencyHistogram histogram : ReloadMetrics.getHistograms().values()) {
+				sb.append(histogram).append('\n');
+			}
+			return sb.toString();
+		}
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (String name : ReloadMetrics.getHistograms().keySet()) {
+			attributes.add(new MBeanAttributeInfo(name, "java.lang.String", name, true, false, false));
+		}
+
+		MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Reset all reload metrics",
+				new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+		MBeanOperationInfo dump = new MBeanOperationInfo("dump", "Summary of all reload metrics",
+				new MBeanParameterInfo[0], "java.lang.String", MBeanOperationInfo.INFO);
+
+		return new MBeanInfo(this.getClass().getName(), "HotSwap reload metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), new MBeanConstructorInfo[] {},
+				new MBeanOperationInfo[] { reset, dump }, new MBeanNotificationInfo[] {});
+	}
+}
@@ -4,7 +4,7 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.hotswap.agent.HotswapAgent;
 import org.hotswap.agent.annotation.FileEvent;
@@ -19,6 +19,8 @@ import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.javassist.CannotCompileException;
 import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.metrics.LatencyHistogram;
+import org.hotswap.agent.metrics.ReloadMetrics;
 import org.hotswap.agent.util.PluginManagerInvoker;
 import org.hotswap.agent.util.classloader.ClassLoaderHelper;
 
@@ -37,6 +39,12 @@ import org.hotswap.agent.util.classloader.ClassLoaderHelper;
 public class HotswapperPlugin {
 	private static AgentLogger LOGGER = AgentLogger.getLogger(HotswapperPlugin.class);
 
+	// default minimal quiet period (ms) after a class file change before the redefinition
+	static final long DEFAULT_DELAY = 100;
+
+	// default maximal delay (ms) of the redefinition after the first change of a build
+	static final long DEFAULT_MAX_DELAY = 2000;
+
 	@Init
 	Scheduler scheduler;
 
@@ -47,8 +55,10 @@ public class HotswapperPlugin {
 	@Init
 	PluginConfiguration configuration;
 
-	// synchronize on this map to wait for previous processing
-	final Map<Class<?>, byte[]> reloadMap = new HashMap<Class<?>, byte[]>();
+	// changed classes waiting for the build to finish
+	RedefinitionBatch batch;
+
+	final LatencyHistogram batchHistogram = ReloadMetrics.histogram(ReloadMetrics.Stage.REDEFINE, "HotswapperPlugin.batch");
 
 	// command to do actual hotswap. Single command to merge possible multiple
 	// reload actions.
@@ -75,10 +85,10 @@ public class HotswapperPlugin {
 					ctClass.getName(), appClassLoader);
 			return;
 		}
-		synchronized (reloadMap) {
-			reloadMap.put(clazz, ctClass.toBytecode());
-		}
-		scheduler.scheduleCommand(hotswapCommand, 100, Scheduler.DuplicateSheduleBehaviour.SKIP);
+
+		// rescheduling the command restarts its timer - it runs once the build is quiet
+		long delay = batch.add(clazz, ctClass.toBytecode());
+		scheduler.scheduleCommand(hotswapCommand, (int) delay, Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER);
 	}
 
 	/**
@@ -90,26 +100,53 @@ public class HotswapperPlugin {
 	 *            plugin), use this classloader.
 	 * @param port
 	 *            attach the hotswapper
+	 * @param minDelay
+	 *            minimal quiet period after a class change before redefinition
+	 * @param maxDelay
+	 *            maximal delay of redefinition after the first class change
 	 */
-	public void initHotswapCommand(ClassLoader appClassLoader, String port) {
+	public void initHotswapCommand(final ClassLoader appClassLoader, final String port, long minDelay, long maxDelay) {
 		LOGGER.debug("initHotswapCommand");
-		if (port != null && port.length() > 0) {
-			hotswapCommand = new ReflectionCommand(this, HotswapperCommand.class.getName(), "hotswap", appClassLoader,
-					port, reloadMap);
-		} else {
-			hotswapCommand = new Command() {
-				@Override
-				public void executeCommand() {
-					LOGGER.debug("swapping... {}",reloadMap);
-					pluginManager.hotswap(reloadMap);
+		batch = new RedefinitionBatch(minDelay, maxDelay);
+		hotswapCommand = new Command() {
+			@Override
+			public void executeCommand() {
+				// take the batch - changes arriving meanwhile form a new batch and do not wait for redefinition
+				HashMap<Class<?>, byte[]> reloadMap = batch.drain();
+				if (reloadMap.isEmpty()) {
+					return;
 				}
 
-				@Override
-				public String toString() {
-					return "pluginManager.hotswap(" + Arrays.toString(reloadMap.keySet().toArray()) + ")";
+				LOGGER.debug("swapping... {}", reloadMap);
+				int size = reloadMap.size();
+				long start = System.nanoTime();
+				try {
+					if (port != null && port.length() > 0) {
+						new ReflectionCommand(HotswapperPlugin.this, HotswapperCommand.class.getName(), "hotswap", appClassLoader,
+								port, reloadMap).executeCommand();
+					} else {
+						pluginManager.hotswap(reloadMap);
+					}
+				} catch (RuntimeException e) {
+					LOGGER.debug("Redefinition of batch failed.", e);
 				}
-			};
-		}
+
+				// both hotswap implementations clear the map only after successful redefinition
+				if (!reloadMap.isEmpty()) {
+					LOGGER.warning("Classes {} were not redefined, retrying with the next class change.", reloadMap.keySet());
+					batch.restore(reloadMap);
+					return;
+				}
+				ReloadMetrics.record(batchHistogram, start, size);
+				LOGGER.reload("Redefined batch of {} classes in {}ms.", size,
+						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			}
+
+			@Override
+			public String toString() {
+				return "pluginManager.hotswap(" + Arrays.toString(batch.getClasses().keySet().toArray()) + ")";
+			}
+		};
 	}
 
 	/**
@@ -136,8 +173,24 @@ public class HotswapperPlugin {
 
 		LOGGER.debug("Init plugin at classLoader {}", appClassLoader);
 		String port = pluginConfiguration.getProperty("autoHotswap.port");
+		long minDelay = getDelay(pluginConfiguration, "autoHotswap.delay", DEFAULT_DELAY);
+		long maxDelay = getDelay(pluginConfiguration, "autoHotswap.maxDelay", DEFAULT_MAX_DELAY);
 
 		HotswapperPlugin plugin = PluginManagerInvoker.callInitializePlugin(HotswapperPlugin.class, appClassLoader);
-		plugin.initHotswapCommand(appClassLoader, port);
+		plugin.initHotswapCommand(appClassLoader, port, minDelay, maxDelay);
+	}
+
+	private static long getDelay(PluginConfiguration pluginConfiguration, String property, long defaultValue) {
+		String value = pluginConfiguration.getProperty(property);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			LOGGER.warning("Invalid configuration value for property '{}': '{}', using default {}ms.", property, value,
+					defaultValue);
+			return defaultValue;
+		}
 	}
 }
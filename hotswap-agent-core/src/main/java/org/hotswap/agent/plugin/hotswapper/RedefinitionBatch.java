@@ -0,0 +1,115 @@
+package org.hotswap.agent.plugin.hotswapper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Changed classes waiting for redefinition and adaptive debounce of the
+ * redefinition.
+ * <p/>
+ * A build (IDE compiler, maven, gradle) writes class files in bursts. Every
+ * redefineClasses() call forces a safepoint and deoptimization, hence all
+ * changes of a build should be redefined by a single call. The build is
+ * considered finished when no class file changed for a quiet period. The
+ * quiet period adapts to the observed pace of the build - it is twice the
+ * average gap between class file events of the current burst, at least
+ * minDelay (single class change is redefined quickly) and at most maxDelay.
+ * A burst is never postponed more than maxDelay after its first change, so
+ * a long running build does not starve the redefinition.
+ */
+public class RedefinitionBatch {
+
+	private final long minDelay;
+	private final long maxDelay;
+
+	// guarded by this
+	private HashMap<Class<?>, byte[]> classes = new HashMap<Class<?>, byte[]>();
+	private long burstStart;
+	private int burstEvents;
+
+	/**
+	 * @param minDelay
+	 *            minimal quiet period in milliseconds
+	 * @param maxDelay
+	 *            maximal delay of a redefinition after first change of a
+	 *            burst in milliseconds
+	 */
+	public RedefinitionBatch(long minDelay, long maxDelay) {
+		this.minDelay = minDelay;
+		this.maxDelay = Math.max(minDelay, maxDelay);
+	}
+
+	/**
+	 * Add changed class to the batch.
+	 *
+	 * @param clazz
+	 *            class to redefine
+	 * @param bytecode
+	 *            new bytecode, replaces bytecode of previous change of the
+	 *            same class
+	 * @return delay in milliseconds after which the batch should be
+	 *         redefined, unless another change comes
+	 */
+	public long add(Class<?> clazz, byte[] bytecode) {
+		return add(clazz, bytecode, System.nanoTime());
+	}
+
+	synchronized long add(Class<?> clazz, byte[] bytecode, long now) {
+		classes.put(clazz, bytecode);
+
+		if (burstEvents == 0) {
+			burstStart = now;
+			burstEvents = 1;
+			return minDelay;
+		}
+
+		burstEvents++;
+
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(now - burstStart);
+		long averageGap = elapsed / (burstEvents - 1);
+		long quiet = Math.min(maxDelay, Math.max(minDelay, 2 * averageGap));
+		return Math.max(0, Math.min(quiet, maxDelay - elapsed));
+	}
+
+	/**
+	 * Take all classes of the batch and start a new burst.
+	 *
+	 * @return class -> bytecode to redefine, possibly empty
+	 */
+	public synchronized HashMap<Class<?>, byte[]> drain() {
+		HashMap<Class<?>, byte[]> result = classes;
+		classes = new HashMap<Class<?>, byte[]>();
+		burstEvents = 0;
+		return result;
+	}
+
+	/**
+	 * Return classes of a drained batch which were not redefined. A newer
+	 * change of the same class added after the drain takes precedence.
+	 *
+	 * @param failed
+	 *            class -> bytecode which failed to redefine
+	 */
+	public synchronized void restore(Map<Class<?>, byte[]> failed) {
+		for (Map.Entry<Class<?>, byte[]> entry : failed.entrySet()) {
+			if (!classes.containsKey(entry.getKey())) {
+				classes.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Number of classes waiting for redefinition.
+	 */
+	public synchronized int size() {
+		return classes.size();
+	}
+
+	/**
+	 * Content of the batch (copy).
+	 */
+	public synchronized Map<Class<?>, byte[]> getClasses() {
+		return new HashMap<Class<?>, byte[]>(classes);
+	}
+}
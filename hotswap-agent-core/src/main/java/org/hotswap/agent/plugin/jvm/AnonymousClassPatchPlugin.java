@@ -9,6 +9,7 @@ import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.util.HotswapTransformer;
 import org.hotswap.agent.util.classloader.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
@@ -148,7 +149,7 @@ public class AnonymousClassPatchPlugin {
      * Define new synthetic classes for not compatible changes.
      */
     @OnClassLoadEvent(classNameRegexp = ".*", events = LoadEvent.REDEFINE)
-    public static byte[] patchMainClass(String className, ClassPool classPool, CtClass ctClass,
+    public static byte[] patchMainClass(String className, ClassPool classPool, byte[] bytes,
                                         ClassLoader classLoader, ProtectionDomain protectionDomain) throws IOException, CannotCompileException, NotFoundException {
         String javaClassName = className.replaceAll("/", ".");
 
@@ -156,7 +157,17 @@ public class AnonymousClassPatchPlugin {
         if (!ClassLoaderHelper.isClassLoaded(classLoader, javaClassName + "$1"))
             return null;
 
+        // parse the class only if it is patched (overwrite possibly cached previous version)
+        CtClass ctClass = classPool.makeClass(new ByteArrayInputStream(bytes), false);
+        try {
+            return patchMainClass(className, javaClassName, classPool, ctClass, classLoader, protectionDomain);
+        } finally {
+            ctClass.detach();
+        }
+    }
 
+    private static byte[] patchMainClass(String className, String javaClassName, ClassPool classPool, CtClass ctClass,
+                                         ClassLoader classLoader, ProtectionDomain protectionDomain) throws IOException, CannotCompileException, NotFoundException {
         AnonymousClassInfos stateInfo = getStateInfo(classLoader, classPool, javaClassName);
         Map<AnonymousClassInfo, AnonymousClassInfo> transitions = stateInfo.getCompatibleTransitions();
 
@@ -31,4 +31,8 @@ public class AnnotationHelper {
 		return false;
 	}
 
+	public static boolean hasAnnotation(ClassModel clazz, String annotationClass) {
+		return clazz.hasAnnotation(annotationClass);
+	}
+
 }
@@ -0,0 +1,212 @@
+package org.hotswap.agent.util;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Index of class annotations per classloader - annotation type to class names.
+ * <p/>
+ * Only annotations tracked by a plugin ({@link org.hotswap.agent.annotation.Plugin#indexedAnnotations()})
+ * are indexed and only in classloaders the plugin is initialized in. The index is updated by
+ * {@link HotswapTransformer} from class bytes on each class define and redefine, before any plugin transformer
+ * is called. Classes of other classloaders are skipped by a single map lookup. Bytes are parsed only if the
+ * constant pool contains a descriptor of a tracked annotation, other classes are skipped after constant pool scan.
+ * <p/>
+ * On redefinition previous annotations of the class are kept, so a plugin may check in O(1) if the class
+ * was or is now annotated (e.g. entity annotation added or removed) without parsing the class
+ * (see {@link #hasOrHadAnnotation(Class, String)}).
+ * <p/>
+ * Classes defined before an annotation was tracked (classloader already in use) and classes of child
+ * classloaders are not in the index, for them previous annotations are resolved by reflection on the original class
+ * and current annotations from the new class bytes.
+ */
+public class AnnotationIndex {
+	private static AgentLogger LOGGER = AgentLogger.getLogger(AnnotationIndex.class);
+
+	private static final ConcurrentWeakIdentityMap<ClassLoader, LoaderIndex> indexes = new ConcurrentWeakIdentityMap<ClassLoader, LoaderIndex>();
+
+	/**
+	 * Indexed annotations of a class.
+	 */
+	private static class IndexedClass {
+		final Set<String> annotations;
+		// before last redefinition
+		final Set<String> previous;
+
+		IndexedClass(Set<String> annotations, Set<String> previous) {
+			this.annotations = annotations;
+			this.previous = previous;
+		}
+	}
+
+	private static class LoaderIndex {
+		// type descriptor (Lorg/example/Annotation;) -> annotation class name, replaced on change
+		volatile Map<String, String> trackedDescriptors = Collections.emptyMap();
+		// class name -> annotations, only classes with any indexed annotation (now or before last redefinition)
+		final Map<String, IndexedClass> classes = new ConcurrentHashMap<String, IndexedClass>();
+	}
+
+	/**
+	 * Start indexing the annotations in the classloader. Called by plugin initialization.
+	 *
+	 * @param classLoader       classloader the plugin is initialized in
+	 * @param annotationClasses annotation class names (e.g. javax.persistence.Entity)
+	 */
+	public static synchronized void track(ClassLoader classLoader, String... annotationClasses) {
+		if (classLoader == null || annotationClasses.length == 0) {
+			return;
+		}
+		LoaderIndex index = indexes.get(classLoader);
+		if (index == null) {
+			index = new LoaderIndex();
+			indexes.put(classLoader, index);
+		}
+		Map<String, String> tracked = new LinkedHashMap<String, String>(index.trackedDescriptors);
+		for (String annotationClass : annotationClasses) {
+			tracked.put("L" + annotationClass.replace('.', '/') + ";", annotationClass);
+		}
+		if (tracked.size() != index.trackedDescriptors.size()) {
+			LOGGER.debug("Indexing class annotations {} in classloader {}.", tracked.values(), classLoader);
+			index.trackedDescriptors = Collections.unmodifiableMap(tracked);
+		}
+	}
+
+	/**
+	 * Update the index with a defined or redefined class. Called by {@link HotswapTransformer}.
+	 *
+	 * @param classLoader    defining classloader (bootstrap classes are not indexed)
+	 * @param className      class name in internal form (java/lang/String)
+	 * @param redefinition   true if the class is redefined
+	 * @param bytes          class bytes
+	 * @param transformer    parser of the bytes, the model is shared with plugin transformers
+	 */
+	static void update(ClassLoader classLoader, String className, boolean redefinition, byte[] bytes,
+			HotswapTransformer transformer) {
+		if (classLoader == null || className == null) {
+			return;
+		}
+		// no plugin tracking annotations is initialized in the classloader
+		LoaderIndex index = indexes.get(classLoader);
+		if (index == null) {
+			return;
+		}
+		Map<String, String> tracked = index.trackedDescriptors;
+
+		String name = className.replace('/', '.');
+
+		Set<String> annotations = Collections.emptySet();
+		if (ClassFileHeader.containsUtf8(bytes, tracked.keySet())) {
+			try {
+				annotations = new HashSet<String>();
+				for (String annotation : transformer.getClassModel(bytes).getAnnotations()) {
+					if (tracked.containsValue(annotation)) {
+						annotations.add(annotation);
+					}
+				}
+			} catch (IOException e) {
+				LOGGER.debug("Unable to index annotations of class {}.", e, name);
+				annotations = Collections.emptySet();
+			}
+		}
+
+		IndexedClass existing = index.classes.get(name);
+		Set<String> previous = redefinition && existing != null ? existing.annotations : Collections.<String>emptySet();
+		if (annotations.isEmpty() && previous.isEmpty()) {
+			index.classes.remove(name);
+		} else {
+			index.classes.put(name, new IndexedClass(annotations, previous));
+		}
+	}
+
+	/**
+	 * Check if the class has the annotation now - after last define/redefinition.
+	 *
+	 * @param classLoader     classloader of the class
+	 * @param className       class name in java format
+	 * @param annotationClass tracked annotation class name
+	 * @return true if annotated, false if not annotated or not in the index
+	 */
+	public static boolean hasAnnotation(ClassLoader classLoader, String className, String annotationClass) {
+		IndexedClass indexed = getIndexedClass(classLoader, className);
+		return indexed != null && indexed.annotations.contains(annotationClass);
+	}
+
+	/**
+	 * Check if the class being redefined has the annotation now or had the annotation before this
+	 * redefinition. Intended for @OnClassLoadEvent(events = REDEFINE) handlers - the index is already
+	 * updated with the new class bytes.
+	 *
+	 * @param original        class being redefined
+	 * @param bytes           new class bytes, used only if the class is not in the index
+	 * @param annotationClass tracked annotation class name
+	 * @return true if annotated now or before redefinition
+	 */
+	public static boolean hasOrHadAnnotation(Class<?> original, byte[] bytes, String annotationClass) {
+		ClassLoader classLoader = original.getClassLoader();
+		IndexedClass indexed = getIndexedClass(classLoader, original.getName());
+		if (indexed != null && (indexed.annotations.contains(annotationClass) || indexed.previous.contains(annotationClass))) {
+			return true;
+		}
+		// the original class is still the previous version, it may be defined before the annotation was tracked
+		if (AnnotationHelper.hasAnnotation(original, annotationClass)) {
+			return true;
+		}
+		// not indexed - the annotation may be added by this redefinition
+		return indexed == null && bytes != null && hasAnnotation(bytes, annotationClass);
+	}
+
+	// parse the bytes only if the constant pool contains the annotation descriptor
+	private static boolean hasAnnotation(byte[] bytes, String annotationClass) {
+		if (!ClassFileHeader.containsUtf8(bytes, Collections.singleton("L" + annotationClass.replace('.', '/') + ";"))) {
+			return false;
+		}
+		try {
+			return HotswapTransformer.getSharedClassModel(bytes).hasAnnotation(annotationClass);
+		} catch (IOException e) {
+			LOGGER.debug("Unable to resolve annotations of class bytes.", e);
+			return false;
+		}
+	}
+
+	/**
+	 * All classes of the classloader indexed and currently annotated by the annotation.
+	 *
+	 * @param classLoader     the classloader
+	 * @param annotationClass tracked annotation class name
+	 * @return class names in java format
+	 */
+	public static Set<String> getAnnotatedClasses(ClassLoader classLoader, String annotationClass) {
+		LoaderIndex index = classLoader != null ? indexes.get(classLoader) : null;
+		if (index == null) {
+			return Collections.emptySet();
+		}
+		Set<String> result = new HashSet<String>();
+		for (Map.Entry<String, IndexedClass> entry : index.classes.entrySet()) {
+			if (entry.getValue().annotations.contains(annotationClass)) {
+				result.add(entry.getKey());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Remove index of the classloader.
+	 */
+	public static void remove(ClassLoader classLoader) {
+		if (classLoader != null) {
+			indexes.remove(classLoader);
+		}
+	}
+
+	private static IndexedClass getIndexedClass(ClassLoader classLoader, String className) {
+		LoaderIndex index = classLoader != null ? indexes.get(classLoader) : null;
+		return index != null ? index.classes.get(className) : null;
+	}
+}
@@ -0,0 +1,200 @@
+package org.hotswap.agent.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Set;
+
+/**
+ * Lightweight reader of class file header - resolve class name from the
+ * constant pool without parsing the rest of the class (no javassist CtClass
+ * or ClassPool is created).
+ */
+public class ClassFileHeader {
+
+	private static final int MAGIC = 0xCAFEBABE;
+
+	// constant pool tags
+	private static final int UTF8 = 1;
+	private static final int INTEGER = 3;
+	private static final int FLOAT = 4;
+	private static final int LONG = 5;
+	private static final int DOUBLE = 6;
+	private static final int CLASS = 7;
+	private static final int STRING = 8;
+	private static final int FIELD_REF = 9;
+	private static final int METHOD_REF = 10;
+	private static final int INTERFACE_METHOD_REF = 11;
+	private static final int NAME_AND_TYPE = 12;
+	private static final int METHOD_HANDLE = 15;
+	private static final int METHOD_TYPE = 16;
+	private static final int DYNAMIC = 17;
+	private static final int INVOKE_DYNAMIC = 18;
+	private static final int MODULE = 19;
+	private static final int PACKAGE = 20;
+
+	/**
+	 * Read the class name from class file bytes.
+	 *
+	 * @param bytes
+	 *            class file content
+	 * @return class name in java format (e.g. java.lang.String) or null if
+	 *         the bytes are not a valid class file
+	 */
+	public static String getClassName(byte[] bytes) {
+		try {
+			int[] offsets = readConstantPoolOffsets(bytes);
+			if (offsets == null) {
+				return null;
+			}
+			int count = offsets.length - 1;
+
+			// access_flags (u2), this_class (u2)
+			int thisClass = readUnsignedShort(bytes, offsets[count] + 2);
+			if (thisClass <= 0 || thisClass >= count || bytes[offsets[thisClass]] != CLASS) {
+				return null;
+			}
+			int nameIndex = readUnsignedShort(bytes, offsets[thisClass] + 1);
+			if (nameIndex <= 0 || nameIndex >= count || bytes[offsets[nameIndex]] != UTF8) {
+				return null;
+			}
+			return readUtf8(bytes, offsets[nameIndex] + 1).replace('/', '.');
+		} catch (IndexOutOfBoundsException e) {
+			// truncated class file (e.g. still being written by a compiler)
+			return null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Check if the constant pool contains any of the strings (e.g. type
+	 * descriptors of annotations - if the class uses an annotation, the
+	 * descriptor is in the constant pool). Only strings of the same length are
+	 * decoded.
+	 *
+	 * @param bytes
+	 *            class file content
+	 * @param values
+	 *            strings to look up
+	 * @return true if any of the values is in the constant pool, false if
+	 *         none or the bytes are not a valid class file
+	 */
+	public static boolean containsUtf8(byte[] bytes, Set<String> values) {
+		if (values.isEmpty()) {
+			return false;
+		}
+		BitSet lengths = new BitSet();
+		for (String value : values) {
+			lengths.set(utf8Length(value));
+		}
+
+		try {
+			int[] offsets = readConstantPoolOffsets(bytes);
+			if (offsets == null) {
+				return false;
+			}
+			for (int i = 1; i < offsets.length - 1; i++) {
+				int offset = offsets[i];
+				if (offset != 0 && bytes[offset] == UTF8 && lengths.get(readUnsignedShort(bytes, offset + 1))
+						&& values.contains(readUtf8(bytes, offset + 1))) {
+					return true;
+				}
+			}
+			return false;
+		} catch (IndexOutOfBoundsException e) {
+			return false;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	// offset of each constant pool entry (index 0 is unused, second slot of long/double is 0),
+	// the last element is offset after the constant pool. Null if not a class file.
+	private static int[] readConstantPoolOffsets(byte[] bytes) {
+		if (bytes == null || bytes.length < 10 || readInt(bytes, 0) != MAGIC) {
+			return null;
+		}
+
+		int count = readUnsignedShort(bytes, 8);
+		int[] offsets = new int[count + 1];
+		int offset = 10;
+		for (int i = 1; i < count; i++) {
+			offsets[i] = offset;
+			int tag = bytes[offset];
+			switch (tag) {
+			case UTF8:
+				offset += 3 + readUnsignedShort(bytes, offset + 1);
+				break;
+			case CLASS:
+			case STRING:
+			case METHOD_TYPE:
+			case MODULE:
+			case PACKAGE:
+				offset += 3;
+				break;
+			case METHOD_HANDLE:
+				offset += 4;
+				break;
+			case INTEGER:
+			case FLOAT:
+			case FIELD_REF:
+			case METHOD_REF:
+			case INTERFACE_METHOD_REF:
+			case NAME_AND_TYPE:
+			case DYNAMIC:
+			case INVOKE_DYNAMIC:
+				offset += 5;
+				break;
+			case LONG:
+			case DOUBLE:
+				// takes two constant pool slots
+				offset += 9;
+				i++;
+				break;
+			default:
+				return null;
+			}
+		}
+		offsets[count] = offset;
+		return offsets;
+	}
+
+	// length of modified UTF-8 encoding
+	private static int utf8Length(String value) {
+		int length = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+		}
+		return length;
+	}
+
+	private static int readUnsignedShort(byte[] bytes, int offset) {
+		return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+	}
+
+	private static int readInt(byte[] bytes, int offset) {
+		return (readUnsignedShort(bytes, offset) << 16) | readUnsignedShort(bytes, offset + 2);
+	}
+
+	// modified UTF-8 including the u2 length prefix
+	private static String readUtf8(byte[] bytes, int offset) throws IOException {
+		int length = readUnsignedShort(bytes, offset);
+		if (offset + 2 + length > bytes.length) {
+			throw new IndexOutOfBoundsException();
+		}
+
+		// fast path for ASCII names
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			byte b = bytes[offset + 2 + i];
+			if (b <= 0) {
+				return new DataInputStream(new ByteArrayInputStream(bytes, offset, length + 2)).readUTF();
+			}
+			chars[i] = (char) b;
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,145 @@
+package org.hotswap.agent.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hotswap.agent.javassist.bytecode.AccessFlag;
+import org.hotswap.agent.javassist.bytecode.AnnotationsAttribute;
+import org.hotswap.agent.javassist.bytecode.ClassFile;
+import org.hotswap.agent.javassist.bytecode.FieldInfo;
+import org.hotswap.agent.javassist.bytecode.MethodInfo;
+import org.hotswap.agent.javassist.bytecode.annotation.Annotation;
+
+/**
+ * Read-only model of a class file - name, super types, runtime visible
+ * annotations and member signatures.
+ * <p/>
+ * Parsed once from class bytes without ClassPool or CtClass. It does not
+ * reference the bytes nor the parsed class file, hence it is immutable and may
+ * be shared by all handlers of a transformation (see
+ * {@link HotswapTransformer#getClassModel(byte[])}). Handlers which only
+ * inspect the class should use it instead of CtClass, a CtClass is created for
+ * each handler and serialized back to bytes afterwards.
+ */
+public class ClassModel {
+
+	private final String name;
+	private final String superclass;
+	private final List<String> interfaces;
+	private final int accessFlags;
+	private final List<String> annotations;
+	private final List<String> fieldSignatures;
+	private final List<String> methodSignatures;
+
+	/**
+	 * Parse class file bytes.
+	 *
+	 * @param bytes
+	 *            class file content
+	 * @throws IOException
+	 *             the bytes are not a valid class file
+	 */
+	public ClassModel(byte[] bytes) throws IOException {
+		ClassFile classFile = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+
+		name = classFile.getName();
+		superclass = classFile.getSuperclass();
+		interfaces = Collections.unmodifiableList(Arrays.asList(classFile.getInterfaces()));
+		accessFlags = classFile.getAccessFlags();
+
+		List<String> annotationNames = new ArrayList<String>();
+		AnnotationsAttribute visible = (AnnotationsAttribute) classFile.getAttribute(AnnotationsAttribute.visibleTag);
+		if (visible != null) {
+			for (Annotation annotation : visible.getAnnotations()) {
+				annotationNames.add(annotation.getTypeName());
+			}
+		}
+		annotations = Collections.unmodifiableList(annotationNames);
+
+		List<String> fields = new ArrayList<String>(classFile.getFields().size());
+		for (FieldInfo field : classFile.getFields()) {
+			fields.add(field.getName() + ":" + field.getDescriptor());
+		}
+		fieldSignatures = Collections.unmodifiableList(fields);
+
+		List<String> methods = new ArrayList<String>(classFile.getMethods().size());
+		for (MethodInfo method : classFile.getMethods()) {
+			methods.add(method.getName() + method.getDescriptor());
+		}
+		methodSignatures = Collections.unmodifiableList(methods);
+	}
+
+	/**
+	 * Class name in java format (e.g. java.lang.String).
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Superclass name in java format, null for java.lang.Object.
+	 */
+	public String getSuperclass() {
+		return superclass;
+	}
+
+	/**
+	 * Names of directly implemented interfaces in java format.
+	 */
+	public List<String> getInterfaces() {
+		return interfaces;
+	}
+
+	/**
+	 * Access flags as defined in {@link AccessFlag}.
+	 */
+	public int getAccessFlags() {
+		return accessFlags;
+	}
+
+	public boolean isInterface() {
+		return (accessFlags & AccessFlag.INTERFACE) != 0;
+	}
+
+	/**
+	 * Type names of runtime visible class annotations.
+	 */
+	public List<String> getAnnotations() {
+		return annotations;
+	}
+
+	/**
+	 * Check runtime visible class annotation.
+	 *
+	 * @param annotationClass
+	 *            annotation type name
+	 */
+	public boolean hasAnnotation(String annotationClass) {
+		return annotations.contains(annotationClass);
+	}
+
+	/**
+	 * Declared fields as name:descriptor (e.g. "count:I").
+	 */
+	public List<String> getFieldSignatures() {
+		return fieldSignatures;
+	}
+
+	/**
+	 * Declared methods including constructors as name followed by descriptor
+	 * (e.g. "toString()Ljava/lang/String;").
+	 */
+	public List<String> getMethodSignatures() {
+		return methodSignatures;
+	}
+
+	@Override
+	public String toString() {
+		return "ClassModel{" + name + "}";
+	}
+}
@@ -0,0 +1,269 @@
+package org.hotswap.agent.util;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.javassist.CtClass;
+import org.hotswap.agent.javassist.LoaderClassPath;
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Cached javassist ClassPool per classloader.
+ * <p/>
+ * Creating a new ClassPool for each transformation means that all referenced
+ * classes (superclasses, interfaces, method parameter types) are looked up
+ * via classloader resources and parsed again for each transformed class. The
+ * cached pool keeps parsed classes in a bounded LRU, classloaders are
+ * referenced weakly.
+ * <p/>
+ * Javassist ClassPool and CtClass are not thread safe. A cached pool is
+ * exclusively leased to a single thread ({@link #acquire(ClassLoader)} /
+ * {@link #release(ClassPool)}). If it is leased by another thread, a new
+ * uncached pool is returned instead of waiting - waiting for the pool while
+ * holding a classloader lock could deadlock with a thread holding the pool and
+ * loading a class.
+ * <p/>
+ * Handlers may modify classes of the pool or freeze them (toBytecode(),
+ * toClass()). Classes used during a lease which are modified or frozen and
+ * classes created by makeClass() are dropped on {@link #release(ClassPool)},
+ * next lease parses them again.
+ * <p/>
+ * A cached class must be invalidated when the class changes - on redefinition
+ * and on class file change (see {@link #invalidate(ClassLoader, String)}).
+ * Nested classes (Outer$Inner, Outer$1) are invalidated with the outer class.
+ */
+public class ClassPoolCache {
+	private static AgentLogger LOGGER = AgentLogger.getLogger(ClassPoolCache.class);
+
+	/**
+	 * Maximum number of parsed classes cached per classloader.
+	 */
+	public static final int MAX_CLASSES = 1000;
+
+	private static final Map<ClassLoader, CachedClassPool> pools = new WeakHashMap<ClassLoader, CachedClassPool>();
+
+	// bootstrap classloader (WeakHashMap would keep the null key forever anyway)
+	private static CachedClassPool bootstrapPool;
+
+	/**
+	 * Get class pool for a classloader. The pool contains system path and the
+	 * classloader path. Must be released by {@link #release(ClassPool)} in
+	 * finally block.
+	 *
+	 * @param classLoader
+	 *            the classloader (null for bootstrap classloader)
+	 * @return cached pool exclusively leased to current thread or a new pool if
+	 *         the cached one is in use
+	 */
+	public static ClassPool acquire(ClassLoader classLoader) {
+		CachedClassPool pool = getPool(classLoader, true);
+		if (pool.lock.tryLock()) {
+			return pool;
+		}
+
+		LOGGER.trace("Cached ClassPool for classloader {} is in use, creating a new one.", classLoader);
+		return createClassPool(new ClassPool(), classLoader);
+	}
+
+	/**
+	 * Release class pool acquired by {@link #acquire(ClassLoader)}.
+	 *
+	 * @param classPool
+	 *            the pool
+	 */
+	public static void release(ClassPool classPool) {
+		if (classPool instanceof CachedClassPool) {
+			CachedClassPool pool = (CachedClassPool) classPool;
+			try {
+				pool.removeChanged();
+			} finally {
+				pool.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Remove a class and its nested classes from the cache of a classloader -
+	 * the class was redefined or its class file changed.
+	 *
+	 * @param classLoader
+	 *            the classloader
+	 * @param className
+	 *            class name in java or internal (slash separated) format
+	 */
+	public static void invalidate(ClassLoader classLoader, String className) {
+		CachedClassPool pool = getPool(classLoader, false);
+		if (pool != null && className != null) {
+			pool.invalidate(className.replace('/', '.'));
+		}
+	}
+
+	/**
+	 * Drop the pool of a classloader (e.g. classloader is closed).
+	 *
+	 * @param classLoader
+	 *            the classloader
+	 */
+	public static void remove(ClassLoader classLoader) {
+		synchronized (pools) {
+			if (classLoader == null) {
+				bootstrapPool = null;
+			} else {
+				pools.remove(classLoader);
+			}
+		}
+	}
+
+	private static CachedClassPool getPool(ClassLoader classLoader, boolean create) {
+		synchronized (pools) {
+			CachedClassPool pool = classLoader == null ? bootstrapPool : pools.get(classLoader);
+			if (pool == null && create) {
+				pool = createClassPool(new CachedClassPool(MAX_CLASSES), classLoader);
+				if (classLoader == null) {
+					bootstrapPool = pool;
+				} else {
+					pools.put(classLoader, pool);
+				}
+			}
+			return pool;
+		}
+	}
+
+	private static <T extends ClassPool> T createClassPool(T classPool, ClassLoader classLoader) {
+		classPool.appendSystemPath();
+		// LoaderClassPath references the classloader weakly
+		classPool.appendClassPath(new LoaderClassPath(classLoader));
+		return classPool;
+	}
+
+	/**
+	 * Class pool with bounded LRU cache. Classes created by makeClass (dynamic)
+	 * are not evicted - they do not exist in the classloader resources and they
+	 * are removed by detach().
+	 */
+	static class CachedClassPool extends ClassPool {
+		final ReentrantLock lock = new ReentrantLock();
+
+		private final Map<String, CtClass> cache;
+
+		// classes used by the thread holding the lock, checked for changes on release
+		private final Set<CtClass> used = Collections.newSetFromMap(new IdentityHashMap<CtClass, Boolean>());
+		private final Set<CtClass> dynamic = Collections.newSetFromMap(new IdentityHashMap<CtClass, Boolean>());
+
+		CachedClassPool(final int maxClasses) {
+			cache = new LinkedHashMap<String, CtClass>(64, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CtClass> eldest) {
+					return size() > maxClasses;
+				}
+			};
+		}
+
+		@Override
+		protected CtClass getCached(String classname) {
+			// primitive types and dynamic classes
+			CtClass clazz = super.getCached(classname);
+			if (clazz == null) {
+				synchronized (cache) {
+					clazz = cache.get(classname);
+				}
+			}
+			if (clazz != null && !clazz.isPrimitive() && lock.isHeldByCurrentThread()) {
+				used.add(clazz);
+			}
+			return clazz;
+		}
+
+		@Override
+		protected void cacheCtClass(String classname, CtClass c, boolean dynamic) {
+			if (dynamic) {
+				synchronized (cache) {
+					cache.remove(classname);
+				}
+				super.cacheCtClass(classname, c, dynamic);
+				if (lock.isHeldByCurrentThread()) {
+					this.dynamic.add(c);
+				}
+			} else {
+				super.removeCached(classname);
+				synchronized (cache) {
+					cache.put(classname, c);
+				}
+				if (lock.isHeldByCurrentThread()) {
+					used.add(c);
+				}
+			}
+		}
+
+		/**
+		 * Drop classes modified or frozen during the lease and classes created
+		 * by makeClass(). Called by the thread holding the lock.
+		 */
+		void removeChanged() {
+			for (CtClass clazz : dynamic) {
+				removeIfSame(clazz);
+			}
+			for (CtClass clazz : used) {
+				if (clazz.isModified() || clazz.isFrozen()) {
+					removeIfSame(clazz);
+				}
+			}
+			dynamic.clear();
+			used.clear();
+		}
+
+		// remove only this instance - the name may be cached with a newer instance
+		private void removeIfSame(CtClass clazz) {
+			String classname = clazz.getName();
+			if (super.getCached(classname) == clazz) {
+				super.removeCached(classname);
+			}
+			synchronized (cache) {
+				if (cache.get(classname) == clazz) {
+					cache.remove(classname);
+				}
+			}
+		}
+
+		@Override
+		protected CtClass removeCached(String classname) {
+			CtClass removed = super.removeCached(classname);
+			synchronized (cache) {
+				CtClass cached = cache.remove(classname);
+				return removed != null ? removed : cached;
+			}
+		}
+
+		void invalidate(String classname) {
+			String nestedPrefix = classname + "$";
+			synchronized (cache) {
+				cache.remove(classname);
+				for (Iterator<String> it = cache.keySet().iterator(); it.hasNext();) {
+					if (it.next().startsWith(nestedPrefix)) {
+						it.remove();
+					}
+				}
+			}
+			CtClass dynamic = super.getCached(classname);
+			// keep primitive types
+			if (dynamic != null && !dynamic.isPrimitive()) {
+				super.removeCached(classname);
+			}
+		}
+
+		int size() {
+			synchronized (cache) {
+				return cache.size();
+			}
+		}
+	}
+}
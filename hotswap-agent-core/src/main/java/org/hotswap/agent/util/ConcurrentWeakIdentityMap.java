@@ -0,0 +1,161 @@
+package org.hotswap.agent.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread safe map with weakly referenced keys compared by identity (typically classloaders).
+ * <p/>
+ * Same structure as {@link ConcurrentWeakIdentitySet} - immutable open addressing table replaced on each
+ * modification. {@link #get(Object)} does not lock nor allocate, modification is lock free and expected
+ * to be rare compared to lookup. Values are referenced strongly, they must not reference the key,
+ * otherwise the entry is never collected.
+ *
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class ConcurrentWeakIdentityMap<K, V> {
+
+    private static final Entry<?, ?>[] EMPTY_TABLE = new Entry[2];
+
+    private final AtomicReference<Entry<K, V>[]> table;
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentWeakIdentityMap() {
+        table = new AtomicReference<Entry<K, V>[]>((Entry<K, V>[]) EMPTY_TABLE);
+    }
+
+    /**
+     * Value associated with the key.
+     *
+     * @param key key, not null
+     * @return the value or null if not present
+     */
+    public V get(K key) {
+        Entry<K, V>[] current = table.get();
+        int i = indexOf(current, key);
+        return i >= 0 ? current[i].value : null;
+    }
+
+    /**
+     * Associate the value with the key, replacing previous value.
+     *
+     * @param key   key, not null
+     * @param value value, not null
+     */
+    public void put(K key, V value) {
+        while (true) {
+            Entry<K, V>[] current = table.get();
+            if (table.compareAndSet(current, copyWith(current, key, value))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove the key.
+     *
+     * @param key key, not null
+     */
+    public void remove(K key) {
+        while (true) {
+            Entry<K, V>[] current = table.get();
+            if (indexOf(current, key) < 0 || table.compareAndSet(current, copyWith(current, key, null))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Number of entries with key not yet garbage collected.
+     */
+    public int size() {
+        int size = 0;
+        for (Entry<K, V> entry : table.get()) {
+            if (entry != null && entry.get() != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Snapshot of keys not yet garbage collected.
+     */
+    public List<K> keys() {
+        List<K> keys = new ArrayList<K>();
+        for (Entry<K, V> entry : table.get()) {
+            K key;
+            if (entry != null && (key = entry.get()) != null) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private static <K, V> int indexOf(Entry<K, V>[] table, K key) {
+        int mask = table.length - 1;
+        int i = hash(key) & mask;
+        Entry<K, V> entry;
+        while ((entry = table[i]) != null) {
+            if (entry.get() == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    // rebuild the table with live entries except the key, add the key with value if not null
+    @SuppressWarnings("unchecked")
+    private static <K, V> Entry<K, V>[] copyWith(Entry<K, V>[] current, K key, V value) {
+        int size = 1;
+        for (Entry<K, V> entry : current) {
+            if (entry != null && entry.get() != null) {
+                size++;
+            }
+        }
+
+        int capacity = 2;
+        while (capacity < size * 2) {
+            capacity <<= 1;
+        }
+
+        Entry<K, V>[] result = new Entry[capacity];
+        for (Entry<K, V> entry : current) {
+            K entryKey;
+            if (entry != null && (entryKey = entry.get()) != null && entryKey != key) {
+                insert(result, entry, entryKey);
+            }
+        }
+        if (value != null) {
+            insert(result, new Entry<K, V>(key, value), key);
+        }
+        return result;
+    }
+
+    private static <K, V> void insert(Entry<K, V>[] table, Entry<K, V> entry, K key) {
+        int mask = table.length - 1;
+        int i = hash(key) & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = entry;
+    }
+
+    private static int hash(Object key) {
+        int hash = System.identityHashCode(key);
+        return hash ^ (hash >>> 16);
+    }
+
+    private static class Entry<K, V> extends WeakReference<K> {
+        final V value;
+
+        Entry(K key, V value) {
+            super(key);
+            this.value = value;
+        }
+    }
+}
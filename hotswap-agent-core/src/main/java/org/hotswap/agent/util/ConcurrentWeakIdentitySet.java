@@ -0,0 +1,121 @@
+package org.hotswap.agent.util;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread safe set of weakly referenced objects compared by identity (typically classloaders).
+ * <p/>
+ * The set is backed by an immutable open addressing table which is replaced on each modification (copy-on-write).
+ * {@link #contains(Object)} does not lock nor allocate, hence it is suitable for hot paths like
+ * {@link java.lang.instrument.ClassFileTransformer#transform}. Modification is lock free (compare and set),
+ * it is expected to be rare compared to lookup. Cleared references are purged on modification.
+ *
+ * @param <T> type of elements
+ */
+public class ConcurrentWeakIdentitySet<T> {
+
+    @SuppressWarnings("unchecked")
+    private static final WeakReference<Object>[] EMPTY_TABLE = new WeakReference[2];
+
+    private final AtomicReference<WeakReference<T>[]> table;
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentWeakIdentitySet() {
+        table = new AtomicReference<WeakReference<T>[]>((WeakReference<T>[]) (Object) EMPTY_TABLE);
+    }
+
+    /**
+     * Check if the element is in the set.
+     *
+     * @param element element, not null
+     * @return true if present
+     */
+    public boolean contains(T element) {
+        return indexOf(table.get(), element) >= 0;
+    }
+
+    /**
+     * Add element to the set. Only one of concurrent callers adding the same element will receive true.
+     *
+     * @param element element, not null
+     * @return true if the element was added, false if it was already present
+     */
+    public boolean add(T element) {
+        while (true) {
+            WeakReference<T>[] current = table.get();
+            if (indexOf(current, element) >= 0) {
+                return false;
+            }
+            if (table.compareAndSet(current, copyWith(current, element))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Number of elements not yet garbage collected.
+     */
+    public int size() {
+        int size = 0;
+        for (WeakReference<T> ref : table.get()) {
+            if (ref != null && ref.get() != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    private static <T> int indexOf(WeakReference<T>[] table, T element) {
+        int mask = table.length - 1;
+        int i = hash(element) & mask;
+        WeakReference<T> ref;
+        while ((ref = table[i]) != null) {
+            if (ref.get() == element) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    // rebuild the table with live elements and the added element
+    @SuppressWarnings("unchecked")
+    private static <T> WeakReference<T>[] copyWith(WeakReference<T>[] current, T added) {
+        int size = 1;
+        for (WeakReference<T> ref : current) {
+            if (ref != null && ref.get() != null) {
+                size++;
+            }
+        }
+
+        int capacity = 2;
+        while (capacity < size * 2) {
+            capacity <<= 1;
+        }
+
+        WeakReference<T>[] result = new WeakReference[capacity];
+        for (WeakReference<T> ref : current) {
+            T element;
+            if (ref != null && (element = ref.get()) != null) {
+                insert(result, ref, element);
+            }
+        }
+        insert(result, new WeakReference<T>(added), added);
+        return result;
+    }
+
+    private static <T> void insert(WeakReference<T>[] table, WeakReference<T> ref, T element) {
+        int mask = table.length - 1;
+        int i = hash(element) & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = ref;
+    }
+
+    private static int hash(Object element) {
+        int hash = System.identityHashCode(element);
+        return hash ^ (hash >>> 16);
+    }
+}
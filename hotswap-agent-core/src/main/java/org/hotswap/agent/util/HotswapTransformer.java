@@ -1,18 +1,20 @@
 package org.hotswap.agent.util;
 
+import java.io.IOException;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.security.ProtectionDomain;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.hotswap.agent.command.Command;
 import org.hotswap.agent.config.PluginManager;
@@ -37,22 +39,155 @@ public class HotswapTransformer implements ClassFileTransformer {
             "sun.reflect.DelegatingClassLoader"
     ));
 
-    private static class RegisteredTransformersRecord {
-        Pattern pattern;
-        List<ClassFileTransformer> transformerList = new LinkedList<ClassFileTransformer>();
+    /**
+     * Immutable snapshot of all registrations. It is never modified - each registration change creates
+     * a new snapshot including its dispatch index and swaps it atomically.
+     */
+    private static class Registrations {
+        static final Registrations EMPTY = new Registrations(
+                new LinkedHashMap<String, TransformerDispatchIndex.Entry>(), new HashMap<ClassFileTransformer, ClassLoader>(),
+                TransformerDispatchIndex.EMPTY);
+
+        // normalized regexp -> entry with transformers in registration order
+        final Map<String, TransformerDispatchIndex.Entry> registeredTransformers;
+
+        // keep track about which classloader requested which transformer
+        final Map<ClassFileTransformer, ClassLoader> classLoaderTransformers;
+
+        final TransformerDispatchIndex dispatchIndex;
+
+        Registrations(Map<String, TransformerDispatchIndex.Entry> registeredTransformers,
+                      Map<ClassFileTransformer, ClassLoader> classLoaderTransformers, TransformerDispatchIndex dispatchIndex) {
+            this.registeredTransformers = registeredTransformers;
+            this.classLoaderTransformers = classLoaderTransformers;
+            this.dispatchIndex = dispatchIndex;
+        }
+
+        /**
+         * Entry of a registered regexp or new entry without transformers.
+         */
+        TransformerDispatchIndex.Entry getEntry(String normalizeRegexp) {
+            TransformerDispatchIndex.Entry entry = registeredTransformers.get(normalizeRegexp);
+            return entry != null ? entry : new TransformerDispatchIndex.Entry(normalizeRegexp);
+        }
+
+        Registrations register(ClassLoader classLoader, TransformerDispatchIndex.Entry classified, ClassFileTransformer transformer) {
+            TransformerDispatchIndex.Entry entry = registeredTransformers.get(classified.regexp);
+            if (entry == null) {
+                entry = classified;
+            }
+            ClassFileTransformer[] transformerList = Arrays.copyOf(entry.transformers, entry.transformers.length + 1);
+            transformerList[entry.transformers.length] = transformer;
+
+            Map<String, TransformerDispatchIndex.Entry> transformers =
+                    new LinkedHashMap<String, TransformerDispatchIndex.Entry>(registeredTransformers);
+            TransformerDispatchIndex index = update(transformers, dispatchIndex, entry.withTransformers(transformerList));
+
+            Map<ClassFileTransformer, ClassLoader> classLoaders = classLoaderTransformers;
+            if (classLoader != null) {
+                classLoaders = new HashMap<ClassFileTransformer, ClassLoader>(classLoaderTransformers);
+                classLoaders.put(transformer, classLoader);
+            }
+            return new Registrations(transformers, classLoaders, index);
+        }
+
+        Registrations remove(String normalizeRegexp, ClassFileTransformer transformer) {
+            TransformerDispatchIndex.Entry entry = registeredTransformers.get(normalizeRegexp);
+            List<ClassFileTransformer> transformerList = entry != null ?
+                    new ArrayList<ClassFileTransformer>(Arrays.asList(entry.transformers)) : null;
+            if (transformerList == null || !transformerList.remove(transformer)) {
+                return this;
+            }
+
+            Map<String, TransformerDispatchIndex.Entry> transformers =
+                    new LinkedHashMap<String, TransformerDispatchIndex.Entry>(registeredTransformers);
+            TransformerDispatchIndex index = update(transformers, dispatchIndex, entry.withTransformers(
+                    transformerList.toArray(new ClassFileTransformer[transformerList.size()])));
+
+            Map<ClassFileTransformer, ClassLoader> classLoaders = classLoaderTransformers;
+            if (classLoaderTransformers.containsKey(transformer) && !isRegistered(transformers, transformer)) {
+                classLoaders = new HashMap<ClassFileTransformer, ClassLoader>(classLoaderTransformers);
+                classLoaders.remove(transformer);
+            }
+            return new Registrations(transformers, classLoaders, index);
+        }
+
+        Registrations closeClassLoader(ClassLoader classLoader) {
+            Map<ClassFileTransformer, ClassLoader> classLoaders = new HashMap<ClassFileTransformer, ClassLoader>(classLoaderTransformers);
+            Set<ClassFileTransformer> removed = new HashSet<ClassFileTransformer>();
+            for (Iterator<Map.Entry<ClassFileTransformer, ClassLoader>> entryIterator = classLoaders.entrySet().iterator();
+                    entryIterator.hasNext(); ) {
+                Map.Entry<ClassFileTransformer, ClassLoader> entry = entryIterator.next();
+                if (entry.getValue().equals(classLoader)) {
+                    entryIterator.remove();
+                    removed.add(entry.getKey());
+                }
+            }
+            if (removed.isEmpty()) {
+                return this;
+            }
+
+            Map<String, TransformerDispatchIndex.Entry> transformers =
+                    new LinkedHashMap<String, TransformerDispatchIndex.Entry>(registeredTransformers);
+            TransformerDispatchIndex index = dispatchIndex;
+            for (TransformerDispatchIndex.Entry entry : registeredTransformers.values()) {
+                List<ClassFileTransformer> transformerList = new ArrayList<ClassFileTransformer>(Arrays.asList(entry.transformers));
+                if (transformerList.removeAll(removed)) {
+                    index = update(transformers, index, entry.withTransformers(
+                            transformerList.toArray(new ClassFileTransformer[transformerList.size()])));
+                }
+            }
+            return new Registrations(transformers, classLoaders, index);
+        }
+
+        // only the buckets of the changed entry are updated in the index
+        private static TransformerDispatchIndex update(Map<String, TransformerDispatchIndex.Entry> transformers,
+                                                       TransformerDispatchIndex index, TransformerDispatchIndex.Entry entry) {
+            if (entry.transformers.length == 0) {
+                transformers.remove(entry.regexp);
+            } else {
+                transformers.put(entry.regexp, entry);
+            }
+            return index.update(entry);
+        }
+
+        private static boolean isRegistered(Map<String, TransformerDispatchIndex.Entry> transformers, ClassFileTransformer transformer) {
+            for (TransformerDispatchIndex.Entry entry : transformers.values()) {
+                if (Arrays.asList(entry.transformers).contains(transformer)) {
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 
-    protected Map<String, RegisteredTransformersRecord> registeredTransformers = new HashMap<String, RegisteredTransformersRecord>();
+    // current registrations, swapped atomically. Class loading threads only read it, without locking.
+    private final AtomicReference<Registrations> registrations = new AtomicReference<Registrations>(Registrations.EMPTY);
+
+    protected ConcurrentWeakIdentitySet<ClassLoader> seenClassLoaders = new ConcurrentWeakIdentitySet<ClassLoader>();
 
-    // keep track about which classloader requested which transformer
-    protected Map<ClassFileTransformer, ClassLoader> classLoaderTransformers = new HashMap<ClassFileTransformer, ClassLoader>();
+    // bootstrap classloader is null and cannot be stored in seenClassLoaders
+    private final AtomicBoolean bootstrapClassLoaderSeen = new AtomicBoolean();
 
-    protected Map<ClassLoader, Object> seenClassLoaders = new WeakHashMap<ClassLoader, Object>();
+    // class model parsed during the current transformation on this thread, shared by all transformers
+    private static final ThreadLocal<ParsedClass> currentClassModel = new ThreadLocal<ParsedClass>();
+
+    private static class ParsedClass {
+        final byte[] bytes;
+        final ClassModel model;
+
+        ParsedClass(byte[] bytes, ClassModel model) {
+            this.bytes = bytes;
+            this.model = model;
+        }
+    }
 
     /**
      * Register a transformer for a regexp matching class names.
      * Used by {@link org.hotswap.agent.annotation.OnClassLoadEvent} annotation respective
      * {@link org.hotswap.agent.annotation.handler.OnClassLoadedHandler}.
+     * <p/>
+     * Registration is thread safe, it may be called concurrently with transform() and other registrations.
      *
      * @param classLoader the classloader to which this transformation is associated
      * @param classNameRegexp regexp to match fully qualified class name.
@@ -60,22 +195,15 @@ public class HotswapTransformer implements ClassFileTransformer {
      *                        (diffentence between java/lang/String and java.lang.String).
      * @param transformer     the transformer to be called for each class matching regexp.
      */
-    public void registerTransformer(ClassLoader classLoader, String classNameRegexp, ClassFileTransformer transformer) {
+    public void registerTransformer(final ClassLoader classLoader, String classNameRegexp, final ClassFileTransformer transformer) {
         LOGGER.debug("Registering transformer for class regexp '{}'.", classNameRegexp);
 
-        String normalizeRegexp = normalizeTypeRegexp(classNameRegexp);
-        RegisteredTransformersRecord transformerRecord = registeredTransformers.get(normalizeRegexp);
-        if (transformerRecord == null) {
-            transformerRecord = new RegisteredTransformersRecord();
-            transformerRecord.pattern = Pattern.compile(normalizeRegexp);
-            registeredTransformers.put(normalizeRegexp, transformerRecord);
-        }
-        transformerRecord.transformerList.add(transformer);
-
-        // register classloader association to allow classloader unregistration
-        if (classLoader != null) {
-            classLoaderTransformers.put(transformer, classLoader);
-        }
+        // classify (and compile) the regexp only once, not on each retry
+        final TransformerDispatchIndex.Entry classified = registrations.get().getEntry(normalizeTypeRegexp(classNameRegexp));
+        Registrations current;
+        do {
+            current = registrations.get();
+        } while (!registrations.compareAndSet(current, current.register(classLoader, classified, transformer)));
     }
 
     /**
@@ -84,28 +212,25 @@ public class HotswapTransformer implements ClassFileTransformer {
      * @param classNameRegexp regexp to match fully qualified class name.
      * @param transformer     currently registered transformer
      */
-    public void removeTransformer(String classNameRegexp, ClassFileTransformer transformer) {
-        String normalizeRegexp = normalizeTypeRegexp(classNameRegexp);
-        RegisteredTransformersRecord transformerRecord = registeredTransformers.get(normalizeRegexp);
-        if (transformerRecord != null) {
-            transformerRecord.transformerList.remove(transformer);
-        }
+    public void removeTransformer(String classNameRegexp, final ClassFileTransformer transformer) {
+        final String normalizeRegexp = normalizeTypeRegexp(classNameRegexp);
+        Registrations current;
+        do {
+            current = registrations.get();
+        } while (!registrations.compareAndSet(current, current.remove(normalizeRegexp, transformer)));
     }
 
     /**
      * Remove all transformers registered with a classloader
      * @param classLoader
      */
-    public void closeClassLoader(ClassLoader classLoader) {
-        for (Iterator<Map.Entry<ClassFileTransformer, ClassLoader>> entryIterator = classLoaderTransformers.entrySet().iterator();
-                entryIterator.hasNext(); ) {
-            Map.Entry<ClassFileTransformer, ClassLoader> entry = entryIterator.next();
-            if (entry.getValue().equals(classLoader)) {
-                entryIterator.remove();
-                for (RegisteredTransformersRecord transformerRecord : registeredTransformers.values())
-                    transformerRecord.transformerList.remove(entry.getKey());
-            }
-        }
+    public void closeClassLoader(final ClassLoader classLoader) {
+        Registrations current;
+        do {
+            current = registrations.get();
+        } while (!registrations.compareAndSet(current, current.closeClassLoader(classLoader)));
+        ClassPoolCache.remove(classLoader);
+        AnnotationIndex.remove(classLoader);
 
         LOGGER.debug("All transformers removed for classLoader {}", classLoader);
     }
@@ -113,8 +238,9 @@ public class HotswapTransformer implements ClassFileTransformer {
     /**
      * Main transform method called by Java instrumentation.
      * <p/>
-     * <p>It does not do the instrumentation itself, instead iterates registered transformers and compares
-     * registration class regexp - if the regexp matches, the classloader is called.
+     * <p>It does not do the instrumentation itself, instead it looks up registered transformers matching
+     * the class name in the dispatch index - exact class names and prefixes are resolved without evaluating
+     * the regexp, only real regular expressions are matched one by one.
      * <p/>
      * <p>Note that class bytes may be send to multiple transformers, but the order is not defined.
      *
@@ -123,30 +249,61 @@ public class HotswapTransformer implements ClassFileTransformer {
     @Override
     public byte[] transform(final ClassLoader classLoader, String className, Class<?> redefiningClass,
                             final ProtectionDomain protectionDomain, byte[] bytes) throws IllegalClassFormatException {
-        LOGGER.trace("Transform on class '{}' @{} redefiningClass '{}'.", className, classLoader, redefiningClass);
-        
-	        // ensure classloader initialized
-	       ensureClassLoaderInitialized(classLoader, protectionDomain);
-	        try {
-	        	byte[] result =Arrays.copyOf(bytes, bytes.length);
-	            // call transform on all registered transformers
-	            for (RegisteredTransformersRecord transformerRecord : new LinkedList<RegisteredTransformersRecord>(registeredTransformers.values())) {
-	                if ((className != null && transformerRecord.pattern.matcher(className).matches()) ||
-	                        (redefiningClass != null && transformerRecord.pattern.matcher(redefiningClass.getName()).matches())) {
-	                    for (ClassFileTransformer transformer : new LinkedList<ClassFileTransformer>(transformerRecord.transformerList)) {
-	                        LOGGER.trace("Transforming class '" + className +
-	                                "' with transformer '" + transformer + "' " + "@ClassLoader" + classLoader + ".");
-	                        result = transformer.transform(classLoader, className, redefiningClass, protectionDomain, result);
-	                    }
-	                }
-	            }
-	            return result;
-	        } catch (Throwable t) {
-	            LOGGER.error("Error transforming class '" + className + "'.", t);
-	        }
+        if (LOGGER.isLevelEnabled(AgentLogger.Level.TRACE)) {
+            LOGGER.trace("Transform on class '{}' @{} redefiningClass '{}'.", className, classLoader, redefiningClass);
+        }
+
+        // ensure classloader initialized
+        ensureClassLoaderInitialized(classLoader, protectionDomain);
+
+        // parsed previous version of the class must not be used by transformers
+        if (redefiningClass != null) {
+            ClassPoolCache.invalidate(classLoader, className);
+        }
+        // transformers may load other classes - restore model of the outer transformation
+        ParsedClass outerClassModel = currentClassModel.get();
+        try {
+            // plugins query the index from their transformers
+            AnnotationIndex.update(classLoader, className, redefiningClass != null, bytes, this);
+
+            // call transform on all matching transformers, bytes are copied only if any transformer matches
+            return registrations.get().dispatchIndex.transform(classLoader, className, redefiningClass, protectionDomain, bytes);
+        } catch (Throwable t) {
+            LOGGER.error("Error transforming class '" + className + "'.", t);
+        } finally {
+            if (outerClassModel != null) {
+                currentClassModel.set(outerClassModel);
+            } else {
+                currentClassModel.remove();
+            }
+        }
         return bytes;
     }
 
+    /**
+     * Read-only model of the class being transformed. The bytes are parsed only once per transformation
+     * and the model is shared by all transformers (and the annotation index), until a transformer returns
+     * modified bytes.
+     *
+     * @param bytes current class bytes as passed to the transformer (must not be modified)
+     * @return parsed model
+     * @throws IOException the bytes are not a valid class file
+     */
+    public ClassModel getClassModel(byte[] bytes) throws IOException {
+        return getSharedClassModel(bytes);
+    }
+
+    // model shared on this thread, see getClassModel()
+    static ClassModel getSharedClassModel(byte[] bytes) throws IOException {
+        ParsedClass parsed = currentClassModel.get();
+        // transformers get a copy of the bytes, compare content if not the same array
+        if (parsed == null || parsed.bytes != bytes && !Arrays.equals(parsed.bytes, bytes)) {
+            parsed = new ParsedClass(bytes, new ClassModel(bytes));
+            currentClassModel.set(parsed);
+        }
+        return parsed.model;
+    }
+
     /**
      * Every classloader should be initialized. Usually if anything interesting happens,
      * it is initialized during plugin initialization process. However, some plugins (e.g. Hotswapper)
@@ -159,28 +316,27 @@ public class HotswapTransformer implements ClassFileTransformer {
      * @param protectionDomain associated protection domain (if any)
      */
     protected void ensureClassLoaderInitialized(final ClassLoader classLoader, final ProtectionDomain protectionDomain) {
-        if (!seenClassLoaders.containsKey(classLoader)) {
-            seenClassLoaders.put(classLoader, null);
-
-            if (classLoader == null) {
+        if (classLoader == null) {
+            if (bootstrapClassLoaderSeen.compareAndSet(false, true)) {
                 // directly init null (bootstrap) classloader
                 PluginManager.getInstance().initClassLoader(null, protectionDomain);
-            } else {
-                // ensure the classloader should not be excluded
-                if (!excludedClassLoaders.contains(classLoader.getClass().getName())) {
-                    // schedule the excecution
-                    PluginManager.getInstance().getScheduler().scheduleCommand(new Command() {
-                        @Override
-                        public void executeCommand() {
-                            PluginManager.getInstance().initClassLoader(classLoader, protectionDomain);
-                        }
-
-                        @Override
-                        public String toString() {
-                            return "executeCommand: initClassLoader(" + classLoader + ")";
-                        }
-                    }, 1000);
-                }
+            }
+        } else if (!seenClassLoaders.contains(classLoader)) {
+            // ensure the classloader should not be excluded (check before registration - there may be
+            // many excluded classloaders and they are not worth to remember)
+            if (!excludedClassLoaders.contains(classLoader.getClass().getName()) && seenClassLoaders.add(classLoader)) {
+                // schedule the excecution
+                PluginManager.getInstance().getScheduler().scheduleCommand(new Command() {
+                    @Override
+                    public void executeCommand() {
+                        PluginManager.getInstance().initClassLoader(classLoader, protectionDomain);
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "executeCommand: initClassLoader(" + classLoader + ")";
+                    }
+                }, 1000);
             }
         }
     }
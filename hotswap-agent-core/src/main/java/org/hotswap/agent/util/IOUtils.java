@@ -1,5 +1,6 @@
 package org.hotswap.agent.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -9,7 +10,6 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 
-import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.logging.AgentLogger;
 
 /**
@@ -155,6 +155,33 @@ public class IOUtils {
 	 *             any exception on class instantiation
 	 */
 	public static String urlToClassName(URI uri) throws IOException {
-		return ClassPool.getDefault().makeClass(uri.toURL().openStream()).getName();
+		byte[] bytes;
+		try (InputStream is = uri.toURL().openStream()) {
+			bytes = toByteArray(is);
+		}
+		String className = ClassFileHeader.getClassName(bytes);
+		if (className == null) {
+			throw new IOException("Invalid class file " + uri);
+		}
+		return className;
+	}
+
+	/**
+	 * Read the whole stream (the stream is not closed).
+	 *
+	 * @param is
+	 *            the stream
+	 * @return stream content
+	 * @throws IOException
+	 *             read error
+	 */
+	public static byte[] toByteArray(InputStream is) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = is.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
 	}
 }
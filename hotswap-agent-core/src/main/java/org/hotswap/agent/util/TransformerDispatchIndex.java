@@ -0,0 +1,545 @@
+package org.hotswap.agent.util;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Immutable dispatch index of transformers registered in {@link HotswapTransformer}.
+ * <p/>
+ * Class name regexps are classified once, when first registered:
+ * <ul>
+ * <li>exact class names (e.g. "org.hibernate.cfg.Configuration") are resolved by a hash lookup,</li>
+ * <li>class name prefixes (e.g. "org.springframework.*" or ".*") are resolved by a walk in a character trie,</li>
+ * <li>only true regular expressions (e.g. ".*\\$\\d+") are matched one by one.</li>
+ * </ul>
+ * Alternatives of exact names or prefixes (e.g. "(org.mortbay.jetty.X)|(org.eclipse.jetty.X)") are split
+ * and indexed separately.
+ * <p/>
+ * Plugins use "." in class name regexp to match both internal JVM name (java/lang/String) and class name
+ * (java.lang.String), including inner class separator '$'. The index treats '.', '/' and '$' in exact names
+ * and prefixes as the same name separator.
+ * <p/>
+ * The index is never modified after construction - HotswapTransformer creates a new instance on every registration
+ * change (copy-on-write). The new instance shares all entries, hash buckets and trie nodes not affected by the change,
+ * the regexp of an entry is classified (and compiled) only once. Hence lookup needs no locking and it does not
+ * allocate unless a transformer matches.
+ */
+class TransformerDispatchIndex {
+
+    private static AgentLogger LOGGER = AgentLogger.getLogger(TransformerDispatchIndex.class);
+
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    /**
+     * Index without any transformer.
+     */
+    static final TransformerDispatchIndex EMPTY = new TransformerDispatchIndex(new String[2], new int[2], new Entry[2][], 0,
+            TrieNode.EMPTY, NO_ENTRIES, 0);
+
+    /**
+     * A registered regexp and transformers registered with it. The classification of the regexp is shared
+     * by all entries derived by {@link #withTransformers(ClassFileTransformer[])}.
+     */
+    static class Entry {
+        private static final ClassFileTransformer[] NO_TRANSFORMERS = new ClassFileTransformer[0];
+
+        final String regexp;
+        // compiled pattern of a true regular expression, null for exact names and prefixes
+        final Pattern pattern;
+        // normalized exact names and prefixes of the alternatives
+        final String[] exactNames;
+        final String[] prefixes;
+        // indexed under several exact names or prefixes, more of them may match the same class
+        final boolean multiple;
+        final ClassFileTransformer[] transformers;
+
+        /**
+         * Classify the regexp, the entry has no transformers.
+         *
+         * @param regexp normalized class name regexp (^regexp$)
+         */
+        Entry(String regexp) {
+            this.regexp = regexp;
+            this.transformers = NO_TRANSFORMERS;
+
+            List<String> alternatives = splitAlternatives(stripAnchors(regexp));
+            if (alternatives == null) {
+                this.pattern = Pattern.compile(regexp);
+                this.exactNames = new String[0];
+                this.prefixes = new String[0];
+                this.multiple = false;
+                return;
+            }
+
+            Set<String> exact = new LinkedHashSet<String>();
+            Set<String> prefix = new LinkedHashSet<String>();
+            for (String alternative : alternatives) {
+                String literal = toLiteral(alternative);
+                if (literal != null) {
+                    exact.add(literal);
+                } else {
+                    prefix.add(toLiteral(alternative.substring(0, alternative.length() - 2)));
+                }
+            }
+            this.pattern = null;
+            this.exactNames = exact.toArray(new String[exact.size()]);
+            this.prefixes = prefix.toArray(new String[prefix.size()]);
+            this.multiple = exactNames.length + prefixes.length > 1;
+        }
+
+        private Entry(Entry classified, ClassFileTransformer[] transformers) {
+            this.regexp = classified.regexp;
+            this.pattern = classified.pattern;
+            this.exactNames = classified.exactNames;
+            this.prefixes = classified.prefixes;
+            this.multiple = classified.multiple;
+            this.transformers = transformers;
+        }
+
+        /**
+         * Entry of the same regexp with other transformers. An entry without transformers is removed
+         * from the index by {@link #update(Entry)}.
+         */
+        Entry withTransformers(ClassFileTransformer[] transformers) {
+            return new Entry(this, transformers);
+        }
+    }
+
+    // exact class names - open addressing hash table keyed by normalized name, a bucket may be empty
+    // after removal of its entries (dropped on resize)
+    private final int exactMask;
+    private final String[] exactKeys;
+    private final int[] exactHashes;
+    private final Entry[][] exactEntries;
+    private final int exactUsed;
+
+    // class name prefixes
+    private final TrieNode prefixRoot;
+
+    // real regular expressions
+    private final Entry[] regexpEntries;
+
+    private final int size;
+
+    private TransformerDispatchIndex(String[] exactKeys, int[] exactHashes, Entry[][] exactEntries, int exactUsed,
+                                     TrieNode prefixRoot, Entry[] regexpEntries, int size) {
+        this.exactMask = exactKeys.length - 1;
+        this.exactKeys = exactKeys;
+        this.exactHashes = exactHashes;
+        this.exactEntries = exactEntries;
+        this.exactUsed = exactUsed;
+        this.prefixRoot = prefixRoot;
+        this.regexpEntries = regexpEntries;
+        this.size = size;
+    }
+
+    /**
+     * Create new index with the entry added, replaced (entry with the same regexp is already registered)
+     * or removed (the entry has no transformers). Only buckets of the entry are copied.
+     *
+     * @param entry new entry
+     * @return new immutable index
+     */
+    TransformerDispatchIndex update(Entry entry) {
+        boolean remove = entry.transformers.length == 0;
+        boolean registered = isRegistered(entry);
+        if (remove && !registered) {
+            return this;
+        }
+        int newSize = size + (registered ? 0 : 1) - (remove ? 1 : 0);
+
+        if (entry.pattern != null) {
+            return new TransformerDispatchIndex(exactKeys, exactHashes, exactEntries, exactUsed, prefixRoot,
+                    replace(regexpEntries, entry), newSize);
+        }
+
+        String[] keys = exactKeys;
+        int[] hashes = exactHashes;
+        Entry[][] buckets = exactEntries;
+        int used = exactUsed;
+        if (entry.exactNames.length > 0) {
+            int capacity = keys.length;
+            while ((used + entry.exactNames.length) * 2 > capacity) {
+                capacity <<= 1;
+            }
+            keys = new String[capacity];
+            hashes = new int[capacity];
+            buckets = new Entry[capacity][];
+            if (capacity == exactKeys.length) {
+                System.arraycopy(exactKeys, 0, keys, 0, capacity);
+                System.arraycopy(exactHashes, 0, hashes, 0, capacity);
+                System.arraycopy(exactEntries, 0, buckets, 0, capacity);
+            } else {
+                // rehash non-empty buckets
+                used = 0;
+                for (int i = 0; i < exactKeys.length; i++) {
+                    if (exactKeys[i] != null && exactEntries[i].length > 0) {
+                        int slot = findSlot(keys, hashes, exactKeys[i], exactHashes[i]);
+                        keys[slot] = exactKeys[i];
+                        hashes[slot] = exactHashes[i];
+                        buckets[slot] = exactEntries[i];
+                        used++;
+                    }
+                }
+            }
+            for (String name : entry.exactNames) {
+                int hash = normalizedHash(name);
+                int slot = findSlot(keys, hashes, name, hash);
+                if (keys[slot] == null) {
+                    if (remove) {
+                        continue;
+                    }
+                    keys[slot] = name;
+                    hashes[slot] = hash;
+                    buckets[slot] = NO_ENTRIES;
+                    used++;
+                }
+                buckets[slot] = replace(buckets[slot], entry);
+            }
+        }
+
+        TrieNode root = prefixRoot;
+        for (String prefix : entry.prefixes) {
+            root = root.update(prefix, 0, entry);
+        }
+
+        return new TransformerDispatchIndex(keys, hashes, buckets, used, root, regexpEntries, newSize);
+    }
+
+    // check the first bucket of the entry - an entry is always registered in all its buckets
+    private boolean isRegistered(Entry entry) {
+        Entry[] bucket;
+        if (entry.pattern != null) {
+            bucket = regexpEntries;
+        } else if (entry.exactNames.length > 0) {
+            bucket = findExact(entry.exactNames[0]);
+        } else {
+            TrieNode node = prefixRoot.find(entry.prefixes[0]);
+            bucket = node != null ? node.entries : null;
+        }
+        return bucket != null && indexOf(bucket, entry.regexp) >= 0;
+    }
+
+    private static int indexOf(Entry[] bucket, String regexp) {
+        for (int i = 0; i < bucket.length; i++) {
+            if (bucket[i].regexp.equals(regexp)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copy of the bucket with entry of the same regexp replaced, added or removed (entry without transformers).
+     */
+    private static Entry[] replace(Entry[] bucket, Entry entry) {
+        int i = indexOf(bucket, entry.regexp);
+        boolean remove = entry.transformers.length == 0;
+        if (i < 0) {
+            if (remove) {
+                return bucket;
+            }
+            Entry[] result = Arrays.copyOf(bucket, bucket.length + 1);
+            result[bucket.length] = entry;
+            return result;
+        }
+        if (remove) {
+            Entry[] result = new Entry[bucket.length - 1];
+            System.arraycopy(bucket, 0, result, 0, i);
+            System.arraycopy(bucket, i + 1, result, i, bucket.length - i - 1);
+            return result;
+        }
+        Entry[] result = bucket.clone();
+        result[i] = entry;
+        return result;
+    }
+
+    // slot of the normalized name or first free slot
+    private static int findSlot(String[] keys, int[] hashes, String name, int hash) {
+        int mask = keys.length - 1;
+        int i = mix(hash) & mask;
+        while (keys[i] != null && !(hashes[i] == hash && keys[i].equals(name))) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Number of distinct registered regexps in this index.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Call all transformers matching the class. Transformers of an entry are called once even if more of its
+     * alternatives match. Class bytes are copied before the first transformer is called, if no transformer matches,
+     * the original bytes are returned.
+     *
+     * @see ClassFileTransformer#transform(ClassLoader, String, Class, ProtectionDomain, byte[])
+     */
+    byte[] transform(ClassLoader classLoader, String className, Class<?> redefiningClass,
+                     ProtectionDomain protectionDomain, byte[] bytes) throws IllegalClassFormatException {
+        String name = className != null ? className : (redefiningClass != null ? redefiningClass.getName() : null);
+        if (name == null) {
+            return bytes;
+        }
+
+        byte[] result = bytes;
+        // applied entries with several alternatives, allocated only if such entry matches
+        List<Entry> applied = null;
+
+        // exact names
+        Entry[] exact = findExact(name);
+        if (exact != null) {
+            for (Entry entry : exact) {
+                if (entry.multiple) {
+                    if (applied == null) {
+                        applied = new ArrayList<Entry>(2);
+                    }
+                    applied.add(entry);
+                }
+                result = apply(entry, classLoader, className, redefiningClass, protectionDomain, bytes, result);
+            }
+        }
+
+        // prefixes - walk down the trie as far as the class name allows
+        TrieNode node = prefixRoot;
+        int i = 0;
+        while (node != null) {
+            for (Entry entry : node.entries) {
+                if (entry.multiple) {
+                    if (applied == null) {
+                        applied = new ArrayList<Entry>(2);
+                    } else if (applied.contains(entry)) {
+                        continue;
+                    }
+                    applied.add(entry);
+                }
+                result = apply(entry, classLoader, className, redefiningClass, protectionDomain, bytes, result);
+            }
+            node = i < name.length() ? node.child(normalize(name.charAt(i++))) : null;
+        }
+
+        // true regexps
+        for (Entry entry : regexpEntries) {
+            if ((className != null && entry.pattern.matcher(className).matches()) ||
+                    (redefiningClass != null && entry.pattern.matcher(redefiningClass.getName()).matches())) {
+                result = apply(entry, classLoader, className, redefiningClass, protectionDomain, bytes, result);
+            }
+        }
+
+        return result;
+    }
+
+    private static byte[] apply(Entry entry, ClassLoader classLoader, String className, Class<?> redefiningClass,
+                                ProtectionDomain protectionDomain, byte[] original, byte[] result) throws IllegalClassFormatException {
+        // do not let transformers modify the original buffer
+        if (result == original) {
+            result = Arrays.copyOf(original, original.length);
+        }
+        for (ClassFileTransformer transformer : entry.transformers) {
+            LOGGER.trace("Transforming class '{}' with transformer '{}' @ClassLoader {}.", className, transformer, classLoader);
+            result = transformer.transform(classLoader, className, redefiningClass, protectionDomain, result);
+        }
+        return result;
+    }
+
+    private Entry[] findExact(String name) {
+        int hash = normalizedHash(name);
+        int i = mix(hash) & exactMask;
+        String key;
+        while ((key = exactKeys[i]) != null) {
+            if (exactHashes[i] == hash && normalizedEquals(key, name)) {
+                return exactEntries[i];
+            }
+            i = (i + 1) & exactMask;
+        }
+        return null;
+    }
+
+    ////////////////////////// REGEXP CLASSIFICATION /////////////////////////////////////
+
+    /**
+     * Remove ^ and $ anchors.
+     */
+    static String stripAnchors(String regexp) {
+        String body = regexp;
+        if (body.startsWith("^")) {
+            body = body.substring(1);
+        }
+        if (body.endsWith("$") && !body.endsWith("\\$")) {
+            body = body.substring(0, body.length() - 1);
+        }
+        return body;
+    }
+
+    /**
+     * Split regexp into alternatives, each of them being an exact name or a prefix (literal followed by ".*").
+     *
+     * @param body regexp without anchors
+     * @return list of alternatives or null if the regexp needs to be evaluated as a regular expression
+     */
+    static List<String> splitAlternatives(String body) {
+        List<String> alternatives = new ArrayList<String>();
+        for (String alternative : body.split("\\|", -1)) {
+            if (alternative.startsWith("(") && alternative.endsWith(")")) {
+                alternative = alternative.substring(1, alternative.length() - 1);
+            }
+            if (toLiteral(alternative) == null && !isPrefix(alternative)) {
+                return null;
+            }
+            alternatives.add(alternative);
+        }
+        return alternatives;
+    }
+
+    private static boolean isPrefix(String alternative) {
+        return alternative.endsWith(".*") && !alternative.endsWith("\\.*")
+                && toLiteral(alternative.substring(0, alternative.length() - 2)) != null;
+    }
+
+    /**
+     * Convert regexp to a normalized literal class name. Only name characters, "." (any character, used as
+     * name separator) and escaped "\$" or "\." are allowed.
+     *
+     * @return normalized name (all separators converted to '.') or null if this is not a literal
+     */
+    static String toLiteral(String regexp) {
+        StringBuilder literal = new StringBuilder(regexp.length());
+        for (int i = 0; i < regexp.length(); i++) {
+            char c = regexp.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < regexp.length() && (regexp.charAt(i + 1) == '$' || regexp.charAt(i + 1) == '.')) {
+                    literal.append('.');
+                    i++;
+                } else {
+                    return null;
+                }
+            } else if (c == '.' || c == '/') {
+                literal.append('.');
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-') {
+                literal.append(c);
+            } else {
+                return null;
+            }
+        }
+        return literal.toString();
+    }
+
+    private static char normalize(char c) {
+        return c == '/' || c == '$' ? '.' : c;
+    }
+
+    private static int normalizedHash(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + normalize(name.charAt(i));
+        }
+        return hash;
+    }
+
+    private static boolean normalizedEquals(String key, String name) {
+        if (key.length() != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != normalize(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Immutable trie node, children are sorted by character for binary search. Update copies only the path
+     * to the changed node.
+     */
+    private static class TrieNode {
+        static final TrieNode EMPTY = new TrieNode(new char[0], new TrieNode[0], NO_ENTRIES);
+
+        final char[] keys;
+        final TrieNode[] children;
+        final Entry[] entries;
+
+        TrieNode(char[] keys, TrieNode[] children, Entry[] entries) {
+            this.keys = keys;
+            this.children = children;
+            this.entries = entries;
+        }
+
+        TrieNode child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        TrieNode find(String prefix) {
+            TrieNode node = this;
+            for (int i = 0; node != null && i < prefix.length(); i++) {
+                node = node.child(prefix.charAt(i));
+            }
+            return node;
+        }
+
+        boolean isEmpty() {
+            return keys.length == 0 && entries.length == 0;
+        }
+
+        /**
+         * New node with the entry replaced in the node of the prefix, empty nodes are pruned.
+         */
+        TrieNode update(String prefix, int depth, Entry entry) {
+            if (depth == prefix.length()) {
+                Entry[] updated = replace(entries, entry);
+                return updated == entries ? this : new TrieNode(keys, children, updated);
+            }
+
+            char c = prefix.charAt(depth);
+            int i = Arrays.binarySearch(keys, c);
+            TrieNode child = i >= 0 ? children[i] : EMPTY;
+            TrieNode updated = child.update(prefix, depth + 1, entry);
+            if (updated == child) {
+                return this;
+            }
+
+            if (i >= 0 && updated.isEmpty()) {
+                char[] newKeys = new char[keys.length - 1];
+                TrieNode[] newChildren = new TrieNode[keys.length - 1];
+                System.arraycopy(keys, 0, newKeys, 0, i);
+                System.arraycopy(keys, i + 1, newKeys, i, keys.length - i - 1);
+                System.arraycopy(children, 0, newChildren, 0, i);
+                System.arraycopy(children, i + 1, newChildren, i, keys.length - i - 1);
+                return new TrieNode(newKeys, newChildren, entries);
+            }
+            if (i >= 0) {
+                TrieNode[] newChildren = children.clone();
+                newChildren[i] = updated;
+                return new TrieNode(keys, newChildren, entries);
+            }
+
+            int insert = -(i + 1);
+            char[] newKeys = new char[keys.length + 1];
+            TrieNode[] newChildren = new TrieNode[keys.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insert);
+            System.arraycopy(keys, insert, newKeys, insert + 1, keys.length - insert);
+            System.arraycopy(children, 0, newChildren, 0, insert);
+            System.arraycopy(children, insert, newChildren, insert + 1, keys.length - insert);
+            newKeys[insert] = c;
+            newChildren[insert] = updated;
+            return new TrieNode(newKeys, newChildren, entries);
+        }
+    }
+}
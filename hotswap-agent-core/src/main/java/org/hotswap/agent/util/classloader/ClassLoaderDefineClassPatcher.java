@@ -1,23 +1,29 @@
 package org.hotswap.agent.util.classloader;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.hotswap.agent.annotation.Plugin;
 import org.hotswap.agent.javassist.CannotCompileException;
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.javassist.LoaderClassPath;
 import org.hotswap.agent.logging.AgentLogger;
-import org.hotswap.agent.util.scanner.ClassPathScanner;
-import org.hotswap.agent.util.scanner.Scanner;
-import org.hotswap.agent.util.scanner.ScannerVisitor;
+import org.hotswap.agent.util.ConcurrentWeakIdentityMap;
+import org.hotswap.agent.util.IOUtils;
+import org.hotswap.agent.util.scanner.PluginIndex;
 
 /**
  * Classloader patch which will redefine each patch via Javassist in the target classloader.
@@ -30,6 +36,9 @@ import org.hotswap.agent.util.scanner.ScannerVisitor;
  * (e.g. to set some initialized property). Although the class resides in parent classloader it cannot
  * be redefined in child classloader with other definition - the classloader already knows about this class.
  * This is the reason, why plugin class cannot be executed in child classloader.
+ * <p/>
+ * Application classloaders are patched lazily by {@link #patchPlugin} - only classes of plugins
+ * actually used in the classloader are defined.
  *
  * @author Jiri Bubnik
  */
@@ -37,96 +46,209 @@ public class ClassLoaderDefineClassPatcher implements ClassLoaderPatcher {
 
     private static AgentLogger LOGGER = AgentLogger.getLogger(ClassLoaderDefineClassPatcher.class);
 
-    private static Map<String, List<byte[]>> pluginClassCache = new HashMap<String, List<byte[]>>();
+    // plugin path -> plugin classes
+    private static Map<String, PluginClasses> pluginClassCache = new HashMap<String, PluginClasses>();
+
+    // target classloader -> classes already defined by patchPlugin()
+    private final ConcurrentWeakIdentityMap<ClassLoader, InjectedClasses> injectedClasses =
+            new ConcurrentWeakIdentityMap<ClassLoader, InjectedClasses>();
 
     @Override
     public void patch(final ClassLoader classLoaderFrom, final String pluginPath,
                       final ClassLoader classLoaderTo, final ProtectionDomain protectionDomain) {
 
-        List<byte[]> cache = getPluginCache(classLoaderFrom, pluginPath);
+        PluginClasses cache = getPluginCache(classLoaderFrom, pluginPath);
 
         if (cache != null) {
+            defineClasses(classLoaderFrom, cache.classes.values(), classLoaderTo, protectionDomain);
+        }
+
+        LOGGER.debug("Classloader {} patched with plugin classes from agent classloader {}.", classLoaderTo, classLoaderFrom);
+
+    }
+
+    @Override
+    public void patchPlugin(final ClassLoader classLoaderFrom, final String pluginPath, final Class<?> pluginClass,
+                            final ClassLoader classLoaderTo, final ProtectionDomain protectionDomain) {
+        if (classLoaderTo == classLoaderFrom) {
+            // classes are already available
+            return;
+        }
+
+        InjectedClasses injected = getInjectedClasses(classLoaderTo);
+        if (injected.plugins.contains(pluginClass.getName())) {
+            return;
+        }
+
+        synchronized (injected) {
+            if (injected.plugins.contains(pluginClass.getName())) {
+                return;
+            }
+
+            PluginClasses cache = getPluginCache(classLoaderFrom, pluginPath);
 
-            final ClassPool cp = new ClassPool();
-            cp.appendClassPath(new LoaderClassPath(getClass().getClassLoader()));
+            Set<String> packages = new HashSet<String>();
+            packages.add(getPackage(pluginClass.getName()));
+            Plugin pluginAnnotation = pluginClass.getAnnotation(Plugin.class);
+            if (pluginAnnotation != null) {
+                for (Class<?> supportClass : pluginAnnotation.supportClass()) {
+                    packages.add(getPackage(supportClass.getName()));
+                }
+            }
+
+            List<byte[]> pluginBytes = new ArrayList<byte[]>();
+            for (Map.Entry<String, byte[]> entry : cache.classes.entrySet()) {
+                String className = entry.getKey();
+                if (!injected.classes.contains(className)
+                        && (isInPackages(className, packages) || !isInPackages(className, cache.pluginPackages))) {
+                    injected.classes.add(className);
+                    pluginBytes.add(entry.getValue());
+                }
+            }
+
+            int count = defineClasses(classLoaderFrom, pluginBytes, classLoaderTo, protectionDomain);
+            injected.count += count;
+            injected.plugins.add(pluginClass.getName());
 
-            for (byte[] pluginBytes: cache) {
-                CtClass pluginClass = null;
+            LOGGER.debug("Classloader {} patched with {} classes of plugin {} ({} plugin classes in total).",
+                    classLoaderTo, count, pluginClass.getName(), injected.count);
+        }
+    }
+
+    /**
+     * Number of classes defined in the classloader by {@link #patchPlugin}.
+     *
+     * @param classLoader the target classloader
+     * @return number of successfully defined classes
+     */
+    public int getInjectedClassCount(ClassLoader classLoader) {
+        InjectedClasses injected = injectedClasses.get(classLoader);
+        if (injected == null) {
+            return 0;
+        }
+        synchronized (injected) {
+            return injected.count;
+        }
+    }
+
+    private InjectedClasses getInjectedClasses(ClassLoader classLoader) {
+        InjectedClasses injected = injectedClasses.get(classLoader);
+        if (injected == null) {
+            synchronized (injectedClasses) {
+                injected = injectedClasses.get(classLoader);
+                if (injected == null) {
+                    injected = new InjectedClasses();
+                    injectedClasses.put(classLoader, injected);
+                }
+            }
+        }
+        return injected;
+    }
+
+    // define each class in classLoaderTo, return number of successfully defined classes
+    private int defineClasses(ClassLoader classLoaderFrom, Collection<byte[]> classes,
+                              ClassLoader classLoaderTo, ProtectionDomain protectionDomain) {
+        if (classes.isEmpty()) {
+            return 0;
+        }
+
+        final ClassPool cp = new ClassPool();
+        cp.appendClassPath(new LoaderClassPath(getClass().getClassLoader()));
+
+        int count = 0;
+        for (byte[] pluginBytes: classes) {
+            CtClass pluginClass = null;
+            try {
+                // force to load class in classLoaderFrom (it may not yet be loaded) and if the classLoaderTo
+                // is parent of classLoaderFrom, after definition in classLoaderTo will classLoaderFrom return
+                // class from parent classloader instead own definition (hence change of behaviour).
+                InputStream is = new ByteArrayInputStream(pluginBytes);
+                pluginClass = cp.makeClass(is);
                 try {
-                    // force to load class in classLoaderFrom (it may not yet be loaded) and if the classLoaderTo
-                    // is parent of classLoaderFrom, after definition in classLoaderTo will classLoaderFrom return
-                    // class from parent classloader instead own definition (hence change of behaviour).
-                    InputStream is = new ByteArrayInputStream(pluginBytes);
-                    pluginClass = cp.makeClass(is);
-                    try {
-                        classLoaderFrom.loadClass(pluginClass.getName());
-                    } catch (NoClassDefFoundError e) {
-                        LOGGER.trace("Skipping class loading {} in classloader {} - " +
-                                "class has probably unresolvable dependency.", pluginClass.getName(), classLoaderTo);
-                    }
-                    // and load the class in classLoaderTo as well. NOw the class is defined in BOTH classloaders.
-                    pluginClass.toClass(classLoaderTo, protectionDomain);
-                } catch (CannotCompileException e) {
-                    LOGGER.trace("Skipping class definition {} in app classloader {} - " +
-                            "class is probably already defined.", pluginClass.getName(), classLoaderTo);
+                    classLoaderFrom.loadClass(pluginClass.getName());
                 } catch (NoClassDefFoundError e) {
-                    LOGGER.trace("Skipping class definition {} in app classloader {} - " +
+                    LOGGER.trace("Skipping class loading {} in classloader {} - " +
                             "class has probably unresolvable dependency.", pluginClass.getName(), classLoaderTo);
-                } catch (Throwable e) {
-                    LOGGER.trace("Skipping class definition app classloader {} - " +
-                            "unknown error.", e, classLoaderTo);
                 }
+                // and load the class in classLoaderTo as well. NOw the class is defined in BOTH classloaders.
+                pluginClass.toClass(classLoaderTo, protectionDomain);
+                count++;
+            } catch (CannotCompileException e) {
+                LOGGER.trace("Skipping class definition {} in app classloader {} - " +
+                        "class is probably already defined.", pluginClass.getName(), classLoaderTo);
+            } catch (NoClassDefFoundError e) {
+                LOGGER.trace("Skipping class definition {} in app classloader {} - " +
+                        "class has probably unresolvable dependency.", pluginClass.getName(), classLoaderTo);
+            } catch (Throwable e) {
+                LOGGER.trace("Skipping class definition app classloader {} - " +
+                        "unknown error.", e, classLoaderTo);
             }
         }
-
-        LOGGER.debug("Classloader {} patched with plugin classes from agent classloader {}.", classLoaderTo, classLoaderFrom);
-
+        return count;
     }
 
-    private List<byte[]> getPluginCache(final ClassLoader classLoaderFrom, final String pluginPath) {
-        List<byte[]> ret = null;
+    private PluginClasses getPluginCache(final ClassLoader classLoaderFrom, final String pluginPath) {
+        PluginClasses ret = null;
         synchronized(pluginClassCache) {
             ret = pluginClassCache.get(pluginPath);
             if (ret == null) {
-                final List<byte[]> retList = new ArrayList<byte[]>();
-                Scanner scanner = new ClassPathScanner();
+                ret = new PluginClasses();
                 try {
-                    scanner.scan(classLoaderFrom, pluginPath, new ScannerVisitor() {
-                        @Override
-                        public void visit(InputStream file) throws IOException {
-
-                            // skip plugin classes
-                            // TODO this should be skipped only in patching application classloader. To copy
-                             // classes into agent classloader, Plugin class must be copied as well
-    //                        if (patchClass.hasAnnotation(Plugin.class)) {
-    //                            LOGGER.trace("Skipping plugin class: " + patchClass.getName());
-    //                            return;
-    //                        }
-
-                            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-
-                            int readBytes;
-                            byte[] data = new byte[16384];
-
-                            while ((readBytes = file.read(data, 0, data.length)) != -1) {
-                                buffer.write(data, 0, readBytes);
-                            }
-
-                            buffer.flush();
-                            retList.add(buffer.toByteArray());
+                    // class names from the plugin index, read each class directly
+                    PluginIndex index = PluginIndex.forPath(classLoaderFrom, pluginPath);
+                    for (String className : index.getClassNames()) {
+                        InputStream is = classLoaderFrom.getResourceAsStream(className.replace('.', '/') + ".class");
+                        if (is == null) {
+                            LOGGER.debug("Plugin class {} not found in classloader {}", className, classLoaderFrom);
+                            continue;
                         }
-
-                    });
+                        try {
+                            ret.classes.put(className, IOUtils.toByteArray(is));
+                        } finally {
+                            is.close();
+                        }
+                    }
+                    for (String pluginClassName : index.getPluginClassNames()) {
+                        ret.pluginPackages.add(getPackage(pluginClassName));
+                    }
                 } catch (IOException e) {
-                    LOGGER.error("Exception while scanning 'org/hotswap/agent/plugin'", e);
+                    LOGGER.error("Exception while scanning '{}'", e, pluginPath);
                 }
-                ret = retList;
                 pluginClassCache.put(pluginPath, ret);
             }
         }
         return ret;
     }
 
+    private static String getPackage(String className) {
+        int i = className.lastIndexOf('.');
+        return i < 0 ? "" : className.substring(0, i);
+    }
+
+    // class is in one of the packages or its subpackage
+    private static boolean isInPackages(String className, Set<String> packages) {
+        for (String packageName : packages) {
+            if (className.startsWith(packageName) && className.length() > packageName.length()
+                    && className.charAt(packageName.length()) == '.') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // class bytes by name and packages of all plugins on a plugin path
+    private static class PluginClasses {
+        final Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+        final Set<String> pluginPackages = new HashSet<String>();
+    }
+
+    // classes defined in a target classloader, guarded by the instance lock
+    private static class InjectedClasses {
+        final Set<String> plugins = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final Set<String> classes = new HashSet<String>();
+        int count;
+    }
+
     @Override
     public boolean isPatchAvailable(ClassLoader classLoader) {
         // we can define class in any class loader
@@ -37,4 +37,24 @@ public interface ClassLoaderPatcher {
 	 *            required protection in target classloader
 	 */
 	void patch(ClassLoader classLoaderFrom, String path, ClassLoader classLoaderTo, ProtectionDomain protectionDomain);
+
+	/**
+	 * Patch the classloader only with classes required by a plugin - classes in
+	 * plugin package (and packages of its support classes) and classes on the
+	 * path not belonging to any plugin. Each class is copied at most once into
+	 * the classloader, repeated call for the same plugin does nothing.
+	 *
+	 * @param classLoaderFrom
+	 *            classloader to load classes from
+	 * @param path
+	 *            path to copy
+	 * @param pluginClass
+	 *            plugin to copy classes for
+	 * @param classLoaderTo
+	 *            classloader to copy classes to
+	 * @param protectionDomain
+	 *            required protection in target classloader
+	 */
+	void patchPlugin(ClassLoader classLoaderFrom, String path, Class<?> pluginClass, ClassLoader classLoaderTo,
+			ProtectionDomain protectionDomain);
 }
@@ -46,6 +46,13 @@ public class ClassLoaderURLPatcher implements ClassLoaderPatcher {
 		}
 	}
 
+	@Override
+	public void patchPlugin(ClassLoader classLoaderFrom, String pluginPath, Class<?> pluginClass,
+			ClassLoader classLoader, ProtectionDomain protectionDomain) {
+		// the whole agent JAR is added at once
+		patch(classLoaderFrom, pluginPath, classLoader, protectionDomain);
+	}
+
 	private static final String CHECK_RESOURCE = "org/hotswap/agent/config/PluginManager.class";
 
 	private void doPatchUrlClassLoader(URLClassLoader classLoader) {
@@ -35,25 +35,38 @@ public class ClassPathScanner implements Scanner {
 		Enumeration<URL> en = classLoader == null ? ClassLoader.getSystemResources(path)
 				: classLoader.getResources(path);
 		while (en.hasMoreElements()) {
-			URL pluginDirURL = en.nextElement();
-			File pluginDir = new File(pluginDirURL.getFile());
-			if (pluginDir.isDirectory()) {
-				scanDirectory(pluginDir, visitor);
+			scanLocation(en.nextElement(), visitor);
+		}
+	}
+
+	/**
+	 * Scan single location of the path - classpath directory or directory inside a JAR.
+	 *
+	 * @param pluginDirURL
+	 *            URL of the location (as returned by {@link ClassLoader#getResources})
+	 * @param visitor
+	 *            visit each file in the location
+	 * @throws IOException
+	 *             any IO exception while scanning
+	 */
+	public void scanLocation(URL pluginDirURL, ScannerVisitor visitor) throws IOException {
+		File pluginDir = new File(pluginDirURL.getFile());
+		if (pluginDir.isDirectory()) {
+			scanDirectory(pluginDir, visitor);
+		} else {
+			// JAR file
+			String uri;
+			try {
+				uri = pluginDirURL.toURI().toString();
+			} catch (URISyntaxException e) {
+				throw new IOException("Illegal directory URI " + pluginDirURL, e);
+			}
+
+			if (uri.startsWith(JAR_URL_PREFIX)) {
+				String jarFile = uri.substring(JAR_URL_PREFIX.length());
+				scanJar(jarFile, visitor);
 			} else {
-				// JAR file
-				String uri;
-				try {
-					uri = pluginDirURL.toURI().toString();
-				} catch (URISyntaxException e) {
-					throw new IOException("Illegal directory URI " + pluginDirURL, e);
-				}
-
-				if (uri.startsWith(JAR_URL_PREFIX)) {
-					String jarFile = uri.substring(JAR_URL_PREFIX.length());
-					scanJar(jarFile, visitor);
-				} else {
-					LOGGER.warning("Unknown resource type of file " + uri);
-				}
+				LOGGER.warning("Unknown resource type of file " + uri);
 			}
 		}
 	}
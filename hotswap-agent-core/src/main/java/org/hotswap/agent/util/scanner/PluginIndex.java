@@ -0,0 +1,406 @@
+package org.hotswap.agent.util.scanner;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.hotswap.agent.annotation.Plugin;
+import org.hotswap.agent.javassist.bytecode.AnnotationsAttribute;
+import org.hotswap.agent.javassist.bytecode.ClassFile;
+import org.hotswap.agent.javassist.bytecode.annotation.Annotation;
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Index of classes in a plugin path - all classes (plugin support classes are copied to application
+ * classloaders) and plugin classes (annotated with @Plugin).
+ * <p/>
+ * Each location of the path is resolved separately. Classpath directories are always scanned (these are
+ * expected to change), for a JAR location:
+ * <ul>
+ * <li>index file {@link #INDEX_FILE} inside the path (generated at build time by {@link #main(String[])}),</li>
+ * <li>index cached on disk for the JAR file path, size and modification time (in a directory owned by the user,
+ * system property {@value #CACHE_PROPERTY} sets the directory, value "false" disables the cache),</li>
+ * <li>otherwise the location is scanned and the index is cached.</li>
+ * </ul>
+ * Resolved index is kept for the classloader and path, hence the plugin path is scanned at most once.
+ * <p/>
+ * Handler patterns (e.g. @OnClassLoadEvent classNameRegexp) and support classes are not indexed - PluginRegistry
+ * loads each plugin class to create and register the plugin and reads them from its annotations, an indexed copy
+ * would not save any class loading or scanning.
+ */
+public class PluginIndex {
+	private static AgentLogger LOGGER = AgentLogger.getLogger(PluginIndex.class);
+
+	/**
+	 * Name of the index file in the plugin path (e.g. org/hotswap/agent/plugin/plugin-index.txt).
+	 */
+	public static final String INDEX_FILE = "plugin-index.txt";
+
+	private static final String HEADER = "# HotswapAgent plugin index";
+	private static final String CLASS = "class";
+	private static final String PLUGIN = "plugin";
+
+	/**
+	 * System property with the cache directory, "false" to disable the cache.
+	 */
+	public static final String CACHE_PROPERTY = "hotswap-agent.pluginIndexCache";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	// directory to cache index of JARs without index file, null if disabled. It is private to the user, a cache in
+	// a shared directory (e.g. java.io.tmpdir) might be replaced by another user and define arbitrary classes.
+	private static File cacheDirectory = resolveCacheDirectory(System.getProperty(CACHE_PROPERTY));
+
+	// classloader -> path -> resolved index
+	private static final Map<ClassLoader, Map<String, PluginIndex>> indexes = new WeakHashMap<ClassLoader, Map<String, PluginIndex>>();
+
+	private final Set<String> classNames = new LinkedHashSet<String>();
+	private final Set<String> pluginClassNames = new LinkedHashSet<String>();
+
+	/**
+	 * Names of all classes in the path.
+	 */
+	public Set<String> getClassNames() {
+		return Collections.unmodifiableSet(classNames);
+	}
+
+	/**
+	 * Names of classes annotated with @Plugin.
+	 */
+	public Set<String> getPluginClassNames() {
+		return Collections.unmodifiableSet(pluginClassNames);
+	}
+
+	/**
+	 * Return index of the path in the classloader.
+	 *
+	 * @param classLoader
+	 *            classloader to resolve path
+	 * @param path
+	 *            '/'-separated path (e.g. org/hotswap/agent/plugin)
+	 * @return the index (empty if the path does not exist)
+	 * @throws IOException
+	 *             unable to scan the path
+	 */
+	public static PluginIndex forPath(ClassLoader classLoader, String path) throws IOException {
+		synchronized (indexes) {
+			Map<String, PluginIndex> byPath = indexes.get(classLoader);
+			if (byPath == null) {
+				byPath = new HashMap<String, PluginIndex>();
+				indexes.put(classLoader, byPath);
+			}
+
+			PluginIndex index = byPath.get(path);
+			if (index == null) {
+				index = new PluginIndex();
+				Enumeration<URL> locations = classLoader == null ? ClassLoader.getSystemResources(path)
+						: classLoader.getResources(path);
+				while (locations.hasMoreElements()) {
+					index.addAll(forLocation(locations.nextElement(), path));
+				}
+				byPath.put(path, index);
+			}
+			return index;
+		}
+	}
+
+	// index of single location of the path
+	private static PluginIndex forLocation(URL location, String path) throws IOException {
+		if (!"jar".equals(location.getProtocol())) {
+			return scan(location);
+		}
+
+		URL indexUrl = new URL(location.toExternalForm() + "/" + INDEX_FILE);
+		try {
+			InputStream is = indexUrl.openStream();
+			try {
+				LOGGER.debug("Using plugin index {}", indexUrl);
+				return read(is);
+			} finally {
+				is.close();
+			}
+		} catch (IOException e) {
+			// no index in the location
+		}
+
+		File cacheFile = getCacheFile(location, path);
+		if (cacheFile != null && cacheFile.isFile() && isCacheDirectoryOwned(false)) {
+			try {
+				InputStream is = new FileInputStream(cacheFile);
+				try {
+					LOGGER.debug("Using cached plugin index {} for {}", cacheFile, location);
+					return read(is);
+				} finally {
+					is.close();
+				}
+			} catch (IOException e) {
+				LOGGER.debug("Unable to read cached plugin index {}", e, cacheFile);
+			}
+		}
+
+		PluginIndex index = scan(location);
+		if (cacheFile != null && isCacheDirectoryOwned(true)) {
+			try {
+				index.writeTo(cacheFile);
+			} catch (IOException e) {
+				LOGGER.debug("Unable to cache plugin index {}", e, cacheFile);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Scan a location of the path (does not use index file).
+	 *
+	 * @param location
+	 *            classpath directory or directory inside a JAR
+	 * @return the index
+	 * @throws IOException
+	 *             unable to scan the location
+	 */
+	public static PluginIndex scan(URL location) throws IOException {
+		LOGGER.debug("Scanning plugin location {}", location);
+		final PluginIndex index = new PluginIndex();
+		new ClassPathScanner().scanLocation(location, new ScannerVisitor() {
+			@Override
+			public void visit(InputStream file) throws IOException {
+				try {
+					index.add(new ClassFile(new DataInputStream(file)));
+				} catch (IOException e) {
+					throw new IOException("Stream not a valid classFile", e);
+				} finally {
+					file.close();
+				}
+			}
+		});
+		return index;
+	}
+
+	// cache directory from the system property value, default in user home
+	static File resolveCacheDirectory(String property) {
+		if (property == null) {
+			return new File(System.getProperty("user.home"), ".hotswap-agent" + File.separator + "plugin-index");
+		}
+		if (property.trim().length() == 0 || "false".equalsIgnoreCase(property.trim())) {
+			return null;
+		}
+		return new File(property);
+	}
+
+	// cache file of a JAR location, null if the cache is disabled or the location is not a local JAR file
+	private static File getCacheFile(URL location, String path) {
+		File directory = cacheDirectory;
+		if (directory == null) {
+			return null;
+		}
+		try {
+			URLConnection connection = location.openConnection();
+			if (!(connection instanceof JarURLConnection)) {
+				return null;
+			}
+			URL jarFileUrl = ((JarURLConnection) connection).getJarFileURL();
+			if (!"file".equals(jarFileUrl.getProtocol())) {
+				return null;
+			}
+			File jar = new File(jarFileUrl.toURI());
+			if (!jar.isFile()) {
+				return null;
+			}
+
+			// key of the JAR version - path, size and modification time, the JAR content is not read
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(jar.getAbsolutePath().getBytes(UTF_8));
+			digest.update(Long.toHexString(jar.length()).getBytes(UTF_8));
+			digest.update(Long.toHexString(jar.lastModified()).getBytes(UTF_8));
+			digest.update(path.getBytes(UTF_8));
+
+			StringBuilder name = new StringBuilder();
+			for (byte b : digest.digest()) {
+				name.append(String.format("%02x", b));
+			}
+			return new File(directory, name.append(".txt").toString());
+		} catch (IOException e) {
+			LOGGER.debug("Unable to resolve JAR file of {}", e, location);
+		} catch (URISyntaxException e) {
+			LOGGER.debug("Unable to resolve JAR file of {}", e, location);
+		} catch (NoSuchAlgorithmException e) {
+			LOGGER.debug("Unable to compute cache key of {}", e, location);
+		}
+		return null;
+	}
+
+	// the cache directory must be owned by the current user, it is created accessible only by the owner on first write
+	private static boolean isCacheDirectoryOwned(boolean create) {
+		File directory = cacheDirectory;
+		try {
+			if (!directory.isDirectory()) {
+				if (!create) {
+					return false;
+				}
+				Files.createDirectories(directory.toPath());
+				directory.setReadable(false, false);
+				directory.setWritable(false, false);
+				directory.setExecutable(false, false);
+				directory.setReadable(true, true);
+				directory.setWritable(true, true);
+				directory.setExecutable(true, true);
+			}
+			UserPrincipal user = FileSystems.getDefault().getUserPrincipalLookupService()
+					.lookupPrincipalByName(System.getProperty("user.name"));
+			if (!user.equals(Files.getOwner(directory.toPath()))) {
+				LOGGER.warning("Plugin index cache directory {} is not owned by user {}, cache is not used.", directory, user);
+				return false;
+			}
+			return true;
+		} catch (IOException e) {
+			LOGGER.debug("Unable to use plugin index cache directory {}", e, directory);
+		} catch (UnsupportedOperationException e) {
+			LOGGER.debug("Unable to check owner of plugin index cache directory {}", e, directory);
+		}
+		return false;
+	}
+
+	/**
+	 * Add class to the index.
+	 */
+	void add(ClassFile cf) {
+		String className = cf.getName();
+		classNames.add(className);
+
+		if (hasAnnotation((AnnotationsAttribute) cf.getAttribute(AnnotationsAttribute.visibleTag), Plugin.class.getName()) != null) {
+			pluginClassNames.add(className);
+		}
+	}
+
+	private static Annotation hasAnnotation(AnnotationsAttribute attribute, String annotation) {
+		if (attribute != null) {
+			for (Annotation ann : attribute.getAnnotations()) {
+				if (annotation.equals(ann.getTypeName())) {
+					return ann;
+				}
+			}
+		}
+		return null;
+	}
+
+	private void addAll(PluginIndex index) {
+		classNames.addAll(index.classNames);
+		pluginClassNames.addAll(index.pluginClassNames);
+	}
+
+	/**
+	 * Read index from the stream (format written by {@link #write(Writer)}), unknown entries are skipped.
+	 */
+	public static PluginIndex read(InputStream is) throws IOException {
+		PluginIndex index = new PluginIndex();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(is, UTF_8));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+			int separator = line.indexOf(' ');
+			if (separator < 0) {
+				throw new IOException("Invalid plugin index line '" + line + "'");
+			}
+			String kind = line.substring(0, separator);
+			String value = line.substring(separator + 1);
+			if (CLASS.equals(kind)) {
+				index.classNames.add(value);
+			} else if (PLUGIN.equals(kind)) {
+				index.pluginClassNames.add(value);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Write the index - one entry per line.
+	 */
+	public void write(Writer writer) throws IOException {
+		writer.write(HEADER + "\n");
+		for (String className : classNames) {
+			writer.write(CLASS + " " + className + "\n");
+		}
+		for (String className : pluginClassNames) {
+			writer.write(PLUGIN + " " + className + "\n");
+		}
+		writer.flush();
+	}
+
+	// write to temporary file and rename - concurrent JVMs may write the same cache file
+	private void writeTo(File file) throws IOException {
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Unable to create directory " + dir);
+		}
+		File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+		Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), UTF_8);
+		try {
+			write(writer);
+		} finally {
+			writer.close();
+		}
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+		}
+	}
+
+	// set cache directory, null to disable (tests)
+	static void setCacheDirectory(File directory) {
+		cacheDirectory = directory;
+	}
+
+	/**
+	 * Generate index file of a plugin path at build time.
+	 * <p/>
+	 * All locations of the path on the classpath are scanned and merged into a single index, it is suitable
+	 * for a distribution JAR containing the whole path.
+	 *
+	 * @param args
+	 *            output directory (e.g. target/classes) and optionally the plugin path (default
+	 *            org/hotswap/agent/plugin)
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: PluginIndex <output directory> [<plugin path>]");
+			System.exit(1);
+		}
+		String path = args.length > 1 ? args[1] : "org/hotswap/agent/plugin";
+
+		PluginIndex index = new PluginIndex();
+		Enumeration<URL> locations = PluginIndex.class.getClassLoader().getResources(path);
+		while (locations.hasMoreElements()) {
+			index.addAll(scan(locations.nextElement()));
+		}
+
+		File indexFile = new File(new File(args[0], path), INDEX_FILE);
+		index.writeTo(indexFile);
+		System.out.println("Plugin index " + indexFile + " written with " + index.classNames.size() + " classes and "
+				+ index.pluginClassNames.size() + " plugins.");
+	}
+}
@@ -0,0 +1,22 @@
+package org.hotswap.agent.util.scanner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hotswap.agent.annotation.Plugin;
+
+/**
+ * Search for @Plugin classes using {@link PluginIndex} of the path instead of parsing each class file.
+ */
+public class PluginIndexScanner extends ClassPathAnnotationScanner {
+
+	public PluginIndexScanner() {
+		super(Plugin.class.getName(), new ClassPathScanner());
+	}
+
+	@Override
+	public List<String> scanPlugins(ClassLoader classLoader, String path) throws IOException {
+		return new ArrayList<String>(PluginIndex.forPath(classLoader, path).getPluginClassNames());
+	}
+}
@@ -0,0 +1,20 @@
+package org.hotswap.agent.watch;
+
+import java.util.List;
+
+/**
+ * Listener which receives all events of one filesystem change burst at once
+ * (e.g. all files written by an IDE build in a watched directory).
+ * <p/>
+ * The watcher calls {@link #onEvents(List)} instead of {@link #onEvent(WatchFileEvent)}
+ * for each event.
+ */
+public interface WatchEventBatchListener extends WatchEventListener {
+	/**
+	 * Files/Directories were created/modified/deleted.
+	 *
+	 * @param events
+	 *            events in the order they occurred.
+	 */
+	public void onEvents(List<WatchFileEvent> events);
+}
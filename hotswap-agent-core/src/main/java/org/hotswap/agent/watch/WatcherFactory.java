@@ -2,6 +2,10 @@ package org.hotswap.agent.watch;
 
 import java.io.IOException;
 
+import org.hotswap.agent.config.PluginConfiguration;
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.watch.nio.AbstractNIO2Watcher;
+import org.hotswap.agent.watch.nio.PollingWatcher;
 import org.hotswap.agent.watch.nio.TreeWatcherNIO;
 //import org.hotswap.agent.watch.nio.WatcherNIO2;
 import org.hotswap.agent.watch.nio.WatcherNIO2;
@@ -13,6 +17,7 @@ import org.hotswap.agent.watch.nio.WatcherNIO2;
  * @author Jiri Bubnik
  */
 public class WatcherFactory {
+	private static AgentLogger LOGGER = AgentLogger.getLogger(WatcherFactory.class);
 
 	public static double JAVA_VERSION = getVersion();
 
@@ -46,4 +51,70 @@ public class WatcherFactory {
 		}
 
 	}
+
+	/**
+	 * Create the watcher and apply watcher settings from the configuration.
+	 * <ul>
+	 * <li>watcher - implementation: nio (default - NIO2 watch service), polling (periodic scan of
+	 * directory trees) or hybrid (scan and watch service for directories with changes)</li>
+	 * <li>watcherQuietPeriod - milliseconds without new filesystem events before the events are
+	 * delivered to listeners</li>
+	 * <li>watcherPollInterval - milliseconds between scans of polling/hybrid watcher</li>
+	 * <li>watcherContentHash - polling/hybrid watcher compares file content, files rewritten
+	 * with the same content are not reported</li>
+	 * <li>watcherMaxWatchedDirectories - maximum number of directories registered with the watch
+	 * service by the hybrid watcher</li>
+	 * </ul>
+	 *
+	 * @param configuration agent configuration
+	 * @return the watcher
+	 */
+	public Watcher getWatcher(PluginConfiguration configuration) throws IOException {
+		Watcher watcher;
+		String type = trim(configuration.getProperty("watcher"));
+		if (type == null || type.equals("nio")) {
+			watcher = getWatcher();
+		} else if (type.equals("polling") || type.equals("hybrid")) {
+			PollingWatcher pollingWatcher = new PollingWatcher(type.equals("hybrid"));
+			String pollInterval = trim(configuration.getProperty("watcherPollInterval"));
+			if (pollInterval != null) {
+				try {
+					pollingWatcher.setPollInterval(Long.parseLong(pollInterval));
+				} catch (IllegalArgumentException e) {
+					LOGGER.error("Invalid watcherPollInterval value '{}', using default.", pollInterval);
+				}
+			}
+			String maxWatched = trim(configuration.getProperty("watcherMaxWatchedDirectories"));
+			if (maxWatched != null) {
+				try {
+					pollingWatcher.setMaxWatchedDirectories(Integer.parseInt(maxWatched));
+				} catch (NumberFormatException e) {
+					LOGGER.error("Invalid watcherMaxWatchedDirectories value '{}', using default.", maxWatched);
+				}
+			}
+			pollingWatcher.setContentHash(configuration.getPropertyBoolean("watcherContentHash"));
+			watcher = pollingWatcher;
+		} else {
+			LOGGER.error("Unknown watcher '{}', using default.", type);
+			watcher = getWatcher();
+		}
+
+		String quietPeriod = trim(configuration.getProperty("watcherQuietPeriod"));
+		if (quietPeriod != null && watcher instanceof AbstractNIO2Watcher) {
+			try {
+				((AbstractNIO2Watcher) watcher).setQuietPeriod(Long.parseLong(quietPeriod));
+			} catch (IllegalArgumentException e) {
+				LOGGER.error("Invalid watcherQuietPeriod value '{}', using default.", quietPeriod);
+			}
+		}
+		return watcher;
+	}
+
+	// null for empty value
+	private static String trim(String value) {
+		if (value == null || value.trim().isEmpty()) {
+			return null;
+		}
+		return value.trim();
+	}
 }
@@ -11,18 +11,33 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import javax.management.Attribute;
@@ -38,8 +53,12 @@ import javax.management.MBeanNotificationInfo;
 import javax.management.MBeanOperationInfo;
 import javax.management.ReflectionException;
 
+import org.hotswap.agent.annotation.FileEvent;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.logging.AgentLogger.Level;
+import org.hotswap.agent.metrics.LatencyHistogram;
+import org.hotswap.agent.metrics.ReloadMetrics;
+import org.hotswap.agent.watch.WatchEventBatchListener;
 import org.hotswap.agent.watch.WatchEventListener;
 import org.hotswap.agent.watch.WatchFileEvent;
 import org.hotswap.agent.watch.Watcher;
@@ -50,6 +69,9 @@ import org.hotswap.agent.watch.Watcher;
  * <p/>
  * Java 7 (NIO2) watch a directory (or tree) for changes to files.
  * <p/>
+ * Events are collected by the polling thread, collapsed to net changes per path (see {@link EventCoalescer})
+ * and delivered to listeners on a separate dispatcher thread after the quiet period.
+ * <p/>
  * By http://docs.oracle.com/javase/tutorial/essential/io/examples/WatchDir.java
  *
  * @author Jiri Bubnik
@@ -58,15 +80,55 @@ public abstract class AbstractNIO2Watcher implements Watcher, DynamicMBean {
 	protected AgentLogger LOGGER = AgentLogger.getLogger(this.getClass());
 
 	protected WatchService watcher;
+
+	private final LatencyHistogram dispatchHistogram = ReloadMetrics.histogram(ReloadMetrics.Stage.WATCH_EVENT, "dispatch");
 	protected final Map<WatchKey, PathPair> keys;
-	private final Map<Path, List<WatchEventListener>> listeners = new ConcurrentHashMap<Path, List<WatchEventListener>>();
+	private final PathTrie<WatchEventListener> listeners = new PathTrie<WatchEventListener>();
+
+	// watched directories of keys, to find the key covering a directory
+	private final PathTrie<PathPair> watchedDirectories = new PathTrie<PathPair>();
 
 	// keep track about which classloader requested which event
 	protected Map<WatchEventListener, ClassLoader> classLoaderListeners = new ConcurrentHashMap<WatchEventListener, ClassLoader>();
 
+	/** Default quiet period in milliseconds, see {@link #setQuietPeriod(long)}. */
+	public static final long DEFAULT_QUIET_PERIOD = 50;
+
+	// files modified this time before the last processing of an overflowed key are reported as well
+	// (filesystem timestamp resolution)
+	private static final long OVERFLOW_RESCAN_SLACK = 2000;
+
+	// file timestamps are taken from a coarse kernel clock, they may lag behind currentTimeMillis() by a clock tick
+	static final long TIMESTAMP_SLACK = 20;
+
+	private final EventCoalescer coalescer = new EventCoalescer(DEFAULT_QUIET_PERIOD);
+
+	// last time events of a key were processed, used to rescan an overflowed directory
+	private final Map<WatchKey, Long> keyProcessedTimes = new ConcurrentHashMap<WatchKey, Long>();
+
+	private long startTime;
+
 	private Thread runner;
 
-	private boolean stopped;
+	// pending tree registrations by root directory, guarded by itself
+	private final PathTrie<RegistrationTask> pendingRegistrations = new PathTrie<RegistrationTask>();
+
+	// returned by addDirectoryAsync() if the directory is already registered
+	private static final Future<?> COMPLETED = new FutureTask<Void>(new Runnable() {
+		@Override
+		public void run() {
+		}
+	}, null);
+	static {
+		((FutureTask<?>) COMPLETED).run();
+	}
+
+	private ForkJoinPool pool;
+
+	// listeners are called on separate thread to keep polling while listeners are busy
+	private ExecutorService dispatcher;
+
+	protected volatile boolean stopped;
 
 	private volatile boolean paused = false;
 
@@ -98,7 +160,7 @@ public abstract class AbstractNIO2Watcher implements Watcher, DynamicMBean {
 		}
 
 		try {
-			addDirectory(path.toURI());
+			addDirectoryAsync(path.toURI());
 		} catch (IOException e) {
 			if (!LOGGER.isLevelEnabled(Level.TRACE)) {
 				LOGGER.warning("Unable to watch for path {}, not a local regular file or directory.", pathPrefix);
@@ -108,12 +170,7 @@ public abstract class AbstractNIO2Watcher implements Watcher, DynamicMBean {
 			return;
 		}
 
-		List<WatchEventListener> list = listeners.get(Paths.get(pathPrefix));
-		if (list == null) {
-			list = new ArrayList<WatchEventListener>();
-			listeners.put(Paths.get(pathPrefix), list);
-		}
-		list.add(listener);
+		listeners.add(Paths.get(pathPrefix), listener);
 
 		if (classLoader != null) {
 			classLoaderListeners.put(listener, classLoader);
@@ -136,30 +193,17 @@ public abstract class AbstractNIO2Watcher implements Watcher, DynamicMBean {
 	 */
 	@Override
 	public void closeClassLoader(ClassLoader classLoader) {
+		Set<WatchEventListener> removed = new HashSet<WatchEventListener>();
 		for (Iterator<Entry<WatchEventListener, ClassLoader>> entryIterator = classLoaderListeners.entrySet().iterator(); entryIterator.hasNext();) {
 			Entry<WatchEventListener, ClassLoader> entry = entryIterator.next();
 			if (entry.getValue().equals(classLoader)) {
 				entryIterator.remove();
-				try{
-					for (Iterator<Entry<Path, List<WatchEventListener>>> listenersIterator = listeners.entrySet().iterator(); listenersIterator.hasNext();) {
-							Entry<Path, List<WatchEventListener>> pathListenerEntry = listenersIterator.next();
-							List<WatchEventListener> l = pathListenerEntry.getValue();
-							
-							if(l != null) {
-								l.remove(entry.getKey());
-							} 
-							
-							if(l == null || l.isEmpty()) {
-								listenersIterator.remove();
-							}
-	
-					}
-				} catch(Exception e) {
-					// ERROR [org.jboss.msc.service] (MSC service thread 1-4) MSC000002: Invocation of listener "org.jboss.as.server.moduleservice.ServiceModuleLoader$ModuleSpecLoadListener@3450d6b5" failed: java.util.NoSuchElementException
-					LOGGER.error("Ooops", e);
-				}				
+				removed.add(entry.getKey());
 			}
 		}
+		if (!removed.isEmpty()) {
+			listeners.removeAll(removed);
+		}
 		// cleanup...
 		if(classLoaderListeners.isEmpty()) {
 			listeners.clear();
@@ -171,6 +215,9 @@ public abstract class AbstractNIO2Watcher implements Watcher, DynamicMBean {
 					e.printStackTrace();
 				}
 			}
+			keys.clear();
+			watchedDirectories.clear();
+			keyProcessedTimes.clear();
 			try {
 				this.watcher.close();
 			} catch (IOException e) {
@@ -190,12 +237,33 @@ public abstract class AbstractNIO2Watcher implements Watcher, DynamicMBean {
 	}
 
 	/**
-	 * Registers the given directory
+	 * Registers the given directory and waits for the registration.
 	 */
 	public void addDirectory(URI path) throws IOException {
+		Future<?> registration = addDirectoryAsync(path);
+		if (registration instanceof RegistrationTask) {
+			((RegistrationTask) registration).join();
+			if (((RegistrationTask) registration).failure != null) {
+				throw ((RegistrationTask) registration).failure;
+			}
+		}
+	}
+
+	/**
+	 * Registers the given directory tree asynchronously. Files changed after this call
+	 * and before the registration of their directory is finished are reported as events.
+	 * <p/>
+	 * If the directory is already registered or its registration is in progress (directly or via
+	 * a parent directory), no new registration is started.
+	 *
+	 * @param path the directory
+	 * @return future completed when the directory tree is registered (registration errors are logged)
+	 * @throws IOException invalid or non-existing path
+	 */
+	public Future<?> addDirectoryAsync(URI path) throws IOException {
+		Path dir;
 		try {
-			Path dir = Paths.get(path);
-			registerAll(null, dir);
+			dir = Paths.get(path);
 		} catch (IllegalArgumentException e) {
 			throw new IOException("Invalid URI format " + path, e);
 		} catch (FileSystemNotFoundException e) {
@@ -203,12 +271,159 @@ public abstract class AbstractNIO2Watcher implements Watcher, DynamicMBean {
 		} catch (SecurityException e) {
 			throw new IOException("Security exception for URI " + path, e);
 		}
+		if (!Files.exists(dir)) {
+			throw new NoSuchFileException(dir.toString());
+		}
+
+		long since = System.currentTimeMillis();
+
+		RegistrationTask task;
+		synchronized (pendingRegistrations) {
+			RegistrationTask pending = pendingRegistrations.getFirstPrefixValue(dir);
+			if (pending != null) {
+				return pending;
+			}
+			if (isRegistered(dir)) {
+				return COMPLETED;
+			}
+			task = new RegistrationTask(dir, since);
+			pendingRegistrations.add(dir, task);
+		}
+		getPool().execute(task);
+		return task;
 	}
 
-	protected abstract void registerAll(final Path watched, final Path target) throws IOException;
+	/**
+	 * Directory is watched - registered by itself or as a part of registered parent directory tree.
+	 */
+	protected boolean isRegistered(Path dir) {
+		return getCoveringKey(dir) != null;
+	}
+
+	/**
+	 * Pool for parallel work of the watcher (directory registration and scan).
+	 */
+	protected synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+				@Override
+				public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+					ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+					thread.setName("HotSwap Watcher Worker-" + thread.getPoolIndex());
+					thread.setDaemon(true);
+					return thread;
+				}
+			}, null, false);
+		}
+		return pool;
+	}
+
+	/**
+	 * Report a file found during directory registration, if it was modified since the registration started.
+	 */
+	protected void addRegisteredFile(Path file, BasicFileAttributes attrs, long since) {
+		if (isModifiedSince(attrs.lastModifiedTime().toMillis(), since)) {
+			addEvent(file, isModifiedSince(attrs.creationTime().toMillis(), since) ? FileEvent.CREATE : FileEvent.MODIFY);
+		}
+	}
+
+	/**
+	 * Compare file timestamp with registration start at millisecond precision. A timestamp in whole seconds
+	 * comes from a file system with coarse timestamps (e.g. HFS+, FAT), it is compared at second precision.
+	 */
+	static boolean isModifiedSince(long timestamp, long since) {
+		long start = since - TIMESTAMP_SLACK;
+		if (timestamp % 1000 == 0) {
+			return timestamp >= start / 1000 * 1000;
+		}
+		return timestamp >= start;
+	}
 
 	/**
-	 * Process all events for keys queued to the watcher
+	 * Asynchronous registration of a directory tree.
+	 */
+	private class RegistrationTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Path dir;
+		private final long since;
+		private volatile IOException failure;
+
+		RegistrationTask(Path dir, long since) {
+			this.dir = dir;
+			this.since = since;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				registerAll(null, dir, since);
+			} catch (IOException e) {
+				failure = e;
+				LOGGER.warning("Unable to watch for path {}, not a local regular file or directory.", dir);
+			} catch (RuntimeException e) {
+				LOGGER.error("Error registering directory {}", e, dir);
+			} finally {
+				synchronized (pendingRegistrations) {
+					pendingRegistrations.remove(dir, this);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Register the directory (and for recursive watchers all its subdirectories).
+	 *
+	 * @param watched directory of the key which reported creation of target, null for a new registration
+	 * @param target the directory
+	 * @param since report files modified since this time (they might be changed before registration)
+	 */
+	protected abstract void registerAll(final Path watched, final Path target, long since) throws IOException;
+
+	/**
+	 * Add registered watch key.
+	 */
+	protected void addKey(WatchKey key, PathPair pathPair) {
+		PathPair previous = keys.put(key, pathPair);
+		if (previous == null) {
+			watchedDirectories.add(pathPair.getWatched(), pathPair);
+		} else if (!previous.equals(pathPair)) {
+			watchedDirectories.remove(previous.getWatched(), previous);
+			watchedDirectories.add(pathPair.getWatched(), pathPair);
+		}
+	}
+
+	/**
+	 * Remove invalid watch key.
+	 */
+	protected void removeKey(WatchKey key) {
+		PathPair pathPair = keys.remove(key);
+		if (pathPair != null) {
+			watchedDirectories.remove(pathPair.getWatched(), pathPair);
+		}
+		keyProcessedTimes.remove(key);
+	}
+
+	/**
+	 * Add an event detected other way than by the watch service (e.g. by directory scan).
+	 * The event is coalesced and delivered the same way as watch service events.
+	 */
+	protected void addEvent(Path path, FileEvent eventType) {
+		coalescer.add(path, eventType, System.currentTimeMillis());
+	}
+
+	/**
+	 * Find a key watching the directory or any of its parent directories.
+	 *
+	 * @return path pair of the key or null
+	 */
+	protected PathPair getCoveringKey(Path directory) {
+		return watchedDirectories.getFirstPrefixValue(directory);
+	}
+
+	/**
+	 * Process all events for keys queued to the watcher and release coalesced events
+	 * to the dispatcher thread.
 	 *
 	 * @return true if should continue
 	 * @throws InterruptedException
@@ -217,22 +432,39 @@ public abstract class AbstractNIO2Watcher implements Watcher, DynamicMBean {
 
 		// wait for key to be signalled
 		WatchKey key = watcher.poll(10, TimeUnit.MILLISECONDS);
-		if(key == null) {
-			return true;
+		if (key != null && !processKey(key)) {
+			return false;
 		}
 
+		final List<HotswapWatchFileEvent> events = coalescer.poll(System.currentTimeMillis());
+		if (!events.isEmpty()) {
+			dispatcher.execute(new Runnable() {
+				@Override
+				public void run() {
+					dispatch(events);
+				}
+			});
+		}
+		return true;
+	}
+
+	// add events of the key to the coalescer, return false if the watcher should stop
+	private boolean processKey(WatchKey key) {
 		PathPair dir = keys.get(key);
-		
+
 		if (dir == null) {
 			LOGGER.warning("WatchKey '{}' not recognized", key);
 			return true;
 		}
 
+		long now = System.currentTimeMillis();
+		boolean overflowed = false;
+
 		for (WatchEvent<?> event : key.pollEvents()) {
 			WatchEvent.Kind<?> kind = event.kind();
 
 			if (kind == OVERFLOW) {
-				LOGGER.warning("WatchKey '{}' overflowed", key);
+				overflowed = true;
 				continue;
 			}
 
@@ -243,17 +475,15 @@ public abstract class AbstractNIO2Watcher implements Watcher, DynamicMBean {
 
 			LOGGER.debug("Watch event '{}' on '{}' --> {}", event.kind().name(), child, name);
 
-			// if(!paused) {
-			callListeners(event, child);
-			// }else {
-			// LOGGER.debug("Polling is paused...");
-			// }
+			coalescer.add(child, HotswapWatchFileEvent.toAgentEvent(kind), now);
+
 			// if directory is created, and watching recursively, then
 			// register it and its sub-directories
 			if (kind == ENTRY_CREATE) {
 				try {
 					if (Files.isDirectory(child, NOFOLLOW_LINKS)) {
-						registerAll(dir.getWatched(), child);
+						// all files in new directory are new
+						registerAll(dir.getWatched(), child, 0);
 					}
 				} catch (IOException x) {
 					LOGGER.warning("Unable to register events for directory {}", x, child);
@@ -261,11 +491,17 @@ public abstract class AbstractNIO2Watcher implements Watcher, DynamicMBean {
 			}
 		}
 
+		if (overflowed) {
+			Long lastProcessed = keyProcessedTimes.get(key);
+			rescan(dir, lastProcessed != null ? lastProcessed : startTime);
+		}
+		keyProcessedTimes.put(key, now);
+
 		// reset key and remove from set if directory no longer accessible
 		boolean valid = key.reset();
 		if (!valid) {
 			LOGGER.warning("Watcher on {} not valid, removing...", keys.get(key));
-			keys.remove(key);
+			removeKey(key);
 			// all directories are inaccessible
 			if (keys.isEmpty()) {
 				return false;
@@ -280,29 +516,113 @@ public abstract class AbstractNIO2Watcher implements Watcher, DynamicMBean {
 		return true;
 	}
 
-	// notify listeners about new event
-	private void callListeners(final WatchEvent<?> event, final Path path) {
-		boolean matchedOne = false;
-		for (Map.Entry<Path, List<WatchEventListener>> list : listeners.entrySet()) {
-			if (path.startsWith(list.getKey())) {
-				matchedOne = true;
-				for (WatchEventListener listener : list.getValue()) {
-					WatchFileEvent agentEvent = new HotswapWatchFileEvent(event, path);
-					try {
-						listener.onEvent(agentEvent);
-					} catch (Throwable e) {
-						//LOGGER.error("Error in watch event '{}' listener '{}'", e, agentEvent, listener);
+	/**
+	 * Events of the directory were lost. Register directories created meanwhile and report
+	 * all files modified since the key was processed last time as MODIFY. Deleted files cannot
+	 * be detected.
+	 */
+	private void rescan(PathPair dir, long since) {
+		LOGGER.warning("Watch events on '{}' overflowed, rescanning the directory.", dir.getTarget());
+		final long modifiedSince = since - OVERFLOW_RESCAN_SLACK;
+		final long now = System.currentTimeMillis();
+		try {
+			registerAll(dir.getWatched(), dir.getTarget(), Long.MAX_VALUE);
+			Files.walkFileTree(dir.getTarget(), new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					if (attrs.lastModifiedTime().toMillis() >= modifiedSince) {
+						coalescer.add(file, FileEvent.MODIFY, now);
 					}
+					return FileVisitResult.CONTINUE;
 				}
+			});
+		} catch (IOException e) {
+			LOGGER.warning("Unable to rescan directory {}", e, dir.getTarget());
+		}
+	}
+
+	// notify listeners about coalesced events, called on the dispatcher thread
+	private void dispatch(List<HotswapWatchFileEvent> events) {
+		// events are delivered to listeners together as one burst
+		Map<WatchEventListener, List<WatchFileEvent>> burst = new LinkedHashMap<WatchEventListener, List<WatchFileEvent>>();
+		for (HotswapWatchFileEvent event : events) {
+			collectListeners(burst, event);
+		}
+
+		if (!burst.isEmpty()) {
+			long start = System.nanoTime();
+			callListeners(burst);
+			ReloadMetrics.record(dispatchHistogram, start, burst.size());
+		}
+	}
+
+	// find listeners of new event and add the event to their burst
+	private void collectListeners(Map<WatchEventListener, List<WatchFileEvent>> burst, final HotswapWatchFileEvent fileEvent) {
+		boolean matchedOne = false;
+		Path path = fileEvent.getPath();
+		// single event instance for all listeners - handlers share data derived from it (e.g. parsed class file)
+		for (WatchEventListener listener : listeners.getPrefixValues(path)) {
+			matchedOne = true;
+			List<WatchFileEvent> events = burst.get(listener);
+			if (events == null) {
+				events = new ArrayList<WatchFileEvent>();
+				burst.put(listener, events);
 			}
+			events.add(fileEvent);
 		}
 		if (!matchedOne) {
-			LOGGER.error("No match for  watch event '{}',  path '{}'", event, path);
+			LOGGER.error("No match for  watch event '{}',  path '{}'", fileEvent.getEventType(), path);
 		}
 	}
 
+	// notify listeners about new events
+	private void callListeners(Map<WatchEventListener, List<WatchFileEvent>> burst) {
+		for (Map.Entry<WatchEventListener, List<WatchFileEvent>> entry : burst.entrySet()) {
+			WatchEventListener listener = entry.getKey();
+			try {
+				if (listener instanceof WatchEventBatchListener) {
+					((WatchEventBatchListener) listener).onEvents(entry.getValue());
+				} else {
+					for (WatchFileEvent agentEvent : entry.getValue()) {
+						try {
+							listener.onEvent(agentEvent);
+						} catch (Throwable e) {
+							LOGGER.error("Error in watch event '{}' listener '{}'", e, agentEvent, listener);
+						}
+					}
+				}
+			} catch (Throwable e) {
+				LOGGER.error("Error in watch events '{}' listener '{}'", e, entry.getValue(), listener);
+			}
+		}
+	}
+
+	/**
+	 * Set time without new filesystem events before collected events are delivered to
+	 * listeners. Events on the same path within the period are collapsed to the net change.
+	 *
+	 * @param quietPeriod the period in milliseconds, 0 to deliver events of each poll immediately
+	 */
+	public void setQuietPeriod(long quietPeriod) {
+		coalescer.setQuietPeriod(quietPeriod);
+	}
+
+	public long getQuietPeriod() {
+		return coalescer.getQuietPeriod();
+	}
+
 	@Override
 	public void run() {
+		startTime = System.currentTimeMillis();
+
+		dispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "HotSwap Watcher Dispatcher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 
 		runner = new Thread() {
 			@Override
@@ -326,6 +646,14 @@ public abstract class AbstractNIO2Watcher implements Watcher, DynamicMBean {
 	@Override
 	public void stop() {
 		stopped = true;
+		if (dispatcher != null) {
+			dispatcher.shutdown();
+		}
+		synchronized (this) {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
 	}
 
 	public boolean isPaused() {
@@ -0,0 +1,125 @@
+package org.hotswap.agent.watch.nio;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hotswap.agent.annotation.FileEvent;
+
+/**
+ * Collapse sequences of filesystem events on the same path to the net change.
+ * <p/>
+ * An IDE save or build produces sequences like DELETE+CREATE+MODIFY on each file. Events are collected
+ * until no new event arrives for the quiet period (or the oldest pending event waits for
+ * {@link #MAX_DELAY_FACTOR} quiet periods) and then released as one batch with at most one event per path:
+ * <ul>
+ * <li>file did not exist before and exists now - CREATE</li>
+ * <li>file existed before and does not exist now - DELETE</li>
+ * <li>file existed before and exists now - MODIFY (including DELETE followed by CREATE)</li>
+ * <li>file did not exist before and does not exist now (e.g. temporary file) - no event</li>
+ * </ul>
+ * Whether the file existed before is derived from the first event (CREATE means it did not exist),
+ * whether it exists now from the last event (DELETE means it does not exist).
+ */
+class EventCoalescer {
+
+	/** Pending events are released at latest after this number of quiet periods even if events keep coming. */
+	static final int MAX_DELAY_FACTOR = 10;
+
+	private final Map<Path, PendingEvent> pending = new LinkedHashMap<Path, PendingEvent>();
+
+	private volatile long quietPeriod;
+
+	// time of the first and the last event of the pending batch
+	private long firstEventTime;
+	private long lastEventTime;
+
+	/**
+	 * @param quietPeriod time in milliseconds without events before the batch is released
+	 */
+	EventCoalescer(long quietPeriod) {
+		setQuietPeriod(quietPeriod);
+	}
+
+	void setQuietPeriod(long quietPeriod) {
+		if (quietPeriod < 0) {
+			throw new IllegalArgumentException("Quiet period must not be negative: " + quietPeriod);
+		}
+		this.quietPeriod = quietPeriod;
+	}
+
+	long getQuietPeriod() {
+		return quietPeriod;
+	}
+
+	/**
+	 * Add new event.
+	 *
+	 * @param path the file
+	 * @param eventType type of the event
+	 * @param now current time in milliseconds
+	 */
+	synchronized void add(Path path, FileEvent eventType, long now) {
+		if (pending.isEmpty()) {
+			firstEventTime = now;
+		}
+		lastEventTime = now;
+
+		PendingEvent event = pending.get(path);
+		if (event == null) {
+			pending.put(path, new PendingEvent(eventType != FileEvent.CREATE, eventType));
+		} else {
+			event.last = eventType;
+		}
+	}
+
+	/**
+	 * Release net events if the quiet period elapsed.
+	 *
+	 * @param now current time in milliseconds
+	 * @return net events in order of the first event on each path, empty list if no events are pending or
+	 *         the quiet period did not elapse yet
+	 */
+	synchronized List<HotswapWatchFileEvent> poll(long now) {
+		if (pending.isEmpty()
+				|| now - lastEventTime < quietPeriod && now - firstEventTime < quietPeriod * MAX_DELAY_FACTOR) {
+			return Collections.emptyList();
+		}
+
+		List<HotswapWatchFileEvent> result = new ArrayList<HotswapWatchFileEvent>(pending.size());
+		for (Map.Entry<Path, PendingEvent> entry : pending.entrySet()) {
+			FileEvent netEvent = entry.getValue().getNetEvent();
+			if (netEvent != null) {
+				result.add(new HotswapWatchFileEvent(netEvent, entry.getKey()));
+			}
+		}
+		pending.clear();
+		return result;
+	}
+
+	synchronized boolean isEmpty() {
+		return pending.isEmpty();
+	}
+
+	private static class PendingEvent {
+		final boolean existed;
+		FileEvent last;
+
+		PendingEvent(boolean existed, FileEvent last) {
+			this.existed = existed;
+			this.last = last;
+		}
+
+		FileEvent getNetEvent() {
+			boolean exists = last != FileEvent.DELETE;
+			if (existed) {
+				return exists ? FileEvent.MODIFY : FileEvent.DELETE;
+			} else {
+				return exists ? FileEvent.CREATE : null;
+			}
+		}
+	}
+}
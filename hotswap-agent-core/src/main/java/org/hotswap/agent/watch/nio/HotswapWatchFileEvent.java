@@ -17,17 +17,25 @@ import org.hotswap.agent.watch.WatchFileEvent;
  */
 public class HotswapWatchFileEvent implements WatchFileEvent {
 
-	private final WatchEvent<?> event;
+	private final FileEvent eventType;
 	private final Path path;
 
 	public HotswapWatchFileEvent(WatchEvent<?> event, Path path) {
-		this.event = event;
+		this(toAgentEvent(event.kind()), path);
+	}
+
+	public HotswapWatchFileEvent(FileEvent eventType, Path path) {
+		this.eventType = eventType;
 		this.path = path;
 	}
 
 	@Override
 	public FileEvent getEventType() {
-		return toAgentEvent(event.kind());
+		return eventType;
+	}
+
+	public Path getPath() {
+		return path;
 	}
 
 	@Override
@@ -48,7 +56,7 @@ public class HotswapWatchFileEvent implements WatchFileEvent {
 
 	@Override
 	public String toString() {
-		return "WatchFileEvent on path " + path + " for event " + event.kind();
+		return "WatchFileEvent on path " + path + " for event " + eventType;
 	}
 
 	@Override
@@ -62,7 +70,7 @@ public class HotswapWatchFileEvent implements WatchFileEvent {
 
 		HotswapWatchFileEvent that = (HotswapWatchFileEvent) o;
 
-		if (!event.equals(that.event)) {
+		if (eventType != that.eventType) {
 			return false;
 		}
 		if (!path.equals(that.path)) {
@@ -74,7 +82,7 @@ public class HotswapWatchFileEvent implements WatchFileEvent {
 
 	@Override
 	public int hashCode() {
-		int result = event.hashCode();
+		int result = eventType.hashCode();
 		result = 31 * result + path.hashCode();
 		return result;
 	}
@@ -0,0 +1,180 @@
+package org.hotswap.agent.watch.nio;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Values registered by path, lookup of values registered on a path or any of its parent
+ * paths ({@link Path#startsWith(Path)} semantics) in O(depth of the path) instead of scanning
+ * all registered paths.
+ * <p/>
+ * Trie nodes are keyed by path name elements, the first level by the path root (if any).
+ * Thread safe, lookup methods return a copy.
+ *
+ * @param <V> type of values
+ */
+class PathTrie<V> {
+
+	private final Node<V> root = new Node<V>();
+
+	private int size;
+
+	/**
+	 * Register a value on the path. The same value may be registered multiple times.
+	 */
+	public synchronized void add(Path path, V value) {
+		Node<V> node = root;
+		for (Object segment : segments(path)) {
+			Node<V> child = node.children.get(segment);
+			if (child == null) {
+				child = new Node<V>();
+				node.children.put(segment, child);
+			}
+			node = child;
+		}
+		if (node.values == null) {
+			node.values = new ArrayList<V>(1);
+		}
+		node.values.add(value);
+		size++;
+	}
+
+	/**
+	 * Remove one registration of the value on the path.
+	 *
+	 * @return true if the value was registered on the path
+	 */
+	public synchronized boolean remove(Path path, V value) {
+		List<Node<V>> nodes = new ArrayList<Node<V>>();
+		List<Object> segments = segments(path);
+		Node<V> node = root;
+		for (Object segment : segments) {
+			nodes.add(node);
+			node = node.children.get(segment);
+			if (node == null) {
+				return false;
+			}
+		}
+		if (node.values == null || !node.values.remove(value)) {
+			return false;
+		}
+		size--;
+
+		// prune empty nodes
+		for (int i = segments.size() - 1; i >= 0 && node.isEmpty(); i--) {
+			nodes.get(i).children.remove(segments.get(i));
+			node = nodes.get(i);
+		}
+		return true;
+	}
+
+	/**
+	 * Remove all registrations of the values on any path.
+	 */
+	public synchronized void removeAll(Collection<?> values) {
+		removeAll(root, values);
+	}
+
+	private void removeAll(Node<V> node, Collection<?> values) {
+		if (node.values != null) {
+			for (Iterator<V> it = node.values.iterator(); it.hasNext();) {
+				if (values.contains(it.next())) {
+					it.remove();
+					size--;
+				}
+			}
+		}
+		for (Iterator<Node<V>> it = node.children.values().iterator(); it.hasNext();) {
+			Node<V> child = it.next();
+			removeAll(child, values);
+			if (child.isEmpty()) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Values registered on the path or any of its parent paths, values of parent paths first.
+	 */
+	public synchronized List<V> getPrefixValues(Path path) {
+		List<V> result = null;
+		Node<V> node = root;
+		for (Object segment : segments(path)) {
+			node = node.children.get(segment);
+			if (node == null) {
+				break;
+			}
+			if (node.values != null && !node.values.isEmpty()) {
+				if (result == null) {
+					result = new ArrayList<V>();
+				}
+				result.addAll(node.values);
+			}
+		}
+		return result != null ? result : Collections.<V>emptyList();
+	}
+
+	/**
+	 * First value registered on the nearest to root path which is the path itself or its parent.
+	 *
+	 * @return the value or null
+	 */
+	public synchronized V getFirstPrefixValue(Path path) {
+		Node<V> node = root;
+		for (Object segment : segments(path)) {
+			node = node.children.get(segment);
+			if (node == null) {
+				return null;
+			}
+			if (node.values != null && !node.values.isEmpty()) {
+				return node.values.get(0);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Number of registrations.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized boolean isEmpty() {
+		return size == 0;
+	}
+
+	public synchronized void clear() {
+		root.children.clear();
+		root.values = null;
+		size = 0;
+	}
+
+	// path root (if any) and all name elements
+	private static List<Object> segments(Path path) {
+		int count = path.getNameCount();
+		List<Object> segments = new ArrayList<Object>(count + 1);
+		if (path.getRoot() != null) {
+			segments.add(path.getRoot());
+		}
+		for (int i = 0; i < count; i++) {
+			segments.add(path.getName(i));
+		}
+		return segments;
+	}
+
+	private static class Node<V> {
+		final Map<Object, Node<V>> children = new HashMap<Object, Node<V>>(4);
+		List<V> values;
+
+		boolean isEmpty() {
+			return children.isEmpty() && (values == null || values.isEmpty());
+		}
+	}
+}
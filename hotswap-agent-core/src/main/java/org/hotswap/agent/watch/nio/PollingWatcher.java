@@ -0,0 +1,453 @@
+package org.hotswap.agent.watch.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import org.hotswap.agent.annotation.FileEvent;
+
+/**
+ * Watcher which detects changes by periodic scan of watched directory trees instead of a watch
+ * per directory (inotify watches are limited by max_user_watches on Linux and registration of large trees
+ * is slow).
+ * <p/>
+ * Each directory keeps a snapshot of its entries (modification time and size of files, optionally CRC32 of
+ * the content). Directories are scanned in parallel on a fork-join pool, a directory is listed again only
+ * if its modification time changed, otherwise only its known entries are checked. With content hash
+ * enabled, a file rewritten with the same content (e.g. by a full build) is not reported.
+ * <p/>
+ * In hybrid mode a directory with a detected change is registered with the watch service (up to
+ * {@link #setMaxWatchedDirectories(int)} directories), further changes of its files are reported
+ * immediately by the watch service and the directory files are not scanned anymore.
+ * <p/>
+ * Detected changes are delivered the same way as watch service events (coalesced after quiet period).
+ */
+public class PollingWatcher extends WatcherNIO2 {
+
+	/** Default scan interval in milliseconds. */
+	public static final long DEFAULT_POLL_INTERVAL = 1000;
+
+	/** Default maximum number of directories registered with the watch service in hybrid mode. */
+	public static final int DEFAULT_MAX_WATCHED_DIRECTORIES = 1024;
+
+	// filesystem timestamp resolution (2s on FAT)
+	private static final long TIMESTAMP_RESOLUTION = 2000;
+
+	private final boolean hybrid;
+
+	private volatile long pollInterval = DEFAULT_POLL_INTERVAL;
+
+	private volatile boolean contentHash;
+
+	private volatile int maxWatchedDirectories = DEFAULT_MAX_WATCHED_DIRECTORIES;
+
+	private final AtomicInteger watchedDirectories = new AtomicInteger();
+
+	// snapshot roots
+	private final List<DirectorySnapshot> roots = new CopyOnWriteArrayList<DirectorySnapshot>();
+	private final PathTrie<DirectorySnapshot> rootIndex = new PathTrie<DirectorySnapshot>();
+
+	// scans are serialized
+	private final Object scanLock = new Object();
+
+	private ScheduledExecutorService poller;
+
+	/**
+	 * @param hybrid register directories with detected changes with the watch service
+	 */
+	public PollingWatcher(boolean hybrid) throws IOException {
+		super();
+		this.hybrid = hybrid;
+	}
+
+	/**
+	 * @param pollInterval time between scans in milliseconds
+	 */
+	public void setPollInterval(long pollInterval) {
+		if (pollInterval <= 0) {
+			throw new IllegalArgumentException("Poll interval must be positive: " + pollInterval);
+		}
+		this.pollInterval = pollInterval;
+	}
+
+	public long getPollInterval() {
+		return pollInterval;
+	}
+
+	/**
+	 * @param contentHash compare content of files with changed modification time and same size
+	 */
+	public void setContentHash(boolean contentHash) {
+		this.contentHash = contentHash;
+	}
+
+	/**
+	 * @param maxWatchedDirectories maximum number of directories registered with the watch service in hybrid mode
+	 */
+	public void setMaxWatchedDirectories(int maxWatchedDirectories) {
+		this.maxWatchedDirectories = maxWatchedDirectories;
+	}
+
+	public boolean isHybrid() {
+		return hybrid;
+	}
+
+	/**
+	 * Take snapshot of the directory tree, unless it is already part of a snapshot. Files modified
+	 * since the given time are reported.
+	 */
+	@Override
+	protected void registerAll(final Path parent, Path start, long since) throws IOException {
+		if (rootIndex.getFirstPrefixValue(start) != null) {
+			// e.g. directory created in a hot directory, it is scanned with the root
+			return;
+		}
+		if (!Files.isDirectory(start)) {
+			throw new NoSuchFileException(start.toString(), null, "Not a directory");
+		}
+
+		LOGGER.info("Registering directory {} for polling", start);
+
+		// new snapshot is not visible to scan() until finished, no need to lock (and block a pool worker)
+		DirectorySnapshot root = new DirectorySnapshot(start);
+		getPool().invoke(new ScanAction(root, false, since));
+		rootIndex.add(start, root);
+		roots.add(root);
+	}
+
+	/**
+	 * Scan all snapshot roots and report changes.
+	 */
+	void scan() {
+		synchronized (scanLock) {
+			if (stopped) {
+				return;
+			}
+			long start = System.currentTimeMillis();
+			List<ScanAction> actions = new ArrayList<ScanAction>(roots.size());
+			for (DirectorySnapshot root : roots) {
+				actions.add(new ScanAction(root, true, 0));
+			}
+			for (ScanAction action : actions) {
+				getPool().execute(action);
+			}
+			for (ScanAction action : actions) {
+				action.join();
+			}
+			LOGGER.trace("Scan of {} directory trees finished in {}ms", roots.size(), System.currentTimeMillis() - start);
+		}
+	}
+
+	@Override
+	public void run() {
+		super.run();
+
+		poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "HotSwap Watcher Poller");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		schedulePoll();
+	}
+
+	// fixed delay with interval changeable at runtime
+	private void schedulePoll() {
+		poller.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					scan();
+				} catch (Throwable e) {
+					// pool is shut down if the watcher was stopped during the scan
+					if (!stopped) {
+						LOGGER.error("Error scanning watched directories", e);
+					}
+				}
+				if (!stopped && !poller.isShutdown()) {
+					schedulePoll();
+				}
+			}
+		}, pollInterval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void stop() {
+		// cancel scheduled poll before the pool is shut down
+		if (poller != null) {
+			poller.shutdownNow();
+		}
+		super.stop();
+	}
+
+	@Override
+	public void closeClassLoader(ClassLoader classLoader) {
+		super.closeClassLoader(classLoader);
+		if (classLoaderListeners.isEmpty()) {
+			synchronized (scanLock) {
+				roots.clear();
+				rootIndex.clear();
+				watchedDirectories.set(0);
+			}
+		}
+	}
+
+	@Override
+	protected boolean isRegistered(Path dir) {
+		return rootIndex.getFirstPrefixValue(dir) != null;
+	}
+
+	// register directory with changes in hybrid mode
+	private boolean promote(DirectorySnapshot directory) {
+		if (!hybrid || watchedDirectories.incrementAndGet() > maxWatchedDirectories) {
+			if (hybrid) {
+				watchedDirectories.decrementAndGet();
+			}
+			return false;
+		}
+		try {
+			register(directory.path);
+			LOGGER.debug("Directory {} registered with watch service", directory.path);
+			return true;
+		} catch (IOException e) {
+			watchedDirectories.decrementAndGet();
+			LOGGER.debug("Unable to register directory {} with watch service", e, directory.path);
+			return false;
+		}
+	}
+
+	private long hash(Path file) {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[8192];
+		try {
+			InputStream is = Files.newInputStream(file);
+			try {
+				int n;
+				while ((n = is.read(buffer)) > 0) {
+					crc.update(buffer, 0, n);
+				}
+			} finally {
+				is.close();
+			}
+		} catch (IOException e) {
+			// changed or deleted meanwhile, next scan detects it
+			return -1;
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Scan of one directory, subdirectories are scanned by forked actions.
+	 */
+	private class ScanAction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final DirectorySnapshot directory;
+		private final boolean report;
+		// initial snapshot - report files modified since
+		private final long since;
+
+		ScanAction(DirectorySnapshot directory, boolean report, long since) {
+			this.directory = directory;
+			this.report = report;
+			this.since = since;
+		}
+
+		@Override
+		protected void compute() {
+			BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(directory.path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			} catch (IOException e) {
+				// deleted, reported by the parent directory scan
+				return;
+			}
+
+			// list again also recently modified directory, the timestamp resolution may hide another change
+			long modified = attributes.lastModifiedTime().toMillis();
+			if (modified != directory.modified || directory.files == null
+					|| System.currentTimeMillis() - modified < TIMESTAMP_RESOLUTION) {
+				// on failure keep the previous snapshot and list again on next scan
+				if (list()) {
+					directory.modified = modified;
+				}
+			}
+
+			boolean changed = false;
+			if (!directory.hot) {
+				for (Iterator<Map.Entry<Path, FileSnapshot>> it = directory.files.entrySet().iterator(); it.hasNext();) {
+					Map.Entry<Path, FileSnapshot> entry = it.next();
+					FileSnapshot previous = entry.getValue();
+					FileSnapshot current = snapshot(entry.getKey(), previous);
+					if (current == null) {
+						// deleted after listing
+						it.remove();
+						if (previous != null) {
+							changed |= report(entry.getKey(), FileEvent.DELETE);
+						}
+					} else if (current != previous) {
+						entry.setValue(current);
+						if (!current.sameContent) {
+							changed |= report(entry.getKey(), previous == null ? FileEvent.CREATE : FileEvent.MODIFY);
+						}
+						if (!report && isModifiedSince(current.modified, since)) {
+							addEvent(entry.getKey(), FileEvent.CREATE);
+						}
+					}
+				}
+			}
+
+			if (changed && report) {
+				directory.hot = promote(directory);
+			}
+
+			List<ScanAction> actions = new ArrayList<ScanAction>(directory.directories.size());
+			for (DirectorySnapshot subdirectory : directory.directories.values()) {
+				actions.add(new ScanAction(subdirectory, report, since));
+			}
+			invokeAll(actions);
+		}
+
+		// list directory entries, new entries have null snapshot, report deleted entries
+		// return false if the directory cannot be listed, previous snapshot is kept
+		private boolean list() {
+			Map<Path, FileSnapshot> files = new HashMap<Path, FileSnapshot>();
+			Map<Path, DirectorySnapshot> directories = new HashMap<Path, DirectorySnapshot>();
+			try {
+				DirectoryStream<Path> stream = Files.newDirectoryStream(directory.path);
+				try {
+					for (Path entry : stream) {
+						if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+							DirectorySnapshot subdirectory = directory.directories != null ? directory.directories.get(entry) : null;
+							if (subdirectory == null) {
+								subdirectory = new DirectorySnapshot(entry);
+								report(entry, FileEvent.CREATE);
+							}
+							directories.put(entry, subdirectory);
+						} else {
+							files.put(entry, directory.files != null ? directory.files.get(entry) : null);
+						}
+					}
+				} finally {
+					stream.close();
+				}
+			} catch (IOException e) {
+				LOGGER.debug("Unable to list directory {}", e, directory.path);
+				if (directory.files == null) {
+					directory.files = files;
+					directory.directories = directories;
+				}
+				return false;
+			}
+
+			if (directory.files != null) {
+				for (Path file : directory.files.keySet()) {
+					if (!files.containsKey(file) && !directory.hot) {
+						report(file, FileEvent.DELETE);
+					}
+				}
+				for (DirectorySnapshot subdirectory : directory.directories.values()) {
+					if (!directories.containsKey(subdirectory.path)) {
+						reportDeleted(subdirectory);
+					}
+				}
+			}
+			directory.files = files;
+			directory.directories = directories;
+			return true;
+		}
+
+		// null if the file does not exist, previous if not changed
+		private FileSnapshot snapshot(Path file, FileSnapshot previous) {
+			BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			} catch (IOException e) {
+				return null;
+			}
+			long modified = attributes.lastModifiedTime().toMillis();
+			long size = attributes.size();
+			if (previous != null && previous.modified == modified && previous.size == size) {
+				return previous;
+			}
+			long hash = contentHash ? hash(file) : 0;
+			if (previous != null && contentHash && previous.size == size && previous.hash == hash && hash != -1) {
+				// same content, keep snapshot with new timestamp but do not report
+				return new FileSnapshot(modified, size, hash, true);
+			}
+			return new FileSnapshot(modified, size, hash, false);
+		}
+
+		private boolean report(Path path, FileEvent eventType) {
+			if (!report) {
+				return false;
+			}
+			addEvent(path, eventType);
+			return true;
+		}
+
+		private void reportDeleted(DirectorySnapshot deleted) {
+			if (deleted.files != null && !deleted.hot) {
+				for (Path file : deleted.files.keySet()) {
+					report(file, FileEvent.DELETE);
+				}
+			}
+			if (deleted.directories != null) {
+				for (DirectorySnapshot subdirectory : deleted.directories.values()) {
+					reportDeleted(subdirectory);
+				}
+			}
+			report(deleted.path, FileEvent.DELETE);
+		}
+	}
+
+	// modified by one ScanAction at a time
+	private static class DirectorySnapshot {
+		final Path path;
+		long modified;
+		// null until first listed
+		Map<Path, FileSnapshot> files;
+		Map<Path, DirectorySnapshot> directories;
+		// registered with the watch service
+		boolean hot;
+
+		DirectorySnapshot(Path path) {
+			this.path = path;
+		}
+	}
+
+	private static class FileSnapshot {
+		final long modified;
+		final long size;
+		final long hash;
+		// modified, but content is the same as in previous snapshot
+		final boolean sameContent;
+
+		FileSnapshot(long modified, long size, long hash, boolean sameContent) {
+			this.modified = modified;
+			this.size = size;
+			this.hash = hash;
+			this.sameContent = sameContent;
+		}
+	}
+}
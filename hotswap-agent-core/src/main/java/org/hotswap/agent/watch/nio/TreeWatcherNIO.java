@@ -30,12 +30,11 @@ public class TreeWatcherNIO extends AbstractNIO2Watcher {
 	 */
 	private void register(Path watched, Path target) throws IOException {
 		
-		for(PathPair p: keys.values()) {
-			// This may NOT be correct for all cases (ensure resolve will work!)
-			if(p.isWatching(target)) {
-				LOGGER.debug("Path {} watched via {}", target, p.getWatched());
-				return;
-			}
+		// This may NOT be correct for all cases (ensure resolve will work!)
+		PathPair p = getCoveringKey(target);
+		if (p != null) {
+			LOGGER.debug("Path {} watched via {}", target, p.getWatched());
+			return;
 		}
 		
 		// try to set high sensitivity
@@ -54,14 +53,15 @@ public class TreeWatcherNIO extends AbstractNIO2Watcher {
 					new WatchEvent.Kind<?>[] { ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY }, //
 					new WatchEvent.Modifier[] { fileTree, high });
 		}
-		keys.put(key, new PathPair(target, watched));
+		addKey(key, new PathPair(target, watched));
 	}
 
 	/**
 	 * Register the given directory, and all its sub-directories, with the
-	 * WatchService.
+	 * WatchService. The whole tree is watched by single key, the tree is not walked.
 	 */
-	protected void registerAll(Path watched, Path target) throws IOException {
+	@Override
+	protected void registerAll(Path watched, Path target, long since) throws IOException {
 		if(watched == null){
 			watched = target.getParent();
 		}
@@ -4,14 +4,23 @@ import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
 import java.io.IOException;
+import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * NIO2 watcher implementation.
@@ -31,26 +40,81 @@ public class WatcherNIO2 extends AbstractNIO2Watcher {
 
 	/**
 	 * Register the given directory, and all its sub-directories, with the
-	 * WatchService.
+	 * WatchService. Sub-directories are registered in parallel, files modified
+	 * since the given time are reported (they might be changed before the directory
+	 * was registered).
 	 */
 	@Override
-	protected void registerAll(final Path parent, Path start) throws IOException {
+	protected void registerAll(final Path parent, Path start, long since) throws IOException {
 		// register directory and sub-directories
 		LOGGER.info("Registering directory  {} under parent {}", start, parent);
 
-		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
-			@Override
-			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-				register(dir);
-				return FileVisitResult.CONTINUE;
+		if (!Files.exists(start, NOFOLLOW_LINKS)) {
+			throw new NoSuchFileException(start.toString());
+		}
+		if (!Files.isDirectory(start, NOFOLLOW_LINKS)) {
+			return;
+		}
+
+		register(start);
+		RegisterAction action = new RegisterAction(start, since);
+		if (ForkJoinTask.inForkJoinPool()) {
+			action.invoke();
+		} else {
+			getPool().invoke(action);
+		}
+	}
+
+	/**
+	 * List registered directory, register sub-directories by forked actions.
+	 */
+	private class RegisterAction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Path dir;
+		private final long since;
+
+		RegisterAction(Path dir, long since) {
+			this.dir = dir;
+			this.since = since;
+		}
+
+		@Override
+		protected void compute() {
+			final List<RegisterAction> subdirectories = new ArrayList<RegisterAction>();
+			try {
+				Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+						if (attrs.isDirectory()) {
+							try {
+								register(file);
+								subdirectories.add(new RegisterAction(file, since));
+							} catch (IOException e) {
+								LOGGER.warning("Unable to register directory {}", e, file);
+							}
+						} else {
+							addRegisteredFile(file, attrs, since);
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			} catch (IOException e) {
+				LOGGER.warning("Unable to list directory {}", e, dir);
 			}
-		});
+			invokeAll(subdirectories);
+		}
 	}
 
 	/**
 	 * Register the given directory with the WatchService
 	 */
-	private void register(Path dir) throws IOException {
+	protected void register(Path dir) throws IOException {
 		
 		// try to set high sensitivity
 		WatchEvent.Modifier high = Util.get_com_sun_nio_file_SensitivityWatchEventModifier_HIGH();
@@ -58,6 +122,6 @@ public class WatcherNIO2 extends AbstractNIO2Watcher {
 				: dir.register(watcher, new WatchEvent.Kind<?>[] { ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY }, high);
 
 		
-		keys.put(key, PathPair.get(dir));
+		addKey(key, PathPair.get(dir));
 	}
 }
\ No newline at end of file
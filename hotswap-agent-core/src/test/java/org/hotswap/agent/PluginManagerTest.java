@@ -1,6 +1,7 @@
 package org.hotswap.agent;
 
 import org.hotswap.agent.annotation.handler.AnnotationProcessor;
+import org.hotswap.agent.config.PluginConfiguration;
 import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.config.PluginRegistry;
 import org.hotswap.agent.testData.SimplePlugin;
@@ -12,9 +13,13 @@ import org.junit.Test;
 
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.Collections;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -51,5 +56,28 @@ public class PluginManagerTest {
         assertTrue("Plugin correct class", pluginRegistry.getRegisteredPlugins().keySet().iterator().next().equals(SimplePlugin.class));
     }
 
+    @Test
+    public void testResolvedConfiguration() throws Exception {
+        PluginManager pluginManager = PluginManager.getInstance();
+        ClassLoader parent = new URLClassLoader(new URL[0], getClass().getClassLoader());
+        ClassLoader child = new URLClassLoader(new URL[0], parent);
+        ClassLoader other = new URLClassLoader(new URL[0], getClass().getClassLoader());
+
+        pluginManager.initClassLoader(parent);
+        PluginConfiguration parentConfiguration = pluginManager.getPluginConfiguration(parent);
+        PluginConfiguration otherConfiguration = pluginManager.getPluginConfiguration(other);
+        assertSame("Nearest initialized parent", parentConfiguration, pluginManager.getPluginConfiguration(child));
 
+        // resolved again after the child is initialized and closed, other classloaders are not affected
+        pluginManager.initClassLoader(child);
+        PluginConfiguration childConfiguration = pluginManager.getPluginConfiguration(child);
+        assertNotSame(parentConfiguration, childConfiguration);
+        assertSame(otherConfiguration, pluginManager.getPluginConfiguration(other));
+
+        pluginManager.closeClassLoader(child);
+        assertSame(parentConfiguration, pluginManager.getPluginConfiguration(child));
+
+        pluginManager.closeClassLoader(parent);
+        assertNotSame(parentConfiguration, pluginManager.getPluginConfiguration(child));
+    }
 }
@@ -0,0 +1,65 @@
+package org.hotswap.agent.annotation.handler;
+
+import java.lang.reflect.Method;
+
+import org.hotswap.agent.util.MicroBenchmark;
+
+/**
+ * Call of a plugin method per event - precompiled {@link PluginMethodInvoker} compared with resolving
+ * each parameter type and calling Method.invoke() on every event (the handlers before the invoker).
+ * <p/>
+ * Run after test-compile:
+ * <pre>
+ * java -cp target/classes:target/test-classes org.hotswap.agent.annotation.handler.PluginMethodInvokerBenchmark
+ * </pre>
+ */
+public class PluginMethodInvokerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final PluginMethodInvokerTest.TestPlugin plugin = new PluginMethodInvokerTest.TestPlugin();
+        final Method method = PluginMethodInvokerTest.TestPlugin.class.getDeclaredMethod("transform",
+                String.class, ClassLoader.class);
+        final PluginMethodInvoker<PluginMethodInvokerTest.Argument> invoker = new PluginMethodInvoker<PluginMethodInvokerTest.Argument>(
+                method, plugin, PluginMethodInvokerTest.Argument.class, PluginMethodInvokerTest.RESOLVER);
+        final ClassLoader classLoader = PluginMethodInvokerBenchmark.class.getClassLoader();
+        final String className = "org.example.Test";
+
+        MicroBenchmark benchmark = new MicroBenchmark(10, 10, 1000000);
+        double reflection = benchmark.measure("resolve parameters + Method.invoke", new MicroBenchmark.Operation() {
+            @Override
+            public Object run(int i) throws Exception {
+                Class<?>[] parameterTypes = method.getParameterTypes();
+                Object[] args = new Object[parameterTypes.length];
+                for (int j = 0; j < parameterTypes.length; j++) {
+                    switch (PluginMethodInvokerTest.RESOLVER.resolve(parameterTypes[j])) {
+                        case CLASS_LOADER:
+                            args[j] = classLoader;
+                            break;
+                        case CLASS_NAME:
+                            args[j] = className;
+                            break;
+                    }
+                }
+                return method.invoke(plugin, args);
+            }
+        });
+        double precompiled = benchmark.measure("PluginMethodInvoker.invoke", new MicroBenchmark.Operation() {
+            @Override
+            public Object run(int i) throws Exception {
+                Object[] args = new Object[invoker.getArgumentCount()];
+                for (int j = 0; j < args.length; j++) {
+                    switch (invoker.getArgument(j)) {
+                        case CLASS_LOADER:
+                            args[j] = classLoader;
+                            break;
+                        case CLASS_NAME:
+                            args[j] = className;
+                            break;
+                    }
+                }
+                return invoker.invoke(args);
+            }
+        });
+        System.out.println(String.format("speedup %.1fx", reflection / precompiled));
+    }
+}
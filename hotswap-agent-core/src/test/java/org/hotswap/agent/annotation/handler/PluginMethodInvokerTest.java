@@ -0,0 +1,122 @@
+package org.hotswap.agent.annotation.handler;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Precompiled plugin method call.
+ */
+public class PluginMethodInvokerTest {
+
+    enum Argument {CLASS_LOADER, CLASS_NAME}
+
+    static final PluginMethodInvoker.ArgumentResolver<Argument> RESOLVER = new PluginMethodInvoker.ArgumentResolver<Argument>() {
+        @Override
+        public Argument resolve(Class<?> parameterType) {
+            if (parameterType.isAssignableFrom(ClassLoader.class)) {
+                return Argument.CLASS_LOADER;
+            } else if (parameterType.isAssignableFrom(String.class)) {
+                return Argument.CLASS_NAME;
+            }
+            return null;
+        }
+    };
+
+    public static class TestPlugin {
+        ClassLoader classLoader;
+        String className;
+
+        public String transform(String className, ClassLoader classLoader) {
+            this.className = className;
+            this.classLoader = classLoader;
+            return "transformed";
+        }
+
+        private void noArgs() {
+            className = "noArgs";
+        }
+
+        public static String staticMethod(String className) {
+            return className + "!";
+        }
+
+        public void unsupported(Integer value) {
+        }
+
+        public void failing() {
+            throw new IllegalStateException("failed");
+        }
+    }
+
+    private PluginMethodInvoker<Argument> invoker(TestPlugin plugin, String name, Class<?>... parameterTypes) throws Exception {
+        Method method = TestPlugin.class.getDeclaredMethod(name, parameterTypes);
+        return new PluginMethodInvoker<Argument>(method, plugin, Argument.class, RESOLVER);
+    }
+
+    @Test
+    public void testArgumentPlan() throws Exception {
+        TestPlugin plugin = new TestPlugin();
+        PluginMethodInvoker<Argument> invoker = invoker(plugin, "transform", String.class, ClassLoader.class);
+
+        assertEquals(2, invoker.getArgumentCount());
+        assertEquals(Argument.CLASS_NAME, invoker.getArgument(0));
+        assertEquals(Argument.CLASS_LOADER, invoker.getArgument(1));
+        assertNull(invoker.getUnsupportedParameter());
+
+        assertEquals(Integer.class, invoker(plugin, "unsupported", Integer.class).getUnsupportedParameter());
+    }
+
+    @Test
+    public void testInvoke() throws Exception {
+        TestPlugin plugin = new TestPlugin();
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        assertEquals("transformed", invoker(plugin, "transform", String.class, ClassLoader.class)
+                .invoke(new Object[]{"org.example.Test", classLoader}));
+        assertEquals("org.example.Test", plugin.className);
+        assertSame(classLoader, plugin.classLoader);
+
+        assertNull(invoker(plugin, "noArgs").invoke(new Object[0]));
+        assertEquals("noArgs", plugin.className);
+
+        assertEquals("x!", invoker(null, "staticMethod", String.class).invoke(new Object[]{"x"}));
+    }
+
+    @Test
+    public void testInvokerPerResolver() throws Exception {
+        TestPlugin plugin = new TestPlugin();
+        Method method = TestPlugin.class.getDeclaredMethod("transform", String.class, ClassLoader.class);
+        PluginAnnotation<Deprecated> pluginAnnotation = new PluginAnnotation<Deprecated>(TestPlugin.class, plugin, null, method);
+
+        PluginMethodInvoker<Argument> invoker = pluginAnnotation.getInvoker(Argument.class, RESOLVER);
+        assertSame(invoker, pluginAnnotation.getInvoker(Argument.class, RESOLVER));
+
+        // other resolver binds arguments again
+        PluginMethodInvoker<Argument> classNameOnly = pluginAnnotation.getInvoker(Argument.class,
+                new PluginMethodInvoker.ArgumentResolver<Argument>() {
+                    @Override
+                    public Argument resolve(Class<?> parameterType) {
+                        return parameterType == String.class ? Argument.CLASS_NAME : null;
+                    }
+                });
+        assertEquals(ClassLoader.class, classNameOnly.getUnsupportedParameter());
+        assertNull(pluginAnnotation.getInvoker(Argument.class, RESOLVER).getUnsupportedParameter());
+    }
+
+    @Test
+    public void testException() throws Exception {
+        try {
+            invoker(new TestPlugin(), "failing").invoke(new Object[0]);
+            fail("Exception expected");
+        } catch (InvocationTargetException e) {
+            assertEquals(IllegalStateException.class, e.getCause().getClass());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.hotswap.agent.annotation.handler;
+
+import org.hotswap.agent.annotation.FileEvent;
+import org.hotswap.agent.util.IOUtils;
+import org.hotswap.agent.watch.nio.HotswapWatchFileEvent;
+import org.junit.Test;
+
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Class file content shared by handlers of one event only.
+ */
+public class WatchEventClassFileTest {
+
+    @Test
+    public void testEqualEventsNotShared() throws Exception {
+        Path file = Files.createTempFile("watchEventClassFile", ".class");
+
+        write(file, InitHandlerTest.class);
+        HotswapWatchFileEvent first = new HotswapWatchFileEvent(FileEvent.MODIFY, file);
+        assertEquals(InitHandlerTest.class.getName(), WatchEventClassFile.of(first).getClassName());
+        assertSame(WatchEventClassFile.of(first), WatchEventClassFile.of(first));
+
+        // recompiled - equal event (same type and path) with new content
+        write(file, WatchEventClassFileTest.class);
+        HotswapWatchFileEvent second = new HotswapWatchFileEvent(FileEvent.MODIFY, file);
+        assertEquals(first, second);
+        assertEquals(WatchEventClassFileTest.class.getName(), WatchEventClassFile.of(second).getClassName());
+        assertEquals(WatchEventClassFileTest.class.getName(),
+                WatchEventClassFile.of(second).getCtClass(getClass().getClassLoader()).getName());
+
+        Files.delete(file);
+    }
+
+    @Test
+    public void testCtClassPerHandler() throws Exception {
+        Path file = Files.createTempFile("watchEventClassFile", ".class");
+        write(file, InitHandlerTest.class);
+        WatchEventClassFile classFile = WatchEventClassFile.of(new HotswapWatchFileEvent(FileEvent.MODIFY, file));
+
+        // frozen by a handler
+        classFile.getCtClass(getClass().getClassLoader()).toBytecode();
+        assertNotSame(classFile.getCtClass(getClass().getClassLoader()), classFile.getCtClass(getClass().getClassLoader()));
+
+        Files.delete(file);
+    }
+
+    private static void write(Path file, Class<?> clazz) throws Exception {
+        byte[] bytes = IOUtils.toByteArray(clazz.getResource(clazz.getSimpleName() + ".class").toURI());
+        FileOutputStream out = new FileOutputStream(file.toFile());
+        out.write(bytes);
+        out.close();
+    }
+}
@@ -1,6 +1,8 @@
 package org.hotswap.agent.command.impl;
 
+import org.hotswap.agent.command.Command;
 import org.hotswap.agent.command.CommandExecutionListener;
+import org.hotswap.agent.command.MergeableCommand;
 import org.hotswap.agent.command.ReflectionCommand;
 import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.util.test.WaitHelper;
@@ -9,8 +11,16 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 /**
@@ -53,5 +63,150 @@ public class SchedulerImplTest {
         assertTrue("Event eventListener not called", WaitHelper.waitForResult(resultHolder));
     }
 
+    static final CountDownLatch release = new CountDownLatch(1);
+    static final AtomicInteger active = new AtomicInteger();
+    static final AtomicInteger maxActive = new AtomicInteger();
 
+    // wait for another command to release the latch - fails if the other command is blocked by this one
+    public static boolean awaitRelease() throws InterruptedException {
+        return release.await(5, TimeUnit.SECONDS);
+    }
+
+    public static boolean doRelease() {
+        release.countDown();
+        return true;
+    }
+
+    // record maximum number of commands running at the same time
+    public static boolean recordActive(Integer index) throws InterruptedException {
+        int current = active.incrementAndGet();
+        maxActive.set(Math.max(maxActive.get(), current));
+        Thread.sleep(50);
+        active.decrementAndGet();
+        return true;
+    }
+
+    @Test
+    public void testLanesRunInParallel() throws Exception {
+        // parallel lanes are enabled by more workers
+        scheduler.stop();
+        scheduler = new SchedulerImpl(2);
+        scheduler.run();
+
+        ClassLoader appClassLoader1 = new URLClassLoader(new URL[0], getClass().getClassLoader());
+        ClassLoader appClassLoader2 = new URLClassLoader(new URL[0], getClass().getClassLoader());
+
+        final WaitHelper.ResultHolder resultHolder = new WaitHelper.ResultHolder();
+        ReflectionCommand blocking = new ReflectionCommand(new Object(), SchedulerImplTest.class.getName(), "awaitRelease", appClassLoader1);
+        blocking.setCommandExecutionListener(new CommandExecutionListener() {
+            @Override
+            public void commandExecuted(Object result) {
+                resultHolder.result = Boolean.TRUE.equals(result);
+            }
+        });
+
+        scheduler.scheduleCommand(blocking, 0);
+        scheduler.scheduleCommand(new ReflectionCommand(new Object(), SchedulerImplTest.class.getName(), "doRelease", appClassLoader2), 50);
+
+        assertTrue("Command in another classloader not blocked", WaitHelper.waitForResult(resultHolder, 3000));
+    }
+
+    @Test
+    public void testLaneIsSerialized() throws Exception {
+        ClassLoader appClassLoader = new URLClassLoader(new URL[0], getClass().getClassLoader());
+
+        final AtomicInteger executed = new AtomicInteger();
+        for (int i = 0; i < 4; i++) {
+            ReflectionCommand command = new ReflectionCommand(new Object(), SchedulerImplTest.class.getName(), "recordActive", appClassLoader, i);
+            command.setCommandExecutionListener(new CommandExecutionListener() {
+                @Override
+                public void commandExecuted(Object result) {
+                    executed.incrementAndGet();
+                }
+            });
+            scheduler.scheduleCommand(command, 0);
+        }
+
+        assertTrue("All commands executed", WaitHelper.waitForCommand(new WaitHelper.Command() {
+            @Override
+            public boolean result() throws Exception {
+                return executed.get() == 4;
+            }
+        }, 3000));
+        assertEquals("Commands of one classloader never run in parallel", 1, maxActive.get());
+    }
+
+    // mergeable command equal to all other instances
+    static class CountingCommand extends MergeableCommand {
+        final AtomicInteger executions;
+        final AtomicInteger merged;
+
+        CountingCommand(AtomicInteger executions, AtomicInteger merged) {
+            this.executions = executions;
+            this.merged = merged;
+        }
+
+        @Override
+        public void executeCommand() {
+            merged.set(getMergedCommands().size());
+            executions.incrementAndGet();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CountingCommand;
+        }
+
+        @Override
+        public int hashCode() {
+            return CountingCommand.class.hashCode();
+        }
+    }
+
+    @Test
+    public void testScheduleCommandsMerged() throws Exception {
+        final AtomicInteger executions = new AtomicInteger();
+        final AtomicInteger merged = new AtomicInteger();
+
+        List<Command> burst = new ArrayList<Command>();
+        for (int i = 0; i < 3; i++) {
+            burst.add(new CountingCommand(executions, merged));
+        }
+        scheduler.scheduleCommands(burst, 50);
+
+        assertTrue("Merged command executed", WaitHelper.waitForCommand(new WaitHelper.Command() {
+            @Override
+            public boolean result() throws Exception {
+                return executions.get() == 1;
+            }
+        }, 3000));
+        Thread.sleep(100);
+        assertEquals("Executed only once", 1, executions.get());
+        assertEquals("Last command merged previous instances", 1, merged.get());
+    }
+
+    @Test
+    public void testFailingCommandReleasesLane() throws Exception {
+        final AtomicInteger executed = new AtomicInteger();
+
+        scheduler.scheduleCommand(new Command() {
+            @Override
+            public void executeCommand() {
+                throw new IllegalStateException("Command failure");
+            }
+        }, 0);
+        scheduler.scheduleCommand(new Command() {
+            @Override
+            public void executeCommand() {
+                executed.incrementAndGet();
+            }
+        }, 50);
+
+        assertTrue("Next command of the lane executed", WaitHelper.waitForCommand(new WaitHelper.Command() {
+            @Override
+            public boolean result() throws Exception {
+                return executed.get() == 1;
+            }
+        }, 3000));
+    }
 }
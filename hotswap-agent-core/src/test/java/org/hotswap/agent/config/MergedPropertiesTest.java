@@ -0,0 +1,74 @@
+package org.hotswap.agent.config;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URL;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Merging of parent, base and overlay properties and reload of property files.
+ */
+public class MergedPropertiesTest {
+
+    private static URL write(File file, String content) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+        return file.toURI().toURL();
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        File parentFile = File.createTempFile("parent", ".properties");
+        File childFile = File.createTempFile("child", ".properties");
+        File overlayFile = File.createTempFile("overlay", ".properties");
+
+        MergedProperties parent = new MergedProperties(write(parentFile, "a=parent\nb=parent\n"));
+        MergedProperties child = new MergedProperties(parent, write(childFile, "a=child\nwatchResources=/tmp/x\n"));
+        child.put(write(overlayFile, "c=overlay\nwatchResources=/tmp/y\n"));
+
+        assertEquals("child", child.getProperty("a"));
+        assertEquals("parent", child.getProperty("b"));
+        // overlays are used only by getPropertyRecursive() and getAllProperties()
+        assertNull(child.getProperty("c"));
+        assertEquals("overlay", child.getPropertyRecursive("c"));
+        assertEquals("/tmp/x,/tmp/y", child.getAllProperties("watchResources"));
+        assertArrayEquals(new String[]{"/tmp/x", "/tmp/y"}, child.getAllPropertiesAsArray("watchResources"));
+        assertEquals(2, child.getUrls("watchResources").length);
+        assertTrue(child.stringPropertyNames().contains("c"));
+        assertFalse(child.stringPropertyNames().contains("b"));
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        File parentFile = File.createTempFile("parent", ".properties");
+        File childFile = File.createTempFile("child", ".properties");
+
+        MergedProperties parent = new MergedProperties(write(parentFile, "a=1\nflag=false\n"));
+        MergedProperties child = new MergedProperties(parent, write(childFile, "b=1\n"));
+        assertEquals("1", child.getProperty("a"));
+        assertFalse(child.getPropertyBoolean("flag"));
+
+        assertFalse("No change", parent.reload());
+
+        write(parentFile, "a=2\nflag=true\n");
+        assertTrue(parent.reload());
+        assertEquals("2", parent.getProperty("a"));
+        // child snapshot follows the parent
+        assertEquals("2", child.getProperty("a"));
+        assertTrue(child.getPropertyBoolean("flag"));
+
+        write(childFile, "a=3\n");
+        assertTrue(child.reload());
+        assertEquals("3", child.getProperty("a"));
+        assertNull(child.getProperty("b"));
+    }
+}
@@ -0,0 +1,61 @@
+package org.hotswap.agent.config;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hotswap.agent.HotswapAgent;
+import org.hotswap.agent.annotation.Plugin;
+import org.hotswap.agent.testData.SimplePlugin;
+import org.hotswap.agent.util.MicroBenchmark;
+
+/**
+ * Check of a disabled plugin (called for each class matched by a plugin handler) - precomputed
+ * {@link PluginConfiguration#isDisabledPlugin(Class)} compared with reading the @Plugin annotation and splitting
+ * disabledPlugins property on every call (the check before precomputation).
+ * <p/>
+ * Run after test-compile:
+ * <pre>
+ * java -cp target/classes:target/test-classes org.hotswap.agent.config.PluginConfigurationBenchmark
+ * </pre>
+ */
+public class PluginConfigurationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("config").toFile();
+        File propertiesFile = new File(dir, "hotswap-agent.properties");
+        FileWriter writer = new FileWriter(propertiesFile);
+        writer.write("disabledPlugins=Hibernate plugin, Spring, Tomcat, JBossModules\n");
+        writer.close();
+        propertiesFile.deleteOnExit();
+        dir.deleteOnExit();
+
+        PluginConfiguration parent = new PluginConfiguration(PluginConfigurationBenchmark.class.getClassLoader());
+        final PluginConfiguration configuration = new PluginConfiguration(parent,
+                new URLClassLoader(new URL[]{dir.toURI().toURL()}, PluginConfigurationBenchmark.class.getClassLoader()));
+
+        MicroBenchmark benchmark = new MicroBenchmark(10, 10, 1000000);
+        double parsed = benchmark.measure("annotation + split disabledPlugins per call", new MicroBenchmark.Operation() {
+            @Override
+            public Object run(int i) {
+                String pluginName = SimplePlugin.class.getAnnotation(Plugin.class).name();
+                List<String> disabled = new ArrayList<String>();
+                for (String disabledPlugin : configuration.getProperty("disabledPlugins", "").split(",")) {
+                    disabled.add(disabledPlugin.trim());
+                }
+                return HotswapAgent.isPluginDisabled(pluginName) || disabled.contains(pluginName);
+            }
+        });
+        double precomputed = benchmark.measure("PluginConfiguration.isDisabledPlugin", new MicroBenchmark.Operation() {
+            @Override
+            public Object run(int i) {
+                return configuration.isDisabledPlugin(SimplePlugin.class);
+            }
+        });
+        System.out.println(String.format("speedup %.0fx", parsed / precomputed));
+    }
+}
@@ -1,7 +1,17 @@
 package org.hotswap.agent.config;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.hotswap.agent.testData.SimplePlugin;
 import org.junit.Test;
 
 //import java.io.File;
@@ -36,4 +46,50 @@ public class PluginConfigurationTest {
         //File canonicalFile = tempFile.getCanonicalFile();
         //assertEquals(canonicalFile.toURI().toURL(), pluginConfiguration.getWatchResources()[0]);
     }
+
+    @Test
+    public void testDisabledPlugins() throws Exception {
+        File dir = Files.createTempDirectory("config").toFile();
+        FileWriter writer = new FileWriter(new File(dir, "hotswap-agent.properties"));
+        writer.write("disabledPlugins=Hibernate plugin, Spring\n");
+        writer.close();
+
+        PluginConfiguration parent = new PluginConfiguration(getClass().getClassLoader());
+        PluginConfiguration pluginConfiguration = new PluginConfiguration(parent,
+                new URLClassLoader(new URL[]{dir.toURI().toURL()}, getClass().getClassLoader()));
+
+        assertEquals(Arrays.asList("Hibernate plugin", "Spring"), pluginConfiguration.getDisabledPlugins());
+        assertTrue(pluginConfiguration.isDisabledPlugin("Spring"));
+        assertTrue(pluginConfiguration.isDisabledPlugin(SimplePlugin.class));
+        assertFalse(pluginConfiguration.isDisabledPlugin("Tomcat"));
+        assertFalse(parent.isDisabledPlugin(SimplePlugin.class));
+    }
+
+    @Test
+    public void testWatchPropertyFiles() throws Exception {
+        File dir = Files.createTempDirectory("config").toFile();
+        File file = new File(dir, "hotswap-agent.properties");
+        FileWriter writer = new FileWriter(file);
+        writer.write("disabledPlugins=Spring\n");
+        writer.close();
+
+        PluginConfiguration parent = new PluginConfiguration(getClass().getClassLoader());
+        PluginConfiguration pluginConfiguration = new PluginConfiguration(parent,
+                new URLClassLoader(new URL[]{dir.toURI().toURL()}, getClass().getClassLoader()));
+        pluginConfiguration.watchPropertyFiles();
+        try {
+            writer = new FileWriter(file);
+            writer.write("disabledPlugins=Spring, Tomcat\n");
+            writer.close();
+            file.setLastModified(file.lastModified() + 2000);
+
+            long deadline = System.currentTimeMillis() + 10 * PluginConfiguration.PROPERTY_FILE_POLL_INTERVAL;
+            while (!pluginConfiguration.isDisabledPlugin("Tomcat") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(pluginConfiguration.isDisabledPlugin("Tomcat"));
+        } finally {
+            pluginConfiguration.stopWatchingPropertyFiles();
+        }
+    }
 }
@@ -0,0 +1,99 @@
+package org.hotswap.agent.config;
+
+import org.hotswap.agent.testData.SimplePlugin;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Plugin lookup by classloader hierarchy and reverse lookup of plugin classloader.
+ */
+public class PluginRegistryTest {
+
+    PluginRegistry pluginRegistry = new PluginRegistry(PluginManager.getInstance(), null);
+
+    ClassLoader parent = new URLClassLoader(new URL[0], getClass().getClassLoader());
+    ClassLoader child = new URLClassLoader(new URL[0], parent);
+    ClassLoader grandChild = new URLClassLoader(new URL[0], child);
+
+    SimplePlugin parentPlugin = new SimplePlugin();
+    SimplePlugin childPlugin = new SimplePlugin();
+
+    Map<ClassLoader, Object> plugins = new HashMap<ClassLoader, Object>();
+
+    {
+        pluginRegistry.getRegisteredPlugins().put(SimplePlugin.class, plugins);
+    }
+
+    @Test
+    public void testNearestPlugin() throws Exception {
+        plugins.put(parent, parentPlugin);
+        plugins.put(child, childPlugin);
+
+        // nearest registration wins
+        assertSame(childPlugin, pluginRegistry.getPlugin(SimplePlugin.class, grandChild));
+        assertSame(childPlugin, pluginRegistry.getPlugin(SimplePlugin.class, grandChild));
+        assertSame(parentPlugin, pluginRegistry.getPlugin(SimplePlugin.class, parent));
+        assertTrue(pluginRegistry.hasPlugin(SimplePlugin.class, grandChild, true));
+        assertFalse(pluginRegistry.hasPlugin(SimplePlugin.class, grandChild, false));
+        assertTrue(pluginRegistry.hasPlugin(SimplePlugin.class, child, false));
+        assertFalse(pluginRegistry.hasPlugin(SimplePlugin.class, getClass().getClassLoader(), true));
+
+        // cached lookup is not used after the classloader is closed
+        pluginRegistry.closeClassLoader(child);
+        assertSame(parentPlugin, pluginRegistry.getPlugin(SimplePlugin.class, grandChild));
+
+        pluginRegistry.closeClassLoader(parent);
+        assertFalse(pluginRegistry.hasPlugin(SimplePlugin.class, grandChild, true));
+        try {
+            pluginRegistry.getPlugin(SimplePlugin.class, grandChild);
+            fail("Plugin should not be found");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testAppClassLoader() throws Exception {
+        plugins.put(parent, parentPlugin);
+        plugins.put(child, childPlugin);
+
+        assertSame(parent, pluginRegistry.getAppClassLoader(parentPlugin));
+        assertSame(child, pluginRegistry.getAppClassLoader(childPlugin));
+
+        pluginRegistry.closeClassLoader(child);
+        try {
+            pluginRegistry.getAppClassLoader(childPlugin);
+            fail("Plugin should not be found");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCachedLookupDoesNotHoldClassLoader() throws Exception {
+        ClassLoader registered = new URLClassLoader(new URL[0], parent);
+        plugins.put(registered, childPlugin);
+        assertSame(childPlugin, pluginRegistry.getPlugin(SimplePlugin.class, registered));
+
+        // plugin removed without closing the classloader (e.g. failed initialization)
+        plugins.remove(registered);
+        WeakReference<ClassLoader> reference = new WeakReference<ClassLoader>(registered);
+        registered = null;
+        for (int i = 0; i < 10 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("Classloader released", reference.get());
+    }
+}
@@ -6,6 +6,9 @@ import org.jmock.Mockery;
 import org.jmock.lib.legacy.ClassImposteriser;
 import org.junit.Test;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 /**
  * Created by bubnik on 12.10.13.
  */
@@ -41,4 +44,51 @@ public class AgentLoggerTest {
 
         context.assertIsSatisfied();
     }
+
+    @Test
+    public void testLevelChange() throws Exception {
+        AgentLogger logger = AgentLogger.getLogger(AgentLoggerTest.class);
+        assertFalse(logger.isLevelEnabled(AgentLogger.Level.DEBUG));
+
+        // resolved level is recomputed after configuration change, longest prefix wins
+        AgentLogger.setLevel("org.hotswap.agent.logging.AgentLogger", AgentLogger.Level.TRACE);
+        assertTrue(logger.isLevelEnabled(AgentLogger.Level.TRACE));
+
+        AgentLogger.setLevel("org.hotswap.agent.logging.AgentLoggerTest", AgentLogger.Level.WARNING);
+        assertTrue(logger.isLevelEnabled(AgentLogger.Level.WARNING));
+        assertFalse(logger.isLevelEnabled(AgentLogger.Level.INFO));
+
+        // restore default levels
+        AgentLogger.setLevel("org.hotswap.agent.logging.AgentLogger", AgentLogger.Level.INFO);
+        AgentLogger.setLevel("org.hotswap.agent.logging.AgentLoggerTest", AgentLogger.Level.INFO);
+        assertTrue(logger.isLevelEnabled(AgentLogger.Level.INFO));
+        assertFalse(logger.isLevelEnabled(AgentLogger.Level.DEBUG));
+    }
+
+    @Test
+    public void testFixedArgumentOverloads() throws Exception {
+        final Class<?> clazz = SimplePlugin.class;
+        final Throwable error = new Throwable();
+        AgentLogger.setHandler(handler);
+        AgentLogger.setLevel("org.hotswap.agent.testData.SimplePlugin", AgentLogger.Level.TRACE);
+
+        context.checking(new Expectations() {{
+            oneOf(handler).print(clazz, AgentLogger.Level.DEBUG, "a {}", null, "x");
+            oneOf(handler).print(clazz, AgentLogger.Level.TRACE, "b {} {}", null, "x", "y");
+            oneOf(handler).print(clazz, AgentLogger.Level.DEBUG, "c", error);
+            oneOf(handler).print(clazz, AgentLogger.Level.TRACE, "d {}", error, "x");
+        }});
+
+        AgentLogger logger = AgentLogger.getLogger(clazz);
+        logger.debug("a {}", "x");
+        logger.trace("b {} {}", "x", "y");
+        logger.debug("c", error);
+        logger.trace("d {}", error, "x");
+
+        // return default handler and level for other tests
+        AgentLogger.setLevel("org.hotswap.agent.testData.SimplePlugin", AgentLogger.Level.INFO);
+        AgentLogger.setHandler(new AgentLoggerHandler());
+
+        context.assertIsSatisfied();
+    }
 }
@@ -0,0 +1,76 @@
+package org.hotswap.agent.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reload latency histograms and event log.
+ */
+public class ReloadMetricsTest {
+
+    @After
+    public void tearDown() {
+        ReloadMetrics.setEventLog(null, false);
+    }
+
+    @Test
+    public void testHistogram() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getAverageMillis(), 0.001);
+        assertEquals(100.0, histogram.getMaxMillis(), 0.001);
+        assertEquals(5050.0, histogram.getTotalMillis(), 0.001);
+
+        // power of two buckets - percentile is within 2x of exact value
+        double p50 = histogram.getPercentileMillis(50);
+        assertTrue("p50 " + p50, p50 >= 50 && p50 <= 100);
+        assertEquals(100.0, histogram.getPercentileMillis(99), 0.001);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0.0, histogram.getPercentileMillis(50), 0.001);
+    }
+
+    @Test
+    public void testRegistry() throws Exception {
+        LatencyHistogram histogram = ReloadMetrics.histogram(ReloadMetrics.Stage.COMMAND, "TestPlugin.refresh");
+        assertSame(histogram, ReloadMetrics.histogram(ReloadMetrics.Stage.COMMAND, "TestPlugin.refresh"));
+
+        long count = histogram.getCount();
+        ReloadMetrics.record(histogram, System.nanoTime());
+        assertEquals(count + 1, histogram.getCount());
+        assertSame(histogram, ReloadMetrics.getHistograms().get("COMMAND:TestPlugin.refresh"));
+    }
+
+    @Test
+    public void testEventLog() throws Exception {
+        File file = File.createTempFile("hotswap-metrics", ".log");
+        file.deleteOnExit();
+
+        ReloadMetrics.setEventLog(file, false);
+        LatencyHistogram histogram = ReloadMetrics.histogram(ReloadMetrics.Stage.REDEFINE, "testEventLog");
+        ReloadMetrics.record(histogram, System.nanoTime(), 3);
+        // close flushes pending events
+        ReloadMetrics.setEventLog(null, false);
+
+        List<String> lines = Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
+        assertEquals(2, lines.size());
+        String[] columns = lines.get(1).split("\t");
+        assertEquals("REDEFINE:testEventLog", columns[2]);
+        assertEquals("3", columns[4]);
+    }
+}
@@ -0,0 +1,76 @@
+package org.hotswap.agent.plugin.hotswapper;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Adaptive debounce of class redefinition.
+ */
+public class RedefinitionBatchTest {
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void testSingleChangeUsesMinDelay() {
+        RedefinitionBatch batch = new RedefinitionBatch(100, 2000);
+        assertEquals(100, batch.add(String.class, new byte[]{1}, ms(1000)));
+    }
+
+    @Test
+    public void testQuietPeriodAdaptsToBuildPace() {
+        RedefinitionBatch batch = new RedefinitionBatch(100, 2000);
+        batch.add(String.class, new byte[]{1}, ms(0));
+        // fast build - minimal delay
+        assertEquals(100, batch.add(Integer.class, new byte[]{1}, ms(10)));
+        // slow build - 3 events in 600 ms, twice the average gap of 300ms
+        assertEquals(600, batch.add(Long.class, new byte[]{1}, ms(600)));
+    }
+
+    @Test
+    public void testMaxDelay() {
+        RedefinitionBatch batch = new RedefinitionBatch(100, 1000);
+        batch.add(String.class, new byte[]{1}, ms(0));
+        assertEquals(100, batch.add(Integer.class, new byte[]{1}, ms(900)));
+        assertEquals(0, batch.add(Long.class, new byte[]{1}, ms(1500)));
+    }
+
+    @Test
+    public void testCoalesceAndDrain() {
+        RedefinitionBatch batch = new RedefinitionBatch(100, 2000);
+        batch.add(String.class, new byte[]{1}, ms(0));
+        batch.add(String.class, new byte[]{2}, ms(10));
+        assertEquals(1, batch.size());
+
+        HashMap<Class<?>, byte[]> drained = batch.drain();
+        assertEquals(1, drained.size());
+        assertEquals(2, drained.get(String.class)[0]);
+        assertEquals(0, batch.size());
+
+        // new burst after drain
+        assertEquals(100, batch.add(String.class, new byte[]{3}, ms(5000)));
+        assertTrue(batch.drain().containsKey(String.class));
+    }
+
+    @Test
+    public void testRestoreFailed() {
+        RedefinitionBatch batch = new RedefinitionBatch(100, 2000);
+        batch.add(String.class, new byte[]{1}, ms(0));
+        batch.add(Integer.class, new byte[]{1}, ms(10));
+        HashMap<Class<?>, byte[]> failed = batch.drain();
+
+        // change arriving during the failed redefinition is newer
+        batch.add(String.class, new byte[]{2}, ms(20));
+        batch.restore(failed);
+
+        assertEquals(2, batch.size());
+        assertEquals(2, batch.getClasses().get(String.class)[0]);
+        assertEquals(1, batch.getClasses().get(Integer.class)[0]);
+    }
+}
@@ -26,4 +26,15 @@ public class AnnotationHelperTest {
         assertTrue(AnnotationHelper.hasAnnotation(ctClass, "org.hotswap.agent.annotation.Plugin"));
         assertFalse(AnnotationHelper.hasAnnotation(ctClass, "xxxx"));
     }
+
+    @Test
+    public void testHasAnnotationClassModel() throws Exception {
+        ClassModel classModel = new ClassModel(IOUtils.toByteArray(
+                AnonymousClassPatchPlugin.class.getResourceAsStream("AnonymousClassPatchPlugin.class")));
+
+        assertTrue(AnnotationHelper.hasAnnotation(classModel, "org.hotswap.agent.annotation.Plugin"));
+        assertFalse(AnnotationHelper.hasAnnotation(classModel, "xxxx"));
+        assertTrue(classModel.getMethodSignatures().contains("patchMainClass(Ljava/lang/String;"
+                + "Lorg/hotswap/agent/javassist/ClassPool;[BLjava/lang/ClassLoader;Ljava/security/ProtectionDomain;)[B"));
+    }
 }
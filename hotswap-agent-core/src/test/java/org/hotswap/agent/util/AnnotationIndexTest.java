@@ -0,0 +1,91 @@
+package org.hotswap.agent.util;
+
+import org.junit.Test;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Annotation index updated on define/redefine.
+ */
+public class AnnotationIndexTest {
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Indexed {
+    }
+
+    @Indexed
+    static class Annotated {
+    }
+
+    static class NotAnnotated {
+    }
+
+    @Deprecated
+    static class Legacy {
+    }
+
+    HotswapTransformer hotswapTransformer = new HotswapTransformer();
+
+    private static byte[] bytes(Class<?> clazz) throws Exception {
+        return IOUtils.toByteArray(clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class"));
+    }
+
+    private void update(ClassLoader classLoader, Class<?> clazz, boolean redefinition, Class<?> content) throws Exception {
+        AnnotationIndex.update(classLoader, clazz.getName().replace('.', '/'), redefinition, bytes(content), hotswapTransformer);
+    }
+
+    @Test
+    public void testRedefinition() throws Exception {
+        String indexed = Indexed.class.getName();
+
+        URL classes = getClass().getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader classLoader = new URLClassLoader(new URL[]{classes}, null);
+        ClassLoader otherClassLoader = new URLClassLoader(new URL[]{classes}, null);
+        AnnotationIndex.track(classLoader, indexed);
+        Class<?> notAnnotated = classLoader.loadClass(NotAnnotated.class.getName());
+
+        update(classLoader, NotAnnotated.class, false, NotAnnotated.class);
+        update(classLoader, Annotated.class, false, Annotated.class);
+        // no plugin tracking the annotation in the classloader
+        update(otherClassLoader, Annotated.class, false, Annotated.class);
+        assertFalse(AnnotationIndex.hasAnnotation(otherClassLoader, Annotated.class.getName(), indexed));
+        assertTrue(AnnotationIndex.hasAnnotation(classLoader, Annotated.class.getName(), indexed));
+        assertFalse(AnnotationIndex.hasOrHadAnnotation(notAnnotated, bytes(NotAnnotated.class), indexed));
+        assertEquals(Collections.singleton(Annotated.class.getName()), AnnotationIndex.getAnnotatedClasses(classLoader, indexed));
+
+        // annotation added
+        update(classLoader, NotAnnotated.class, true, Annotated.class);
+        assertTrue(AnnotationIndex.hasAnnotation(classLoader, NotAnnotated.class.getName(), indexed));
+        assertTrue(AnnotationIndex.hasOrHadAnnotation(notAnnotated, bytes(NotAnnotated.class), indexed));
+
+        // annotation removed - still reported for this redefinition
+        update(classLoader, NotAnnotated.class, true, NotAnnotated.class);
+        assertFalse(AnnotationIndex.hasAnnotation(classLoader, NotAnnotated.class.getName(), indexed));
+        assertTrue(AnnotationIndex.hasOrHadAnnotation(notAnnotated, bytes(NotAnnotated.class), indexed));
+
+        update(classLoader, NotAnnotated.class, true, NotAnnotated.class);
+        assertFalse(AnnotationIndex.hasOrHadAnnotation(notAnnotated, bytes(NotAnnotated.class), indexed));
+
+        // tracked after the classloader was indexed, previous state resolved by reflection
+        AnnotationIndex.track(classLoader, Deprecated.class.getName());
+        Class<?> legacy = classLoader.loadClass(Legacy.class.getName());
+        assertTrue(AnnotationIndex.hasOrHadAnnotation(legacy, bytes(Legacy.class), Deprecated.class.getName()));
+
+        // not indexed classloader, new annotation resolved from the new bytes
+        Class<?> notIndexed = otherClassLoader.loadClass(NotAnnotated.class.getName());
+        assertFalse(AnnotationIndex.hasOrHadAnnotation(notIndexed, bytes(NotAnnotated.class), indexed));
+        assertFalse(AnnotationIndex.hasOrHadAnnotation(notIndexed, null, indexed));
+        assertTrue(AnnotationIndex.hasOrHadAnnotation(notIndexed, bytes(Annotated.class), indexed));
+
+        AnnotationIndex.remove(classLoader);
+        assertFalse(AnnotationIndex.hasAnnotation(classLoader, Annotated.class.getName(), indexed));
+    }
+}
@@ -0,0 +1,71 @@
+package org.hotswap.agent.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Class name from class file header.
+ */
+public class ClassFileHeaderTest {
+
+    // constant pool with long and double entries (two slots)
+    static class Constants {
+        static final long LONG = 123456789012L;
+        static final double DOUBLE = 1.5;
+        static final String NAME = "élève";
+
+        double compute(long value) {
+            return value * DOUBLE + LONG + NAME.length();
+        }
+    }
+
+    private static byte[] bytes(Class<?> clazz) throws IOException {
+        InputStream is = clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        is.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testClassName() throws Exception {
+        assertEquals(ClassFileHeaderTest.class.getName(), ClassFileHeader.getClassName(bytes(ClassFileHeaderTest.class)));
+        assertEquals(Constants.class.getName(), ClassFileHeader.getClassName(bytes(Constants.class)));
+        assertEquals(String.class.getName(), ClassFileHeader.getClassName(bytes(String.class)));
+    }
+
+    @Test
+    public void testContainsUtf8() throws Exception {
+        byte[] bytes = bytes(Constants.class);
+        assertTrue(ClassFileHeader.containsUtf8(bytes, new HashSet<String>(Arrays.asList("compute", "xxx"))));
+        assertTrue(ClassFileHeader.containsUtf8(bytes, Collections.singleton("élève")));
+        assertFalse(ClassFileHeader.containsUtf8(bytes, Collections.singleton("Ljavax/persistence/Entity;")));
+        assertFalse(ClassFileHeader.containsUtf8(Arrays.copyOf(bytes, 40), Collections.singleton("compute")));
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        assertNull(ClassFileHeader.getClassName(null));
+        assertNull(ClassFileHeader.getClassName(new byte[]{1, 2, 3}));
+        assertNull(ClassFileHeader.getClassName("not a class file content".getBytes()));
+
+        // truncated file - e.g. still being written by a compiler
+        byte[] bytes = bytes(Constants.class);
+        assertNull(ClassFileHeader.getClassName(Arrays.copyOf(bytes, 40)));
+    }
+}
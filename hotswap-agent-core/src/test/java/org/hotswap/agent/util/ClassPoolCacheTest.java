@@ -0,0 +1,134 @@
+package org.hotswap.agent.util;
+
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.javassist.CtClass;
+import org.hotswap.agent.javassist.CtField;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Cached ClassPool per classloader.
+ */
+public class ClassPoolCacheTest {
+
+    ClassLoader classLoader = getClass().getClassLoader();
+
+    @After
+    public void tearDown() {
+        ClassPoolCache.remove(classLoader);
+    }
+
+    @Test
+    public void testCachedClasses() throws Exception {
+        ClassPool classPool = ClassPoolCache.acquire(classLoader);
+        CtClass ctClass;
+        try {
+            ctClass = classPool.get(ClassPoolCacheTest.class.getName());
+        } finally {
+            ClassPoolCache.release(classPool);
+        }
+
+        ClassPool secondPool = ClassPoolCache.acquire(classLoader);
+        try {
+            assertSame(classPool, secondPool);
+            assertSame(ctClass, secondPool.get(ClassPoolCacheTest.class.getName()));
+
+            ClassPoolCache.invalidate(classLoader, ClassPoolCacheTest.class.getName().replace('.', '/'));
+            assertNotSame(ctClass, secondPool.get(ClassPoolCacheTest.class.getName()));
+        } finally {
+            ClassPoolCache.release(secondPool);
+        }
+    }
+
+    @Test
+    public void testLeasedPoolNotShared() throws Exception {
+        final ClassPool classPool = ClassPoolCache.acquire(classLoader);
+        try {
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            ClassPool other = executor.submit(new Callable<ClassPool>() {
+                @Override
+                public ClassPool call() throws Exception {
+                    ClassPool pool = ClassPoolCache.acquire(classLoader);
+                    try {
+                        // uncached pool still resolves classes
+                        pool.get(ClassPoolCacheTest.class.getName());
+                        return pool;
+                    } finally {
+                        ClassPoolCache.release(pool);
+                    }
+                }
+            }).get();
+            executor.shutdown();
+
+            assertNotSame(classPool, other);
+        } finally {
+            ClassPoolCache.release(classPool);
+        }
+    }
+
+    @Test
+    public void testLruBounded() throws Exception {
+        ClassPoolCache.CachedClassPool classPool = new ClassPoolCache.CachedClassPool(2);
+        classPool.appendSystemPath();
+
+        CtClass string = classPool.get("java.lang.String");
+        classPool.get("java.lang.Integer");
+        classPool.get("java.lang.String");
+        classPool.get("java.lang.Long");
+        assertEquals(2, classPool.size());
+
+        // recently used String stays cached, Integer is evicted
+        assertSame(string, classPool.get("java.lang.String"));
+        // primitive types are never evicted
+        assertSame(CtClass.intType, classPool.get("int"));
+    }
+
+    @Test
+    public void testModifiedClassNotShared() throws Exception {
+        ClassPool classPool = ClassPoolCache.acquire(classLoader);
+        CtClass modified;
+        CtClass frozen;
+        try {
+            modified = classPool.get(ClassPoolCacheTest.class.getName());
+            modified.addField(CtField.make("public int added;", modified));
+            frozen = classPool.get(ClassPoolCache.class.getName());
+            frozen.toBytecode();
+        } finally {
+            ClassPoolCache.release(classPool);
+        }
+
+        classPool = ClassPoolCache.acquire(classLoader);
+        try {
+            CtClass fresh = classPool.get(ClassPoolCacheTest.class.getName());
+            assertNotSame(modified, fresh);
+            assertFalse(fresh.isModified());
+            assertFalse(classPool.get(ClassPoolCache.class.getName()).isFrozen());
+        } finally {
+            ClassPoolCache.release(classPool);
+        }
+    }
+
+    @Test
+    public void testNestedClassesInvalidated() throws Exception {
+        ClassPool classPool = ClassPoolCache.acquire(classLoader);
+        try {
+            CtClass nested = classPool.get(ClassPoolCache.CachedClassPool.class.getName());
+            CtClass other = classPool.get(ClassPoolCacheTest.class.getName());
+
+            ClassPoolCache.invalidate(classLoader, ClassPoolCache.class.getName());
+            assertNotSame(nested, classPool.get(ClassPoolCache.CachedClassPool.class.getName()));
+            assertSame(other, classPool.get(ClassPoolCacheTest.class.getName()));
+        } finally {
+            ClassPoolCache.release(classPool);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.hotswap.agent.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Lookup and modification of the weak identity map.
+ */
+public class ConcurrentWeakIdentityMapTest {
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        ConcurrentWeakIdentityMap<Object, String> map = new ConcurrentWeakIdentityMap<Object, String>();
+        List<Object> keys = new ArrayList<Object>();
+        for (int i = 0; i < 100; i++) {
+            Object key = new Object();
+            keys.add(key);
+            map.put(key, "v" + i);
+        }
+        assertEquals(100, map.size());
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("v" + i, map.get(keys.get(i)));
+        }
+        assertNull(map.get(new Object()));
+
+        // replace and remove
+        map.put(keys.get(0), "replaced");
+        assertEquals("replaced", map.get(keys.get(0)));
+        map.remove(keys.get(1));
+        assertNull(map.get(keys.get(1)));
+        assertEquals(99, map.size());
+    }
+
+    @Test
+    public void testIdentity() throws Exception {
+        ConcurrentWeakIdentityMap<String, String> map = new ConcurrentWeakIdentityMap<String, String>();
+        String key = new String("key");
+        map.put(key, "value");
+
+        assertEquals("value", map.get(key));
+        assertNull(map.get(new String("key")));
+    }
+}
@@ -0,0 +1,290 @@
+package org.hotswap.agent.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Dispatch of class names to registered transformers.
+ */
+public class HotswapTransformerTest {
+
+    // do not touch PluginManager singleton from the test
+    HotswapTransformer hotswapTransformer = new HotswapTransformer() {
+        @Override
+        protected void ensureClassLoaderInitialized(ClassLoader classLoader, ProtectionDomain protectionDomain) {
+        }
+    };
+
+    List<String> calls = new ArrayList<String>();
+
+    private ClassFileTransformer recording(final String name) {
+        return new ClassFileTransformer() {
+            @Override
+            public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                                    ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
+                calls.add(name);
+                return classfileBuffer;
+            }
+        };
+    }
+
+    private List<String> transform(String className) throws IllegalClassFormatException {
+        calls.clear();
+        hotswapTransformer.transform(getClass().getClassLoader(), className, null, null, new byte[]{1, 2, 3});
+        return calls;
+    }
+
+    @Test
+    public void testExactName() throws Exception {
+        hotswapTransformer.registerTransformer(null, "org.hibernate.cfg.Configuration", recording("exact"));
+        hotswapTransformer.registerTransformer(null, "javax.el.BeanELResolver\\$SoftConcurrentHashMap", recording("escaped"));
+        hotswapTransformer.registerTransformer(null, "org.jboss.el.cache.BeanPropertiesCache.SoftConcurrentHashMap", recording("inner"));
+
+        assertEquals("[exact]", transform("org/hibernate/cfg/Configuration").toString());
+        assertEquals("[escaped]", transform("javax/el/BeanELResolver$SoftConcurrentHashMap").toString());
+        assertEquals("[inner]", transform("org/jboss/el/cache/BeanPropertiesCache$SoftConcurrentHashMap").toString());
+        assertTrue(transform("org/hibernate/cfg/ConfigurationX").isEmpty());
+        assertTrue(transform("org/hibernate/cfg/Configuratio").isEmpty());
+    }
+
+    @Test
+    public void testPrefix() throws Exception {
+        hotswapTransformer.registerTransformer(null, ".*", recording("all"));
+        hotswapTransformer.registerTransformer(null, "com.example.*", recording("package"));
+        hotswapTransformer.registerTransformer(null, "com/sun/proxy/\\$Proxy.*", recording("proxy"));
+
+        assertEquals("[all, package]", transform("com/example/Service").toString());
+        assertEquals("[all, proxy]", transform("com/sun/proxy/$Proxy12").toString());
+        assertEquals("[all]", transform("com/other/Service").toString());
+    }
+
+    @Test
+    public void testAlternativesAndRegexp() throws Exception {
+        hotswapTransformer.registerTransformer(null,
+                "(org.mortbay.jetty.webapp.WebAppContext)|(org.eclipse.jetty.webapp.WebAppContext)", recording("jetty"));
+        hotswapTransformer.registerTransformer(null, ".*/cglib/.*", recording("cglib"));
+        hotswapTransformer.registerTransformer(null, ".*\\$\\d+", recording("anonymous"));
+
+        assertEquals("[jetty]", transform("org/mortbay/jetty/webapp/WebAppContext").toString());
+        assertEquals("[jetty]", transform("org/eclipse/jetty/webapp/WebAppContext").toString());
+        assertEquals("[cglib]", transform("net/sf/cglib/Proxy").toString());
+        assertEquals("[anonymous]", transform("org/example/Main$1").toString());
+        assertTrue(transform("org/example/Main").isEmpty());
+    }
+
+    @Test
+    public void testAlternativesMatchedOnce() throws Exception {
+        hotswapTransformer.registerTransformer(null, "org.example.Foo|org.example.Fo.*|org.example.F.*", recording("foo"));
+        hotswapTransformer.registerTransformer(null, "org.example.*", recording("package"));
+
+        assertEquals("[foo, package]", transform("org/example/Foo").toString());
+        assertEquals("[package, foo]", transform("org/example/Fox").toString());
+        assertEquals("[package]", transform("org/example/Bar").toString());
+    }
+
+    @Test
+    public void testRedefiningClassName() throws Exception {
+        hotswapTransformer.registerTransformer(null, "org.hotswap.agent.util.HotswapTransformerTest", recording("exact"));
+
+        calls.clear();
+        hotswapTransformer.transform(getClass().getClassLoader(), null, HotswapTransformerTest.class, null, new byte[0]);
+        assertEquals("[exact]", calls.toString());
+    }
+
+    @Test
+    public void testCopyOnlyWhenMatched() throws Exception {
+        hotswapTransformer.registerTransformer(null, "org.example.Matched", recording("exact"));
+
+        byte[] bytes = new byte[]{1, 2, 3};
+        assertSame(bytes, hotswapTransformer.transform(null, "org/example/Other", null, null, bytes));
+
+        byte[] result = hotswapTransformer.transform(null, "org/example/Matched", null, null, bytes);
+        assertNotSame(bytes, result);
+        assertArrayEquals(bytes, result);
+    }
+
+    @Test
+    public void testRemoveTransformer() throws Exception {
+        ClassFileTransformer transformer = recording("removed");
+        hotswapTransformer.registerTransformer(null, "org.example.Removed", transformer);
+        hotswapTransformer.registerTransformer(getClass().getClassLoader(), "org.example.*", recording("closed"));
+        assertEquals("[removed, closed]", transform("org/example/Removed").toString());
+
+        hotswapTransformer.removeTransformer("org.example.Removed", transformer);
+        assertEquals("[closed]", transform("org/example/Removed").toString());
+
+        hotswapTransformer.closeClassLoader(getClass().getClassLoader());
+        assertTrue(transform("org/example/Removed").isEmpty());
+    }
+
+    @Test
+    public void testIncrementalIndexUpdate() throws Exception {
+        List<ClassFileTransformer> transformers = new ArrayList<ClassFileTransformer>();
+        for (int i = 0; i < 100; i++) {
+            ClassFileTransformer transformer = recording("exact" + i);
+            transformers.add(transformer);
+            hotswapTransformer.registerTransformer(null, "org.example.Class" + i, transformer);
+            hotswapTransformer.registerTransformer(null, "org.example.p" + i + "x.*", transformer);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            hotswapTransformer.removeTransformer("org.example.Class" + i, transformers.get(i));
+            hotswapTransformer.removeTransformer("org.example.p" + i + "x.*", transformers.get(i));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            String expected = i % 2 == 0 ? "[]" : "[exact" + i + "]";
+            assertEquals(expected, transform("org/example/Class" + i).toString());
+            assertEquals(expected, transform("org/example/p" + i + "x/Service").toString());
+        }
+
+        // removed buckets may be registered again
+        hotswapTransformer.registerTransformer(null, "org.example.Class0", transformers.get(0));
+        assertEquals("[exact0]", transform("org/example/Class0").toString());
+    }
+
+    @Test
+    public void testConcurrentRegistration() throws Exception {
+        final int threads = 8;
+        final int registrationsPerThread = 200;
+        final AtomicInteger transformed = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ClassFileTransformer counting = new ClassFileTransformer() {
+            @Override
+            public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                                    ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+                transformed.incrementAndGet();
+                return classfileBuffer;
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads * 2);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            // writers - register and remove transformers, keep every odd registration
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    for (int i = 0; i < registrationsPerThread; i++) {
+                        String regexp = "org.example.T" + thread + "_" + i;
+                        hotswapTransformer.registerTransformer(null, regexp, counting);
+                        hotswapTransformer.registerTransformer(null, "org.example.shared.*", counting);
+                        if (i % 2 == 0) {
+                            hotswapTransformer.removeTransformer(regexp, counting);
+                        }
+                    }
+                }
+            }));
+            // readers - transform concurrently with registration
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    try {
+                        for (int i = 0; i < registrationsPerThread * 10; i++) {
+                            hotswapTransformer.transform(null, "org/example/T" + thread + "_" + (i % registrationsPerThread),
+                                    null, null, new byte[]{1});
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertNull("No failure in transform", failure.get());
+
+        // no registration lost - odd registrations are matched exactly once, even are removed
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < registrationsPerThread; i++) {
+                transformed.set(0);
+                hotswapTransformer.transform(null, "org/example/T" + t + "_" + i, null, null, new byte[]{1});
+                assertEquals("Registration of T" + t + "_" + i, i % 2, transformed.get());
+            }
+        }
+        transformed.set(0);
+        hotswapTransformer.transform(null, "org/example/shared/Class", null, null, new byte[]{1});
+        assertEquals(threads * registrationsPerThread, transformed.get());
+    }
+
+    /**
+     * Class bytes are parsed once for all transformers, until a transformer returns modified bytes.
+     */
+    @Test
+    public void testSharedClassModel() throws Exception {
+        final List<ClassModel> models = new ArrayList<ClassModel>();
+        ClassFileTransformer reading = new ClassFileTransformer() {
+            @Override
+            public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                                    ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+                try {
+                    models.add(hotswapTransformer.getClassModel(classfileBuffer));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                return classfileBuffer;
+            }
+        };
+        ClassFileTransformer modifying = new ClassFileTransformer() {
+            @Override
+            public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                                    ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+                try {
+                    return IOUtils.toByteArray(AnnotationIndex.class.getResourceAsStream("AnnotationIndex.class"));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        hotswapTransformer.registerTransformer(null, "org.hotswap.agent.util.ClassModel", reading);
+        hotswapTransformer.registerTransformer(null, "org.hotswap.agent.util.ClassModel", reading);
+        hotswapTransformer.registerTransformer(null, "org.hotswap.agent.util.ClassModel", modifying);
+        hotswapTransformer.registerTransformer(null, "org.hotswap.agent.util.ClassModel", reading);
+
+        byte[] bytes = IOUtils.toByteArray(ClassModel.class.getResourceAsStream("ClassModel.class"));
+        hotswapTransformer.transform(getClass().getClassLoader(), "org/hotswap/agent/util/ClassModel", null, null, bytes);
+
+        assertEquals(3, models.size());
+        assertSame(models.get(0), models.get(1));
+        assertNotSame("Parsed again after modification", models.get(1), models.get(2));
+        assertEquals("org.hotswap.agent.util.ClassModel", models.get(0).getName());
+        assertEquals("org.hotswap.agent.util.AnnotationIndex", models.get(2).getName());
+        assertEquals("java.lang.Object", models.get(0).getSuperclass());
+        assertTrue(models.get(0).getFieldSignatures().contains("name:Ljava/lang/String;"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.hotswap.agent.util;
+
+/**
+ * Minimal harness for microbenchmarks in test sources (JMH is not a dependency of the build).
+ * <p/>
+ * An operation is run in warmup iterations first to let JIT compile it, then in measured iterations.
+ * The result is the best measured iteration in nanoseconds per operation. Results of operations are
+ * written to a volatile field to prevent dead code elimination.
+ * <p/>
+ * Benchmarks are not part of the test suite, run them by their main method after test-compile, e.g.:
+ * <pre>
+ * java -cp target/classes:target/test-classes org.hotswap.agent.watch.nio.PathTrieBenchmark
+ * </pre>
+ */
+public class MicroBenchmark {
+
+    /**
+     * Measured operation.
+     */
+    public interface Operation {
+        /**
+         * @param i sequence number of the operation within an iteration
+         * @return any result of the operation (consumed by the harness)
+         */
+        Object run(int i) throws Exception;
+    }
+
+    private final int warmupIterations;
+    private final int iterations;
+    private final int operationsPerIteration;
+
+    private volatile Object sink;
+
+    public MicroBenchmark(int warmupIterations, int iterations, int operationsPerIteration) {
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.operationsPerIteration = operationsPerIteration;
+    }
+
+    /**
+     * Measure the operation and print the result.
+     *
+     * @param name name of the operation to print
+     * @return nanoseconds per operation (best iteration)
+     */
+    public double measure(String name, Operation operation) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            runIteration(operation);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < iterations; i++) {
+            best = Math.min(best, runIteration(operation));
+        }
+        double result = (double) best / operationsPerIteration;
+        System.out.println(String.format("%-50s %12.1f ns/op", name, result));
+        return result;
+    }
+
+    private long runIteration(Operation operation) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < operationsPerIteration; i++) {
+            sink = operation.run(i);
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -1,13 +1,16 @@
 package org.hotswap.agent.util.classloader;
 
 import org.hotswap.agent.config.PluginManager;
+import org.hotswap.agent.plugin.hotswapper.HotswapperPlugin;
 import org.hotswap.agent.plugin.jvm.AnonymousClassInfo;
+import org.hotswap.agent.plugin.jvm.AnonymousClassPatchPlugin;
 import org.junit.Test;
 
 import java.net.URL;
 import java.net.URLClassLoader;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by bubnik on 29.10.13.
@@ -38,4 +41,24 @@ public class ClassLoaderDefineClassPatcherTest {
         ;
     }
 
+    @Test
+    public void testPatchPlugin() throws Exception {
+        ClassLoader appClassLoader = new URLClassLoader(new URL[]{}, getClass().getClassLoader());
+        ClassLoaderDefineClassPatcher patcher = new ClassLoaderDefineClassPatcher();
+        String path = PluginManager.PLUGIN_PACKAGE.replace(".", "/");
+
+        patcher.patchPlugin(getClass().getClassLoader(), path, AnonymousClassPatchPlugin.class, appClassLoader, null);
+        int count = patcher.getInjectedClassCount(appClassLoader);
+        assertTrue(count > 0);
+
+        assertEquals("Plugin class created in app classloader", appClassLoader,
+                appClassLoader.loadClass(AnonymousClassInfo.class.getName()).getClassLoader());
+        assertEquals("Other plugin class not defined", getClass().getClassLoader(),
+                appClassLoader.loadClass(HotswapperPlugin.class.getName()).getClassLoader());
+
+        // repeated call does nothing
+        patcher.patchPlugin(getClass().getClassLoader(), path, AnonymousClassPatchPlugin.class, appClassLoader, null);
+        assertEquals(count, patcher.getInjectedClassCount(appClassLoader));
+    }
+
 }
@@ -0,0 +1,127 @@
+package org.hotswap.agent.util.scanner;
+
+import org.hotswap.agent.testData.SimplePlugin;
+import org.hotswap.agent.util.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Plugin index scan, serialization and resolution for a JAR location.
+ */
+public class PluginIndexTest {
+
+    static final String PATH = "org/hotswap/agent/testData";
+
+    @Test
+    public void testScan() throws Exception {
+        PluginIndex index = PluginIndex.scan(getClass().getClassLoader().getResource(PATH));
+
+        assertEquals(Collections.singleton(SimplePlugin.class.getName()), index.getPluginClassNames());
+        assertEquals(Collections.singleton(SimplePlugin.class.getName()), index.getClassNames());
+    }
+
+    @Test
+    public void testWriteRead() throws Exception {
+        PluginIndex index = PluginIndex.scan(getClass().getClassLoader().getResource(PATH));
+        StringWriter writer = new StringWriter();
+        index.write(writer);
+
+        PluginIndex read = PluginIndex.read(new ByteArrayInputStream(writer.toString().getBytes("UTF-8")));
+        assertEquals(index.getClassNames(), read.getClassNames());
+        assertEquals(index.getPluginClassNames(), read.getPluginClassNames());
+    }
+
+    @Test
+    public void testJarCache() throws Exception {
+        // created on first use
+        File cacheDir = new File(Files.createTempDirectory("index-cache").toFile(), "cache");
+        PluginIndex.setCacheDirectory(cacheDir);
+        File jar = createJar(null);
+
+        // scanned and cached
+        assertEquals(Collections.singleton(SimplePlugin.class.getName()),
+                PluginIndex.forPath(jarClassLoader(jar), PATH).getPluginClassNames());
+        File[] cached = cacheDir.listFiles();
+        assertEquals(1, cached.length);
+        if (Files.getFileStore(cacheDir.toPath()).supportsFileAttributeView("posix")) {
+            assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(cacheDir.toPath())));
+        }
+
+        // the cached index is used for the same JAR path, size and modification time
+        FileWriter writer = new FileWriter(cached[0]);
+        writer.write("plugin org.example.CachedPlugin\n");
+        writer.close();
+        assertEquals(Collections.singleton("org.example.CachedPlugin"),
+                PluginIndex.forPath(jarClassLoader(jar), PATH).getPluginClassNames());
+
+        // modified JAR is scanned again
+        jar.setLastModified(jar.lastModified() - 10000);
+        assertEquals(Collections.singleton(SimplePlugin.class.getName()),
+                PluginIndex.forPath(jarClassLoader(jar), PATH).getPluginClassNames());
+        assertEquals(2, cacheDir.listFiles().length);
+    }
+
+    @Test
+    public void testDisabledCache() throws Exception {
+        assertNull(PluginIndex.resolveCacheDirectory("false"));
+        assertEquals(new File("/tmp/index"), PluginIndex.resolveCacheDirectory("/tmp/index"));
+
+        // scanned without cache
+        PluginIndex.setCacheDirectory(null);
+        assertEquals(Collections.singleton(SimplePlugin.class.getName()),
+                PluginIndex.forPath(jarClassLoader(createJar(null)), PATH).getPluginClassNames());
+    }
+
+    @Test
+    public void testJarIndexFile() throws Exception {
+        PluginIndex.setCacheDirectory(Files.createTempDirectory("index-cache").toFile());
+        File jar = createJar("plugin org.example.IndexedPlugin\n");
+
+        assertEquals(Collections.singleton("org.example.IndexedPlugin"),
+                PluginIndex.forPath(jarClassLoader(jar), PATH).getPluginClassNames());
+    }
+
+    private static ClassLoader jarClassLoader(File jar) throws Exception {
+        // no parent - resolve the path only in the JAR
+        return new URLClassLoader(new URL[]{jar.toURI().toURL()}, null);
+    }
+
+    private File createJar(String index) throws Exception {
+        File jar = File.createTempFile("plugin", ".jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        // directory entries are needed to resolve the path by ClassLoader.getResources()
+        String[] segments = PATH.split("/");
+        String dir = "";
+        for (String segment : segments) {
+            dir += segment + "/";
+            out.putNextEntry(new JarEntry(dir));
+        }
+        String classFile = SimplePlugin.class.getName().replace('.', '/') + ".class";
+        out.putNextEntry(new JarEntry(classFile));
+        InputStream is = getClass().getClassLoader().getResourceAsStream(classFile);
+        out.write(IOUtils.toByteArray(is));
+        is.close();
+        if (index != null) {
+            out.putNextEntry(new JarEntry(PATH + "/" + PluginIndex.INDEX_FILE));
+            out.write(index.getBytes("UTF-8"));
+        }
+        out.close();
+        return jar;
+    }
+}
@@ -0,0 +1,74 @@
+package org.hotswap.agent.watch.nio;
+
+import org.hotswap.agent.annotation.FileEvent;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Net change of event sequences and quiet period handling.
+ */
+public class EventCoalescerTest {
+
+    Path saved = Paths.get("/tmp/saved.class");
+    Path created = Paths.get("/tmp/created.class");
+    Path temporary = Paths.get("/tmp/temporary.tmp");
+    Path deleted = Paths.get("/tmp/deleted.class");
+
+    @Test
+    public void testNetEvents() throws Exception {
+        EventCoalescer coalescer = new EventCoalescer(100);
+
+        // IDE save
+        coalescer.add(saved, FileEvent.DELETE, 0);
+        coalescer.add(saved, FileEvent.CREATE, 0);
+        coalescer.add(saved, FileEvent.MODIFY, 0);
+        // new file written in several steps
+        coalescer.add(created, FileEvent.CREATE, 10);
+        coalescer.add(created, FileEvent.MODIFY, 10);
+        // temporary file
+        coalescer.add(temporary, FileEvent.CREATE, 20);
+        coalescer.add(temporary, FileEvent.DELETE, 20);
+        // deleted file
+        coalescer.add(deleted, FileEvent.MODIFY, 30);
+        coalescer.add(deleted, FileEvent.DELETE, 30);
+
+        List<HotswapWatchFileEvent> events = coalescer.poll(130);
+        assertEquals(Arrays.asList(
+                new HotswapWatchFileEvent(FileEvent.MODIFY, saved),
+                new HotswapWatchFileEvent(FileEvent.CREATE, created),
+                new HotswapWatchFileEvent(FileEvent.DELETE, deleted)), events);
+        assertTrue(coalescer.isEmpty());
+    }
+
+    @Test
+    public void testQuietPeriod() throws Exception {
+        EventCoalescer coalescer = new EventCoalescer(100);
+
+        coalescer.add(saved, FileEvent.MODIFY, 0);
+        assertTrue("Quiet period not elapsed", coalescer.poll(50).isEmpty());
+        coalescer.add(created, FileEvent.CREATE, 80);
+        assertTrue("Quiet period restarted by new event", coalescer.poll(150).isEmpty());
+        assertEquals(2, coalescer.poll(180).size());
+        assertTrue(coalescer.poll(300).isEmpty());
+    }
+
+    @Test
+    public void testMaxDelay() throws Exception {
+        EventCoalescer coalescer = new EventCoalescer(100);
+
+        // events keep coming, released after max delay anyway
+        long time = 0;
+        for (; time < 100 * EventCoalescer.MAX_DELAY_FACTOR; time += 50) {
+            coalescer.add(saved, FileEvent.MODIFY, time);
+            assertTrue(coalescer.poll(time).isEmpty());
+        }
+        assertEquals(1, coalescer.poll(time).size());
+    }
+}
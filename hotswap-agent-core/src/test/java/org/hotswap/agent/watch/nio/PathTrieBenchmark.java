@@ -0,0 +1,61 @@
+package org.hotswap.agent.watch.nio;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.hotswap.agent.util.MicroBenchmark;
+
+/**
+ * Listener routing with 10k registered paths - trie lookup compared with linear Path.startsWith() scan
+ * of all paths (the routing before PathTrie).
+ * <p/>
+ * Run after test-compile:
+ * <pre>
+ * java -cp target/classes:target/test-classes org.hotswap.agent.watch.nio.PathTrieBenchmark
+ * </pre>
+ */
+public class PathTrieBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(1);
+        final PathTrie<Path> trie = new PathTrie<Path>();
+        final List<Path> registered = new ArrayList<Path>();
+        for (int i = 0; i < 10000; i++) {
+            Path path = Paths.get("/deployments/app" + random.nextInt(500), "module" + random.nextInt(20),
+                    "target", "classes");
+            registered.add(path);
+            trie.add(path, path);
+        }
+
+        final Path[] events = new Path[1024];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = Paths.get("/deployments/app" + random.nextInt(500), "module" + random.nextInt(20),
+                    "target", "classes", "org", "example", "Class" + i + ".class");
+        }
+
+        MicroBenchmark benchmark = new MicroBenchmark(10, 10, 2000);
+        double linear = benchmark.measure("linear scan, 10k paths", new MicroBenchmark.Operation() {
+            @Override
+            public Object run(int i) {
+                Path event = events[i & 1023];
+                List<Path> result = new ArrayList<Path>();
+                for (Path path : registered) {
+                    if (event.startsWith(path)) {
+                        result.add(path);
+                    }
+                }
+                return result;
+            }
+        });
+        double trieLookup = benchmark.measure("PathTrie.getPrefixValues, 10k paths", new MicroBenchmark.Operation() {
+            @Override
+            public Object run(int i) {
+                return trie.getPrefixValues(events[i & 1023]);
+            }
+        });
+        System.out.println(String.format("speedup %.0fx", linear / trieLookup));
+    }
+}
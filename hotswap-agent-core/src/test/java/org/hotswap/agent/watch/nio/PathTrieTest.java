@@ -0,0 +1,89 @@
+package org.hotswap.agent.watch.nio;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Prefix lookup, removal and comparison with linear Path.startsWith() scan.
+ */
+public class PathTrieTest {
+
+    @Test
+    public void testPrefixValues() throws Exception {
+        PathTrie<String> trie = new PathTrie<String>();
+        trie.add(Paths.get("/a"), "a");
+        trie.add(Paths.get("/a/b"), "ab");
+        trie.add(Paths.get("/a/b"), "ab2");
+        trie.add(Paths.get("/a/c"), "ac");
+        trie.add(Paths.get("/ab"), "ab-sibling");
+
+        assertEquals(Arrays.asList("a", "ab", "ab2"), trie.getPrefixValues(Paths.get("/a/b/X.class")));
+        assertEquals(Arrays.asList("a", "ab", "ab2"), trie.getPrefixValues(Paths.get("/a/b")));
+        assertEquals(Arrays.asList("a"), trie.getPrefixValues(Paths.get("/a/bb")));
+        assertEquals(Collections.emptyList(), trie.getPrefixValues(Paths.get("/x")));
+
+        assertEquals("a", trie.getFirstPrefixValue(Paths.get("/a/c/d")));
+        assertNull(trie.getFirstPrefixValue(Paths.get("/b")));
+        assertEquals(5, trie.size());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        PathTrie<String> trie = new PathTrie<String>();
+        trie.add(Paths.get("/a/b"), "ab");
+        trie.add(Paths.get("/a/b/c"), "abc");
+        trie.add(Paths.get("/d"), "d");
+
+        assertFalse(trie.remove(Paths.get("/a"), "ab"));
+        assertTrue(trie.remove(Paths.get("/a/b"), "ab"));
+        assertEquals(Arrays.asList("abc"), trie.getPrefixValues(Paths.get("/a/b/c/e")));
+
+        trie.removeAll(new HashSet<String>(Arrays.asList("abc", "d")));
+        assertTrue(trie.isEmpty());
+        assertEquals(Collections.emptyList(), trie.getPrefixValues(Paths.get("/a/b/c/e")));
+    }
+
+    /**
+     * 10k registered paths (e.g. classpath entries and resource directories of many classloaders),
+     * the trie returns the same values as scan of all paths.
+     */
+    @Test
+    public void testManyPaths() throws Exception {
+        Random random = new Random(1);
+        PathTrie<Path> trie = new PathTrie<Path>();
+        List<Path> registered = new ArrayList<Path>();
+        for (int i = 0; i < 10000; i++) {
+            Path path = Paths.get("/deployments/app" + random.nextInt(500), "module" + random.nextInt(20),
+                    "target", "classes");
+            registered.add(path);
+            trie.add(path, path);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            Path event = Paths.get("/deployments/app" + random.nextInt(500), "module" + random.nextInt(20),
+                    "target", "classes", "org", "example", "Class" + i + ".class");
+
+            List<Path> expected = new ArrayList<Path>();
+            for (Path path : registered) {
+                if (event.startsWith(path)) {
+                    expected.add(path);
+                }
+            }
+            assertEquals(expected.size(), trie.getPrefixValues(event).size());
+            assertEquals(new HashSet<Path>(expected), new HashSet<Path>(trie.getPrefixValues(event)));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.hotswap.agent.watch.nio;
+
+import org.hotswap.agent.annotation.FileEvent;
+import org.hotswap.agent.watch.WatchEventListener;
+import org.hotswap.agent.watch.WatchFileEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Changes detected by directory scan in polling and hybrid mode.
+ */
+public class PollingWatcherTest {
+
+    Path temp;
+    PollingWatcher watcher;
+    final List<WatchFileEvent> events = new ArrayList<WatchFileEvent>();
+
+    @Before
+    public void setup() throws IOException {
+        temp = Files.createTempDirectory("pollingWatcherTest");
+    }
+
+    @After
+    public void tearDown() {
+        watcher.stop();
+    }
+
+    @Test
+    public void testPolling() throws Exception {
+        testChanges(false);
+    }
+
+    @Test
+    public void testHybrid() throws Exception {
+        testChanges(true);
+    }
+
+    @Test
+    public void testContentHash() throws Exception {
+        File same = new File(temp.toFile(), "same.class");
+        write(same, "content", 0);
+        File other = new File(temp.toFile(), "other.class");
+        write(other, "content", 0);
+
+        start(false, true);
+
+        // rewritten with the same content
+        write(same, "content", 5000);
+        Thread.sleep(200);
+        write(other, "changed", 5000);
+
+        assertTrue(waitForEvent(FileEvent.MODIFY, other));
+        assertFalse(hasEvent(FileEvent.MODIFY, same));
+    }
+
+    private void testChanges(boolean hybrid) throws Exception {
+        File existing = new File(temp.toFile(), "existing.class");
+        write(existing, "existing", 0);
+        new File(temp.toFile(), "sub").mkdir();
+
+        start(hybrid, false);
+
+        File created = new File(temp.toFile(), "sub/created.class");
+        write(created, "created", 0);
+        assertTrue("Create event", waitForEvent(FileEvent.CREATE, created));
+
+        write(existing, "modified", 5000);
+        assertTrue("Modify event", waitForEvent(FileEvent.MODIFY, existing));
+
+        // in hybrid mode detected by the watch service
+        synchronized (events) {
+            events.clear();
+        }
+        write(existing, "modified again", 10000);
+        assertTrue("Second modify event", waitForEvent(FileEvent.MODIFY, existing));
+
+        created.delete();
+        assertTrue("Delete event", waitForEvent(FileEvent.DELETE, created));
+    }
+
+    private void start(boolean hybrid, boolean contentHash) throws Exception {
+        watcher = new PollingWatcher(hybrid);
+        watcher.setContentHash(contentHash);
+        watcher.setPollInterval(50);
+        watcher.setQuietPeriod(0);
+        watcher.run();
+        watcher.addEventListener(null, temp.toUri(), new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                synchronized (events) {
+                    events.add(event);
+                }
+            }
+        });
+        // initial snapshot
+        watcher.addDirectoryAsync(temp.toUri()).get();
+    }
+
+    // write content and shift modification time to be sure it differs from previous write
+    private static void write(File file, String content, long timeShift) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+        file.setLastModified(System.currentTimeMillis() + timeShift);
+    }
+
+    private boolean hasEvent(FileEvent type, File file) {
+        synchronized (events) {
+            for (WatchFileEvent event : events) {
+                if (event.getEventType() == type && new File(event.getURI()).equals(file)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean waitForEvent(FileEvent type, File file) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            if (hasEvent(type, file)) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+}
@@ -16,8 +16,10 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static junit.framework.TestCase.assertTrue;
 
 /**
@@ -72,6 +74,75 @@ public class WatcherNIO2Test {
         assertTrue("Event listener called", waitForResult(resultHolder));
     }
 
+    @Test
+    public void testAsyncRegistration() throws Exception {
+        File deep = new File(temp.toFile(), "a/b/c/d");
+        deep.mkdirs();
+        for (int i = 0; i < 50; i++) {
+            new File(temp.toFile(), "dir" + i + "/sub").mkdirs();
+        }
+
+        final ResultHolder resultHolder = new ResultHolder();
+        watcher.addEventListener(null, temp.toUri(), new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                if (event.getURI().toString().endsWith("early.class")) {
+                    resultHolder.result = true;
+                }
+            }
+        });
+        // pending registration is returned
+        Future<?> registration = ((AbstractNIO2Watcher) watcher).addDirectoryAsync(temp.toUri());
+
+        // created while the tree may not be registered yet
+        new File(deep, "early.class").createNewFile();
+
+        registration.get();
+        assertTrue("Event listener called", waitForResult(resultHolder));
+        assertTrue("Subdirectory already registered",
+                ((AbstractNIO2Watcher) watcher).addDirectoryAsync(deep.toURI()).isDone());
+    }
+
+    @Test
+    public void testAsyncRegistrationExistingFile() throws Exception {
+        // written before registration, in the same second
+        while (System.currentTimeMillis() % 1000 < 500) {
+            Thread.sleep(10);
+        }
+        File existing = new File(temp.toFile(), "existing.class");
+        existing.createNewFile();
+        existing.setLastModified(System.currentTimeMillis() - 300);
+
+        final ResultHolder existingReported = new ResultHolder();
+        final ResultHolder laterReported = new ResultHolder();
+        watcher.addEventListener(null, temp.toUri(), new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                if (event.getURI().toString().endsWith("existing.class")) {
+                    existingReported.result = true;
+                } else if (event.getURI().toString().endsWith("later.class")) {
+                    laterReported.result = true;
+                }
+            }
+        });
+        ((AbstractNIO2Watcher) watcher).addDirectoryAsync(temp.toUri()).get();
+        new File(temp.toFile(), "later.class").createNewFile();
+
+        assertTrue("Event listener called", waitForResult(laterReported));
+        assertFalse("File written before registration not reported", existingReported.result);
+    }
+
+    @Test
+    public void testModifiedSince() {
+        assertFalse(AbstractNIO2Watcher.isModifiedSince(10300, 10500));
+        assertTrue(AbstractNIO2Watcher.isModifiedSince(10500, 10500));
+        // file system clock tick
+        assertTrue(AbstractNIO2Watcher.isModifiedSince(10499, 10500));
+        // coarse timestamp in the same second
+        assertTrue(AbstractNIO2Watcher.isModifiedSince(10000, 10500));
+        assertFalse(AbstractNIO2Watcher.isModifiedSince(9000, 10500));
+    }
+
     // ensure it works on file:/ URIs as returned by classloader
     //@Test
     public void testTargetClasses() throws Exception {
@@ -117,6 +188,6 @@ public class WatcherNIO2Test {
     }
 
     private static class ResultHolder {
-        boolean result = false;
+        volatile boolean result = false;
     }
 }
@@ -11,11 +11,11 @@ import org.hotswap.agent.annotation.LoadEvent;
 import org.hotswap.agent.annotation.OnClassLoadEvent;
 import org.hotswap.agent.annotation.Plugin;
 import org.hotswap.agent.command.Scheduler;
-import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.plugin.deltaspike.jsf.ViewConfigReloadCommand;
 import org.hotswap.agent.plugin.deltaspike.proxy.PartialBeanClassRefreshCommand;
 import org.hotswap.agent.util.AnnotationHelper;
+import org.hotswap.agent.util.ClassModel;
 
 /**
  * Apache DeltaSpike
@@ -57,12 +57,12 @@ public class DeltaSpikePlugin {
     }
 
     @OnClassLoadEvent(classNameRegexp = ".*", events = LoadEvent.REDEFINE)
-    public void classReload(CtClass clazz, Class original) {
+    public void classReload(ClassModel clazz, Class original) {
         checkRefreshPartialBean(clazz, original);
         checkRefreshViewConfigExtension(clazz, original);
     }
 
-    private void checkRefreshPartialBean(CtClass clazz, Class original) {
+    private void checkRefreshPartialBean(ClassModel clazz, Class original) {
         Object partialBean = getObjectByName(registeredPartialBeans, clazz.getName());
         if (partialBean != null) {
 
@@ -88,7 +88,7 @@ public class DeltaSpikePlugin {
         return null;
     }
 
-    private void checkRefreshViewConfigExtension(CtClass clazz, Class original) {
+    private void checkRefreshViewConfigExtension(ClassModel clazz, Class original) {
         String className = original.getName();
         int index = className.indexOf("$");
         String rootClassName = (index!=-1) ? className.substring(0, index) : className;
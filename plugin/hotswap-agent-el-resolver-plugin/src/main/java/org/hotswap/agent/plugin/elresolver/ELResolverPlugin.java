@@ -203,7 +203,7 @@ public class ELResolverPlugin {
     }
 
     @OnClassLoadEvent(classNameRegexp = ".*", events = LoadEvent.REDEFINE)
-    public void invalidateClassCache(ClassLoader appClassLoader, CtClass ctClass) throws Exception {
+    public void invalidateClassCache(ClassLoader appClassLoader) throws Exception {
         if (jbossReflectionUtil) {
             flushJbossReflectionUtil(appClassLoader);
         }
@@ -0,0 +1,87 @@
+package org.hotswap.agent.plugin.hibernate;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import org.hotswap.agent.javassist.bytecode.AccessFlag;
+import org.hotswap.agent.javassist.bytecode.AnnotationsAttribute;
+import org.hotswap.agent.javassist.bytecode.AttributeInfo;
+import org.hotswap.agent.javassist.bytecode.ClassFile;
+import org.hotswap.agent.javassist.bytecode.FieldInfo;
+import org.hotswap.agent.javassist.bytecode.MethodInfo;
+import org.hotswap.agent.javassist.bytecode.SignatureAttribute;
+import org.hotswap.agent.javassist.bytecode.annotation.Annotation;
+
+/**
+ * Mapping signature of an entity class - everything Hibernate may read from the class to build
+ * the entity persister and metamodel, without method bodies.
+ * <p/>
+ * If the signature of a redefined entity is equal to the signature of the previous version,
+ * only code has changed and existing persisters (holding reflection members of the same class)
+ * remain valid.
+ */
+public class EntityMappingHelper {
+
+	/**
+	 * Compute mapping signature from class bytes. It contains superclass, interfaces, class annotations,
+	 * and access flags, name, generic signature and annotations of all fields and methods (synthetic
+	 * members excluded - e.g. lambda methods generated from a method body).
+	 *
+	 * @param bytes class file content
+	 * @return the signature
+	 * @throws IOException the bytes are not a valid class file
+	 */
+	public static String getMappingSignature(byte[] bytes) throws IOException {
+		ClassFile classFile = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+
+		StringBuilder signature = new StringBuilder();
+		signature.append(classFile.getAccessFlags()).append(' ').append(classFile.getName())
+				.append(" extends ").append(classFile.getSuperclass());
+		for (String iface : classFile.getInterfaces()) {
+			signature.append(' ').append(iface);
+		}
+		appendAnnotations(signature, classFile.getAttribute(AnnotationsAttribute.visibleTag));
+		appendSignature(signature, classFile.getAttribute(SignatureAttribute.tag));
+		signature.append('\n');
+
+		for (FieldInfo field : classFile.getFields()) {
+			if ((field.getAccessFlags() & AccessFlag.SYNTHETIC) != 0) {
+				continue;
+			}
+			signature.append(field.getAccessFlags()).append(' ').append(field.getName()).append(':')
+					.append(field.getDescriptor());
+			appendSignature(signature, field.getAttribute(SignatureAttribute.tag));
+			appendAnnotations(signature, field.getAttribute(AnnotationsAttribute.visibleTag));
+			signature.append('\n');
+		}
+
+		for (MethodInfo method : classFile.getMethods()) {
+			if ((method.getAccessFlags() & (AccessFlag.SYNTHETIC | AccessFlag.BRIDGE)) != 0) {
+				continue;
+			}
+			signature.append(method.getAccessFlags()).append(' ').append(method.getName())
+					.append(method.getDescriptor());
+			appendSignature(signature, method.getAttribute(SignatureAttribute.tag));
+			appendAnnotations(signature, method.getAttribute(AnnotationsAttribute.visibleTag));
+			signature.append('\n');
+		}
+
+		return signature.toString();
+	}
+
+	// annotations with resolved values (independent on constant pool layout)
+	private static void appendAnnotations(StringBuilder signature, AttributeInfo attribute) {
+		if (attribute != null) {
+			for (Annotation annotation : ((AnnotationsAttribute) attribute).getAnnotations()) {
+				signature.append(' ').append(annotation);
+			}
+		}
+	}
+
+	private static void appendSignature(StringBuilder signature, AttributeInfo attribute) {
+		if (attribute != null) {
+			signature.append(" <").append(((SignatureAttribute) attribute).getSignature()).append('>');
+		}
+	}
+}
@@ -7,9 +7,7 @@ import org.hotswap.agent.util.PluginManagerInvoker;
 
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.spi.PersistenceUnitInfo;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * Helper to create a proxy for entity manager factory.
@@ -21,9 +19,6 @@ import java.util.Set;
 public class HibernatePersistenceHelper {
 	private static AgentLogger LOGGER = AgentLogger.getLogger(HibernatePersistenceHelper.class);
 
-	// each persistence unit should be wrapped only once
-	static Set<String> wrappedPersistenceUnitNames = new HashSet<String>();
-
 
     /**
      * @param info       persistent unit definition
@@ -34,14 +29,14 @@ public class HibernatePersistenceHelper {
     public static EntityManagerFactory createContainerEntityManagerFactoryProxy(Object builder, PersistenceUnitInfo info, Map<?,?> properties,
                                                                                 EntityManagerFactory original) {
         // ensure only once
-        if (wrappedPersistenceUnitNames.contains(info.getPersistenceUnitName()))
+        ClassLoader classLoader = getAppClassLoader(info.getClassLoader(), original);
+        if (EntityManagerFactoryProxy.isProxied(classLoader, info.getPersistenceUnitName()))
             return original;
-        wrappedPersistenceUnitNames.add(info.getPersistenceUnitName());
 
-        EntityManagerFactoryProxy wrapper = EntityManagerFactoryProxy.getWrapper(info.getPersistenceUnitName());
+        EntityManagerFactoryProxy wrapper = EntityManagerFactoryProxy.getWrapper(classLoader, info.getPersistenceUnitName());
         EntityManagerFactory proxy = wrapper.proxy(builder, original, info.getPersistenceUnitName(), info, properties);
 
-		initPlugin(original);
+		initPlugin(classLoader);
 
 		LOGGER.debug("Returning container EntityManager proxy {} instead of EntityManager {}", proxy.getClass(),
 				original);
@@ -57,28 +52,39 @@ public class HibernatePersistenceHelper {
     public static EntityManagerFactory createEntityManagerFactoryProxy(Object builder, String persistenceUnitName, Map<?,?> properties,
                                                                        EntityManagerFactory original) {
         // ensure only once
-        if (wrappedPersistenceUnitNames.contains(persistenceUnitName))
+        ClassLoader classLoader = getAppClassLoader(null, original);
+        if (EntityManagerFactoryProxy.isProxied(classLoader, persistenceUnitName))
             return original;
-        wrappedPersistenceUnitNames.add(persistenceUnitName);
 
-        EntityManagerFactoryProxy wrapper = EntityManagerFactoryProxy.getWrapper(persistenceUnitName);
+        EntityManagerFactoryProxy wrapper = EntityManagerFactoryProxy.getWrapper(classLoader, persistenceUnitName);
         EntityManagerFactory proxy = wrapper.proxy(builder, original, persistenceUnitName, null, properties);
 
-		initPlugin(original);
+		initPlugin(classLoader);
 
 		LOGGER.debug("Returning EntityManager proxy {} instead of EntityManager {}", proxy.getClass(), original);
 		return proxy;
 	}
 
-	// call initializePlugin and setup version and EJB flag
-	private static void initPlugin(EntityManagerFactory original) {
-		ClassLoader appClassLoader = original.getClass().getClassLoader();
+	// application classloader of the persistence unit - the registry key and the classloader of reload commands,
+	// Hibernate itself may be loaded by a shared parent classloader
+	private static ClassLoader getAppClassLoader(ClassLoader persistenceUnitClassLoader, EntityManagerFactory original) {
+		if (persistenceUnitClassLoader != null) {
+			return persistenceUnitClassLoader;
+		}
+		ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+		return contextClassLoader != null ? contextClassLoader : original.getClass().getClassLoader();
+	}
 
+	// call initializePlugin and setup version and EJB flag
+	private static void initPlugin(ClassLoader appClassLoader) {
 		String version = Version.getVersionString();
 
 		PluginManagerInvoker.callInitializePlugin(HibernatePlugin.class, appClassLoader);
 		PluginManagerInvoker.callPluginMethod(HibernatePlugin.class, appClassLoader, "init",
 				new Class[] { String.class, Boolean.class }, new Object[] { version, true });
+		// the proxy is registered in this copy of EntityManagerFactoryProxy
+		PluginManagerInvoker.callPluginMethod(HibernatePlugin.class, appClassLoader, "registerProxyClassLoader",
+				new Class[] { ClassLoader.class }, new Object[] { EntityManagerFactoryProxy.class.getClassLoader() });
 
 	}
 }
@@ -1,9 +1,15 @@
 package org.hotswap.agent.plugin.hibernate;
 
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
 import java.lang.reflect.Method;
+import java.security.ProtectionDomain;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.hotswap.agent.annotation.FileEvent;
 import org.hotswap.agent.annotation.Init;
@@ -12,22 +18,28 @@ import org.hotswap.agent.annotation.OnClassFileEvent;
 import org.hotswap.agent.annotation.OnClassLoadEvent;
 import org.hotswap.agent.annotation.Plugin;
 import org.hotswap.agent.command.Command;
-import org.hotswap.agent.command.ReflectionCommand;
 import org.hotswap.agent.command.Scheduler;
+import org.hotswap.agent.config.PluginConfiguration;
 import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.util.AnnotationHelper;
+import org.hotswap.agent.util.AnnotationIndex;
+import org.hotswap.agent.util.HotswapTransformer;
 
 /**
  * Reload Hibernate configuration after entity create/change.
+ * <p/>
+ * With hibernate.incrementalRefresh=true the configuration is reloaded only if the mapping of a changed
+ * entity changed (fields, methods, annotations - see {@link EntityMappingHelper}). If only method bodies
+ * changed, existing entity persisters and metamodel remain valid and the rebuild is skipped.
  *
  * @author Jiri Bubnik
  */
 @Plugin(name = "Hibernate", description = "Reload Hibernate configuration after entity create/change.", testedVersions = {
 		"All between 4.0.1 - 4.2.13" }, expectedVersions = { "4.0.x", "4.1.x", "4.2.x" }, supportClass = {
-				HibernateTransformers.class })
+				HibernateTransformers.class }, indexedAnnotations = { HibernatePlugin.ENTITY_ANNOTATION })
 public class HibernatePlugin {
-	private static final String ENTITY_ANNOTATION = "javax.persistence.Entity";
+	static final String ENTITY_ANNOTATION = "javax.persistence.Entity";
 	private static AgentLogger LOGGER = AgentLogger.getLogger(HibernatePlugin.class);
 
 	@Init
@@ -36,15 +48,18 @@ public class HibernatePlugin {
 	@Init
 	ClassLoader appClassLoader;
 
+	@Init
+	PluginConfiguration pluginConfiguration;
+
+	@Init
+	HotswapTransformer hotswapTransformer;
+
 	Set<Object> regAnnotatedMetaDataProviders = Collections.newSetFromMap(new WeakHashMap<Object, Boolean>());
 
 	Set<Object> regBeanMetaDataManagers = Collections.newSetFromMap(new WeakHashMap<Object, Boolean>());
 
-	// refresh commands
-	Command reloadEntityManagerFactoryCommand = new ReflectionCommand(this, HibernateRefreshCommands.class.getName(),
-			"reloadEntityManagerFactory");
-	Command reloadSessionFactoryCommand = new ReflectionCommand(this, HibernateRefreshCommands.class.getName(),
-			"reloadSessionFactory");
+	// entity class name -> mapping signature of the loaded version (only in incremental refresh mode)
+	Map<String, String> entityMappings = new ConcurrentHashMap<String, String>();
 
 	private Command invalidateHibernateValidatorCaches = new Command() {
 		@Override
@@ -76,6 +91,12 @@ public class HibernatePlugin {
 	// is EJB3 or plain hibernate
 	boolean hibernateEjb;
 
+	// rebuild only if entity mapping changed
+	boolean incrementalRefresh;
+
+	// classloader of EntityManagerFactoryProxy holding proxies of this application
+	ClassLoader proxyClassLoader;
+
 	/**
 	 * Plugin initialization properties (from HibernatePersistenceHelper or
 	 * SessionFactoryProxy)
@@ -83,6 +104,31 @@ public class HibernatePlugin {
 	public void init(String version, Boolean hibernateEjb) {
 		LOGGER.info("Hibernate plugin initialized - Hibernate Core version '{}'", version);
 		this.hibernateEjb = hibernateEjb;
+		if (!incrementalRefresh && "true".equals(pluginConfiguration.getProperty("hibernate.incrementalRefresh"))) {
+			LOGGER.debug("Hibernate incremental refresh - reload only on entity mapping change.");
+			incrementalRefresh = true;
+			registerEntityMappingTransformer();
+		}
+	}
+
+	/**
+	 * Remember mapping signature of a loaded entity to compare it on redefinition. Registered only in
+	 * incremental refresh mode - class definitions are not dispatched to this plugin otherwise.
+	 */
+	private void registerEntityMappingTransformer() {
+		hotswapTransformer.registerTransformer(appClassLoader, ".*", new ClassFileTransformer() {
+			@Override
+			public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+					ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
+				if (classBeingRedefined == null && className != null) {
+					String name = className.replace('/', '.');
+					if (AnnotationIndex.hasAnnotation(loader, name, ENTITY_ANNOTATION)) {
+						isMappingChanged(name, classfileBuffer);
+					}
+				}
+				return classfileBuffer;
+			}
+		});
 	}
 
 	/**
@@ -90,12 +136,14 @@ public class HibernatePlugin {
 	 * removal.
 	 */
 	@OnClassLoadEvent(classNameRegexp = ".*", events = LoadEvent.REDEFINE)
-	public void entityReload(CtClass clazz, Class<?> original) {
-		// TODO list of entity/resource files is known to hibernate, better to
-		// check this list
-		if (AnnotationHelper.hasAnnotation(original, ENTITY_ANNOTATION) || AnnotationHelper.hasAnnotation(clazz, ENTITY_ANNOTATION)) {
-			LOGGER.debug("Entity reload class {}, original classloader {}", clazz.getName(), original.getClassLoader());
-			refresh(100);
+	public void entityReload(Class<?> original, byte[] bytes) {
+		if (AnnotationIndex.hasOrHadAnnotation(original, bytes, ENTITY_ANNOTATION)) {
+			if (incrementalRefresh && !isMappingChanged(original.getName(), bytes)) {
+				LOGGER.reload("Entity {} mapping not changed, Hibernate configuration reload skipped.", original.getName());
+				return;
+			}
+			LOGGER.debug("Entity reload class {}, original classloader {}", original.getName(), original.getClassLoader());
+			refresh(100, original.getName());
 		}
 	}
 
@@ -109,7 +157,7 @@ public class HibernatePlugin {
 	@OnClassFileEvent(classNameRegexp = ".*", events = { FileEvent.CREATE })
 	public void newEntity(CtClass clazz) throws Exception {
 		if (AnnotationHelper.hasAnnotation(clazz, ENTITY_ANNOTATION)) {
-			refresh(500);
+			refresh(500, clazz.getName());
 		}
 	}
 
@@ -123,11 +171,35 @@ public class HibernatePlugin {
 	// reload the configuration - schedule a command to run in the application
 	// classloader and merge
 	// duplicate commands.
-	private void refresh(int timeout) {
-		if (hibernateEjb)
-			scheduler.scheduleCommand(reloadEntityManagerFactoryCommand, timeout);
-		else
-			scheduler.scheduleCommand(reloadSessionFactoryCommand, timeout);
+	private void refresh(int timeout, String entityClassName) {
+		scheduler.scheduleCommand(new HibernateReloadCommand(appClassLoader, hibernateEjb, entityClassName), timeout);
+	}
+
+	// store new mapping signature of the entity and compare with the previous one (unknown is changed)
+	private boolean isMappingChanged(String className, byte[] bytes) {
+		String signature;
+		try {
+			signature = EntityMappingHelper.getMappingSignature(bytes);
+		} catch (IOException e) {
+			LOGGER.debug("Unable to resolve mapping of entity {}.", e, className);
+			entityMappings.remove(className);
+			return true;
+		}
+		String previous = entityMappings.put(className, signature);
+		return !signature.equals(previous);
+	}
+
+	/**
+	 * Classloader of EntityManagerFactoryProxy which registered a proxy of this application (from
+	 * HibernatePersistenceHelper). If Hibernate is loaded by a shared classloader, proxies are registered
+	 * in its copy of plugin classes, not in the copy of the application classloader.
+	 */
+	public void registerProxyClassLoader(ClassLoader proxyClassLoader) {
+		this.proxyClassLoader = proxyClassLoader;
+	}
+
+	public ClassLoader getProxyClassLoader() {
+		return proxyClassLoader;
 	}
 
 	public void registerAnnotationMetaDataProvider(Object annotatedMetaDataProvider) {
@@ -1,8 +1,13 @@
 package org.hotswap.agent.plugin.hibernate;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.plugin.hibernate.proxy.EntityManagerFactoryProxy;
 import org.hotswap.agent.plugin.hibernate.proxy.SessionFactoryProxy;
+import org.hotswap.agent.util.PluginManagerInvoker;
 
 
 /**
@@ -23,16 +28,60 @@ public class HibernateRefreshCommands {
     public static boolean reloadFlag = false;
 
     public static void reloadEntityManagerFactory() {
-        LOGGER.debug("Refreshing hibernate configuration.");
-        EntityManagerFactoryProxy.refreshProxiedFactories();
-        LOGGER.reload("Hibernate EntityMangerFactory configuration refreshed.");
+        reloadEntityManagerFactory(new String[0]);
+    }
+
+    /**
+     * Rebuild entity manager factories after entity change.
+     *
+     * @param changedEntities entity classes changed in this batch, only persistence units managing them are rebuilt
+     */
+    public static void reloadEntityManagerFactory(String[] changedEntities) {
+        LOGGER.debug("Refreshing hibernate configuration, changed entities {}.", Arrays.toString(changedEntities));
+        long start = System.currentTimeMillis();
+        int refreshed = refreshProxiedFactories(Thread.currentThread().getContextClassLoader(),
+                new HashSet<String>(Arrays.asList(changedEntities)));
+        LOGGER.reload("Hibernate EntityMangerFactory configuration refreshed in {}ms ({} persistence units, {} changed entities).",
+                System.currentTimeMillis() - start, refreshed, changedEntities.length);
         reloadFlag = false;
     }
 
+    /**
+     * Refresh proxies in the copy of EntityManagerFactoryProxy which registered them. Hibernate may be loaded
+     * by a shared classloader with its own copy of plugin classes, while this class runs in the application classloader.
+     */
+    private static int refreshProxiedFactories(ClassLoader appClassLoader, Set<String> changedEntities) {
+        ClassLoader proxyClassLoader = (ClassLoader) PluginManagerInvoker.callPluginMethod(HibernatePlugin.class,
+                appClassLoader, "getProxyClassLoader", new Class[0], new Object[0]);
+        if (proxyClassLoader == null || proxyClassLoader == EntityManagerFactoryProxy.class.getClassLoader()) {
+            return EntityManagerFactoryProxy.refreshProxiedFactories(appClassLoader, changedEntities);
+        }
+
+        try {
+            Class<?> proxyClass = proxyClassLoader.loadClass(EntityManagerFactoryProxy.class.getName());
+            return (Integer) proxyClass.getMethod("refreshProxiedFactories", ClassLoader.class, Set.class)
+                    .invoke(null, appClassLoader, changedEntities);
+        } catch (Exception e) {
+            LOGGER.error("Unable to refresh persistence units registered in classloader {}", e, proxyClassLoader);
+            return 0;
+        }
+    }
+
     public static void reloadSessionFactory() {
-        LOGGER.debug("Refreshing SessionFactory configuration.");
+        reloadSessionFactory(new String[0]);
+    }
+
+    /**
+     * Rebuild session factories after entity change.
+     *
+     * @param changedEntities entity classes changed in this batch (for the log)
+     */
+    public static void reloadSessionFactory(String[] changedEntities) {
+        LOGGER.debug("Refreshing SessionFactory configuration, changed entities {}.", Arrays.toString(changedEntities));
+        long start = System.currentTimeMillis();
         SessionFactoryProxy.refreshProxiedFactories();
-        LOGGER.reload("Hibernate SessionFactory configuration refreshed.");
+        LOGGER.reload("Hibernate SessionFactory configuration refreshed in {}ms ({} changed entities).",
+                System.currentTimeMillis() - start, changedEntities.length);
         reloadFlag = false;
     }
 }
@@ -0,0 +1,71 @@
+package org.hotswap.agent.plugin.hibernate;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.hotswap.agent.command.Command;
+import org.hotswap.agent.command.MergeableCommand;
+import org.hotswap.agent.command.ReflectionCommand;
+
+/**
+ * Reload EntityManagerFactory / SessionFactory after entity change. Commands scheduled within the
+ * timeout are merged, the reload is executed once with all changed entity classes of the batch.
+ *
+ * @see HibernateRefreshCommands
+ */
+public class HibernateReloadCommand extends MergeableCommand {
+
+	private final ClassLoader appClassLoader;
+
+	// is EJB3 or plain hibernate
+	private final boolean hibernateEjb;
+
+	// changed entity classes of this batch
+	private final Set<String> entityClassNames = new LinkedHashSet<String>();
+
+	public HibernateReloadCommand(ClassLoader appClassLoader, boolean hibernateEjb, String entityClassName) {
+		this.appClassLoader = appClassLoader;
+		this.hibernateEjb = hibernateEjb;
+		entityClassNames.add(entityClassName);
+	}
+
+	@Override
+	public Command merge(Command other) {
+		if (other instanceof HibernateReloadCommand) {
+			entityClassNames.addAll(((HibernateReloadCommand) other).entityClassNames);
+		}
+		return super.merge(other);
+	}
+
+	public Set<String> getEntityClassNames() {
+		return entityClassNames;
+	}
+
+	@Override
+	public void executeCommand() {
+		String[] changed = entityClassNames.toArray(new String[entityClassNames.size()]);
+		new ReflectionCommand(null, HibernateRefreshCommands.class.getName(),
+				hibernateEjb ? "reloadEntityManagerFactory" : "reloadSessionFactory", appClassLoader,
+				(Object) changed).executeCommand();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		HibernateReloadCommand that = (HibernateReloadCommand) o;
+
+		return hibernateEjb == that.hibernateEjb && appClassLoader.equals(that.appClassLoader);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * appClassLoader.hashCode() + (hibernateEjb ? 1 : 0);
+	}
+
+	@Override
+	public String toString() {
+		return "HibernateReloadCommand{" + "appClassLoader=" + appClassLoader + ", entities=" + entityClassNames + '}';
+	}
+}
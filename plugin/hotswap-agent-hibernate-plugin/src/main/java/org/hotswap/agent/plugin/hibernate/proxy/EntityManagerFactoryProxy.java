@@ -1,15 +1,37 @@
 package org.hotswap.agent.plugin.hibernate.proxy;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
 import javax.persistence.spi.PersistenceUnitInfo;
 
 import org.hibernate.Version;
@@ -20,18 +42,38 @@ import org.hotswap.agent.util.ReflectionHelper;
  * Create a proxy for EntityManagerFactory and register all created proxies.
  * Provide static method to reload a proxied factory.
  * <p/>
+ * Proxy calls are not synchronized - the current factory is read from a volatile field. On reload a new
+ * factory is built aside while the previous one still serves calls, then it is swapped in. EntityManagers
+ * are counted per factory (close is intercepted by a thin proxy), the previous factory is closed as soon
+ * as all EntityManagers created before the reload are closed (or when the proxy is closed).
+ * <p/>
+ * Proxies are registered per classloader and persistence unit name. On reload only persistence units managing
+ * a changed entity class are rebuilt, independent units concurrently.
+ * <p/>
  * This class must run in App classloader.
  *
  * @author Jiri Bubnik
  */
 public class EntityManagerFactoryProxy {
     private static AgentLogger LOGGER = AgentLogger.getLogger(EntityManagerFactoryProxy.class);
-    // Map persistenceUnitName -> Wrapper instance
-    private static Map<String, EntityManagerFactoryProxy> proxiedFactories = new HashMap<String, EntityManagerFactoryProxy>();
-    // hold lock during refresh. The lock is checked on each factory method call.
+    // Map classloader -> persistenceUnitName -> Wrapper instance, the wrapper is removed when the proxy is closed
+    private static final ConcurrentMap<ClassLoader, ConcurrentMap<String, EntityManagerFactoryProxy>> proxiedFactories =
+            new ConcurrentHashMap<ClassLoader, ConcurrentMap<String, EntityManagerFactoryProxy>>();
+    // method handles of proxied interface methods with (Object target, Object[] args) signature
+    private static final Map<Method, MethodHandle> methodHandles = new ConcurrentHashMap<Method, MethodHandle>();
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+    private static final Object[] NO_ARGS = new Object[0];
+
+    // hold lock during refresh - only one refresh of the factory at a time, proxy calls are not locked
     final Object reloadLock = new Object();
     // current entity manager factory instance - this is the target this proxy delegates to
-    EntityManagerFactory currentInstance;
+    volatile TrackedFactory current;
+    // factories replaced by a reload, still open for their entity managers
+    final Set<TrackedFactory> retired = Collections.newSetFromMap(new ConcurrentHashMap<TrackedFactory, Boolean>());
+    // class names of entities, embeddables and mapped superclasses of the current factory, null if unknown
+    volatile Set<String> managedClassNames;
+    // application classloader of the registered wrapper
+    ClassLoader classLoader;
     // info and properties to use to build fresh instance of factory
     String persistenceUnitName;
     PersistenceUnitInfo info;
@@ -40,66 +82,214 @@ public class EntityManagerFactoryProxy {
     // builder object to create properties
     Object builder;
 
+    /**
+     * Factory with count of its open entity managers plus one reference of the proxy while the factory is current.
+     * The factory is closed when the count drops to zero, it cannot be acquired anymore.
+     */
+    static class TrackedFactory {
+        final EntityManagerFactory factory;
+        final AtomicInteger references = new AtomicInteger(1);
+
+        TrackedFactory(EntityManagerFactory factory) {
+            this.factory = factory;
+        }
+
+        // false if all references were already released
+        boolean acquire() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        // true if this was the last reference
+        boolean release() {
+            return references.decrementAndGet() == 0;
+        }
+    }
+
     /**
      * Create new wrapper for persistenceUnitName and hold it's instance for future use.
      *
+     * @param classLoader         application classloader of the persistence unit
      * @param persistenceUnitName key to the wrapper
      * @return existing wrapper or new instance (never null)
      */
-    public static EntityManagerFactoryProxy getWrapper(String persistenceUnitName) {
-        if (!proxiedFactories.containsKey(persistenceUnitName)) {
-            proxiedFactories.put(persistenceUnitName, new EntityManagerFactoryProxy());
+    public static EntityManagerFactoryProxy getWrapper(ClassLoader classLoader, String persistenceUnitName) {
+        ConcurrentMap<String, EntityManagerFactoryProxy> wrappers = proxiedFactories.get(classLoader);
+        if (wrappers == null) {
+            ConcurrentMap<String, EntityManagerFactoryProxy> created = new ConcurrentHashMap<String, EntityManagerFactoryProxy>();
+            wrappers = proxiedFactories.putIfAbsent(classLoader, created);
+            if (wrappers == null) {
+                wrappers = created;
+            }
+        }
+
+        EntityManagerFactoryProxy wrapper = wrappers.get(persistenceUnitName);
+        if (wrapper == null) {
+            EntityManagerFactoryProxy created = new EntityManagerFactoryProxy();
+            created.classLoader = classLoader;
+            wrapper = wrappers.putIfAbsent(persistenceUnitName, created);
+            if (wrapper == null) {
+                wrapper = created;
+            }
         }
-        return proxiedFactories.get(persistenceUnitName);
+        return wrapper;
+    }
+
+    /**
+     * Check if the persistence unit is already proxied - factory created by reload should not be proxied again.
+     */
+    public static boolean isProxied(ClassLoader classLoader, String persistenceUnitName) {
+        Map<String, EntityManagerFactoryProxy> wrappers = proxiedFactories.get(classLoader);
+        EntityManagerFactoryProxy wrapper = wrappers != null ? wrappers.get(persistenceUnitName) : null;
+        return wrapper != null && wrapper.current != null;
     }
 
     /**
-     * Refresh all known wrapped factories.
+     * Refresh wrapped factories affected by changed entity classes. If more factories are affected, they are
+     * rebuilt concurrently on a pool bounded by number of processors.
+     *
+     * @param classLoader     application classloader of the factories, factories of other applications are not refreshed
+     * @param changedEntities changed entity classes, empty to refresh all factories of the classloader
+     * @return number of refreshed factories
      */
-    public static void refreshProxiedFactories() {
+    public static int refreshProxiedFactories(ClassLoader classLoader, Set<String> changedEntities) {
+        Map<String, EntityManagerFactoryProxy> wrappers = classLoader != null ? proxiedFactories.get(classLoader) : null;
+        if (wrappers == null) {
+            LOGGER.debug("No persistence unit registered for classloader {}, nothing to refresh.", classLoader);
+            return 0;
+        }
+
+        List<EntityManagerFactoryProxy> affected = getAffected(wrappers.values(), changedEntities);
+        boolean version43OrGreater = isVersion43OrGreater();
+        if (affected.size() == 1) {
+            affected.get(0).refresh(version43OrGreater);
+        } else if (affected.size() > 1) {
+            refreshConcurrently(affected, version43OrGreater);
+        }
+        return affected.size();
+    }
+
+    /**
+     * Wrappers whose factory manages any of changed entity classes. All wrappers are affected if a changed class
+     * is not managed by any factory (new entity) or the changed classes are unknown.
+     */
+    static List<EntityManagerFactoryProxy> getAffected(Collection<EntityManagerFactoryProxy> wrappers,
+                                                       Set<String> changedEntities) {
+        if (changedEntities.isEmpty()) {
+            return new ArrayList<EntityManagerFactoryProxy>(wrappers);
+        }
+
+        List<EntityManagerFactoryProxy> affected = new ArrayList<EntityManagerFactoryProxy>();
+        Set<String> unmanaged = new HashSet<String>(changedEntities);
+        for (EntityManagerFactoryProxy wrapper : wrappers) {
+            Set<String> managed = wrapper.managedClassNames;
+            if (managed == null || !Collections.disjoint(managed, changedEntities)) {
+                affected.add(wrapper);
+            }
+            if (managed != null) {
+                unmanaged.removeAll(managed);
+            }
+        }
+
+        if (!unmanaged.isEmpty()) {
+            LOGGER.debug("Entities {} not managed by any persistence unit, refreshing all.", unmanaged);
+            return new ArrayList<EntityManagerFactoryProxy>(wrappers);
+        }
+        return affected;
+    }
+
+    private static boolean isVersion43OrGreater() {
         String[] version = Version.getVersionString().split("\\.");
-        boolean version43OrGreater = false;
         try {
-            version43OrGreater = Integer.valueOf(version[0]) >= 4 && Integer.valueOf(version[1]) >= 3;
+            return Integer.valueOf(version[0]) >= 4 && Integer.valueOf(version[1]) >= 3;
         } catch (Exception e) {
             LOGGER.warning("Unable to resolve hibernate version '{}'", Arrays.toString(version));
+            return false;
         }
+    }
 
-        for (EntityManagerFactoryProxy wrapper : proxiedFactories.values()) {
-            String persistenceClassName = wrapper.properties == null ? null :
-                    (String) wrapper.properties.get("PERSISTENCE_CLASS_NAME");
+    // refresh on a new pool - threads do not outlive the refresh and keep context classloader of the command
+    private static void refreshConcurrently(List<EntityManagerFactoryProxy> wrappers, final boolean version43OrGreater) {
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        int threads = Math.min(wrappers.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            final AtomicInteger counter = new AtomicInteger();
 
-            try {
-                // lock proxy execution during reload
-                synchronized (wrapper.reloadLock) {
-                    if ("org.springframework.orm.jpa.vendor.SpringHibernateJpaPersistenceProvider".equals(persistenceClassName)) {
-                        wrapper.refreshProxiedFactorySpring();
-                    } else if (version43OrGreater) {
-                        wrapper.refreshProxiedFactoryVersion43OrGreater();
-                    } else {
-                        wrapper.refreshProxiedFactory();
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "HotSwap Hibernate Refresh-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setContextClassLoader(contextClassLoader);
+                return thread;
+            }
+        });
+
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final EntityManagerFactoryProxy wrapper : wrappers) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        wrapper.refresh(version43OrGreater);
                     }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    LOGGER.error("Unable to reload persistence unit.", e.getCause());
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // rebuild the factory of this wrapper
+    void refresh(boolean version43OrGreater) {
+        String persistenceClassName = properties == null ? null :
+                (String) properties.get("PERSISTENCE_CLASS_NAME");
+
+        try {
+            long start = System.currentTimeMillis();
+            // new factory is built while the current one serves calls
+            synchronized (reloadLock) {
+                if ("org.springframework.orm.jpa.vendor.SpringHibernateJpaPersistenceProvider".equals(persistenceClassName)) {
+                    refreshProxiedFactorySpring();
+                } else if (version43OrGreater) {
+                    refreshProxiedFactoryVersion43OrGreater();
+                } else {
+                    refreshProxiedFactory();
+                }
+            }
+            LOGGER.debug("Persistence unit {} rebuilt in {}ms.", persistenceUnitName, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            LOGGER.error("Unable to reload persistence unit {}", e, persistenceUnitName);
         }
     }
 
     private void refreshProxiedFactorySpring() {
         try {
-            currentInstance = (EntityManagerFactory) ReflectionHelper.invoke(builder, builder.getClass(),
+            swap((EntityManagerFactory) ReflectionHelper.invoke(builder, builder.getClass(),
                     "createContainerEntityManagerFactory",
-                    new Class[]{PersistenceUnitInfo.class, Map.class}, info, properties);
+                    new Class[]{PersistenceUnitInfo.class, Map.class}, info, properties));
         } catch (Exception e) {
-            e.printStackTrace();
-            LOGGER.error("Unable to reload persistence unit {}", info, e);
+            LOGGER.error("Unable to reload persistence unit {}", e, persistenceUnitName);
         }
     }
 
     public void refreshProxiedFactoryVersion43OrGreater() {
         if (info == null) {
-            currentInstance = Persistence.createEntityManagerFactory(persistenceUnitName, properties);
+            swap(Persistence.createEntityManagerFactory(persistenceUnitName, properties));
         } else {
             try {
                 Class<?> bootstrapClazz = loadClass("org.hibernate.jpa.boot.spi.Bootstrap");
@@ -108,11 +298,10 @@ public class EntityManagerFactoryProxy {
                 Object builder = ReflectionHelper.invoke(null, bootstrapClazz, "getEntityManagerFactoryBuilder",
                         new Class[]{PersistenceUnitInfo.class, Map.class}, info, properties);
 
-                currentInstance = (EntityManagerFactory) ReflectionHelper.invoke(builder, builderClazz, "build",
-                        new Class[]{});
+                swap((EntityManagerFactory) ReflectionHelper.invoke(builder, builderClazz, "build",
+                        new Class[]{}));
             } catch (Exception e) {
-                e.printStackTrace();
-                LOGGER.error("Unable to reload persistence unit {}", info, e);
+                LOGGER.error("Unable to reload persistence unit {}", e, persistenceUnitName);
             }
         }
     }
@@ -126,7 +315,7 @@ public class EntityManagerFactoryProxy {
             Class<?> entityManagerFactoryRegistryClazz = loadClass("org.hibernate.ejb.internal.EntityManagerFactoryRegistry");
             Object instance = ReflectionHelper.get(null, entityManagerFactoryRegistryClazz, "INSTANCE");
             ReflectionHelper.invoke(instance, entityManagerFactoryRegistryClazz, "removeEntityManagerFactory",
-                    new Class[] {String.class, EntityManagerFactory.class}, persistenceUnitName, currentInstance);
+                    new Class[] {String.class, EntityManagerFactory.class}, persistenceUnitName, current.factory);
         } catch (Exception e) {
             LOGGER.error("Unable to clear previous instance of entity manager factory");
         }
@@ -155,12 +344,89 @@ public class EntityManagerFactoryProxy {
             }
 
             LOGGER.trace("configured.buildEntityManagerFactory()");
-            currentInstance = (EntityManagerFactory) ReflectionHelper.invoke(cfg, ejb3ConfigurationClazz, "buildEntityManagerFactory",
-                    new Class[]{});
+            swap((EntityManagerFactory) ReflectionHelper.invoke(cfg, ejb3ConfigurationClazz, "buildEntityManagerFactory",
+                    new Class[]{}));
 
 
         } catch (Exception e) {
-            LOGGER.error("Unable to build fresh entity manager factory for persistence unit {}", persistenceUnitName);
+            LOGGER.error("Unable to build fresh entity manager factory for persistence unit {}", e, persistenceUnitName);
+        }
+    }
+
+    /**
+     * Replace current factory with a freshly built one. The previous factory stays open until entity managers
+     * created before are closed.
+     */
+    void swap(EntityManagerFactory factory) {
+        if (factory == null) {
+            return;
+        }
+        TrackedFactory previous;
+        synchronized (reloadLock) {
+            previous = current;
+            current = new TrackedFactory(factory);
+            managedClassNames = resolveManagedClassNames(factory);
+        }
+        if (previous != null) {
+            retired.add(previous);
+            release(previous);
+        }
+    }
+
+    // release a reference of the factory, close retired factory without entity managers
+    private void release(TrackedFactory factory) {
+        if (factory.release() && retired.remove(factory)) {
+            close(factory.factory);
+        }
+    }
+
+    // close all retired factories, their entity managers cannot be used anymore
+    private void closeRetired() {
+        for (TrackedFactory factory : retired) {
+            if (retired.remove(factory)) {
+                close(factory.factory);
+            }
+        }
+    }
+
+    private static void close(EntityManagerFactory factory) {
+        try {
+            if (factory.isOpen()) {
+                factory.close();
+            }
+        } catch (Exception e) {
+            LOGGER.warning("Unable to close previous entity manager factory {}", e, factory);
+        }
+    }
+
+    // managed types from JPA metamodel, null if not available (e.g. metamodel generation disabled)
+    static Set<String> resolveManagedClassNames(EntityManagerFactory factory) {
+        try {
+            Metamodel metamodel = factory.getMetamodel();
+            if (metamodel == null) {
+                return null;
+            }
+            Set<String> classNames = new HashSet<String>();
+            for (ManagedType<?> type : metamodel.getManagedTypes()) {
+                if (type.getJavaType() != null) {
+                    classNames.add(type.getJavaType().getName());
+                }
+            }
+            return classNames.isEmpty() ? null : classNames;
+        } catch (RuntimeException e) {
+            LOGGER.debug("Unable to resolve managed classes of factory {}.", e, factory);
+            return null;
+        }
+    }
+
+    // remove closed factory from the registry
+    private void unregister() {
+        ConcurrentMap<String, EntityManagerFactoryProxy> wrappers = classLoader != null ? proxiedFactories.get(classLoader) : null;
+        if (wrappers != null) {
+            wrappers.remove(persistenceUnitName, this);
+            if (wrappers.isEmpty()) {
+                proxiedFactories.remove(classLoader, wrappers);
+            }
         }
     }
 
@@ -176,24 +442,108 @@ public class EntityManagerFactoryProxy {
     public EntityManagerFactory proxy(Object builder, EntityManagerFactory factory, String persistenceUnitName,
                                       PersistenceUnitInfo info, Map<?,?> properties) {
         this.builder = builder;
-        this.currentInstance = factory;
+        this.current = new TrackedFactory(factory);
+        this.managedClassNames = resolveManagedClassNames(factory);
         this.persistenceUnitName = persistenceUnitName;
         this.info = info;
         this.properties = properties;
 
         return (EntityManagerFactory) Proxy.newProxyInstance(
-                currentInstance.getClass().getClassLoader(), currentInstance.getClass().getInterfaces(),
+                factory.getClass().getClassLoader(), factory.getClass().getInterfaces(),
                 new InvocationHandler() {
                     @Override
                     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-                        // if reload in progress, wait for it
-                        synchronized (reloadLock) {}
+                        if (method.getName().equals("createEntityManager")) {
+                            return createEntityManager(method, args);
+                        }
+                        Object result = invokeMethod(method, current.factory, args);
+                        if (method.getName().equals("close") && method.getParameterTypes().length == 0) {
+                            closeRetired();
+                            unregister();
+                        }
+                        return result;
+                    }
+                });
+    }
 
-                        return method.invoke(currentInstance, args);
+    // create entity manager by the current factory and count it until closed
+    private Object createEntityManager(Method method, Object[] args) throws Throwable {
+        TrackedFactory factory = current;
+        while (!factory.acquire()) {
+            // retired and closed meanwhile, the new factory is already current
+            factory = current;
+        }
+        try {
+            EntityManager entityManager = (EntityManager) invokeMethod(method, factory.factory, args);
+            return entityManager != null ? track(entityManager, factory) : null;
+        } catch (Throwable e) {
+            release(factory);
+            throw e;
+        }
+    }
+
+    /**
+     * Proxy of the entity manager releasing the factory on first close. Equality is identity of the proxy,
+     * other calls are delegated as is.
+     */
+    private EntityManager track(final EntityManager entityManager, final TrackedFactory factory) {
+        final AtomicBoolean closed = new AtomicBoolean();
+        return (EntityManager) Proxy.newProxyInstance(entityManager.getClass().getClassLoader(),
+                getPublicInterfaces(entityManager.getClass()),
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if (args == null) {
+                            if (name.equals("hashCode")) {
+                                return System.identityHashCode(proxy);
+                            }
+                        } else if (args.length == 1 && name.equals("equals") && method.getParameterTypes()[0] == Object.class) {
+                            return proxy == args[0];
+                        }
+                        Object result = invokeMethod(method, entityManager, args);
+                        if (args == null && name.equals("close") && closed.compareAndSet(false, true)) {
+                            release(factory);
+                        }
+                        return result;
                     }
                 });
     }
 
+    // all public interfaces of the class and its superclasses (e.g. Hibernate Session)
+    private static Class<?>[] getPublicInterfaces(Class<?> clazz) {
+        Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces()) {
+                if (Modifier.isPublic(i.getModifiers())) {
+                    interfaces.add(i);
+                }
+            }
+        }
+        interfaces.add(EntityManager.class);
+        return interfaces.toArray(new Class<?>[interfaces.size()]);
+    }
+
+    // call the method on target via cached method handle, exceptions are thrown as is
+    static Object invokeMethod(Method method, Object target, Object[] args) throws Throwable {
+        MethodHandle handle = methodHandles.get(method);
+        if (handle == null) {
+            MethodHandle unreflected;
+            try {
+                unreflected = MethodHandles.publicLookup().unreflect(method);
+            } catch (IllegalAccessException e) {
+                // method of a non public interface
+                method.setAccessible(true);
+                unreflected = MethodHandles.publicLookup().unreflect(method);
+            }
+            handle = unreflected.asSpreader(Object[].class, method.getParameterTypes().length).asType(INVOKER_TYPE);
+            methodHandles.put(method, handle);
+        }
+        // call site type must be exactly (Object, Object[])Object
+        Object[] arguments = args != null ? args : NO_ARGS;
+        return handle.invokeExact(target, arguments);
+    }
+
     private Class<?> loadClass(String name) throws ClassNotFoundException {
         return getClass().getClassLoader().loadClass(name);
     }
@@ -55,7 +55,7 @@ public class SessionFactoryProxy {
     }
 
     private Configuration configuration;
-    private SessionFactory currentInstance;
+    private volatile SessionFactory currentInstance;
 
     public SessionFactory proxy(SessionFactory sessionFactory) {
         this.currentInstance = sessionFactory;
@@ -0,0 +1,54 @@
+package org.hotswap.agent.plugin.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.ByteArrayInputStream;
+
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.javassist.CtClass;
+import org.hotswap.agent.javassist.CtField;
+import org.hotswap.agent.javassist.bytecode.AnnotationsAttribute;
+import org.hotswap.agent.javassist.bytecode.annotation.Annotation;
+import org.hotswap.agent.plugin.hibernate.testEntities.TestEntity;
+import org.junit.Test;
+
+/**
+ * Mapping signature is changed by mapping relevant changes only.
+ */
+public class EntityMappingHelperTest {
+
+    @Test
+    public void testMethodBodyChange() throws Exception {
+        CtClass entity = loadEntity();
+        String original = EntityMappingHelper.getMappingSignature(entity.toBytecode());
+
+        entity = loadEntity();
+        entity.getDeclaredMethod("getName").setBody("{ return name != null ? name.trim() : null; }");
+
+        assertEquals(original, EntityMappingHelper.getMappingSignature(entity.toBytecode()));
+    }
+
+    @Test
+    public void testMappingChange() throws Exception {
+        CtClass entity = loadEntity();
+        String original = EntityMappingHelper.getMappingSignature(entity.toBytecode());
+
+        entity = loadEntity();
+        entity.addField(CtField.make("private String note;", entity));
+        assertNotEquals(original, EntityMappingHelper.getMappingSignature(entity.toBytecode()));
+
+        entity = loadEntity();
+        AnnotationsAttribute annotations = (AnnotationsAttribute) entity.getClassFile()
+                .getAttribute(AnnotationsAttribute.visibleTag);
+        annotations.addAnnotation(new Annotation("javax.persistence.Cacheable", entity.getClassFile().getConstPool()));
+        assertNotEquals(original, EntityMappingHelper.getMappingSignature(entity.toBytecode()));
+    }
+
+    // fresh copy of TestEntity class file
+    private CtClass loadEntity() throws Exception {
+        ClassPool classPool = new ClassPool(true);
+        byte[] bytes = classPool.get(TestEntity.class.getName()).toBytecode();
+        return new ClassPool(true).makeClass(new ByteArrayInputStream(bytes));
+    }
+}
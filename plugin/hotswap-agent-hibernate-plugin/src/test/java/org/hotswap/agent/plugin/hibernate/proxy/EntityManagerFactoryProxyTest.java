@@ -0,0 +1,178 @@
+package org.hotswap.agent.plugin.hibernate.proxy;
+
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Factory swap and close of the previous factory when its entity managers are closed, registry of proxies
+ * and selection of persistence units affected by a change.
+ */
+public class EntityManagerFactoryProxyTest {
+
+    static class FactoryStub implements InvocationHandler {
+        final String name;
+        boolean open = true;
+        final List<String> calls = new ArrayList<String>();
+        EntityManager entityManager;
+
+        FactoryStub(String name) {
+            this.name = name;
+        }
+
+        EntityManagerFactory create() {
+            return (EntityManagerFactory) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[]{EntityManagerFactory.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            calls.add(method.getName());
+            if (method.getName().equals("createEntityManager")) {
+                entityManager = (EntityManager) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{EntityManager.class},
+                        new InvocationHandler() {
+                            @Override
+                            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                                return method.getName().equals("isOpen") ? Boolean.TRUE : null;
+                            }
+                        });
+                return entityManager;
+            } else if (method.getName().equals("isOpen")) {
+                return open;
+            } else if (method.getName().equals("close")) {
+                open = false;
+            } else if (method.getName().equals("getProperties")) {
+                throw new IllegalStateException(name);
+            }
+            return null;
+        }
+    }
+
+    @Test
+    public void testSwap() throws Exception {
+        FactoryStub first = new FactoryStub("first");
+        FactoryStub second = new FactoryStub("second");
+        FactoryStub third = new FactoryStub("third");
+
+        EntityManagerFactoryProxy wrapper = new EntityManagerFactoryProxy();
+        EntityManagerFactory proxy = wrapper.proxy(null, first.create(), "test", null, null);
+
+        EntityManager entityManager = proxy.createEntityManager();
+        assertTrue(entityManager.isOpen());
+        // entity manager is tracked by a proxy with identity equality
+        assertNotSame(first.entityManager, entityManager);
+        assertTrue(entityManager.equals(entityManager));
+        assertFalse(entityManager.equals(first.entityManager));
+        assertEquals(System.identityHashCode(entityManager), entityManager.hashCode());
+
+        wrapper.swap(second.create());
+        EntityManager secondEntityManager = proxy.createEntityManager();
+        assertTrue("Previous factory open for entity managers created before reload", first.open);
+        // metamodel read on swap to resolve managed classes
+        assertEquals("New factory serves calls", Arrays.asList("getMetamodel", "createEntityManager"), second.calls);
+
+        // previous factory closed when its entity managers drain
+        entityManager.close();
+        entityManager.close();
+        assertFalse(first.open);
+        assertTrue(second.open);
+
+        wrapper.swap(third.create());
+        assertTrue(second.open);
+
+        proxy.close();
+        assertFalse("Retired factory closed with the proxy", second.open);
+        assertFalse(third.open);
+        secondEntityManager.close();
+    }
+
+    @Test
+    public void testSwapWithoutEntityManagers() throws Exception {
+        FactoryStub first = new FactoryStub("first");
+        FactoryStub second = new FactoryStub("second");
+
+        EntityManagerFactoryProxy wrapper = new EntityManagerFactoryProxy();
+        EntityManagerFactory proxy = wrapper.proxy(null, first.create(), "test", null, null);
+        proxy.createEntityManager().close();
+
+        wrapper.swap(second.create());
+        assertFalse("Previous factory closed immediately", first.open);
+        assertTrue(second.open);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testException() throws Exception {
+        EntityManagerFactoryProxy wrapper = new EntityManagerFactoryProxy();
+        EntityManagerFactory proxy = wrapper.proxy(null, new FactoryStub("first").create(), "test", null, null);
+
+        // thrown as is, not wrapped in InvocationTargetException
+        proxy.getProperties();
+    }
+
+    @Test
+    public void testRegistry() throws Exception {
+        ClassLoader classLoader = new URLClassLoader(new URL[0]);
+        ClassLoader otherClassLoader = new URLClassLoader(new URL[0]);
+
+        EntityManagerFactoryProxy wrapper = EntityManagerFactoryProxy.getWrapper(classLoader, "unit");
+        assertSame(wrapper, EntityManagerFactoryProxy.getWrapper(classLoader, "unit"));
+        assertNotSame(wrapper, EntityManagerFactoryProxy.getWrapper(otherClassLoader, "unit"));
+        assertFalse(EntityManagerFactoryProxy.isProxied(classLoader, "unit"));
+
+        EntityManagerFactory proxy = wrapper.proxy(null, new FactoryStub("first").create(), "unit", null, null);
+        assertTrue(EntityManagerFactoryProxy.isProxied(classLoader, "unit"));
+        assertFalse(EntityManagerFactoryProxy.isProxied(otherClassLoader, "unit"));
+        // factories of other applications are not refreshed
+        assertEquals(0, EntityManagerFactoryProxy.refreshProxiedFactories(
+                new URLClassLoader(new URL[0]), Collections.<String>emptySet()));
+
+        // closed by the application (e.g. undeploy)
+        proxy.close();
+        assertFalse(EntityManagerFactoryProxy.isProxied(classLoader, "unit"));
+        assertNotSame(wrapper, EntityManagerFactoryProxy.getWrapper(classLoader, "unit"));
+    }
+
+    @Test
+    public void testAffected() throws Exception {
+        EntityManagerFactoryProxy orders = wrapper("Order", "OrderItem");
+        EntityManagerFactoryProxy customers = wrapper("Customer");
+        EntityManagerFactoryProxy unknown = wrapper();
+        List<EntityManagerFactoryProxy> wrappers = Arrays.asList(orders, customers);
+
+        assertEquals(Arrays.asList(orders), EntityManagerFactoryProxy.getAffected(wrappers, set("OrderItem")));
+        assertEquals(wrappers, EntityManagerFactoryProxy.getAffected(wrappers, set("Order", "Customer")));
+        // new entity or unknown changes
+        assertEquals(wrappers, EntityManagerFactoryProxy.getAffected(wrappers, set("Product")));
+        assertEquals(wrappers, EntityManagerFactoryProxy.getAffected(wrappers, Collections.<String>emptySet()));
+        // managed classes not known
+        assertEquals(Arrays.asList(orders, unknown),
+                EntityManagerFactoryProxy.getAffected(Arrays.asList(orders, customers, unknown), set("Order")));
+    }
+
+    private static EntityManagerFactoryProxy wrapper(String... managedClassNames) {
+        EntityManagerFactoryProxy wrapper = new EntityManagerFactoryProxy();
+        wrapper.managedClassNames = managedClassNames.length > 0 ? set(managedClassNames) : null;
+        return wrapper;
+    }
+
+    private static HashSet<String> set(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+}
@@ -18,6 +18,7 @@ import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.plugin.hibernate3.jpa.HibernateJPARefreshCommands;
 import org.hotswap.agent.util.AnnotationHelper;
+import org.hotswap.agent.util.ClassModel;
 
 /**
  * Reload Hibernate configuration after entity create/change.
@@ -96,7 +97,7 @@ public class Hibernate3JPAPlugin {
 	 * removal.
 	 */
 	@OnClassLoadEvent(classNameRegexp = ".*", events = LoadEvent.REDEFINE)
-	public void entityReload(CtClass clazz, Class<?> original) {
+	public void entityReload(ClassModel clazz, Class<?> original) {
 		// TODO list of entity/resource files is known to hibernate, better to
 		// check this list
 		if (AnnotationHelper.hasAnnotation(original, ENTITY_ANNOTATION)
@@ -14,6 +14,7 @@ import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.util.AnnotationHelper;
+import org.hotswap.agent.util.AnnotationIndex;
 
 /**
  * Reload Hibernate configuration after entity create/change.
@@ -25,13 +26,14 @@ import org.hotswap.agent.util.AnnotationHelper;
         testedVersions = { "3.6" }, //
         expectedVersions = { "3.6" }, //
         supportClass = { Hibernate3Transformers.class }, //
+        indexedAnnotations = { Hibernate3Plugin.ENTITY_ANNOTATION }, //
         artifacts = { //
                 @Artifact(version = "[3.0.0,4.0.0)", id = "", vendor = ""), //
                 @Artifact(version = "[3.0.0,4.0.0)", id = "", vendor = "") //
         })
 
 public class Hibernate3Plugin {
-    private static final String ENTITY_ANNOTATION = "javax.persistence.Entity";
+    static final String ENTITY_ANNOTATION = "javax.persistence.Entity";
     private static AgentLogger LOGGER = AgentLogger.getLogger(Hibernate3Plugin.class);
 
     @Init
@@ -64,11 +66,9 @@ public class Hibernate3Plugin {
      * removal.
      */
     @OnClassLoadEvent(classNameRegexp = ".*", events = LoadEvent.REDEFINE)
-    public void entityReload(CtClass clazz, Class<?> original) {
-        // TODO list of entity/resource files is known to hibernate,
-        // better to check this list
-        if (AnnotationHelper.hasAnnotation(original, ENTITY_ANNOTATION) || AnnotationHelper.hasAnnotation(clazz, ENTITY_ANNOTATION)) {
-            LOGGER.debug("Entity reload class {}, original classloader {}", clazz.getName(), original.getClassLoader());
+    public void entityReload(Class<?> original, byte[] bytes) {
+        if (AnnotationIndex.hasOrHadAnnotation(original, bytes, ENTITY_ANNOTATION)) {
+            LOGGER.debug("Entity reload class {}, original classloader {}", original.getName(), original.getClassLoader());
             refresh(500);
         }
     }
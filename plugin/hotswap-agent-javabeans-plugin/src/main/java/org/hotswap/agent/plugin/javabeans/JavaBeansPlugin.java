@@ -3,8 +3,8 @@ package org.hotswap.agent.plugin.javabeans;
 import org.hotswap.agent.annotation.LoadEvent;
 import org.hotswap.agent.annotation.OnClassLoadEvent;
 import org.hotswap.agent.annotation.Plugin;
-import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.ClassModel;
 import org.hotswap.agent.util.ReflectionHelper;
 
 /**
@@ -29,11 +29,11 @@ public class JavaBeansPlugin {
     public static boolean reloadFlag;
 
     @OnClassLoadEvent(classNameRegexp = ".*", events = LoadEvent.REDEFINE)
-    public static void flushBeanIntrospectorsCaches(ClassLoader classLoader, CtClass ctClass) {
+    public static void flushBeanIntrospectorsCaches(ClassLoader classLoader, ClassModel clazz) {
         try {
-            LOGGER.debug("Flushing {}", ctClass.getName());
+            LOGGER.debug("Flushing {}", clazz.getName());
 
-            Class<?> clazz = classLoader.loadClass(ctClass.getName());
+            Class<?> reloaded = classLoader.loadClass(clazz.getName());
             Class<?> threadGroupCtxClass = classLoader.loadClass("java.beans.ThreadGroupContext");
             Class<?> introspectorClass = classLoader.loadClass("java.beans.Introspector");
 
@@ -50,7 +50,7 @@ public class JavaBeansPlugin {
                             if (threadGroupContext != null) {
                                 LOGGER.trace("Removing from threadGroupContext");
                                 ReflectionHelper.invoke(threadGroupContext, threadGroupCtxClass, "removeBeanInfo",
-                                        new Class[] { Class.class }, clazz);
+                                        new Class[] { Class.class }, reloaded);
                             }
                         }
                     }
@@ -58,7 +58,7 @@ public class JavaBeansPlugin {
 
                 LOGGER.trace("Removing class from declaredMethodCache.");
                 ReflectionHelper.invoke(declaredMethodCache, declaredMethodCache.getClass(), "put",
-                        new Class[] { Object.class, Object.class }, clazz, null);
+                        new Class[] { Object.class, Object.class }, reloaded, null);
             }
         } catch (Exception e) {
             LOGGER.error("classReload() exception {}.", e.getMessage());
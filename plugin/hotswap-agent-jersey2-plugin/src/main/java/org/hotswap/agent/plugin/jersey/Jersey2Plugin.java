@@ -19,13 +19,14 @@ import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.javassist.CtMethod;
 import org.hotswap.agent.javassist.NotFoundException;
 import org.hotswap.agent.logging.AgentLogger;
-import org.hotswap.agent.util.AnnotationHelper;
+import org.hotswap.agent.util.AnnotationIndex;
 import org.hotswap.agent.util.PluginManagerInvoker;
 
 @Plugin(name = "Jersey2",
         description = "Jersey2 framework plugin - this does not handle HK2 changes",
         testedVersions = {"2.10.1"},
-        expectedVersions = {"2.10.1"})
+        expectedVersions = {"2.10.1"},
+        indexedAnnotations = {"javax.ws.rs.Path"})
 public class Jersey2Plugin {
     private static AgentLogger LOGGER = AgentLogger.getLogger(Jersey2Plugin.class);
 
@@ -115,16 +116,13 @@ public class Jersey2Plugin {
 	 * the Jersey Application, or if was newly annotated and will be involved in configuring the application.
 	 */
     @OnClassLoadEvent(classNameRegexp = ".*", events = LoadEvent.REDEFINE)
-    public void invalidate(CtClass ctClass, Class<?> original) throws Exception {
+    public void invalidate(Class<?> original, byte[] bytes) throws Exception {
     	if (allRegisteredClasses.contains(original)) {  
     		scheduler.scheduleCommand(reloadJerseyContainers);
     	} else {
-    		// TODO: When a class is not annotated at startup, and is annotated during debug, it never gets found 
-    		// here.  Is this a DCEVM issue?  Also, the Jersey Container  does not find the newly annotated class
-    		// during a reload called from reloadJerseyContainers, so this seems like the annotation is not being
-    		// added
-            if (AnnotationHelper.hasAnnotation(original, "javax.ws.rs.Path")
-            		|| AnnotationHelper.hasAnnotation(ctClass, "javax.ws.rs.Path")) {
+    		// TODO: the Jersey Container does not find the newly annotated class during a reload called from
+    		// reloadJerseyContainers, so this seems like the annotation is not being added
+            if (AnnotationIndex.hasOrHadAnnotation(original, bytes, "javax.ws.rs.Path")) {
             	allRegisteredClasses.add(original);
             	scheduler.scheduleCommand(reloadJerseyContainers);            	
             }    		
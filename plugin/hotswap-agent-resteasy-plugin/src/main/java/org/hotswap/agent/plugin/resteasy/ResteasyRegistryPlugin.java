@@ -35,6 +35,7 @@ import org.hotswap.agent.javassist.bytecode.AccessFlag;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.logging.AgentLogger.Level;
 import org.hotswap.agent.util.AnnotationHelper;
+import org.hotswap.agent.util.AnnotationIndex;
 import org.hotswap.agent.util.PluginManagerInvoker;
 import org.hotswap.agent.util.ReflectionHelper;
 
@@ -48,12 +49,13 @@ import org.hotswap.agent.util.ReflectionHelper;
 @Plugin(name = "ResteasyRegistry", //
 		description = "Jboss RESTeasy Reload ResourceMethodRegistry if @Path annotated class is changed.", //
 		testedVersions = { "3.0.14.Final" }, //
-		expectedVersions = { "3.0.14" })
+		expectedVersions = { "3.0.14" }, //
+		indexedAnnotations = { ResteasyRegistryPlugin.PATH_ANNOTATION })
 public class ResteasyRegistryPlugin {
 
 	private static AgentLogger LOGGER = AgentLogger.getLogger(ResteasyRegistryPlugin.class);
 
-	private static final String PATH_ANNOTATION = "javax.ws.rs.Path";
+	static final String PATH_ANNOTATION = "javax.ws.rs.Path";
 
 	@Init
 	ClassLoader appClassLoader;
@@ -137,13 +139,12 @@ public class ResteasyRegistryPlugin {
 	}
 
 	@OnClassLoadEvent(classNameRegexp = ".*", events = LoadEvent.REDEFINE)
-	public void entityReload(ClassLoader classLoader, CtClass clazz, Class<?> original) {
-		if (AnnotationHelper.hasAnnotation(original, PATH_ANNOTATION)
-				|| AnnotationHelper.hasAnnotation(clazz, PATH_ANNOTATION)) {
+	public void entityReload(ClassLoader classLoader, Class<?> original, byte[] bytes) {
+		if (AnnotationIndex.hasOrHadAnnotation(original, bytes, PATH_ANNOTATION)) {
 			if(LOGGER.isLevelEnabled(Level.TRACE)) {
-				LOGGER.trace("Reload @Path annotated class {}", clazz.getName());
+				LOGGER.trace("Reload @Path annotated class {}", original.getName());
 			}
-			refreshClass(classLoader, clazz.getName(), original, 250);
+			refreshClass(classLoader, original.getName(), original, 250);
 		}
 	}
 